@@ -1,7 +1,9 @@
 package org.crayne.mi;
 
+import org.crayne.mi.bytecode.common.ByteCode;
 import org.crayne.mi.bytecode.common.ByteCodeInstruction;
 import org.crayne.mi.bytecode.writer.ByteCodeCompiler;
+import org.crayne.mi.bytecode.writer.OptimizationLevel;
 import org.crayne.mi.log.MessageHandler;
 import org.crayne.mi.parsing.ast.Node;
 import org.crayne.mi.parsing.lexer.Token;
@@ -44,19 +46,32 @@ public class Mi {
     }
 
     public List<ByteCodeInstruction> compile(@NotNull final String stdlib, @NotNull final String code) {
+        return compile(stdlib, code, OptimizationLevel.PEEPHOLE);
+    }
+
+    public List<ByteCodeInstruction> compile(@NotNull final String stdlib, @NotNull final String code, @NotNull final OptimizationLevel optimization) {
         final Optional<SyntaxTree> tree = parse(stdlib, code, null);
         if (tree.isEmpty()) return new ArrayList<>();
-        final ByteCodeCompiler compiler = new ByteCodeCompiler(tree.get());
+        final ByteCodeCompiler compiler = new ByteCodeCompiler(tree.get(), optimization);
         final List<ByteCodeInstruction> result = compiler.compile();
         //System.out.println(compiler);
         return result;
     }
 
     public void compile(@NotNull final String stdlib, @NotNull final String code, @NotNull final File file, @NotNull final File inputFile) {
+        compile(stdlib, code, file, inputFile, ByteCode.BYTECODE_VERSION);
+    }
+
+    public void compile(@NotNull final String stdlib, @NotNull final String code, @NotNull final File file, @NotNull final File inputFile, final byte version) {
+        compile(stdlib, code, file, inputFile, version, OptimizationLevel.PEEPHOLE);
+    }
+
+    public void compile(@NotNull final String stdlib, @NotNull final String code, @NotNull final File file, @NotNull final File inputFile, final byte version,
+                        @NotNull final OptimizationLevel optimization) {
         final Optional<SyntaxTree> tree = parse(stdlib, code, inputFile);
         if (tree.isPresent()) {
             try {
-                tree.get().compile(file);
+                tree.get().compile(file, version, optimization);
             } catch (Throwable e) {
                 tree.get().error("Error encountered when trying to compile: " + e.getClass().getSimpleName() + " " + e.getMessage());
                 e.printStackTrace();
@@ -1,10 +1,13 @@
 package org.crayne.mi;
 
 import org.apache.commons.lang3.StringUtils;
+import org.crayne.mi.bytecode.common.ByteCode;
 import org.crayne.mi.bytecode.common.ByteCodeInstruction;
 import org.crayne.mi.bytecode.communication.MiCommunicator;
+import org.crayne.mi.bytecode.reader.AotCompiler;
 import org.crayne.mi.bytecode.reader.ByteCodeInterpreter;
 import org.crayne.mi.bytecode.reader.ByteCodeReader;
+import org.crayne.mi.bytecode.writer.OptimizationLevel;
 import org.crayne.mi.log.MessageHandler;
 import org.crayne.mi.stdlib.MiStandardLib;
 import org.jetbrains.annotations.NotNull;
@@ -62,7 +65,7 @@ public class MiLang {
         return Optional.of(result);
     }
 
-    private static final Set<String> validArgs = new HashSet<>(Arrays.asList("file", "main"));
+    private static final Set<String> validArgs = new HashSet<>(Arrays.asList("file", "main", "validate", "version", "optimize"));
 
     public static Predicate<String> invalidArgument = arg -> !validArgs.contains(arg);
 
@@ -96,12 +99,12 @@ public class MiLang {
         final MessageHandler messageHandler = mi.messageHandler();
 
         if (args.length == 0) {
-            messageHandler.errorMsg("Expected either 'compile' or 'run' as first argument in args: " + Arrays.toString(args));
+            messageHandler.errorMsg("Expected either 'compile', 'run' or 'build' as first argument in args: " + Arrays.toString(args));
             return;
         }
         final String first = args[0];
-        if (!first.equals("compile") && !first.equals("run")) {
-            messageHandler.errorMsg("Expected either 'compile' or 'run' as first argument in args: " + Arrays.toString(args));
+        if (!first.equals("compile") && !first.equals("run") && !first.equals("build")) {
+            messageHandler.errorMsg("Expected either 'compile', 'run' or 'build' as first argument in args: " + Arrays.toString(args));
             return;
         }
         final boolean compile = first.equals("compile");
@@ -120,8 +123,21 @@ public class MiLang {
             if (code.isEmpty()) return;
 
             final File outputFile = new File(StringUtils.substringBeforeLast(inputFile.get(), ".") + ".mib");
-
-            mi.compile(MiStandardLib.standardLib(), code.get(), outputFile, new File(inputFile.get()));
+            final Optional<String> version = params.stream().filter(a -> a.key.equals("version")).map(Argument::value).findFirst();
+            if (version.isPresent() && !version.get().equals(String.valueOf(ByteCode.BYTECODE_VERSION_INLINE)) && !version.get().equals(String.valueOf(ByteCode.BYTECODE_VERSION_COMPACT))) {
+                messageHandler.errorMsg("Unknown bytecode version '" + version.get() + "', expected either " + ByteCode.BYTECODE_VERSION_INLINE + " or " + ByteCode.BYTECODE_VERSION_COMPACT);
+                return;
+            }
+            final Optional<String> optimize = params.stream().filter(a -> a.key.equals("optimize")).map(Argument::value).findFirst();
+            final Optional<OptimizationLevel> optimization = Arrays.stream(OptimizationLevel.values())
+                    .filter(level -> level.name().equalsIgnoreCase(optimize.orElse(OptimizationLevel.PEEPHOLE.name())))
+                    .findFirst();
+            if (optimization.isEmpty()) {
+                messageHandler.errorMsg("Unknown optimization level '" + optimize.get() + "', expected either none, peephole or ssa");
+                return;
+            }
+            mi.compile(MiStandardLib.standardLib(), code.get(), outputFile, new File(inputFile.get()),
+                    version.map(Byte::parseByte).orElse(ByteCode.BYTECODE_VERSION), optimization.get());
             return;
         }
         final Optional<String> omainFunc = findKeyvalueOrElse("main", messageHandler,
@@ -129,8 +145,20 @@ public class MiLang {
         if (omainFunc.isEmpty()) return;
 
         final String mainFunc = omainFunc.get();
+        if (first.equals("build")) {
+            final File outputFile = new File(StringUtils.substringBeforeLast(inputFile.get(), ".") + ".jar");
+            try {
+                AotCompiler.compile(Files.readAllBytes(new File(inputFile.get()).toPath()), mainFunc, outputFile, messageHandler);
+            } catch (final IOException e) {
+                messageHandler.errorMsg("Could not build jar: " + e.getClass().getSimpleName() + " " + e.getMessage());
+            } catch (final Throwable e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        final boolean validate = params.stream().anyMatch(a -> a.key.equals("validate") && Boolean.parseBoolean(a.value));
         try {
-            final List<ByteCodeInstruction> instrs = ByteCodeReader.read(new File(inputFile.get()), messageHandler);
+            final List<ByteCodeInstruction> instrs = ByteCodeReader.read(new File(inputFile.get()), messageHandler, validate);
             final ByteCodeInterpreter interpreter = new ByteCodeInterpreter(instrs, messageHandler);
             final MiCommunicator c = interpreter.newCommunicator();
             c.invoke(mainFunc);
@@ -17,11 +17,75 @@ public enum ByteCode {
     PROGRAM_HEADER((byte) 0x01),
     JUMP((byte) 0x03),
     JUMP_IF((byte) 0x04),
+    JUMP_IF_NOT((byte) 0x05),
+
+    // fused compare-and-jump instructions. they pop two values, compare them the same way the operator of the same name does
+    // and jump if the result is true (or false for the JUMP_IF_NOT_ ones), so a condition needs a single instruction
+    JUMP_IF_EQUALS((byte) 0x10),
+    JUMP_IF_NOT_EQUALS((byte) 0x11),
+    JUMP_IF_LESS_THAN((byte) 0x12),
+    JUMP_IF_NOT_LESS_THAN((byte) 0x13),
+    JUMP_IF_GREATER_THAN((byte) 0x14),
+    JUMP_IF_NOT_GREATER_THAN((byte) 0x15),
+    JUMP_IF_LESS_THAN_OR_EQUAL((byte) 0x16),
+    JUMP_IF_NOT_LESS_THAN_OR_EQUAL((byte) 0x17),
+    JUMP_IF_GREATER_THAN_OR_EQUAL((byte) 0x18),
+    JUMP_IF_NOT_GREATER_THAN_OR_EQUAL((byte) 0x19),
+
     PUSH((byte) 0x07),
     POP((byte) 0x08),
 
     VALUE_AT_RELATIVE_ADDRESS((byte) 0x09),
 
+    // type-specialized operators, picked by the compiler when it knows that both operands are of the same type (after widening either of them).
+    // they work exactly like the generic operator of the same name, except that they do not have to find the type of the result first.
+    // the high nibble of the code of a typed operator is the code of its datatype (0x2_ int, 0x3_ long, 0x4_ float, 0x5_ double, 0x6_ string),
+    // the low nibble is the index of the generic operator in typedOperators
+    INT_PLUS((byte) 0x20),
+    INT_MINUS((byte) 0x21),
+    INT_MULTIPLY((byte) 0x22),
+    INT_DIVIDE((byte) 0x23),
+    INT_MODULO((byte) 0x24),
+    INT_EQUALS((byte) 0x25),
+    INT_LESS_THAN((byte) 0x26),
+    INT_GREATER_THAN((byte) 0x27),
+    INT_LESS_THAN_OR_EQUAL((byte) 0x28),
+    INT_GREATER_THAN_OR_EQUAL((byte) 0x29),
+
+    LONG_PLUS((byte) 0x30),
+    LONG_MINUS((byte) 0x31),
+    LONG_MULTIPLY((byte) 0x32),
+    LONG_DIVIDE((byte) 0x33),
+    LONG_MODULO((byte) 0x34),
+    LONG_EQUALS((byte) 0x35),
+    LONG_LESS_THAN((byte) 0x36),
+    LONG_GREATER_THAN((byte) 0x37),
+    LONG_LESS_THAN_OR_EQUAL((byte) 0x38),
+    LONG_GREATER_THAN_OR_EQUAL((byte) 0x39),
+
+    FLOAT_PLUS((byte) 0x40),
+    FLOAT_MINUS((byte) 0x41),
+    FLOAT_MULTIPLY((byte) 0x42),
+    FLOAT_DIVIDE((byte) 0x43),
+    FLOAT_MODULO((byte) 0x44),
+    FLOAT_EQUALS((byte) 0x45),
+    FLOAT_LESS_THAN((byte) 0x46),
+    FLOAT_GREATER_THAN((byte) 0x47),
+    FLOAT_LESS_THAN_OR_EQUAL((byte) 0x48),
+    FLOAT_GREATER_THAN_OR_EQUAL((byte) 0x49),
+
+    DOUBLE_PLUS((byte) 0x50),
+    DOUBLE_MINUS((byte) 0x51),
+    DOUBLE_MULTIPLY((byte) 0x52),
+    DOUBLE_DIVIDE((byte) 0x53),
+    DOUBLE_MODULO((byte) 0x54),
+    DOUBLE_EQUALS((byte) 0x55),
+    DOUBLE_LESS_THAN((byte) 0x56),
+    DOUBLE_GREATER_THAN((byte) 0x57),
+    DOUBLE_LESS_THAN_OR_EQUAL((byte) 0x58),
+    DOUBLE_GREATER_THAN_OR_EQUAL((byte) 0x59),
+    STRING_CONCAT((byte) 0x60),
+
     // NOT operates on the current top of the stack.
     // a similar approach is taken for more miscellaneous operators like RELATIVE_TO_ABSOLUTE_ADDRESS as for the NOT operator.
     // the rest (plus, minus, etc) pop the top of the stack and use it as the 'y' value for the operator.
@@ -81,7 +145,17 @@ public enum ByteCode {
 
     RELATIVE_TO_ABSOLUTE_ADDRESS((byte) 0xD6);
 
-    public static final byte BYTECODE_VERSION = 1;
+    // the generic operators that have a type-specialized version, in the order of their codes
+    public static final List<ByteCode> typedOperators = List.of(PLUS, MINUS, MULTIPLY, DIVIDE, MODULO, EQUALS, LESS_THAN, GREATER_THAN, LESS_THAN_OR_EQUAL, GREATER_THAN_OR_EQUAL);
+
+    // the inline format, where every instruction is followed by INSTRUCT_FINISH. instructions are always held in this format in memory
+    public static final byte BYTECODE_VERSION_INLINE = 1;
+
+    // the compact format, with a string pool, varint operands and a section table. only used for .mib files
+    public static final byte BYTECODE_VERSION_COMPACT = 2;
+
+    // the newest version that can be read
+    public static final byte BYTECODE_VERSION = BYTECODE_VERSION_COMPACT;
 
     private final byte code;
 
@@ -98,7 +172,34 @@ public enum ByteCode {
     }
 
     public static Optional<ByteCode> of(final byte code) {
-        return Arrays.stream(values()).filter(b -> b.code == code).findFirst();
+        return Optional.ofNullable(decode(code));
+    }
+
+    // every possible byte maps directly to its bytecode, or null if there is none
+    private static final ByteCode[] decodeTable = new ByteCode[256];
+
+    static {
+        for (final ByteCode code : values()) decodeTable[Byte.toUnsignedInt(code.code)] = code;
+    }
+
+    // the operator specialized for two operands of the given type, if there is one
+    public static Optional<ByteCode> typed(@NotNull final ByteCode operator, @NotNull final ByteDatatype type) {
+        if (type.code() == ByteDatatype.STRING.code()) return operator == PLUS ? Optional.of(STRING_CONCAT) : Optional.empty();
+
+        final int index = typedOperators.indexOf(operator);
+        final byte datatype = type.code();
+        if (index == -1 || datatype < ByteDatatype.INT.code() || datatype > ByteDatatype.DOUBLE.code()) return Optional.empty();
+        return of((byte) ((datatype << 4) + index));
+    }
+
+    // whether the code is one of the type-specialized operators, which have no arguments
+    public static boolean typedOperator(@NotNull final ByteCode code) {
+        final int c = Byte.toUnsignedInt(code.code);
+        return c >= 0x20 && c <= 0x5F && (c & 0x0F) < typedOperators.size() || code == STRING_CONCAT;
+    }
+
+    public static ByteCode decode(final byte code) {
+        return decodeTable[Byte.toUnsignedInt(code)];
     }
 
     public static byte[] longToBytes(final long l) {
@@ -350,7 +451,7 @@ public enum ByteCode {
 
     public static ByteCodeInstruction header() {
         return new ByteCodeInstruction(
-                PROGRAM_HEADER.code, (byte) 0x00, (byte) 0x6D, (byte) 0x00, (byte) 0x75, BYTECODE_VERSION
+                PROGRAM_HEADER.code, (byte) 0x00, (byte) 0x6D, (byte) 0x00, (byte) 0x75, BYTECODE_VERSION_INLINE
         );
     }
 
@@ -361,6 +462,13 @@ public enum ByteCode {
         }});
     }
 
+    public static ByteCodeInstruction jumpIfNot(final int to) {
+        return new ByteCodeInstruction(new ArrayList<>() {{
+            this.add(JUMP_IF_NOT.code);
+            this.addAll(List.of(ArrayUtils.toObject(intToBytes(to))));
+        }});
+    }
+
     public static ByteCodeInstruction push(@NotNull final Byte... value) {
         return new ByteCodeInstruction(new ArrayList<>() {{
             this.add(PUSH.code);
@@ -375,4 +483,12 @@ public enum ByteCode {
         }});
     }
 
+    // any jump instruction, conditional or not
+    public static ByteCodeInstruction jump(@NotNull final ByteCode jump, final int to) {
+        return new ByteCodeInstruction(new ArrayList<>() {{
+            this.add(jump.code);
+            this.addAll(List.of(ArrayUtils.toObject(intToBytes(to))));
+        }});
+    }
+
 }
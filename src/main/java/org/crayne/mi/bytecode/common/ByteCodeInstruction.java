@@ -9,34 +9,61 @@ import java.util.*;
 
 public class ByteCodeInstruction {
 
-    private final Byte[] codes;
+    // the encoded instruction, including the trailing INSTRUCT_FINISH
+    private final byte[] codes;
 
     public ByteCodeInstruction(@NotNull final Collection<Byte> codes) {
         if (codes.isEmpty()) throw new IllegalArgumentException("Expected bytecode values for instruction, received empty array");
 
-        final List<Byte> codeList = new ArrayList<>(codes);
-        codeList.add(ByteCode.INSTRUCT_FINISH.code());
-        this.codes = codeList.toArray(new Byte[0]);
+        this.codes = new byte[codes.size() + 1];
+        int i = 0;
+        for (final Byte code : codes) this.codes[i++] = code;
+        this.codes[i] = ByteCode.INSTRUCT_FINISH.code();
     }
 
     public ByteCodeInstruction(@NotNull final Byte... codes) {
-        if (codes.length == 0) throw new IllegalArgumentException("Expected bytecode values for instruction, received empty array");
+        this(Arrays.asList(codes));
+    }
+
+    private ByteCodeInstruction(final byte[] encoded) {
+        this.codes = encoded;
+    }
+
+    // wraps an already encoded instruction (ending with INSTRUCT_FINISH) without copying it, as done by the ByteCodeReader
+    public static ByteCodeInstruction ofEncoded(final byte @NotNull [] encoded) {
+        if (encoded.length < 2 || encoded[encoded.length - 1] != ByteCode.INSTRUCT_FINISH.code())
+            throw new IllegalArgumentException("Expected an encoded bytecode instruction ending with " + ByteCode.INSTRUCT_FINISH);
 
-        final List<Byte> codeList = new ArrayList<>(List.of(codes.clone()));
-        codeList.add(ByteCode.INSTRUCT_FINISH.code());
-        this.codes = codeList.toArray(new Byte[0]);
+        return new ByteCodeInstruction(encoded);
     }
 
     public Optional<ByteCode> type() {
         return ByteCode.of(codes[0]);
     }
 
-    public Byte[] codes() {
+    public byte opcode() {
+        return codes[0];
+    }
+
+    public int length() {
+        return codes.length;
+    }
+
+    public byte at(final int index) {
+        return codes[index];
+    }
+
+    // the raw encoded instruction. callers must not modify the returned array
+    public byte[] bytes() {
         return codes;
     }
 
+    public Byte[] codes() {
+        return ArrayUtils.toObject(codes);
+    }
+
     public static String write(@NotNull final ByteCodeInstruction instr) {
-        return new String(ArrayUtils.toPrimitive(instr.codes), StandardCharsets.ISO_8859_1);
+        return new String(instr.codes, StandardCharsets.ISO_8859_1);
     }
 
     public String write() {
@@ -58,7 +85,7 @@ public class ByteCodeInstruction {
         if (codes.length == 2) return type.get().name().toLowerCase() + " ;";
 
         return type.get().name().toLowerCase() + " " + String.join(" ",
-                Arrays.stream(codes)
+                Arrays.stream(codes())
                         .toList()
                         .subList(1, codes.length - 1)
                         .stream()
@@ -0,0 +1,26 @@
+package org.crayne.mi.bytecode.common;
+
+// kinds of instruction runs listed in the section table of the compact bytecode format
+public enum ByteCodeSection {
+
+    GLOBALS((byte) 0x00),
+    ENUMS((byte) 0x01),
+    FUNCTIONS((byte) 0x02),
+    CODE((byte) 0x03);
+
+    private final byte code;
+
+    ByteCodeSection(final byte code) {
+        this.code = code;
+    }
+
+    public byte code() {
+        return code;
+    }
+
+    public static ByteCodeSection of(final byte code) {
+        for (final ByteCodeSection section : values()) if (section.code == code) return section;
+        throw new ByteCodeException("Unknown bytecode section " + String.format("%02x", code));
+    }
+
+}
@@ -3,31 +3,56 @@ package org.crayne.mi.bytecode.communication;
 import org.apache.commons.lang3.StringUtils;
 import org.crayne.mi.bytecode.common.ByteDatatype;
 import org.crayne.mi.bytecode.reader.ByteCodeInterpreter;
+import org.crayne.mi.bytecode.reader.ByteCodeProgram;
 import org.crayne.mi.bytecode.reader.ByteCodeValue;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Arrays;
 import java.util.Optional;
 
+// invoke may be called from any amount of threads at once. every thread runs the shared program on an interpreter of its own,
+// so global variables changed by a function are only seen by later calls on the same thread
 public class MiCommunicator {
 
-    private final ByteCodeInterpreter runtime;
+    private final ByteCodeProgram program;
+    private final ThreadLocal<ByteCodeInterpreter> runtimes;
 
+    // the calling thread keeps using the given interpreter, other threads get new ones for the same program
     public MiCommunicator(@NotNull final ByteCodeInterpreter runtime) {
-        this.runtime = runtime;
-        this.runtime.prepare();
+        runtime.prepare();
+        this.program = runtime.program().orElseThrow(() -> new MiExecutionException("Could not prepare the Mi program, see the error output above"));
+        this.runtimes = ThreadLocal.withInitial(program::newInterpreter);
+        this.runtimes.set(runtime);
+    }
+
+    public MiCommunicator(@NotNull final ByteCodeProgram program) {
+        this.program = program;
+        this.runtimes = ThreadLocal.withInitial(program::newInterpreter);
     }
 
     public static MiCommunicator of(@NotNull final ByteCodeInterpreter runtime) {
         return new MiCommunicator(runtime);
     }
 
+    public static MiCommunicator of(@NotNull final ByteCodeProgram program) {
+        return new MiCommunicator(program);
+    }
+
+    public ByteCodeProgram program() {
+        return program;
+    }
+
+    // the interpreter used by the calling thread
+    public ByteCodeInterpreter runtime() {
+        return runtimes.get();
+    }
+
     public Value value(@NotNull final Type type, @NotNull final Object obj) {
-        return Value.of(type, obj, runtime);
+        return Value.of(type, obj, runtime());
     }
 
     public Value value(@NotNull final Object obj) {
-        return Value.of(obj, runtime);
+        return Value.of(obj, runtime());
     }
 
     public Type type(@NotNull final String typename) {
@@ -35,6 +60,10 @@ public class MiCommunicator {
     }
 
     public Optional<Value> invoke(@NotNull final String module, @NotNull final String func, @NotNull final Value... params) {
+        return invoke(runtime(), module, func, params);
+    }
+
+    protected static Optional<Value> invoke(@NotNull final ByteCodeInterpreter runtime, @NotNull final String module, @NotNull final String func, @NotNull final Value... params) {
         final Optional<ByteCodeValue> res = runtime.execute(module, func, Arrays.stream(params).map(Value::byteCodeValue).toList());
         if (res.isPresent() && res.get().type().code() == ByteDatatype.ENUM.code())
             throw new MiExecutionException("Enum values are not supported as return values");
@@ -50,11 +79,28 @@ public class MiCommunicator {
         return invoke(fullFuncName, Arrays.stream(params).map(this::value).toList().toArray(new Value[0]));
     }
 
-    private static String moduleOf(@NotNull final String identifier) {
+    // resolves the function once, so that the returned handle can be invoked any amount of times without looking it up again
+    public MiFunction lookup(@NotNull final String fullFuncName, @NotNull final Type... paramTypes) {
+        return new MiFunction(program, runtimes::get, fullFuncName, paramTypes);
+    }
+
+    public MiFunction lookup(@NotNull final String fullFuncName) {
+        return lookup(fullFuncName, new Type[0]);
+    }
+
+    public MiFunction lookup(@NotNull final String fullFuncName, @NotNull final Class<?>... paramTypes) {
+        return lookup(fullFuncName, Arrays.stream(paramTypes).map(Type::of).toArray(Type[]::new));
+    }
+
+    public MiFunction lookup(@NotNull final String module, @NotNull final String func, @NotNull final Type... paramTypes) {
+        return lookup(module.isEmpty() ? func : module + "." + func, paramTypes);
+    }
+
+    protected static String moduleOf(@NotNull final String identifier) {
         return identifier.contains(".") ? StringUtils.substringBeforeLast(identifier, ".") : "";
     }
 
-    private static String identOf(@NotNull final String identifier) {
+    protected static String identOf(@NotNull final String identifier) {
         return identifier.contains(".") ? StringUtils.substringAfterLast(identifier, ".") : identifier;
     }
 
@@ -0,0 +1,124 @@
+package org.crayne.mi.bytecode.communication;
+
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.reader.ByteCodeInterpreter;
+import org.crayne.mi.bytecode.reader.ByteCodeProgram;
+import org.crayne.mi.bytecode.reader.ByteCodeValue;
+import org.crayne.mi.bytecode.reader.function.ByteCodeInternFunction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// a function of a prepared program, looked up once. the function id, its entry label and the conversion of every parameter
+// are resolved when the handle is created, so invoking it goes straight to the interpreter without any name resolution.
+// a handle may be shared between threads, every invocation runs on the interpreter of the calling thread
+public class MiFunction {
+
+    private final ByteCodeProgram program;
+    private final Supplier<ByteCodeInterpreter> runtimes;
+    private final String name;
+    private final int functionId;
+    private final ByteCodeInternFunction function;
+    private final Type[] paramTypes;
+    private final Function<Object, ByteCodeValue>[] converters;
+
+    @SuppressWarnings("unchecked")
+    protected MiFunction(@NotNull final ByteCodeProgram program, @NotNull final Supplier<ByteCodeInterpreter> runtimes,
+                         @NotNull final String name, @NotNull final Type... paramTypes) {
+        this.program = program;
+        this.runtimes = runtimes;
+        this.name = name;
+        this.paramTypes = paramTypes.clone();
+        this.functionId = program.functionId(name, Arrays.stream(paramTypes).map(Type::byteDatatype).toList())
+                .orElseThrow(() -> new MiExecutionException("Could not find the Mi function '" + name + "' with parameters " + Arrays.toString(paramTypes)));
+        this.function = program.internFunction(functionId)
+                .orElseThrow(() -> new MiExecutionException("The function to execute should be an intern function"));
+
+        this.converters = new Function[paramTypes.length];
+        for (int i = 0; i < paramTypes.length; i++) converters[i] = converter(paramTypes[i]);
+    }
+
+    private static Function<Object, ByteCodeValue> converter(@NotNull final Type type) {
+        final ByteDatatype datatype = type.byteDatatype();
+        final String javaType = type.javaType();
+        // resolved once here, so that every invocation only compares the class of the argument
+        final Class<?> expected = type.javaClass();
+        final Function<Object, ByteCodeValue> convert = switch (javaType) {
+            case "java.lang.Integer" -> obj -> ByteCodeValue.intValue((int) obj);
+            case "java.lang.Double" -> obj -> ByteCodeValue.doubleValue((double) obj);
+            case "java.lang.Float" -> obj -> ByteCodeValue.floatValue((float) obj);
+            case "java.lang.Character" -> obj -> ByteCodeValue.charValue((char) obj);
+            case "java.lang.Boolean" -> obj -> ByteCodeValue.boolValue((boolean) obj);
+            case "java.lang.String" -> obj -> ByteCodeValue.stringValue((String) obj);
+            // enum values are passed as their ordinal
+            default -> datatype.code() == ByteDatatype.ENUM.code()
+                    ? obj -> new ByteCodeValue(datatype, (long) obj, null)
+                    : obj -> ByteCodeValue.longValue((long) obj);
+        };
+        return obj -> {
+            if (obj == null || obj.getClass() != expected)
+                throw new MiExecutionException("Given object " + obj + " does not match the specified type " + type + " (expected " + javaType + ")");
+
+            return convert.apply(obj);
+        };
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int functionId() {
+        return functionId;
+    }
+
+    public int entryLabel() {
+        return function.label();
+    }
+
+    public Type[] paramTypes() {
+        return paramTypes.clone();
+    }
+
+    public int arity() {
+        return converters.length;
+    }
+
+    // invokes the function on the interpreter of the calling thread
+    public Optional<Value> invoke(@NotNull final Object... params) {
+        return invoke(runtimes.get(), params);
+    }
+
+    // invokes the function on the given interpreter, which has to run the same program the function was looked up in
+    public Optional<Value> invoke(@NotNull final ByteCodeInterpreter runtime, @NotNull final Object... params) {
+        if (runtime.program().orElse(null) != program)
+            throw new MiExecutionException("The Mi function '" + name + "' was looked up in a different program than the one the interpreter runs");
+
+        if (params.length != converters.length)
+            throw new MiExecutionException("Expected " + converters.length + " arguments for the Mi function '" + name + "', got " + params.length);
+
+        final ByteCodeValue[] values = new ByteCodeValue[params.length];
+        for (int i = 0; i < params.length; i++) values[i] = converters[i].apply(params[i]);
+        return result(runtime, runtime.execute(function, values));
+    }
+
+    private static Optional<Value> result(@NotNull final ByteCodeInterpreter runtime, @NotNull final Optional<ByteCodeValue> res) {
+        if (res.isPresent() && res.get().type().code() == ByteDatatype.ENUM.code())
+            throw new MiExecutionException("Enum values are not supported as return values");
+
+        return res.isEmpty() ? Optional.empty() : Optional.of(new Value(res.get(), runtime));
+    }
+
+    @Override
+    public String toString() {
+        return "MiFunction{" +
+                "name=" + name +
+                ", params=" + Arrays.toString(paramTypes) +
+                ", functionId=" + functionId +
+                ", entryLabel=" + entryLabel() +
+                '}';
+    }
+
+}
@@ -0,0 +1,150 @@
+package org.crayne.mi.bytecode.communication;
+
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.reader.ByteCodeInterpreter;
+import org.crayne.mi.bytecode.reader.ByteCodeProgram;
+import org.crayne.mi.log.MessageHandler;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// a fixed amount of warm interpreters for one prepared program. an interpreter is checked out for as long as it is needed
+// and reset to the initial state of the program (global variables included) when it is given back
+public class MiInterpreterPool {
+
+    private final ByteCodeProgram program;
+    private final int size;
+    private final BlockingQueue<ByteCodeInterpreter> idle;
+
+    private final LongAdder checkouts = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    public record Metrics(int size, int idle, int inUse, long checkouts, long waits, long rejections, long totalWaitNanos) {}
+
+    public MiInterpreterPool(@NotNull final ByteCodeProgram program, final int size, final int maxCallDepth) {
+        if (size < 1) throw new IllegalArgumentException("Expected a pool size of at least 1, got " + size);
+        this.program = program;
+        this.size = size;
+        this.idle = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) idle.add(program.newInterpreter(maxCallDepth));
+    }
+
+    public MiInterpreterPool(@NotNull final ByteCodeProgram program, final int size) {
+        this(program, size, ByteCodeInterpreter.DEFAULT_MAX_CALL_DEPTH);
+    }
+
+    public static MiInterpreterPool of(@NotNull final List<ByteCodeInstruction> program, @NotNull final MessageHandler messageHandler, final int size) {
+        return new MiInterpreterPool(ByteCodeProgram.prepare(program, messageHandler), size);
+    }
+
+    public ByteCodeProgram program() {
+        return program;
+    }
+
+    // waits until an interpreter is available
+    public Lease checkout() throws InterruptedException {
+        ByteCodeInterpreter runtime = idle.poll();
+        if (runtime == null) {
+            waits.increment();
+            final long begin = System.nanoTime();
+            runtime = idle.take();
+            waitNanos.add(System.nanoTime() - begin);
+        }
+        checkouts.increment();
+        return new Lease(runtime);
+    }
+
+    // waits at most the given time for an interpreter to become available
+    public Optional<Lease> tryCheckout(final long timeout, @NotNull final TimeUnit unit) throws InterruptedException {
+        ByteCodeInterpreter runtime = idle.poll();
+        if (runtime == null) {
+            waits.increment();
+            final long begin = System.nanoTime();
+            runtime = idle.poll(timeout, unit);
+            waitNanos.add(System.nanoTime() - begin);
+        }
+        return lease(runtime);
+    }
+
+    // returns immediately, empty if every interpreter is in use
+    public Optional<Lease> tryCheckout() {
+        return lease(idle.poll());
+    }
+
+    private Optional<Lease> lease(final ByteCodeInterpreter runtime) {
+        if (runtime == null) {
+            rejections.increment();
+            return Optional.empty();
+        }
+        checkouts.increment();
+        return Optional.of(new Lease(runtime));
+    }
+
+    // checks out an interpreter, invokes the function and gives the interpreter back
+    public Optional<Value> invoke(@NotNull final String fullFuncName, @NotNull final Object... params) throws InterruptedException {
+        try (final Lease lease = checkout()) {
+            return lease.invoke(fullFuncName, params);
+        }
+    }
+
+    public Metrics metrics() {
+        final int idleNow = idle.size();
+        return new Metrics(size, idleNow, size - idleNow, checkouts.sum(), waits.sum(), rejections.sum(), waitNanos.sum());
+    }
+
+    public class Lease implements AutoCloseable {
+
+        private final ByteCodeInterpreter runtime;
+        private final AtomicBoolean returned = new AtomicBoolean();
+
+        private Lease(@NotNull final ByteCodeInterpreter runtime) {
+            this.runtime = runtime;
+        }
+
+        public ByteCodeInterpreter runtime() {
+            checkOpen();
+            return runtime;
+        }
+
+        public Value value(@NotNull final Object obj) {
+            return Value.of(obj, runtime());
+        }
+
+        public Optional<Value> invoke(@NotNull final String module, @NotNull final String func, @NotNull final Value... params) {
+            return MiCommunicator.invoke(runtime(), module, func, params);
+        }
+
+        public Optional<Value> invoke(@NotNull final String fullFuncName, @NotNull final Value... params) {
+            return invoke(MiCommunicator.moduleOf(fullFuncName), MiCommunicator.identOf(fullFuncName), params);
+        }
+
+        public Optional<Value> invoke(@NotNull final String fullFuncName, @NotNull final Object... params) {
+            return invoke(fullFuncName, Arrays.stream(params).map(this::value).toList().toArray(new Value[0]));
+        }
+
+        private void checkOpen() {
+            if (returned.get()) throw new MiExecutionException("This interpreter has already been given back to its pool");
+        }
+
+        // resets the interpreter and gives it back to the pool. closing a lease more than once does nothing
+        public void close() {
+            if (!returned.compareAndSet(false, true)) return;
+            try {
+                runtime.reset();
+            } finally {
+                idle.add(runtime);
+            }
+        }
+
+    }
+
+}
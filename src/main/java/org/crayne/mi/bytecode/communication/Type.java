@@ -57,6 +57,19 @@ public class Type {
         };
     }
 
+    protected Class<?> javaClass() {
+        return switch (type.name()) {
+            case "double" -> Double.class;
+            case "float" -> Float.class;
+            case "long" -> Long.class;
+            case "char" -> Character.class;
+            case "bool" -> Boolean.class;
+            case "string" -> String.class;
+            case "int" -> Integer.class;
+            default -> Long.class; // enum ids are of type long
+        };
+    }
+
     public String toString() {
         return typename();
     }
@@ -27,13 +27,13 @@ public class Value {
         if (!objType.equals(type.javaType())) throw new MiExecutionException("Given object type " + objType + " and specified type " + type + " differ");
 
         return new Value(switch (objType) {
-            case "java.lang.Integer" -> ByteCodeValue.intValue((int) obj, runtime);
-            case "java.lang.Double" -> ByteCodeValue.doubleValue((double) obj, runtime);
-            case "java.lang.Long" -> ByteCodeValue.longValue((long) obj, runtime);
-            case "java.lang.Float" -> ByteCodeValue.floatValue((float) obj, runtime);
-            case "java.lang.Character" -> ByteCodeValue.charValue((char) obj, runtime);
-            case "java.lang.Boolean" -> ByteCodeValue.boolValue((boolean) obj, runtime);
-            case "java.lang.String" -> ByteCodeValue.stringValue((String) obj, runtime);
+            case "java.lang.Integer" -> ByteCodeValue.intValue((int) obj);
+            case "java.lang.Double" -> ByteCodeValue.doubleValue((double) obj);
+            case "java.lang.Long" -> ByteCodeValue.longValue((long) obj);
+            case "java.lang.Float" -> ByteCodeValue.floatValue((float) obj);
+            case "java.lang.Character" -> ByteCodeValue.charValue((char) obj);
+            case "java.lang.Boolean" -> ByteCodeValue.boolValue((boolean) obj);
+            case "java.lang.String" -> ByteCodeValue.stringValue((String) obj);
             default -> throw new MiExecutionException("Could not generate value for " + type.byteDatatype().name() + " " + obj);
         }, type, runtime);
     }
@@ -51,7 +51,8 @@ public class Value {
     }
 
     public ByteCodeValue byteCodeValue() {
-        return new ByteCodeValue(type.byteDatatype(), value.value(), runtime);
+        if (value.type() == type.byteDatatype()) return value;
+        return new ByteCodeValue(type.byteDatatype(), value.bits(), value.ref());
     }
 
     @Override
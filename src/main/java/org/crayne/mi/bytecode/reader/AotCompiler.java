@@ -0,0 +1,141 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.apache.commons.lang3.StringUtils;
+import org.crayne.mi.bytecode.communication.MiExecutionException;
+import org.crayne.mi.bytecode.reader.function.ByteCodeInternFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeRuntimeFunction;
+import org.crayne.mi.log.MessageHandler;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+// compiles every function of a program to jvm code ahead of time and packs it into a runnable jar (see MiLang build and AotProgram).
+// every module becomes a class with a static method per function, which call each other and native methods directly.
+// the jar also contains the program itself, which still provides the constants and global variables, and runs the functions
+// that have no jvm code (see JitCompiler) in the interpreter
+public final class AotCompiler {
+
+    static final String PROGRAM_RESOURCE = "META-INF/mi/program.mib";
+    static final String MAIN_RESOURCE = "META-INF/mi/main";
+    // one line per compiled function: its id, the binary name of its class, the name of its method and the type codes of its parameters
+    static final String FUNCTIONS_RESOURCE = "META-INF/mi/functions";
+
+    // the classes are in this package, so that they can use the package private parts of the jit runtime
+    private static final String PACKAGE = "org/crayne/mi/bytecode/reader/";
+
+    private AotCompiler() {}
+
+    // compiles the given .mib binary into a jar, which runs mainFunction (module.function, without parameters) when it is started
+    public static void compile(final byte @NotNull [] bytecode, @NotNull final String mainFunction, @NotNull final File output,
+                               @NotNull final MessageHandler messageHandler) throws IOException {
+        final ByteCodeProgram program = ByteCodeProgram.prepare(ByteCodeReader.read(ByteBuffer.wrap(bytecode), messageHandler), messageHandler);
+        if (program.functionId(mainFunction, List.of()).isEmpty()) throw new MiExecutionException("Could not find the Mi function '" + mainFunction + "'");
+
+        final ByteCodeRuntimeFunction[] functions = program.functions();
+        final JitCompiler[] compilers = new JitCompiler[functions.length];
+        final Map<String, ClassFileWriter> modules = new LinkedHashMap<>();
+        final Set<String> methods = new HashSet<>();
+
+        // the functions that cannot be translated are left out first, so that no call to them is typed as a direct one
+        final boolean[] translatable = new boolean[functions.length];
+        for (int id = 0; id < functions.length; id++) {
+            final RegisterFunction registerCode = program.registerProgram().function(id);
+            if (registerCode == null) continue;
+            try {
+                new JitCompiler(program, registerCode, new ClassFileWriter(PACKAGE + "MiModule"), PACKAGE + "MiModule", "fast", "call", i -> null, true).inferTypes();
+                translatable[id] = true;
+            } catch (final JitCompiler.Untranslatable e) {
+                translatable[id] = false;
+            }
+        }
+        for (int id = 0; id < functions.length; id++) {
+            if (!translatable[id]) continue;
+            final String name = name(program, (ByteCodeInternFunction) functions[id]);
+            final String className = PACKAGE + "MiModule$" + StringUtils.substringBeforeLast(name, ".").replace('.', '$');
+            final String function = StringUtils.substringAfterLast(name, ".");
+            final String method = methods.add(className + "." + function) ? function : function + "$" + id; // overloads get the id of the function
+            final ClassFileWriter writer = modules.computeIfAbsent(className, ClassFileWriter::new);
+            compilers[id] = new JitCompiler(program, program.registerProgram().function(id), writer, className, method, method + "$call", i -> compilers[i], true);
+        }
+
+        // the return types of the functions decide the types of the direct calls to them, so the types are inferred for all of them together
+        inferTypes(compilers);
+        for (final JitCompiler compiler : compilers) if (compiler != null) compiler.settleReturnType();
+        inferTypes(compilers);
+        final StringBuilder index = new StringBuilder();
+        for (final JitCompiler compiler : compilers) {
+            if (compiler == null) continue;
+            compiler.settleTypes();
+            compiler.write();
+            index.append(compiler.function().id()).append(' ').append(compiler.className().replace('/', '.')).append(' ').append(compiler.fastName());
+            for (final byte code : compiler.parameterCodes()) index.append(' ').append(code);
+            index.append('\n');
+        }
+
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, AotProgram.class.getName());
+        classPath(output).ifPresent(classPath -> manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classPath));
+        try (final JarOutputStream jar = new JarOutputStream(new FileOutputStream(output), manifest)) {
+            for (final Map.Entry<String, ClassFileWriter> module : modules.entrySet()) write(jar, module.getKey() + ".class", module.getValue().toByteArray());
+            write(jar, PROGRAM_RESOURCE, bytecode);
+            write(jar, MAIN_RESOURCE, mainFunction.getBytes(StandardCharsets.UTF_8));
+            write(jar, FUNCTIONS_RESOURCE, index.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void inferTypes(@NotNull final JitCompiler[] compilers) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final JitCompiler compiler : compilers) if (compiler != null) changed |= compiler.inferTypes();
+        }
+    }
+
+    // module.function, from the signature of the function definition (see ByteCodeInterpreter.evalInternFunc)
+    private static String name(@NotNull final ByteCodeProgram program, @NotNull final ByteCodeInternFunction function) {
+        final String signature = program.code().strings()[program.code().operands()[function.label()]];
+        return StringUtils.substringBefore(StringUtils.removeStart(signature, "!PARENT."), "[");
+    }
+
+    private static void write(@NotNull final JarOutputStream jar, @NotNull final String name, final byte @NotNull [] contents) throws IOException {
+        jar.putNextEntry(new JarEntry(name));
+        jar.write(contents);
+        jar.closeEntry();
+    }
+
+    // where the jar finds mi itself when it is started with java -jar: the jar (or class directory) this compiler was loaded from,
+    // relative to the jar. without it, mi has to be put on the class path by hand
+    private static Optional<String> classPath(@NotNull final File output) {
+        try {
+            final CodeSource source = AotCompiler.class.getProtectionDomain().getCodeSource();
+            if (source == null) return Optional.empty();
+            final Path location = Path.of(source.getLocation().toURI());
+            final Path base = output.getAbsoluteFile().getParentFile().toPath();
+            final String relative = base.relativize(location).toString().replace(File.separatorChar, '/') + (Files.isDirectory(location) ? "/" : "");
+            return Optional.of(new URI(null, null, relative, null).toASCIIString());
+        } catch (final URISyntaxException | IllegalArgumentException | SecurityException e) {
+            return Optional.empty();
+        }
+    }
+
+}
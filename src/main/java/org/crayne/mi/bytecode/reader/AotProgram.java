@@ -0,0 +1,61 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.communication.MiExecutionException;
+import org.crayne.mi.log.MessageHandler;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// the main class of the jars AotCompiler writes. the program is loaded from the jar and its compiled functions are installed into the jit,
+// so that the interpreter only ever runs the functions that could not be compiled. the jar has to be on the same class path as mi,
+// the compiled classes being in one of its packages
+public final class AotProgram {
+
+    private AotProgram() {}
+
+    public static void main(@NotNull final String... args) {
+        final MessageHandler messageHandler = new MessageHandler(System.out, true);
+        try {
+            final ByteCodeProgram program = load(messageHandler);
+            final String mainFunction = new String(resource(AotCompiler.MAIN_RESOURCE), StandardCharsets.UTF_8).trim();
+            program.newInterpreter(ByteCodeInterpreter.DEFAULT_MAX_CALL_DEPTH, ExecutionEngine.JIT).newCommunicator().invoke(mainFunction);
+        } catch (final Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    // the program of the compiled jar on the class path, to be run with ExecutionEngine.JIT
+    public static ByteCodeProgram load(@NotNull final MessageHandler messageHandler) throws IOException {
+        return load(resource(AotCompiler.PROGRAM_RESOURCE), new String(resource(AotCompiler.FUNCTIONS_RESOURCE), StandardCharsets.UTF_8), messageHandler);
+    }
+
+    // the program and the function index of a compiled jar, whose classes have to be loaded by the class loader of mi already
+    static ByteCodeProgram load(final byte @NotNull [] bytecode, @NotNull final String index, @NotNull final MessageHandler messageHandler) {
+        final ByteCodeProgram program = ByteCodeProgram.prepare(ByteCodeReader.read(ByteBuffer.wrap(bytecode), messageHandler), messageHandler);
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (final String line : index.lines().toList()) {
+            final String[] fields = line.split(" ");
+            final byte[] parameterCodes = new byte[fields.length - 3];
+            for (int i = 0; i < parameterCodes.length; i++) parameterCodes[i] = Byte.parseByte(fields[i + 3]);
+            try {
+                final Class<?> module = Class.forName(fields[1], true, AotProgram.class.getClassLoader());
+                program.jit().install(new JitFunction(Integer.parseInt(fields[0]), lookup.findStatic(module, fields[2] + "$call", JitCompiler.CALL_TYPE), parameterCodes));
+            } catch (final ReflectiveOperationException | IllegalArgumentException e) {
+                throw new MiExecutionException("Cannot load compiled function '" + line + "': " + e);
+            }
+        }
+        return program;
+    }
+
+    private static byte[] resource(@NotNull final String name) throws IOException {
+        try (final InputStream in = AotProgram.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) throw new MiExecutionException("Cannot find '" + name + "' on the class path, expected a jar compiled with MiLang build");
+            return in.readAllBytes();
+        }
+    }
+
+}
@@ -1,8 +1,5 @@
 package org.crayne.mi.bytecode.reader;
 
-import com.google.common.primitives.Ints;
-import com.google.common.primitives.Longs;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.crayne.mi.bytecode.common.*;
 import org.crayne.mi.bytecode.communication.MiCommunicator;
@@ -15,30 +12,59 @@ import org.crayne.mi.util.errorhandler.Traceback;
 import org.crayne.mi.util.errorhandler.TracebackElement;
 import org.jetbrains.annotations.NotNull;
 
-import javax.annotation.Nonnull;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
+// executes a program on its own stacks. an interpreter runs one function at a time; to run functions on several threads at once,
+// prepare the program once and create one interpreter per thread using ByteCodeProgram.newInterpreter
 public class ByteCodeInterpreter {
 
-    private final List<ByteCodeInstruction> program;
+    private final List<ByteCodeInstruction> instructions;
     private final MessageHandler messageHandler;
+    private ByteCodeProgram program;
+    private int[] opcodes;
+    private int[] linkedOpcodes;
+    private byte[] deoptimizations;
+    private int[] operands;
+    private ByteCodeValue[] constants;
+    private ByteDatatype[] datatypes;
+    private String[] strings;
+    private ByteCodeRuntimeFunction[] functions;
     private int label;
     private volatile boolean active;
-
-    private final Map<Integer, Long> funcDefsByNames = new ConcurrentHashMap<>();
-    private final Map<Long, ByteCodeRuntimeFunction> functionDefinitions = new ConcurrentHashMap<>();
-    private final Map<Integer, ByteCodeEnum> enumDefinitions = new ConcurrentHashMap<>();
+    private ExecutionEngine engine = ExecutionEngine.STACK;
+    private RegisterInterpreter registerInterpreter;
+    private ClosureInterpreter closureInterpreter;
+    private JitRuntime jitRuntime;
+    private EngineThread engineThread;
+
+    // filled while preparing, then shared read-only with every interpreter of the program
+    private Map<Integer, Long> funcDefsByNames = new HashMap<>();
+    private final Map<Long, ByteCodeRuntimeFunction> functionDefinitions = new HashMap<>();
+    private Map<Integer, ByteCodeEnum> enumDefinitions = new HashMap<>();
     private long currentFunctionId = 0;
     private int currentEnumId = 0;
-    private final List<Integer> localAddrOffset = new ArrayList<>();
-    private final List<ByteCodeValue> variableStack = new ArrayList<>();
-    private final List<ByteCodeValue> pushStack = new ArrayList<>();
-    private final List<Integer> returnStack = new ArrayList<>();
-
-    private final Traceback traceback;
+    private boolean inFunctionDefinition;
+
+    public static final int DEFAULT_MAX_CALL_DEPTH = 10000;
+    private static final int MAX_STACK_SIZE = 1 << 24;
+    private static final int MAX_DEOPTIMIZATIONS = 4;
+
+    // the variables of the current function call live in variableStack[framePointer..]; the frame pointers of the callers
+    // and the labels to return to are kept in frames and returnLabels, callDepth being the amount of active calls
+    private final int maxCallDepth;
+    private final ValueStack variableStack = new ValueStack("variable stack", MAX_STACK_SIZE);
+    private final ValueStack pushStack = new ValueStack("push stack", MAX_STACK_SIZE);
+    private int[] frames = new int[64];
+    private int[] returnLabels = new int[64];
+    private int callDepth;
+    private int entryDepth;
+    private int framePointer;
+
+    // the most recently traced lines, as a ring buffer. the Traceback itself is only created when it is needed
+    private final int[] tracebackLines = new int[Traceback.TRACEBACK_MAX_LENGTH];
+    private int tracebackNext;
+    private int tracebackSize;
     private int stdlibFinishLine;
 
     public int getStdlibFinishLine() {
@@ -50,483 +76,755 @@ public class ByteCodeInterpreter {
     }
 
     public void traceback(final int... lines) {
-        for (final int line : lines) traceback.add(newTracebackElement(line));
-    }
-
-    public ByteCodeInterpreter(@NotNull final List<ByteCodeInstruction> program, @NotNull final MessageHandler messageHandler) {
-        this.program = new ArrayList<>(program);
-        this.messageHandler = messageHandler;
-        this.traceback = new Traceback();
-    }
-
-    protected static byte[] primitiveByteArray(@NotNull final Byte[] arr, final int begin, final int end) {
-        return ArrayUtils.toPrimitive(List.of(arr).subList(begin, end).toArray(new Byte[0]));
+        for (final int line : lines) traceback(line);
     }
 
-    protected static int readInt(@NotNull final Byte[] arr) {
-        return readInt(arr, 0, arr.length);
+    void traceback(final int line) {
+        tracebackLines[tracebackNext] = line;
+        tracebackNext = (tracebackNext + 1) % tracebackLines.length;
+        if (tracebackSize < tracebackLines.length) tracebackSize++;
     }
 
-    protected static long readLong(@NotNull final Byte[] arr) {
-        return readLong(arr, 0, arr.length);
-    }
+    public Traceback traceback() {
+        final Traceback traceback = new Traceback();
+        final int length = tracebackLines.length;
+        for (int i = 0; i < tracebackSize; i++)
+            traceback.add(newTracebackElement(tracebackLines[(tracebackNext - tracebackSize + i + length) % length]));
 
-    protected static String readString(@NotNull final Byte[] arr) {
-        return readString(arr, 0, arr.length);
+        return traceback;
     }
 
-    protected static int readInt(@NotNull final Byte[] arr, final int subBegin, final int subEnd) {
-        return Ints.fromByteArray(primitiveByteArray(arr, subBegin, subEnd));
+    public ByteCodeInterpreter(@NotNull final List<ByteCodeInstruction> program, @NotNull final MessageHandler messageHandler) {
+        this(program, messageHandler, DEFAULT_MAX_CALL_DEPTH);
     }
 
-    protected static long readLong(@NotNull final Byte[] arr, final int subBegin, final int subEnd) {
-        return Longs.fromByteArray(primitiveByteArray(arr, subBegin, subEnd));
+    public ByteCodeInterpreter(@NotNull final List<ByteCodeInstruction> program, @NotNull final MessageHandler messageHandler, final int maxCallDepth) {
+        if (maxCallDepth < 1) throw new IllegalArgumentException("Expected a maximum call depth of at least 1, got " + maxCallDepth);
+        this.instructions = new ArrayList<>(program);
+        this.messageHandler = messageHandler;
+        this.maxCallDepth = maxCallDepth;
     }
 
-    protected static String readString(@NotNull final Byte[] arr, final int subBegin, final int subEnd) {
-        return ByteCode.bytesToString(primitiveByteArray(arr, subBegin, subEnd));
+    // an interpreter for an already prepared program, starting out with the initial values of its global variables
+    public ByteCodeInterpreter(@NotNull final ByteCodeProgram program, final int maxCallDepth) {
+        if (maxCallDepth < 1) throw new IllegalArgumentException("Expected a maximum call depth of at least 1, got " + maxCallDepth);
+        this.instructions = List.of();
+        this.messageHandler = program.messageHandler();
+        this.maxCallDepth = maxCallDepth;
+        use(program);
     }
 
     public MiCommunicator newCommunicator() {
         return MiCommunicator.of(this);
     }
 
+    public Optional<ByteCodeProgram> program() {
+        return Optional.ofNullable(program);
+    }
+
     public void prepare() {
+        if (program != null) return;
         try {
+            final LinkedProgram linked = link();
             preRead();
+            linkFunctions();
+
+            final ByteCodeValue[] globals = new ByteCodeValue[variableStack.size()];
+            for (int i = 0; i < globals.length; i++) globals[i] = variableStack.get(i);
+            final LinkedProgram fused = ByteCodeLinker.fuse(linked);
+            use(new ByteCodeProgram(messageHandler, fused, RegisterCompiler.compile(fused, functions), functions, funcDefsByNames, enumDefinitions, globals, stdlibFinishLine));
         } catch (final ByteCodeException e) {
             messageHandler.errorMsg("Runtime µ error: " + e.getMessage());
-            messageHandler.errorMsg(traceback.toString());
+            messageHandler.errorMsg(traceback().toString());
         }
     }
 
+    private void use(@NotNull final ByteCodeProgram program) {
+        this.program = program;
+        final LinkedProgram code = program.code();
+        // generic operators are quickened in place, so every interpreter needs its own copy of the opcodes
+        linkedOpcodes = code.opcodes();
+        opcodes = linkedOpcodes.clone();
+        deoptimizations = new byte[opcodes.length];
+        operands = code.operands();
+        constants = code.constants();
+        datatypes = code.datatypes();
+        strings = code.strings();
+        functions = program.functions();
+        funcDefsByNames = program.funcDefsByNames();
+        enumDefinitions = program.enumDefinitions();
+        stdlibFinishLine = program.stdlibFinishLine();
+        loadGlobals();
+    }
+
+    private void loadGlobals() {
+        variableStack.clear();
+        for (final ByteCodeValue global : program.globals()) variableStack.push(global);
+    }
+
+    // puts the interpreter back into the state it had right after preparation, including the initial values of the global variables.
+    // quickened operators stay quickened, as they are still right for the next run most of the time
+    public void reset() {
+        if (active) throw new MiExecutionException("Cannot reset an interpreter while it is running a Mi function");
+        if (program == null) throw new MiExecutionException("Cannot reset an interpreter before the program has been prepared");
+
+        pushStack.clear();
+        callDepth = 0;
+        framePointer = 0;
+        tracebackNext = 0;
+        tracebackSize = 0;
+        loadGlobals();
+    }
+
+    // decodes every instruction once, so that neither prepare() nor execute() have to look at the raw bytes again
+    private LinkedProgram link() {
+        final LinkedProgram linked = ByteCodeLinker.link(instructions, this::enumDefinition);
+        opcodes = linked.opcodes();
+        linkedOpcodes = opcodes;
+        operands = linked.operands();
+        constants = linked.constants();
+        datatypes = linked.datatypes();
+        strings = linked.strings();
+        return linked;
+    }
+
     private void preRead() {
-        for (label = 0; label < program.size(); label++) {
-            final ByteCodeInstruction instr = program.get(label);
-            evalPre(instr);
+        for (label = 0; label < opcodes.length; label++) {
+            evalPre(opcodes[label], operands[label]);
         }
     }
 
-    public Optional<ByteCodeValue> execute(@NotNull final String module, @NotNull final String func, @NotNull final List<ByteCodeValue> inParams) {
-        if (active) throw new MiExecutionException("Cannot run multiple Mi functions at once; Multithreading not implemented");
+    private void linkFunctions() {
+        functions = new ByteCodeRuntimeFunction[(int) currentFunctionId];
+        functionDefinitions.forEach((id, func) -> functions[id.intValue()] = func);
+
+        for (int i = 0; i < opcodes.length; i++) {
+            if (opcodes[i] == Opcodes.FUNCTION_CALL && operands[i] >= functions.length)
+                throw new ByteCodeException("Call to undefined function id " + operands[i] + " at instruction " + i);
+        }
+    }
 
+    public Optional<ByteCodeValue> execute(@NotNull final String module, @NotNull final String func, @NotNull final List<ByteCodeValue> inParams) {
+        checkRunnable();
         final Long foundFunctionId = funcDefsByNames.get(Objects.hash(module + "." + func, inParams.stream().map(ByteCodeValue::type).map(ByteDatatype::name).toList()));
         if (foundFunctionId == null) throw new MiExecutionException("Could not find the Mi function '" + module + "." + func + "'");
 
-        execute(foundFunctionId, inParams);
-        return pushTop();
+        final ByteCodeRuntimeFunction toExec = foundFunctionId >= 0 && foundFunctionId < functions.length ? functions[(int) (long) foundFunctionId] : null;
+        if (!(toExec instanceof final ByteCodeInternFunction mainInternFunc)) throw new MiExecutionException("The function to execute should be an intern function");
+
+        run(mainInternFunc, inParams.toArray(new ByteCodeValue[0]));
+        return result();
     }
 
-    private void execute(final long functionId, @NotNull final List<ByteCodeValue> inParams) {
-        final ByteCodeRuntimeFunction toExec = functionDefinitions.get(functionId);
-        if (!(toExec instanceof final ByteCodeInternFunction mainInternFunc)) throw new MiExecutionException("The function to execute should be an intern function");
+    // runs a function that was already looked up in the program of this interpreter (see ByteCodeProgram.function), skipping the lookup by name.
+    // the parameters are not checked against the signature of the function
+    public Optional<ByteCodeValue> execute(@NotNull final ByteCodeInternFunction function, @NotNull final ByteCodeValue... inParams) {
+        checkRunnable();
+        run(function, inParams);
+        return result();
+    }
+
+    private void checkRunnable() {
+        if (active) throw new MiExecutionException("This interpreter is already running a Mi function; use one interpreter per thread (see ByteCodeProgram.newInterpreter)");
+        if (program == null) throw new MiExecutionException("Cannot run Mi functions before the program has been prepared");
+    }
 
+    private Optional<ByteCodeValue> result() {
+        return pushStack.isEmpty() ? Optional.empty() : Optional.of(pushStack.get(pushStack.top()));
+    }
+
+    private void run(@NotNull final ByteCodeInternFunction mainInternFunc, @NotNull final ByteCodeValue[] inParams) {
         active = true;
-        localAddrOffset.add(0);
-        inParams.forEach(this::push);
-
-        for (label = mainInternFunc.label() + 1; label < program.size(); label++) {
-            final ByteCodeInstruction instr = program.get(label);
-            if (eval(instr)) {
-                active = false;
-                return; // eval() returns true if the function should end
-            }
+        final int globals = variableStack.size();
+        pushStack.clear();
+        callDepth = 0;
+        entryDepth = 0;
+        framePointer = globals;
+        for (final ByteCodeValue param : inParams) pushStack.push(param);
+
+        try {
+            useJit();
+            if (engine == ExecutionEngine.CLOSURE || engine == ExecutionEngine.JIT) engineThread().run(() -> runEngine(mainInternFunc));
+            else runEngine(mainInternFunc);
+        } catch (final ArithmeticException e) {
+            // integer divisions by zero are the only arithmetic errors. once the jvm compiled the code failing, it may throw
+            // a preallocated exception without a message instead, so they are reported the same way on every engine here
+            throw e.getMessage() != null ? e : new ArithmeticException("/ by zero");
+        } finally {
+            variableStack.truncate(globals);
+            active = false;
         }
-        active = false;
     }
 
-    private void push(@NotNull final ByteDatatype type, @NotNull final Byte[] values) {
-        final ByteCodeValue value;
-        if (type == ByteDatatype.ENUM) {
-            final int enumId = readInt(values, 0, 4);
-            value = new ByteCodeValue(ByteDatatype.ofEnum("", enumId), values, this);
-        } else value = new ByteCodeValue(type, values, this);
-        pushStack.add(value);
+    private void runEngine(@NotNull final ByteCodeInternFunction mainInternFunc) {
+        final RegisterFunction registerCode = engine == ExecutionEngine.REGISTER || engine == ExecutionEngine.CLOSURE
+                ? program.registerProgram().function(mainInternFunc) : null;
+        if (registerCode != null && engine == ExecutionEngine.CLOSURE) closureInterpreter().run(program.closures(registerCode.id()));
+        else if (registerCode != null) registerInterpreter().run(registerCode);
+        else if (jitRuntime == null || !jitRuntime.tryCall(program.jit().id(mainInternFunc))) runStackCode(mainInternFunc);
     }
 
-    private void push(@NotNull final ByteCodeValue value) {
-        pushStack.add(value);
+    private void runStackCode(@NotNull final ByteCodeInternFunction function) {
+        final int[] opcodes = this.opcodes;
+        final int[] operands = this.operands;
+        for (label = function.label() + 1; label < opcodes.length; label++) {
+            if (eval(opcodes[label], operands[label])) return; // eval() returns true if the function should end
+        }
     }
 
-    private Optional<ByteCodeValue> pushTop(final int offset) {
-        final int index = pushStack.size() - offset - 1;
-        return index >= pushStack.size() || index < 0 ? Optional.empty() : Optional.of(pushStack.get(index));
+    // runs an intern function on the stack code until it returns, with its arguments on the push stack, leaving its result there.
+    // this is how the register engine calls the functions it has no register code for
+    void runOnStack(@NotNull final ByteCodeInternFunction function) {
+        final int savedLabel = label;
+        final int savedEntryDepth = entryDepth;
+        final int savedFramePointer = framePointer;
+        entryDepth = callDepth;
+        framePointer = variableStack.size();
+        try {
+            runStackCode(function);
+        } finally {
+            label = savedLabel;
+            entryDepth = savedEntryDepth;
+            framePointer = savedFramePointer;
+        }
     }
 
-    private Optional<ByteCodeValue> pushTop() {
-        return pushTop(0);
+    // calls of intern functions only go through the jit while it is the engine, see evalFuncCall
+    private void useJit() {
+        if (engine != ExecutionEngine.JIT) jitRuntime = null;
+        else if (jitRuntime == null) jitRuntime = new JitRuntime(this, program, variableStack, pushStack, maxCallDepth);
     }
 
-    private void defineVar() {
-        final ByteCodeValue val = pushTop().orElseThrow(() -> new ByteCodeException("Cannot define variable without any value on the push stack"));
-        variableStack.add(val);
-        if (!localAddrOffset.isEmpty()) incLocalAddrOffset();
-        popPushStack();
+    int callDepth() {
+        return callDepth;
     }
 
-    private void declareVar(@NotNull final ByteDatatype type) {
-        variableStack.add(new ByteCodeValue(type, new Byte[0], this));
-        if (!localAddrOffset.isEmpty()) incLocalAddrOffset();
-    }
-
-    private int localAddrOffsetIndex() {
-        return localAddrOffset.size() - 1;
-    }
-
-    private int localAddrOffset(final int offset) {
-        return localAddrOffset.get(offset);
-    }
-
-    private void incLocalAddrOffset() {
-        localAddrOffset.set(localAddrOffsetIndex(), localAddrOffset(localAddrOffsetIndex()) + 1);
-    }
-
-    private void decLocalAddrOffset() {
-        localAddrOffset.set(localAddrOffsetIndex(), localAddrOffset(localAddrOffsetIndex()) - 1);
-    }
-
-    private void evalPre(@NotNull final ByteCodeInstruction instr) {
-        if (localAddrOffset.isEmpty()) switch (instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr))) {
-            case PUSH -> evalPush(instr);
-            case DEFINE_VARIABLE -> defineVar();
-            case DECLARE_VARIABLE -> evalVarDeclare(instr);
-            case NATIVE_FUNCTION_DEFINITION_BEGIN -> evalNatFunc(instr);
-            case FUNCTION_DEFINITION_BEGIN -> evalInternFunc(instr);
-            case ENUM_DEFINITION_BEGIN -> evalEnumDefBegin();
-            case ENUM_DEFINITION_END -> evalEnumDefEnd();
-            case ENUM_MEMBER_DEFINITION -> evalEnumMemberDef(instr);
-            case VALUE_AT_ADDRESS -> evalValAtAddr();
-            case CAST -> evalCast(instr);
-            case MUTATE_VARIABLE -> evalVariableMut(false);
-            case MUTATE_VARIABLE_AND_PUSH -> evalVariableMut(true);
-            case STDLIB_FINISH_LINE -> evalStdlibFinishLine(instr);
-            case PLUS, MINUS, MULTIPLY, DIVIDE, MODULO, BIT_AND, BIT_OR, BIT_XOR, BITSHIFT_LEFT, BITSHIFT_RIGHT, LOGICAL_AND, LOGICAL_OR,
-                    EQUALS, LESS_THAN, LESS_THAN_OR_EQUAL, GREATER_THAN, GREATER_THAN_OR_EQUAL -> popPushStack(1);
-        } else if (instr.type().orElse(null) == ByteCode.FUNCTION_DEFINITION_END) evalFuncEnd();
-    }
-
-    private boolean eval(@NotNull final ByteCodeInstruction instr) {
-        switch (instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr))) {
-            case PUSH -> evalPush(instr);
-            case POP -> evalPop(instr);
-            case DEFINE_VARIABLE -> defineVar();
-            case DECLARE_VARIABLE -> evalVarDeclare(instr);
-            case NATIVE_FUNCTION_DEFINITION_BEGIN -> evalNatFunc(instr);
-            case FUNCTION_DEFINITION_BEGIN -> evalInternFunc(instr);
-            case FUNCTION_DEFINITION_END, RETURN_STATEMENT -> {
-                evalFuncEnd();
-                if (returnStack.isEmpty()) return true;
-                label = returnStack.get(returnStack.size() - 1) - 1;
-                returnStack.remove(returnStack.size() - 1);
-            }
-            case VALUE_AT_RELATIVE_ADDRESS -> evalValAtRelAddr();
-            case VALUE_AT_ADDRESS -> evalValAtAddr();
-            case FUNCTION_CALL -> evalFuncCall(instr);
-            case JUMP -> evalJump(instr);
-            case JUMP_IF -> evalJumpIf(instr);
-            case CAST -> evalCast(instr);
-            case RELATIVE_TO_ABSOLUTE_ADDRESS -> evalRelToAbsAddr();
-            case MUTATE_VARIABLE -> evalVariableMut(false);
-            case MUTATE_VARIABLE_AND_PUSH -> evalVariableMut(true);
-            case INC_VARIABLE -> evalVariableIncDec(false, true);
-            case INC_VARIABLE_AND_PUSH -> evalVariableIncDec(true, true);
-            case DEC_VARIABLE -> evalVariableIncDec(false, false);
-            case DEC_VARIABLE_AND_PUSH -> evalVariableIncDec(true, false);
-            case TRACEBACK -> evalTraceback(instr);
-            case NOT, PLUS, MINUS, MULTIPLY, DIVIDE, MODULO, BIT_AND, BIT_OR, BIT_XOR, BIT_NOT, BITSHIFT_LEFT, BITSHIFT_RIGHT, LOGICAL_AND, LOGICAL_OR,
-                    EQUALS, LESS_THAN, LESS_THAN_OR_EQUAL, GREATER_THAN, GREATER_THAN_OR_EQUAL -> evalOperator(instr);
-           // default -> System.out.println("ignored instr " + instr);
-        }
-        return false;
+    private RegisterInterpreter registerInterpreter() {
+        if (registerInterpreter == null) registerInterpreter = new RegisterInterpreter(this, program, variableStack, pushStack, maxCallDepth);
+        return registerInterpreter;
     }
 
-    private void evalStdlibFinishLine(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        stdlibFinishLine = readInt(values, 1, values.length - 1);
+    // the closure and jit engines call mi functions through jvm calls, so they run on a thread with a stack deep enough for maxCallDepth
+    private EngineThread engineThread() {
+        if (engineThread == null) engineThread = new EngineThread(maxCallDepth);
+        return engineThread;
     }
 
-    private void evalTraceback(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        traceback(readInt(values, 1, values.length - 1));
+    private ClosureInterpreter closureInterpreter() {
+        if (closureInterpreter == null) closureInterpreter = new ClosureInterpreter(this, program, variableStack, pushStack, maxCallDepth);
+        return closureInterpreter;
     }
 
-    private ByteCodeValue popPushStack() {
-        if (pushStack.isEmpty()) throw new ByteCodeException("Cannot perform pop, push stack is empty");
-        return pushStack.remove(pushStack.size() - 1);
+    public ExecutionEngine engine() {
+        return engine;
+    }
+
+    // selects how this interpreter runs functions from now on. functions the register engine has no code for still run on the stack code
+    public void engine(@NotNull final ExecutionEngine engine) {
+        if (active) throw new MiExecutionException("Cannot change the engine of an interpreter while it is running a Mi function");
+        this.engine = engine;
+    }
+
+    private void push(@NotNull final ByteCodeValue value) {
+        pushStack.push(value);
     }
 
-    private void popPushStack(final int amount) {
-        for (int i = 0; i < amount; i++) popPushStack();
+    private ByteCodeValue popPushStack() {
+        return pushStack.pop();
     }
 
-    private void popVarStack() {
-        if (variableStack.isEmpty()) throw new ByteCodeException("Cannot perform pop, variable stack is empty");
-        if (!localAddrOffset.isEmpty()) decLocalAddrOffset();
-        variableStack.remove(variableStack.size() - 1);
+    private void defineVar() {
+        variableStack.pushFrom(pushStack, pushStack.top());
+        pushStack.drop(1);
     }
 
-    private void popVarStack(final int amount) {
-        for (int i = 0; i < amount; i++) popVarStack();
+    private void declareVar(@NotNull final ByteDatatype type) {
+        variableStack.push(ByteCodeValue.defaultValue(type));
+    }
+
+    private void evalPre(final int opcode, final int operand) {
+        if (!inFunctionDefinition) switch (opcode) {
+            case Opcodes.PUSH -> push(constants[operand]);
+            case Opcodes.DEFINE_VARIABLE -> defineVar();
+            case Opcodes.DECLARE_VARIABLE -> declareVar(datatypes[operand]);
+            case Opcodes.NATIVE_FUNCTION_DEFINITION_BEGIN -> evalNatFunc(strings[operand]);
+            case Opcodes.FUNCTION_DEFINITION_BEGIN -> evalInternFunc(strings[operand]);
+            case Opcodes.ENUM_DEFINITION_BEGIN -> evalEnumDefBegin();
+            case Opcodes.ENUM_DEFINITION_END -> evalEnumDefEnd();
+            case Opcodes.ENUM_MEMBER_DEFINITION -> evalEnumMemberDef(strings[operand]);
+            case Opcodes.VALUE_AT_ADDRESS -> evalValAtAddr();
+            case Opcodes.CAST -> evalCast(datatypes[operand]);
+            case Opcodes.MUTATE_VARIABLE -> evalVariableMut(false);
+            case Opcodes.MUTATE_VARIABLE_AND_PUSH -> evalVariableMut(true);
+            case Opcodes.STDLIB_FINISH_LINE -> stdlibFinishLine = operand;
+            case Opcodes.PLUS, Opcodes.MINUS, Opcodes.MULTIPLY, Opcodes.DIVIDE, Opcodes.MODULO, Opcodes.BIT_AND, Opcodes.BIT_OR, Opcodes.BIT_XOR,
+                    Opcodes.BITSHIFT_LEFT, Opcodes.BITSHIFT_RIGHT, Opcodes.LOGICAL_AND, Opcodes.LOGICAL_OR, Opcodes.EQUALS, Opcodes.LESS_THAN,
+                    Opcodes.LESS_THAN_OR_EQUAL, Opcodes.GREATER_THAN, Opcodes.GREATER_THAN_OR_EQUAL -> evalOperator(opcode);
+            case Opcodes.INT_PLUS, Opcodes.INT_MINUS, Opcodes.INT_MULTIPLY, Opcodes.INT_DIVIDE, Opcodes.INT_MODULO,
+                    Opcodes.INT_EQUALS, Opcodes.INT_LESS_THAN, Opcodes.INT_GREATER_THAN, Opcodes.INT_LESS_THAN_OR_EQUAL, Opcodes.INT_GREATER_THAN_OR_EQUAL,
+                    Opcodes.LONG_PLUS, Opcodes.LONG_MINUS, Opcodes.LONG_MULTIPLY, Opcodes.LONG_DIVIDE, Opcodes.LONG_MODULO,
+                    Opcodes.LONG_EQUALS, Opcodes.LONG_LESS_THAN, Opcodes.LONG_GREATER_THAN, Opcodes.LONG_LESS_THAN_OR_EQUAL, Opcodes.LONG_GREATER_THAN_OR_EQUAL,
+                    Opcodes.FLOAT_PLUS, Opcodes.FLOAT_MINUS, Opcodes.FLOAT_MULTIPLY, Opcodes.FLOAT_DIVIDE, Opcodes.FLOAT_MODULO,
+                    Opcodes.FLOAT_EQUALS, Opcodes.FLOAT_LESS_THAN, Opcodes.FLOAT_GREATER_THAN, Opcodes.FLOAT_LESS_THAN_OR_EQUAL, Opcodes.FLOAT_GREATER_THAN_OR_EQUAL,
+                    Opcodes.DOUBLE_PLUS, Opcodes.DOUBLE_MINUS, Opcodes.DOUBLE_MULTIPLY, Opcodes.DOUBLE_DIVIDE, Opcodes.DOUBLE_MODULO,
+                    Opcodes.DOUBLE_EQUALS, Opcodes.DOUBLE_LESS_THAN, Opcodes.DOUBLE_GREATER_THAN, Opcodes.DOUBLE_LESS_THAN_OR_EQUAL, Opcodes.DOUBLE_GREATER_THAN_OR_EQUAL,
+                    Opcodes.STRING_CONCAT -> evalTypedOperator(opcode);
+            case Opcodes.NOT -> push(popPushStack().not());
+            case Opcodes.BIT_NOT -> push(popPushStack().bit_not());
+        } else if (opcode == Opcodes.FUNCTION_DEFINITION_END) inFunctionDefinition = false;
+    }
+
+    private boolean eval(final int opcode, final int operand) {
+        switch (opcode) {
+            case Opcodes.PUSH -> pushStack.push(constants[operand]);
+            case Opcodes.POP -> variableStack.drop(operand);
+            case Opcodes.DEFINE_VARIABLE -> defineVar();
+            case Opcodes.DECLARE_VARIABLE -> declareVar(datatypes[operand]);
+            case Opcodes.FUNCTION_DEFINITION_END, Opcodes.RETURN_STATEMENT -> {
+                return evalReturn();
+            }
+            case Opcodes.VALUE_AT_RELATIVE_ADDRESS -> evalValAtRelAddr();
+            case Opcodes.VALUE_AT_ADDRESS -> evalValAtAddr();
+            case Opcodes.FUNCTION_CALL -> evalFuncCall(operand);
+            case Opcodes.JUMP -> {
+                if (operand <= label && jitRuntime != null) program.jit().backEdge(label); // loops jump back with a plain jump
+                label = operand - 1;
+            }
+            case Opcodes.JUMP_IF -> evalJumpIf(operand, true);
+            case Opcodes.JUMP_IF_NOT -> evalJumpIf(operand, false);
+            case Opcodes.JUMP_IF_EQUALS -> evalCompareJump(Opcodes.EQUALS, operand, true);
+            case Opcodes.JUMP_IF_NOT_EQUALS -> evalCompareJump(Opcodes.EQUALS, operand, false);
+            case Opcodes.JUMP_IF_LESS_THAN -> evalCompareJump(Opcodes.LESS_THAN, operand, true);
+            case Opcodes.JUMP_IF_NOT_LESS_THAN -> evalCompareJump(Opcodes.LESS_THAN, operand, false);
+            case Opcodes.JUMP_IF_GREATER_THAN -> evalCompareJump(Opcodes.GREATER_THAN, operand, true);
+            case Opcodes.JUMP_IF_NOT_GREATER_THAN -> evalCompareJump(Opcodes.GREATER_THAN, operand, false);
+            case Opcodes.JUMP_IF_LESS_THAN_OR_EQUAL -> evalCompareJump(Opcodes.LESS_THAN_OR_EQUAL, operand, true);
+            case Opcodes.JUMP_IF_NOT_LESS_THAN_OR_EQUAL -> evalCompareJump(Opcodes.LESS_THAN_OR_EQUAL, operand, false);
+            case Opcodes.JUMP_IF_GREATER_THAN_OR_EQUAL -> evalCompareJump(Opcodes.GREATER_THAN_OR_EQUAL, operand, true);
+            case Opcodes.JUMP_IF_NOT_GREATER_THAN_OR_EQUAL -> evalCompareJump(Opcodes.GREATER_THAN_OR_EQUAL, operand, false);
+            case Opcodes.CAST -> evalCast(datatypes[operand]);
+            case Opcodes.RELATIVE_TO_ABSOLUTE_ADDRESS -> evalRelToAbsAddr();
+            case Opcodes.MUTATE_VARIABLE -> evalVariableMut(false);
+            case Opcodes.MUTATE_VARIABLE_AND_PUSH -> evalVariableMut(true);
+            case Opcodes.INC_VARIABLE -> evalVariableIncDec(false, true);
+            case Opcodes.INC_VARIABLE_AND_PUSH -> evalVariableIncDec(true, true);
+            case Opcodes.DEC_VARIABLE -> evalVariableIncDec(false, false);
+            case Opcodes.DEC_VARIABLE_AND_PUSH -> evalVariableIncDec(true, false);
+            case Opcodes.TRACEBACK -> traceback(operand);
+            case Opcodes.LOAD_LOCAL -> {
+                pushStack.pushFrom(variableStack, relativeToAbsoluteAddr(operand));
+                label++;
+            }
+            case Opcodes.LOAD_GLOBAL -> {
+                pushStack.pushFrom(variableStack, operand - 1);
+                label++;
+            }
+            case Opcodes.STORE_LOCAL -> {
+                mutateVariable(relativeToAbsoluteAddr(operand), false);
+                label += 2;
+            }
+            case Opcodes.STORE_GLOBAL -> {
+                mutateVariable(operand - 1, false);
+                label++;
+            }
+            case Opcodes.INC_LOCAL -> {
+                incDecVariable(relativeToAbsoluteAddr(operand), false, true);
+                label += 2;
+            }
+            case Opcodes.DEC_LOCAL -> {
+                incDecVariable(relativeToAbsoluteAddr(operand), false, false);
+                label += 2;
+            }
+            case Opcodes.LOAD_LOCAL_ADD_CONST -> evalLoadLocalAddConst(operand);
+            case Opcodes.NOT -> push(popPushStack().not());
+            case Opcodes.BIT_NOT -> push(popPushStack().bit_not());
+            case Opcodes.PLUS, Opcodes.MINUS, Opcodes.MULTIPLY, Opcodes.DIVIDE, Opcodes.MODULO, Opcodes.EQUALS, Opcodes.LESS_THAN,
+                    Opcodes.LESS_THAN_OR_EQUAL, Opcodes.GREATER_THAN, Opcodes.GREATER_THAN_OR_EQUAL -> evalQuickening(opcode);
+            case Opcodes.BIT_AND, Opcodes.BIT_OR, Opcodes.BIT_XOR, Opcodes.BITSHIFT_LEFT, Opcodes.BITSHIFT_RIGHT,
+                    Opcodes.LOGICAL_AND, Opcodes.LOGICAL_OR -> evalOperator(opcode);
+            case Opcodes.INT_PLUS, Opcodes.INT_MINUS, Opcodes.INT_MULTIPLY, Opcodes.INT_DIVIDE, Opcodes.INT_MODULO,
+                    Opcodes.INT_EQUALS, Opcodes.INT_LESS_THAN, Opcodes.INT_GREATER_THAN, Opcodes.INT_LESS_THAN_OR_EQUAL, Opcodes.INT_GREATER_THAN_OR_EQUAL,
+                    Opcodes.LONG_PLUS, Opcodes.LONG_MINUS, Opcodes.LONG_MULTIPLY, Opcodes.LONG_DIVIDE, Opcodes.LONG_MODULO,
+                    Opcodes.LONG_EQUALS, Opcodes.LONG_LESS_THAN, Opcodes.LONG_GREATER_THAN, Opcodes.LONG_LESS_THAN_OR_EQUAL, Opcodes.LONG_GREATER_THAN_OR_EQUAL,
+                    Opcodes.FLOAT_PLUS, Opcodes.FLOAT_MINUS, Opcodes.FLOAT_MULTIPLY, Opcodes.FLOAT_DIVIDE, Opcodes.FLOAT_MODULO,
+                    Opcodes.FLOAT_EQUALS, Opcodes.FLOAT_LESS_THAN, Opcodes.FLOAT_GREATER_THAN, Opcodes.FLOAT_LESS_THAN_OR_EQUAL, Opcodes.FLOAT_GREATER_THAN_OR_EQUAL,
+                    Opcodes.DOUBLE_PLUS, Opcodes.DOUBLE_MINUS, Opcodes.DOUBLE_MULTIPLY, Opcodes.DOUBLE_DIVIDE, Opcodes.DOUBLE_MODULO,
+                    Opcodes.DOUBLE_EQUALS, Opcodes.DOUBLE_LESS_THAN, Opcodes.DOUBLE_GREATER_THAN, Opcodes.DOUBLE_LESS_THAN_OR_EQUAL, Opcodes.DOUBLE_GREATER_THAN_OR_EQUAL,
+                    Opcodes.STRING_CONCAT -> evalTypedOperator(opcode);
+        }
+        return false;
     }
 
     private void evalEnumDefBegin() {
-        enumDefinitions.put(currentEnumId, new ByteCodeEnum(currentEnumId));
+        enumDefinition(currentEnumId);
         currentEnumId++;
     }
 
+    // enum values may be pushed before their enum is defined (global variables are defined first),
+    // so the definition is created on first use and its members are filled in once the definition is read
+    private ByteCodeEnum enumDefinition(final int enumId) {
+        return enumDefinitions.computeIfAbsent(enumId, ByteCodeEnum::new);
+    }
+
     private void evalEnumDefEnd() {
         currentEnumId = -1;
     }
 
-    private void evalEnumMemberDef(@NotNull final ByteCodeInstruction instr) {
+    private void evalEnumMemberDef(@NotNull final String name) {
         if (currentEnumId == -1) throw new ByteCodeException("Enum member definition outside of enum");
         final ByteCodeEnum currentEnum = enumDefinitions.get(currentEnumId - 1);
-        final String name = readString(instr.codes(), 6, instr.codes().length - 1);
         currentEnum.addMember(name);
     }
 
     protected String nameOfEnumMember(@NotNull final ByteCodeValue val) {
-        final int enumId = val.type().id();
-        final ByteCodeEnum foundEnum = enumDefinitions.get(enumId);
-        return foundEnum.nameof(readInt(val.value(), 4, 8));
+        final ByteCodeEnum foundEnum = enumDefinitions.get(val.type().id());
+        return foundEnum.nameof((int) val.bits());
     }
 
     protected int ordinalOfEnumMember(@NotNull final ByteCodeValue val) {
-        final int enumId = val.type().id();
-        enumDefinitions.get(enumId); // make sure the enum exists
-        return readInt(val.value(), 4, 8);
-    }
-
-    private void evalFuncEnd() {
-        if (!localAddrOffset.isEmpty()) localAddrOffset.remove(localAddrOffsetIndex());
-    }
-
-    private void evalPush(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final ByteCode valueType = ByteCode.of(values[1]).orElseThrow(() -> new ByteCodeException("Cannot find bytecode corresponding to " + ByteCodeReader.byteToHexString(values[1])));
-        final Byte[] pushValue = List.of(instr.codes()).subList(2, instr.codes().length - 1).toArray(new Byte[0]);
-
-        switch (valueType) {
-            case STRING_VALUE -> push(ByteDatatype.STRING, pushValue);
-            case INTEGER_VALUE -> push(ByteDatatype.INT, pushValue);
-            case CHARACTER_VALUE -> push(ByteDatatype.CHAR, pushValue);
-            case FLOAT_VALUE -> push(ByteDatatype.FLOAT, pushValue);
-            case DOUBLE_VALUE -> push(ByteDatatype.DOUBLE, pushValue);
-            case LONG_INTEGER_VALUE -> push(ByteDatatype.LONG, pushValue);
-            case BOOL_VALUE -> push(ByteDatatype.BOOL, pushValue);
-            case ENUM_VALUE -> push(ByteDatatype.ENUM, pushValue);
-            case NULL_VALUE -> push(ByteDatatype.NULL, new Byte[0]);
-        }
+        return (int) val.bits();
+    }
+
+    // a return drops every variable the function defined, no matter how many scopes deep it returns from
+    private boolean evalReturn() {
+        variableStack.truncate(framePointer);
+        if (callDepth == entryDepth) return true;
+
+        callDepth--;
+        framePointer = frames[callDepth];
+        label = returnLabels[callDepth] - 1;
+        return false;
     }
 
-    private void evalCast(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final ByteDatatype type = ByteDatatype.ofId(values[1]);
-        final ByteCodeValue top = pushTop().orElseThrow(() -> new ByteCodeException("Cannot cast value; no value on push stack"));
+    private void evalCast(@NotNull final ByteDatatype type) {
+        final ByteCodeValue top = popPushStack();
         final ByteCodeValue cast = top.cast(type);
-        popPushStack();
+        if (cast == null) throw new ByteCodeException("Cannot cast " + top.type() + " to " + type);
         push(cast);
     }
 
-    private void evalOperator(@NotNull final ByteCodeInstruction instr) {
-        final ByteCode type = instr.type().orElseThrow(() -> new ByteCodeException("Cannot find opcode type of " + instr));
-        final ByteCodeValue newValue;
+    private void evalOperator(final int opcode) {
+        final int y = pushStack.top();
+        final int x = y - 1;
+        if (x >= 0 && pushStack.code(x) == 0x02 && pushStack.code(y) == 0x02 && evalIntOperator(opcode, (int) pushStack.bits(x), (int) pushStack.bits(y))) return;
+
+        final ByteCodeValue right = popPushStack();
+        final ByteCodeValue left = popPushStack();
+        push(operate(opcode, left, right));
+    }
+
+    // the generic operators, shared with the register engine
+    static ByteCodeValue operate(final int opcode, @NotNull final ByteCodeValue left, @NotNull final ByteCodeValue right) {
+        return switch (opcode) {
+            case Opcodes.EQUALS -> left.equal(right);
+            case Opcodes.PLUS -> left.plus(right);
+            case Opcodes.MINUS -> left.minus(right);
+            case Opcodes.MULTIPLY -> left.multiply(right);
+            case Opcodes.DIVIDE -> left.divide(right);
+            case Opcodes.MODULO -> left.modulo(right);
+            case Opcodes.BIT_AND -> left.bit_and(right);
+            case Opcodes.BIT_OR -> left.bit_or(right);
+            case Opcodes.BIT_XOR -> left.bit_xor(right);
+            case Opcodes.BITSHIFT_LEFT -> left.bit_shift_left(right);
+            case Opcodes.BITSHIFT_RIGHT -> left.bit_shift_right(right);
+            case Opcodes.LOGICAL_AND -> left.logical_and(right);
+            case Opcodes.LOGICAL_OR -> left.logical_or(right);
+            case Opcodes.LESS_THAN -> left.less_than(right);
+            case Opcodes.LESS_THAN_OR_EQUAL -> left.less_than_or_equal(right);
+            case Opcodes.GREATER_THAN -> left.greater_than(right);
+            case Opcodes.GREATER_THAN_OR_EQUAL -> left.greater_than_or_equal(right);
+            default -> throw new ByteCodeException("Unknown operator opcode " + opcode);
+        };
+    }
 
-        final ByteCodeValue y = popPushStack();
-        switch (type) {
-            case NOT -> {
-                push(y.not());
-                return;
-            }
-            case BIT_NOT -> {
-                push(y.bit_not());
+    // the operands of a typed operator are of its type almost always, so the result is computed right on the push stack.
+    // anything else (like a variable declared as double that holds an int) goes through the generic operator, which finds the common type first
+    private void evalTypedOperator(final int opcode) {
+        final byte type = (byte) (opcode >> 4);
+        final int operator = Opcodes.generic(opcode);
+        final int y = pushStack.top();
+        final int x = y - 1;
+        if (x >= 0 && pushStack.code(x) == type && pushStack.code(y) == type && switch (type) {
+            case 0x02 -> evalIntOperator(operator, (int) pushStack.bits(x), (int) pushStack.bits(y));
+            case 0x03 -> evalLongOperator(operator, pushStack.bits(x), pushStack.bits(y));
+            case 0x04 -> evalFloatOperator(operator, Float.intBitsToFloat((int) pushStack.bits(x)), Float.intBitsToFloat((int) pushStack.bits(y)));
+            case 0x05 -> evalDoubleOperator(operator, Double.longBitsToDouble(pushStack.bits(x)), Double.longBitsToDouble(pushStack.bits(y)));
+            default -> evalStringConcat(x, y);
+        }) return;
+
+        if (linkedOpcodes[label] != opcode) deoptimize(linkedOpcodes[label]);
+        evalOperator(operator);
+    }
+
+    // a generic operator rewrites itself into the typed operator for the operand types it sees, for everything the compiler
+    // could not type statically (results of native functions, globals). a quickened operator that sees other types again
+    // is turned back into the generic one, and after MAX_DEOPTIMIZATIONS of those it stays generic
+    private void evalQuickening(final int opcode) {
+        final int y = pushStack.top();
+        final int x = y - 1;
+        if (x >= 0 && deoptimizations[label] < MAX_DEOPTIMIZATIONS && pushStack.code(x) == pushStack.code(y)) {
+            final int typed = Opcodes.typed(opcode, pushStack.code(x));
+            if (typed != -1) {
+                opcodes[label] = typed;
+                evalTypedOperator(typed);
                 return;
             }
         }
-        final ByteCodeValue x = popPushStack();
-        newValue = switch (type) {
-            case EQUALS -> x.equal(y);
-            case PLUS -> x.plus(y);
-            case MINUS -> x.minus(y);
-            case MULTIPLY -> x.multiply(y);
-            case DIVIDE -> x.divide(y);
-            case MODULO -> x.modulo(y);
-            case BIT_AND -> x.bit_and(y);
-            case BIT_OR -> x.bit_or(y);
-            case BIT_XOR -> x.bit_xor(y);
-            case BITSHIFT_LEFT -> x.bit_shift_left(y);
-            case BITSHIFT_RIGHT -> x.bit_shift_right(y);
-            case LOGICAL_AND -> x.logical_and(y);
-            case LOGICAL_OR -> x.logical_or(y);
-            case LESS_THAN -> x.less_than(y);
-            case LESS_THAN_OR_EQUAL -> x.less_than_or_equal(y);
-            case GREATER_THAN -> x.greater_than(y);
-            case GREATER_THAN_OR_EQUAL -> x.greater_than_or_equal(y);
-            default -> null;
-        };
-        if (newValue == null) return;
-        push(newValue);
+        evalOperator(opcode);
     }
 
-    private void evalFuncCall(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final long functionId = readLong(values, 1, values.length - 1);
-        final ByteCodeRuntimeFunction func = functionDefinitions.get(functionId);
+    private void deoptimize(final int generic) {
+        opcodes[label] = generic;
+        deoptimizations[label]++;
+    }
 
-        if (func instanceof final ByteCodeInternFunction internFunc) {
-            localAddrOffset.add(0);
-            //System.out.println("RETURN TO " + (label + 1) + " AFTER FINISHING FUNC EXEC");
-            returnStack.add(label + 1);
-            //System.out.println("JUMP TO " + internFunc.label());
-            label = internFunc.label();
-        } else if (func instanceof final ByteCodeNativeFunction nativeFunc) {
-            invokeNativeFuncCall(nativeFunc);
+    private boolean evalLongOperator(final int opcode, final long x, final long y) {
+        switch (opcode) {
+            case Opcodes.PLUS -> replaceWithBits(x + y);
+            case Opcodes.MINUS -> replaceWithBits(x - y);
+            case Opcodes.MULTIPLY -> replaceWithBits(x * y);
+            case Opcodes.DIVIDE, Opcodes.MODULO -> {
+                if (y == 0L) return false;
+                replaceWithBits(opcode == Opcodes.DIVIDE ? x / y : x % y);
+            }
+            default -> replaceWithBool(compare(opcode, Long.compare(x, y)));
         }
+        return true;
     }
 
-    private void invokeNativeFuncCall(@NotNull final ByteCodeNativeFunction nativeFunc) {
-        final Method method = nativeFunc.method();
-        final List<ByteCodeValue> args = new ArrayList<>();
-        for (int i = 0; i < method.getParameterCount(); i++) {
-            args.add(popPushStack());
+    private boolean evalFloatOperator(final int opcode, final float x, final float y) {
+        switch (opcode) {
+            case Opcodes.PLUS -> replaceWithBits(Float.floatToRawIntBits(x + y));
+            case Opcodes.MINUS -> replaceWithBits(Float.floatToRawIntBits(x - y));
+            case Opcodes.MULTIPLY -> replaceWithBits(Float.floatToRawIntBits(x * y));
+            case Opcodes.DIVIDE -> replaceWithBits(Float.floatToRawIntBits(x / y));
+            case Opcodes.MODULO -> replaceWithBits(Float.floatToRawIntBits(x % y));
+            default -> replaceWithBool(compare(opcode, x, y));
         }
-        Collections.reverse(args);
+        return true;
+    }
 
-        final List<Object> params = new ArrayList<>(args.stream().map(ByteCodeValue::asObject).toList());
-        try {
-            final Object res = method.invoke(null, params.toArray(new Object[0]));
-            final ByteDatatype retType = ByteDatatype.of(argClassToArgString(method.getReturnType()));
-            if (res == null) {
-                if (method.isAnnotationPresent(Nonnull.class))
-                    throw new ByteCodeException("Null-value returned by native java method " + method + " while also annotated with " + Nonnull.class);
+    private boolean evalDoubleOperator(final int opcode, final double x, final double y) {
+        switch (opcode) {
+            case Opcodes.PLUS -> replaceWithBits(Double.doubleToRawLongBits(x + y));
+            case Opcodes.MINUS -> replaceWithBits(Double.doubleToRawLongBits(x - y));
+            case Opcodes.MULTIPLY -> replaceWithBits(Double.doubleToRawLongBits(x * y));
+            case Opcodes.DIVIDE -> replaceWithBits(Double.doubleToRawLongBits(x / y));
+            case Opcodes.MODULO -> replaceWithBits(Double.doubleToRawLongBits(x % y));
+            default -> replaceWithBool(compare(opcode, x, y));
+        }
+        return true;
+    }
 
-            }
+    private boolean evalStringConcat(final int x, final int y) {
+        final String result = (String) pushStack.ref(x) + pushStack.ref(y);
+        pushStack.drop(2);
+        pushStack.pushObject(ByteDatatype.STRING, result);
+        return true;
+    }
+
+    // comparisons involving NaN are always false, just like in ByteCodeValue
+    static boolean compare(final int opcode, final double x, final double y) {
+        return switch (opcode) {
+            case Opcodes.EQUALS -> x == y;
+            case Opcodes.LESS_THAN -> x < y;
+            case Opcodes.LESS_THAN_OR_EQUAL -> x <= y;
+            case Opcodes.GREATER_THAN -> x > y;
+            default -> x >= y;
+        };
+    }
+
+    static boolean compare(final int opcode, final int cmp) {
+        return switch (opcode) {
+            case Opcodes.EQUALS -> cmp == 0;
+            case Opcodes.LESS_THAN -> cmp < 0;
+            case Opcodes.LESS_THAN_OR_EQUAL -> cmp <= 0;
+            case Opcodes.GREATER_THAN -> cmp > 0;
+            default -> cmp >= 0;
+        };
+    }
 
-            if (retType != ByteDatatype.VOID) {
-                if (res == null) {
-                    push(ByteDatatype.NULL, new Byte[0]);
-                    return;
-                }
-                final Byte[] bytes = switch (retType.id()) {
-                    case 0x00 -> ArrayUtils.toObject(ByteCode.intToBytes(((boolean) res) ? 1 : 0));
-                    case 0x01, 0x02 -> ArrayUtils.toObject(ByteCode.intToBytes((int) res));
-                    case 0x03 -> ArrayUtils.toObject(ByteCode.longToBytes((long) res));
-                    case 0x04 -> ArrayUtils.toObject(ByteCode.floatToBytes((float) res));
-                    case 0x05 -> ArrayUtils.toObject(ByteCode.doubleToBytes((double) res));
-                    case 0x06 -> ByteCode.stringToBytes(String.valueOf(res));
-                    case 0x08 -> new Byte[0];
-                    default -> throw new ByteCodeException("Cannot use " + retType + " as a native function return datatype");
-                };
-                push(retType, bytes);
+    // the result has the type of both operands, so the left operand is overwritten in place
+    private void replaceWithBits(final long bits) {
+        pushStack.setBits(pushStack.top() - 1, bits);
+        pushStack.drop(1);
+    }
+
+    // int (op) int is by far the most common case, so it is computed in place on the push stack without creating any values.
+    // returns false for operators that are not handled here (and for divisions by zero, to keep their error handling in one place)
+    private boolean evalIntOperator(final int opcode, final int x, final int y) {
+        switch (opcode) {
+            case Opcodes.PLUS -> replaceWithInt(x + y);
+            case Opcodes.MINUS -> replaceWithInt(x - y);
+            case Opcodes.MULTIPLY -> replaceWithInt(x * y);
+            case Opcodes.DIVIDE, Opcodes.MODULO -> {
+                if (y == 0) return false;
+                replaceWithInt(opcode == Opcodes.DIVIDE ? x / y : x % y);
+            }
+            case Opcodes.EQUALS -> replaceWithBool(x == y);
+            case Opcodes.LESS_THAN -> replaceWithBool(x < y);
+            case Opcodes.LESS_THAN_OR_EQUAL -> replaceWithBool(x <= y);
+            case Opcodes.GREATER_THAN -> replaceWithBool(x > y);
+            case Opcodes.GREATER_THAN_OR_EQUAL -> replaceWithBool(x >= y);
+            default -> {
+                return false;
             }
-        } catch (final IllegalAccessException | InvocationTargetException e) {
-            throw new ByteCodeException("Cannot invoke native function method: " + e.getMessage());
         }
+        return true;
+    }
+
+    private void replaceWithInt(final int value) {
+        pushStack.drop(2);
+        pushStack.pushInt(value);
     }
 
-    private void evalJump(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final int jumpTo = readInt(values, 1, values.length - 1);
-        label = jumpTo - 2;
+    private void replaceWithBool(final boolean value) {
+        pushStack.drop(2);
+        pushStack.pushBool(value);
     }
 
-    private void evalJumpIf(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final int jumpTo = readInt(values, 1, values.length - 1);
-        final ByteCodeValue condition = pushTop().orElseThrow(() -> new ByteCodeException("No condition at top of stack for jump-if to work"));
-        if (condition.type().id() != ByteDatatype.BOOL.id()) throw new ByteCodeException("Expected boolean value as condition for jump-if opcode");
+    private void evalFuncCall(final int functionId) {
+        final ByteCodeRuntimeFunction func = functions[functionId];
 
-        final int condInt = Ints.fromByteArray(ArrayUtils.toPrimitive(condition.value()));
-        if (condInt != 0) label = jumpTo - 2;
-        popPushStack(); // pop condition since we dont need it anymore
+        if (func instanceof final ByteCodeInternFunction internFunc) {
+            if (jitRuntime != null && jitRuntime.tryCall(functionId)) return;
+            enterFrame(label + 1);
+            label = internFunc.label();
+        } else if (func instanceof final ByteCodeNativeFunction nativeFunc) {
+            invokeNativeFuncCall(nativeFunc);
+        }
     }
 
-    private void evalPop(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final int amount = readInt(values, 1, values.length - 1);
-        popVarStack(amount);
+    private void enterFrame(final int returnLabel) {
+        if (callDepth == frames.length) {
+            if (callDepth >= maxCallDepth) throw new ByteCodeException("Stack overflow: exceeded the maximum call depth of " + maxCallDepth);
+            final int capacity = Math.min(frames.length * 2, maxCallDepth);
+            frames = Arrays.copyOf(frames, capacity);
+            returnLabels = Arrays.copyOf(returnLabels, capacity);
+        }
+        frames[callDepth] = framePointer;
+        returnLabels[callDepth] = returnLabel;
+        callDepth++;
+        framePointer = variableStack.size();
+    }
+
+    void invokeNativeFuncCall(@NotNull final ByteCodeNativeFunction nativeFunc) {
+        final Object res;
+        try {
+            res = nativeFunc.invoke(pushStack);
+        } catch (final ByteCodeException e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new ByteCodeException("Cannot invoke native function method: " + e);
+        }
+        final ByteDatatype retType = nativeFunc.returnType();
+        if (retType != ByteDatatype.VOID) pushStack.pushObject(retType, res);
+    }
+
+    // jumps if the condition equals the expected one, so jump-if-not is a jump-if with a negated condition, without a separate not instruction
+    private void evalJumpIf(final int target, final boolean expected) {
+        if (pushStack.isEmpty()) throw new ByteCodeException("No condition at top of stack for jump-if to work");
+        final int condition = pushStack.top();
+        if (pushStack.code(condition) != ByteDatatype.BOOL.code()) throw new ByteCodeException("Expected boolean value as condition for jump-if opcode");
+
+        if ((pushStack.bits(condition) != 0L) == expected) label = target - 1;
+        pushStack.drop(1); // pop condition since we dont need it anymore
+    }
+
+    // compares the two values at the top of the stack and jumps depending on the result. two numbers of the same type are compared right on the stack,
+    // anything else goes through the operator itself and jump-if, so that both behave exactly like the separate instructions would
+    private void evalCompareJump(final int compareOpcode, final int target, final boolean expected) {
+        final int y = pushStack.top();
+        final int x = y - 1;
+        final byte type = x < 0 ? -1 : pushStack.code(x);
+        if (type < 0x02 || type > 0x05 || pushStack.code(y) != type) {
+            evalOperator(compareOpcode);
+            evalJumpIf(target, expected);
+            return;
+        }
+        final boolean result = switch (type) {
+            case 0x02 -> compare(compareOpcode, Integer.compare((int) pushStack.bits(x), (int) pushStack.bits(y)));
+            case 0x03 -> compare(compareOpcode, Long.compare(pushStack.bits(x), pushStack.bits(y)));
+            case 0x04 -> compare(compareOpcode, Float.intBitsToFloat((int) pushStack.bits(x)), Float.intBitsToFloat((int) pushStack.bits(y)));
+            default -> compare(compareOpcode, Double.longBitsToDouble(pushStack.bits(x)), Double.longBitsToDouble(pushStack.bits(y)));
+        };
+        pushStack.drop(2);
+        if (result == expected) label = target - 1;
     }
 
-    private void evalVarDeclare(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final ByteDatatype type = ByteDatatype.ofId(values[1]);
-        declareVar(type);
+    private int popAddress(@NotNull final String opcode) {
+        if (pushStack.isEmpty()) throw new ByteCodeException("No address specified for " + opcode + " opcode");
+        return pushStack.popInt();
     }
 
     private void evalValAtAddr() {
-        final ByteCodeValue addrBytes = pushTop().orElseThrow(() -> new ByteCodeException("No address specified for value at address opcode"));
-        final int addr = readInt(addrBytes.value());
-        final ByteCodeValue value = variableStack.get(addr - 1);
-        popPushStack();
-        push(value);
+        final int addr = popAddress("value at address");
+        pushStack.pushFrom(variableStack, addr - 1);
     }
 
     private void evalVariableMut(final boolean push) {
-        final ByteCodeValue addrBytes = pushTop().orElseThrow(() -> new ByteCodeException("No address specified for mutate variable opcode"));
-        final int addr = readInt(addrBytes.value());
-        //popPushStack();
-        final ByteCodeValue newValue = pushTop(1).orElseThrow(() -> new ByteCodeException("No new value specified for mutate variable opcode"));
-        variableStack.set(addr - 1, newValue);
-        popPushStack(2);
-        if (push) push(newValue);
+        mutateVariable(popAddress("mutate variable") - 1, push);
+    }
+
+    private void mutateVariable(final int addr, final boolean push) {
+        if (pushStack.isEmpty()) throw new ByteCodeException("No new value specified for mutate variable opcode");
+        variableStack.setFrom(addr, pushStack, pushStack.top());
+        if (!push) pushStack.drop(1);
     }
 
     private void evalVariableIncDec(final boolean push, final boolean inc) {
-        final ByteCodeValue addrBytes = pushTop().orElseThrow(() -> new ByteCodeException("No address specified for " + (inc ? "inc" : "dec") + " variable opcode"));
-        final int addr = readInt(addrBytes.value());
-        //popPushStack();
-        final Byte[] intValueRaw = ByteCode.integer(inc ? 1 : -1).codes();
-        final Byte[] intVal = Arrays.stream(intValueRaw)
-                .toList()
-                .subList(1, intValueRaw.length - 1)
-                .stream()
-                .toList()
-                .toArray(new Byte[0]);
-
-        final ByteCodeValue newValue = variableStack.get(addr - 1).plus(new ByteCodeValue(ByteDatatype.INT, intVal, this));
-        variableStack.set(addr - 1, newValue);
-        popPushStack(1);
-        if (push) push(newValue);
+        incDecVariable(popAddress((inc ? "inc" : "dec") + " variable") - 1, push, inc);
     }
 
-    private void evalValAtRelAddr() {
-        final ByteCodeValue addrBytes = pushTop().orElseThrow(() -> new ByteCodeException("No address specified for relative addr to absolut addr opcode"));
-        if (localAddrOffset.isEmpty()) throw new ByteCodeException("Relative address evaluation outside of function");
-        final int addr = readInt(addrBytes.value());
-        final ByteCodeValue val = atRelativeAddress(addr);
+    private void incDecVariable(final int addr, final boolean push, final boolean inc) {
+        increment(variableStack, addr, inc ? 1 : -1);
+        if (push) pushStack.pushFrom(variableStack, addr);
+    }
 
-        popPushStack();
-        push(val);
+    static void increment(@NotNull final ValueStack stack, final int index, final int amount) {
+        if (stack.code(index) == ByteDatatype.INT.code()) {
+            stack.setBits(index, (int) stack.bits(index) + amount);
+        } else {
+            stack.set(index, stack.get(index).plus(ByteCodeValue.intValue(amount)));
+        }
     }
 
-    private void evalRelToAbsAddr() {
-        final ByteCodeValue addrBytes = pushTop().orElseThrow(() -> new ByteCodeException("No address specified for relative addr to absolut addr opcode"));
-        if (localAddrOffset.isEmpty()) throw new ByteCodeException("Relative address evaluation outside of function");
-        final int addr = readInt(addrBytes.value());
-        final int abs = relativeToAbsoluteAddr(addr);
-        popPushStack();
-        push(ByteDatatype.INT, ArrayUtils.toObject(ByteCode.intToBytes(abs + 1)));
+    private void evalValAtRelAddr() {
+        final int addr = popAddress("value at relative address");
+        pushStack.pushFrom(variableStack, relativeToAbsoluteAddr(addr));
+    }
+
+    // local + constant, the push of the constant and the operator are skipped if the local is an int.
+    // otherwise only the load is done here and the rest of the sequence adds the constant as usual
+    private void evalLoadLocalAddConst(final int addr) {
+        final int local = relativeToAbsoluteAddr(addr);
+        pushStack.pushFrom(variableStack, local);
+        if (variableStack.code(local) != ByteDatatype.INT.code()) {
+            label++;
+            return;
+        }
+        pushStack.setBits(pushStack.top(), (int) variableStack.bits(local) + (int) constants[operands[label + 2]].bits());
+        label += 3;
     }
 
-    private int relativeToAbsoluteAddr(final int addr) {
-        final int currentRelAddr = localAddrOffset(localAddrOffsetIndex());
-        if (currentRelAddr == 0) throw new ByteCodeException("Cannot get variable at relative address, no variables have been defined in this function");
-        final int currentAbs = variableStack.size();
-        return currentAbs - currentRelAddr + addr;
+    private void evalRelToAbsAddr() {
+        final int addr = popAddress("relative addr to absolute addr");
+        pushStack.pushInt(relativeToAbsoluteAddr(addr) + 1);
     }
 
-    private ByteCodeValue atRelativeAddress(final int addr) {
-        return variableStack.get(relativeToAbsoluteAddr(addr));
+    private int relativeToAbsoluteAddr(final int addr) {
+        if (!active) throw new ByteCodeException("Relative address evaluation outside of function");
+        if (variableStack.size() == framePointer) throw new ByteCodeException("Cannot get variable at relative address, no variables have been defined in this function");
+        return framePointer + addr;
     }
 
-    private void evalInternFunc(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final String sig = readString(values, 6, values.length - 2).substring("!PARENT.".length());
+    private void evalInternFunc(@NotNull final String signatureString) {
+        final String sig = signatureString.substring("!PARENT.".length());
         final String[] signature = StringUtils.substringBetween(sig, "[", "]").split(", ");
         final String name = StringUtils.substringBefore(sig, "[");
         final List<ByteDatatype> params = Arrays.stream(signature).filter(s -> !s.isEmpty()).map(ByteDatatype::fromString).toList();
 
-        localAddrOffset.add(0);
+        inFunctionDefinition = true;
         functionDefinitions.put(currentFunctionId, new ByteCodeInternFunction(label));
         funcDefsByNames.put(Objects.hash(name, params.stream().map(ByteDatatype::name).toList()), currentFunctionId);
         currentFunctionId++;
@@ -564,9 +862,7 @@ public class ByteCodeInterpreter {
         return Arrays.stream(argTypes).map(ByteCodeInterpreter::argStringToArgClass).toList().toArray(new Class<?>[0]);
     }
 
-    private void evalNatFunc(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final String signature = readString(values, 6, values.length - 3);
+    private void evalNatFunc(@NotNull final String signature) {
         final String clazzWithMethod = StringUtils.substringBefore(signature, "(");
         final String returnType = StringUtils.substringAfterLast(signature, ")");
         final String[] argTypes = signature.substring(clazzWithMethod.length() + 1, signature.length() - returnType.length() - 1).split("\\|");
@@ -577,7 +873,8 @@ public class ByteCodeInterpreter {
         try {
             final Class<?> clazz = Class.forName(clazzStr);
             final Method method = clazz.getMethod(methodStr, argStringToArgClasses(argTypes));
-            functionDefinitions.put(currentFunctionId, new ByteCodeNativeFunction(method));
+            final ByteDatatype retType = ByteDatatype.of(argClassToArgString(method.getReturnType()));
+            functionDefinitions.put(currentFunctionId, new ByteCodeNativeFunction(method, retType));
             currentFunctionId++;
         } catch (final ClassNotFoundException e) {
             throw new ByteCodeException("Cannot find class '" + clazzStr + "'");
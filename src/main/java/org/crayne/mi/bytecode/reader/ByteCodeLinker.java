@@ -0,0 +1,175 @@
+package org.crayne.mi.bytecode.reader;
+
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import org.crayne.mi.bytecode.common.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.IntFunction;
+
+// lowers a list of bytecode instructions into a LinkedProgram, decoding every operand exactly once
+public class ByteCodeLinker {
+
+    private final List<ByteCodeInstruction> program;
+    private final IntFunction<ByteCodeEnum> enumDefinitions;
+
+    private final Map<ByteCodeValue, Integer> constantIndices = new HashMap<>();
+    private final List<ByteCodeValue> constants = new ArrayList<>();
+    private final Map<Byte, Integer> datatypeIndices = new HashMap<>();
+    private final List<ByteDatatype> datatypes = new ArrayList<>();
+    private final List<String> strings = new ArrayList<>();
+
+    private ByteCodeLinker(@NotNull final List<ByteCodeInstruction> program, @NotNull final IntFunction<ByteCodeEnum> enumDefinitions) {
+        this.program = program;
+        this.enumDefinitions = enumDefinitions;
+    }
+
+    public static LinkedProgram link(@NotNull final List<ByteCodeInstruction> program, @NotNull final IntFunction<ByteCodeEnum> enumDefinitions) {
+        return new ByteCodeLinker(program, enumDefinitions).link();
+    }
+
+    private LinkedProgram link() {
+        final int size = program.size();
+        final int[] opcodes = new int[size];
+        final int[] operands = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            final ByteCodeInstruction instr = program.get(i);
+            final ByteCode type = instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr));
+            opcodes[i] = Opcodes.of(type);
+            operands[i] = operand(type, instr.bytes(), i);
+        }
+        return new LinkedProgram(opcodes, operands,
+                constants.toArray(new ByteCodeValue[0]),
+                datatypes.toArray(new ByteDatatype[0]),
+                strings.toArray(new String[0]));
+    }
+
+    // replaces the first instruction of every variable access (push address; value at relative address and the like) by a superinstruction,
+    // which does the whole access with the address as its operand and skips the rest of it. the rest is left as it was, so that jumping
+    // into the middle of an access still works. only done after preparation, the global code is evaluated on the plain instructions
+    public static LinkedProgram fuse(@NotNull final LinkedProgram linked) {
+        final int[] opcodes = linked.opcodes().clone();
+        final int[] operands = linked.operands().clone();
+        final ByteCodeValue[] constants = linked.constants();
+
+        for (int i = 0; i < opcodes.length - 1; i++) {
+            if (opcodes[i] != Opcodes.PUSH || !pushesInt(linked, i)) continue;
+            final int superinstruction = superinstruction(linked, i);
+            if (superinstruction == -1) continue;
+
+            opcodes[i] = superinstruction;
+            operands[i] = (int) constants[operands[i]].bits();
+        }
+        return new LinkedProgram(opcodes, operands, constants, linked.datatypes(), linked.strings());
+    }
+
+    private static int superinstruction(@NotNull final LinkedProgram linked, final int push) {
+        final int[] opcodes = linked.opcodes();
+        final int second = push + 2 < opcodes.length ? opcodes[push + 2] : -1;
+        final int third = push + 3 < opcodes.length ? opcodes[push + 3] : -1;
+
+        return switch (opcodes[push + 1]) {
+            case Opcodes.VALUE_AT_RELATIVE_ADDRESS -> second == Opcodes.PUSH && pushesInt(linked, push + 2)
+                    && (third == Opcodes.PLUS || third == Opcodes.INT_PLUS) ? Opcodes.LOAD_LOCAL_ADD_CONST : Opcodes.LOAD_LOCAL;
+            case Opcodes.VALUE_AT_ADDRESS -> Opcodes.LOAD_GLOBAL;
+            case Opcodes.MUTATE_VARIABLE -> Opcodes.STORE_GLOBAL;
+            case Opcodes.RELATIVE_TO_ABSOLUTE_ADDRESS -> switch (second) {
+                case Opcodes.MUTATE_VARIABLE -> Opcodes.STORE_LOCAL;
+                case Opcodes.INC_VARIABLE -> Opcodes.INC_LOCAL;
+                case Opcodes.DEC_VARIABLE -> Opcodes.DEC_LOCAL;
+                default -> -1;
+            };
+            default -> -1;
+        };
+    }
+
+    private static boolean pushesInt(@NotNull final LinkedProgram linked, final int push) {
+        return linked.constants()[linked.operands()[push]].type().code() == ByteDatatype.INT.code();
+    }
+
+    private int operand(@NotNull final ByteCode type, final byte @NotNull [] values, final int index) {
+        final int end = values.length - 1;
+        return switch (type) {
+            case PUSH -> constant(pushedValue(values));
+            case JUMP, JUMP_IF, JUMP_IF_NOT, JUMP_IF_EQUALS, JUMP_IF_NOT_EQUALS, JUMP_IF_LESS_THAN, JUMP_IF_NOT_LESS_THAN, JUMP_IF_GREATER_THAN, JUMP_IF_NOT_GREATER_THAN,
+                 JUMP_IF_LESS_THAN_OR_EQUAL, JUMP_IF_NOT_LESS_THAN_OR_EQUAL, JUMP_IF_GREATER_THAN_OR_EQUAL, JUMP_IF_NOT_GREATER_THAN_OR_EQUAL -> jumpTarget(readInt(values, 1, end), index);
+            case POP, TRACEBACK, STDLIB_FINISH_LINE -> readInt(values, 1, end);
+            case FUNCTION_CALL -> functionId(readLong(values, 1, end));
+            case CAST, DECLARE_VARIABLE -> datatype(values[1]);
+            case ENUM_MEMBER_DEFINITION -> string(readString(values, 6, end));
+            case FUNCTION_DEFINITION_BEGIN -> string(readString(values, 6, end - 1));
+            case NATIVE_FUNCTION_DEFINITION_BEGIN -> string(readString(values, 6, end - 2));
+            default -> 0;
+        };
+    }
+
+    private ByteCodeValue pushedValue(final byte @NotNull [] values) {
+        final ByteCode valueType = ByteCode.of(values[1]).orElseThrow(() -> new ByteCodeException("Cannot find bytecode corresponding to " + ByteCodeReader.byteToHexString(values[1])));
+        final int end = values.length - 1;
+
+        return switch (valueType) {
+            case STRING_VALUE -> ByteCodeValue.stringValue(readString(values, 6, end));
+            case INTEGER_VALUE -> ByteCodeValue.intValue(readInt(values, 2, end));
+            case CHARACTER_VALUE -> ByteCodeValue.charValue(readInt(values, 2, end));
+            case FLOAT_VALUE -> ByteCodeValue.floatValue(Float.intBitsToFloat(readInt(values, 2, end)));
+            case DOUBLE_VALUE -> ByteCodeValue.doubleValue(Double.longBitsToDouble(readLong(values, 2, end)));
+            case LONG_INTEGER_VALUE -> ByteCodeValue.longValue(readLong(values, 2, end));
+            case BOOL_VALUE -> ByteCodeValue.boolValue(readInt(values, 2, end) != 0);
+            case ENUM_VALUE -> ByteCodeValue.enumValue(enumDefinitions.apply(readInt(values, 2, 6)), readInt(values, 6, end));
+            case NULL_VALUE -> ByteCodeValue.nullValue();
+            default -> throw new ByteCodeException("Cannot push value of type " + valueType);
+        };
+    }
+
+    // jump operands are 1-based labels, the linked operand is the index of the instruction to continue at
+    private int jumpTarget(final int jumpTo, final int index) {
+        final int target = jumpTo - 1;
+        if (target < 0 || target >= program.size())
+            throw new ByteCodeException("Jump at instruction " + index + " leads outside of the program (label " + jumpTo + ")");
+
+        return target;
+    }
+
+    private static int functionId(final long functionId) {
+        if (functionId < 0 || functionId > Integer.MAX_VALUE) throw new ByteCodeException("Invalid function id " + functionId);
+        return (int) functionId;
+    }
+
+    private int constant(@NotNull final ByteCodeValue value) {
+        return constantIndices.computeIfAbsent(value, v -> {
+            constants.add(v);
+            return constants.size() - 1;
+        });
+    }
+
+    private int datatype(final byte code) {
+        return datatypeIndices.computeIfAbsent(code, c -> {
+            datatypes.add(ByteDatatype.ofId(c));
+            return datatypes.size() - 1;
+        });
+    }
+
+    private int string(@NotNull final String s) {
+        strings.add(s);
+        return strings.size() - 1;
+    }
+
+    protected static int readInt(final byte @NotNull [] arr, final int subBegin, final int subEnd) {
+        if (subEnd - subBegin != Integer.BYTES) throw new ByteCodeException("Expected " + Integer.BYTES + " bytes for an integer operand, got " + (subEnd - subBegin));
+        return Ints.fromBytes(arr[subBegin], arr[subBegin + 1], arr[subBegin + 2], arr[subBegin + 3]);
+    }
+
+    protected static long readLong(final byte @NotNull [] arr, final int subBegin, final int subEnd) {
+        if (subEnd - subBegin != Long.BYTES) throw new ByteCodeException("Expected " + Long.BYTES + " bytes for a long integer operand, got " + (subEnd - subBegin));
+        return Longs.fromBytes(arr[subBegin], arr[subBegin + 1], arr[subBegin + 2], arr[subBegin + 3],
+                arr[subBegin + 4], arr[subBegin + 5], arr[subBegin + 6], arr[subBegin + 7]);
+    }
+
+    protected static String readString(final byte @NotNull [] arr, final int subBegin, final int subEnd) {
+        return new String(arr, subBegin, subEnd - subBegin, StandardCharsets.ISO_8859_1);
+    }
+
+}
@@ -0,0 +1,127 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteCodeEnum;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.communication.MiExecutionException;
+import org.crayne.mi.bytecode.reader.function.ByteCodeInternFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeRuntimeFunction;
+import org.crayne.mi.log.MessageHandler;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+// a loaded and prepared program: the linked code, the function and enum tables and the initial values of the global variables.
+// the code and the tables are not modified after preparation, so any amount of interpreters may execute the same program on different threads at once.
+// every interpreter keeps its own stacks, its own copy of the global variables and its own copy of the opcodes it quickens.
+// the only state that is shared and changed while running belongs to the jit: the invocation and back edge counters of every
+// ByteCodeInternFunction, the compiled code in Jit.compiled and the flags in Jit.failed. these races are benign. the counters are not
+// synchronized, so a lost update only makes a function hot a few calls later, and they stop counting once the jit decided.
+// code is only compiled and installed under the lock of the Jit, while Jit.compiled is read without it, which at worst misses code
+// for a few more calls; a JitFunction only has final fields, so a thread finding one sees all of it. Jit.failed is atomic
+public final class ByteCodeProgram {
+
+    private final MessageHandler messageHandler;
+    private final LinkedProgram code;
+    private final RegisterProgram registerProgram;
+    private final ClosureFunction[] closures;
+    private final Jit jit;
+    private final ByteCodeRuntimeFunction[] functions;
+    private final Map<Integer, Long> funcDefsByNames;
+    private final Map<Integer, ByteCodeEnum> enumDefinitions;
+    private final ByteCodeValue[] globals;
+    private final int stdlibFinishLine;
+
+    ByteCodeProgram(@NotNull final MessageHandler messageHandler, @NotNull final LinkedProgram code, @NotNull final RegisterProgram registerProgram,
+                    @NotNull final ByteCodeRuntimeFunction[] functions,
+                    @NotNull final Map<Integer, Long> funcDefsByNames, @NotNull final Map<Integer, ByteCodeEnum> enumDefinitions,
+                    @NotNull final ByteCodeValue[] globals, final int stdlibFinishLine) {
+        this.messageHandler = messageHandler;
+        this.code = code;
+        this.registerProgram = registerProgram;
+        this.functions = functions;
+        this.funcDefsByNames = Collections.unmodifiableMap(new HashMap<>(funcDefsByNames));
+        this.enumDefinitions = Collections.unmodifiableMap(new HashMap<>(enumDefinitions));
+        this.globals = globals;
+        this.stdlibFinishLine = stdlibFinishLine;
+        this.closures = ClosureCompiler.compile(registerProgram, code, functions.length);
+        this.jit = new Jit(this);
+    }
+
+    public static ByteCodeProgram prepare(@NotNull final List<ByteCodeInstruction> program, @NotNull final MessageHandler messageHandler) {
+        final ByteCodeInterpreter interpreter = new ByteCodeInterpreter(program, messageHandler);
+        interpreter.prepare();
+        return interpreter.program().orElseThrow(() -> new MiExecutionException("Could not prepare the Mi program, see the error output above"));
+    }
+
+    public ByteCodeInterpreter newInterpreter() {
+        return newInterpreter(ByteCodeInterpreter.DEFAULT_MAX_CALL_DEPTH);
+    }
+
+    public ByteCodeInterpreter newInterpreter(final int maxCallDepth) {
+        return new ByteCodeInterpreter(this, maxCallDepth);
+    }
+
+    public ByteCodeInterpreter newInterpreter(final int maxCallDepth, @NotNull final ExecutionEngine engine) {
+        final ByteCodeInterpreter interpreter = newInterpreter(maxCallDepth);
+        interpreter.engine(engine);
+        return interpreter;
+    }
+
+    public MessageHandler messageHandler() {
+        return messageHandler;
+    }
+
+    public int stdlibFinishLine() {
+        return stdlibFinishLine;
+    }
+
+    public int functionCount() {
+        return functions.length;
+    }
+
+    // the id of the function with the given full name (module.function) and parameter types, if there is one
+    public OptionalInt functionId(@NotNull final String fullName, @NotNull final List<ByteDatatype> params) {
+        final Long id = funcDefsByNames.get(Objects.hash(fullName, params.stream().map(ByteDatatype::name).toList()));
+        return id == null ? OptionalInt.empty() : OptionalInt.of((int) (long) id);
+    }
+
+    public Optional<ByteCodeInternFunction> internFunction(final int functionId) {
+        if (functionId < 0 || functionId >= functions.length) return Optional.empty();
+        return functions[functionId] instanceof final ByteCodeInternFunction function ? Optional.of(function) : Optional.empty();
+    }
+
+    LinkedProgram code() {
+        return code;
+    }
+
+    public RegisterProgram registerProgram() {
+        return registerProgram;
+    }
+
+    // the nodes of the closure engine for the function with the given id, null if it has no register code
+    ClosureFunction closures(final int functionId) {
+        return closures[functionId];
+    }
+
+    Jit jit() {
+        return jit;
+    }
+
+    ByteCodeRuntimeFunction[] functions() {
+        return functions;
+    }
+
+    Map<Integer, Long> funcDefsByNames() {
+        return funcDefsByNames;
+    }
+
+    Map<Integer, ByteCodeEnum> enumDefinitions() {
+        return enumDefinitions;
+    }
+
+    ByteCodeValue[] globals() {
+        return globals;
+    }
+
+}
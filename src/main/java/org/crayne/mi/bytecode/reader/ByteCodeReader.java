@@ -1,70 +1,108 @@
 package org.crayne.mi.bytecode.reader;
 
 import com.google.common.collect.Lists;
-import org.apache.commons.lang3.ArrayUtils;
 import org.crayne.mi.bytecode.common.ByteCode;
 import org.crayne.mi.bytecode.common.ByteCodeException;
 import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteDatatype;
 import org.crayne.mi.log.MessageHandler;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.function.Consumer;
-import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class ByteCodeReader {
 
+    // the reader decodes straight from this buffer (memory-mapped when reading a file), every instruction is copied out exactly once
+    private final ByteBuffer bytecodeProgram;
+    private final int programLength;
     private int currentBytePos = -1;
     private byte currentByte = 0;
-    private final List<Byte> bytecodeProgram;
+    private int instructionBegin = 0;
     private final List<ByteCodeInstruction> instructionSet;
     private final MessageHandler messageHandler;
-
-    private static List<Byte> bytes(@NotNull final String s) {
-        return List.of(ArrayUtils.toObject(s.getBytes(StandardCharsets.ISO_8859_1)));
-    }
+    private final boolean validate;
 
     public ByteCodeReader(@NotNull final String bytecodeProgram, @NotNull final MessageHandler messageHandler) {
-        this.bytecodeProgram = bytes(bytecodeProgram);
-        instructionSet = new ArrayList<>();
-        this.messageHandler = messageHandler;
+        this(bytecodeProgram, messageHandler, false);
     }
 
     public ByteCodeReader(@NotNull final File bytecodeFile, @NotNull final MessageHandler messageHandler) throws IOException {
-        this.bytecodeProgram = bytes(Files.readString(bytecodeFile.toPath(), StandardCharsets.ISO_8859_1));
+        this(bytecodeFile, messageHandler, false);
+    }
+
+    public ByteCodeReader(@NotNull final ByteBuffer bytecodeProgram, @NotNull final MessageHandler messageHandler) {
+        this(bytecodeProgram, messageHandler, false);
+    }
+
+    // in validation mode, the operands of every instruction are checked as well while loading (datatypes, jump targets, function ids),
+    // so that malformed bytecode is rejected before anything is executed
+    public ByteCodeReader(@NotNull final String bytecodeProgram, @NotNull final MessageHandler messageHandler, final boolean validate) {
+        this(ByteBuffer.wrap(bytecodeProgram.getBytes(StandardCharsets.ISO_8859_1)), messageHandler, validate);
+    }
+
+    public ByteCodeReader(@NotNull final File bytecodeFile, @NotNull final MessageHandler messageHandler, final boolean validate) throws IOException {
+        this(map(bytecodeFile), messageHandler, validate);
+    }
+
+    // reads the bytes between the position and the limit of the given buffer, without modifying the buffer itself
+    public ByteCodeReader(@NotNull final ByteBuffer bytecodeProgram, @NotNull final MessageHandler messageHandler, final boolean validate) {
+        this.bytecodeProgram = bytecodeProgram.slice().order(ByteOrder.BIG_ENDIAN);
+        this.programLength = this.bytecodeProgram.limit();
         instructionSet = new ArrayList<>();
         this.messageHandler = messageHandler;
+        this.validate = validate;
+    }
+
+    private static ByteBuffer map(@NotNull final File bytecodeFile) throws IOException {
+        try (final FileChannel channel = FileChannel.open(bytecodeFile.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
     }
 
     public List<ByteCodeInstruction> read() {
         try {
             next();
-            readHeader();
-            while (currentBytePos < bytecodeProgram.size()) {
+            if (readHeader() == ByteCode.BYTECODE_VERSION_COMPACT) {
+                // the decoded instructions are in the inline format, so the header has to say so as well
+                instructionSet.set(0, ByteCode.header());
+                instructionSet.addAll(CompactByteCodeDecoder.decode(bytecodeProgram, currentBytePos, validate));
+                currentBytePos = programLength;
+            }
+            while (currentBytePos < programLength) {
+                instructionBegin = currentBytePos;
                 final ByteCode code = byteCodeOfByte(currentByte);
                 next();
                 switch (code) {
-                    case PUSH -> readPushInstruction(code);
-                    case DEFINE_VARIABLE, DECLARE_VARIABLE, CAST -> readVariablar(code);
-                    case JUMP, JUMP_IF, POP, FUNCTION_CALL, STDLIB_FINISH_LINE, TRACEBACK -> readWithInteger(code);
-                    case NATIVE_FUNCTION_DEFINITION_BEGIN -> readNativeFunctionBegin(code);
-                    case FUNCTION_DEFINITION_BEGIN -> readFunctionBegin(code);
-                    case ENUM_MEMBER_DEFINITION -> readEnumMemberDefinition(code);
+                    case PUSH -> readPushInstruction();
+                    case DEFINE_VARIABLE, DECLARE_VARIABLE, CAST -> readVariablar();
+                    case JUMP, JUMP_IF, JUMP_IF_NOT, JUMP_IF_EQUALS, JUMP_IF_NOT_EQUALS, JUMP_IF_LESS_THAN, JUMP_IF_NOT_LESS_THAN, JUMP_IF_GREATER_THAN, JUMP_IF_NOT_GREATER_THAN,
+                            JUMP_IF_LESS_THAN_OR_EQUAL, JUMP_IF_NOT_LESS_THAN_OR_EQUAL, JUMP_IF_GREATER_THAN_OR_EQUAL, JUMP_IF_NOT_GREATER_THAN_OR_EQUAL, POP, FUNCTION_CALL, STDLIB_FINISH_LINE, TRACEBACK -> readWithInteger(code);
+                    case NATIVE_FUNCTION_DEFINITION_BEGIN -> readNativeFunctionBegin();
+                    case FUNCTION_DEFINITION_BEGIN -> readFunctionBegin();
+                    case ENUM_MEMBER_DEFINITION -> readEnumMemberDefinition();
                     case FUNCTION_DEFINITION_END, VALUE_AT_ADDRESS, EQUALS, NOT, PLUS, MINUS, MULTIPLY, DIVIDE, MODULO,
                             BIT_AND, BIT_OR, BIT_XOR, BIT_NOT, LOGICAL_AND, LOGICAL_OR, LESS_THAN, LESS_THAN_OR_EQUAL, GREATER_THAN, GREATER_THAN_OR_EQUAL, RELATIVE_TO_ABSOLUTE_ADDRESS,
                             MUTATE_VARIABLE, MUTATE_VARIABLE_AND_PUSH, INC_VARIABLE, INC_VARIABLE_AND_PUSH, DEC_VARIABLE, DEC_VARIABLE_AND_PUSH, BITSHIFT_LEFT,
                             BITSHIFT_RIGHT, VALUE_AT_RELATIVE_ADDRESS, RETURN_STATEMENT, ENUM_DEFINITION_END, ENUM_DEFINITION_BEGIN
-                        // any of the instructions that dont pass any arguments in should just be added to instruction set
-                            -> instruction(code, (l) -> {});
-                    default -> throw new ByteCodeException("Unhandled bytecode instruction " + code);
+                        // any of the instructions that dont pass any arguments in are complete already
+                            -> {}
+                    default -> {
+                        if (!ByteCode.typedOperator(code)) throw new ByteCodeException("Unhandled bytecode instruction " + code);
+                    }
                 }
                 expect(ByteCode.INSTRUCT_FINISH);
+                instruction();
             }
+            if (validate) validate();
         } catch (final Throwable e) {
             messageHandler.errorMsg("Caught an error while parsing mi bytecode: " + e.getMessage());
             return new ArrayList<>();
@@ -72,184 +110,185 @@ public class ByteCodeReader {
         return instructionSet;
     }
 
-    private void instruction(@NotNull final ByteCode code, final Consumer<ArrayList<Byte>> consumer) {
-        instructionSet.add(new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(code.code());
-            consumer.accept(this);
-        }}));
+    // every instruction is stored contiguously in the program, up to and including its final INSTRUCT_FINISH
+    private void instruction() {
+        final byte[] encoded = new byte[currentBytePos - instructionBegin];
+        bytecodeProgram.get(instructionBegin, encoded);
+        instructionSet.add(ByteCodeInstruction.ofEncoded(encoded));
     }
 
-    private void readPushInstruction(@NotNull final ByteCode code) throws Throwable {
-        final byte datatype = currentByte;
-        final Byte[] val = readValue();
-        instruction(code, (l) -> {
-            l.add(datatype);
-            l.addAll(listOfByteArray(val));
-        });
+    private void readPushInstruction() {
+        readValue();
     }
 
-    private void readVariablar(@NotNull final ByteCode code) {
+    private void readVariablar() {
         final byte datatype = currentByte;
+        if (validate && ByteDatatype.ofId(datatype) == ByteDatatype.UNKNOWN)
+            throw new ByteCodeException("Unknown datatype " + byteToHexString(datatype) + " at position " + currentBytePos);
+
         next();
-        instruction(code, (l) -> l.add(datatype));
     }
 
-    private static final Set<ByteCode> normalIntegerNeeded = new HashSet<>(Arrays.asList(ByteCode.POP, ByteCode.JUMP, ByteCode.JUMP_IF, ByteCode.TRACEBACK, ByteCode.STDLIB_FINISH_LINE));
+    private static final Set<ByteCode> normalIntegerNeeded = EnumSet.of(ByteCode.POP, ByteCode.JUMP, ByteCode.JUMP_IF, ByteCode.JUMP_IF_NOT, ByteCode.TRACEBACK, ByteCode.STDLIB_FINISH_LINE,
+            ByteCode.JUMP_IF_EQUALS, ByteCode.JUMP_IF_NOT_EQUALS, ByteCode.JUMP_IF_LESS_THAN, ByteCode.JUMP_IF_NOT_LESS_THAN, ByteCode.JUMP_IF_GREATER_THAN, ByteCode.JUMP_IF_NOT_GREATER_THAN,
+            ByteCode.JUMP_IF_LESS_THAN_OR_EQUAL, ByteCode.JUMP_IF_NOT_LESS_THAN_OR_EQUAL, ByteCode.JUMP_IF_GREATER_THAN_OR_EQUAL, ByteCode.JUMP_IF_NOT_GREATER_THAN_OR_EQUAL);
 
     private void readWithInteger(@NotNull final ByteCode code) {
-        final Byte[] num = normalIntegerNeeded.contains(code) ? readIntegerValue() : readLongIntegerValue();
-        instruction(code, (l) -> l.addAll(listOfByteArray(num)));
+        if (normalIntegerNeeded.contains(code)) readIntegerValue();
+        else readLongIntegerValue();
     }
 
-    private void readNativeFunctionBegin(@NotNull final ByteCode code) {
+    private void readNativeFunctionBegin() {
         expect(ByteCode.STRING_VALUE);
-        final Byte[] nativeFunction = readStringValue();
-
-        instruction(code, (l) -> {
-            l.add(ByteCode.STRING_VALUE.code());
-            l.addAll(listOfByteArray(nativeFunction));
-            expect(ByteCode.INSTRUCT_FINISH, ByteCode.FUNCTION_DEFINITION_END);
-            l.add(ByteCode.INSTRUCT_FINISH.code());
-            l.add(ByteCode.FUNCTION_DEFINITION_END.code());
-        });
+        readStringValue();
+        expect(ByteCode.INSTRUCT_FINISH, ByteCode.FUNCTION_DEFINITION_END);
     }
 
-    private void readFunctionBegin(@NotNull final ByteCode code) {
+    private void readFunctionBegin() {
         expect(ByteCode.STRING_VALUE);
-        final Byte[] functionSignature = readStringValue();
-
-        instruction(code, (l) -> {
-            l.add(ByteCode.STRING_VALUE.code());
-            l.addAll(listOfByteArray(functionSignature));
-            expect(ByteCode.INSTRUCT_FINISH);
-            l.add(ByteCode.INSTRUCT_FINISH.code());
-        });
+        readStringValue();
+        expect(ByteCode.INSTRUCT_FINISH);
     }
 
-    private void readEnumMemberDefinition(@NotNull final ByteCode code) {
+    private void readEnumMemberDefinition() {
         expect(ByteCode.STRING_VALUE);
-        final Byte[] memberName = readStringValue();
-        instruction(code, (l) -> {
-            l.add(ByteCode.STRING_VALUE.code());
-            l.addAll(listOfByteArray(memberName));
-        });
+        readStringValue();
+    }
+
+    private static ByteCode byteCodeOfByte(final byte b) {
+        final ByteCode code = ByteCode.decode(b);
+        if (code == null) throw new ByteCodeException("Unrecognized bytecode instruction " + byteToHexString(b));
+        return code;
+    }
+
+    private void validate() {
+        final int functions = (int) instructionSet.stream()
+                .map(ByteCodeInstruction::opcode)
+                .filter(c -> c == ByteCode.FUNCTION_DEFINITION_BEGIN.code() || c == ByteCode.NATIVE_FUNCTION_DEFINITION_BEGIN.code())
+                .count();
+
+        for (int i = 0; i < instructionSet.size(); i++) {
+            final byte[] codes = instructionSet.get(i).bytes();
+            final ByteCode code = ByteCode.decode(codes[0]);
+            switch (code) {
+                case JUMP, JUMP_IF, JUMP_IF_NOT, JUMP_IF_EQUALS, JUMP_IF_NOT_EQUALS, JUMP_IF_LESS_THAN, JUMP_IF_NOT_LESS_THAN, JUMP_IF_GREATER_THAN, JUMP_IF_NOT_GREATER_THAN,
+                        JUMP_IF_LESS_THAN_OR_EQUAL, JUMP_IF_NOT_LESS_THAN_OR_EQUAL, JUMP_IF_GREATER_THAN_OR_EQUAL, JUMP_IF_NOT_GREATER_THAN_OR_EQUAL -> {
+                    final int label = ByteCodeLinker.readInt(codes, 1, 5);
+                    if (label < 1 || label > instructionSet.size())
+                        throw new ByteCodeException("Instruction " + i + " (" + code + ") jumps to label " + label + ", which is outside of the program");
+                }
+                case FUNCTION_CALL -> {
+                    final long id = ByteCodeLinker.readLong(codes, 1, 9);
+                    if (id < 0 || id >= functions)
+                        throw new ByteCodeException("Instruction " + i + " calls function id " + id + ", but only " + functions + " functions are defined");
+                }
+            }
+        }
     }
 
-    private static ByteCode byteCodeOfByte(final byte b) throws Throwable {
-        return Arrays.stream(ByteCode.values()).filter(c -> c.code() == b).findFirst().orElseThrow((Supplier<Throwable>) () ->
-                new ByteCodeException("Unrecognized bytecode instruction " + byteToHexString(b)));
-    }
+    private static final byte[] expectedHeader = new byte[] {ByteCode.PROGRAM_HEADER.code(), (byte) 0x00, (byte) 0x6D, (byte) 0x00, (byte) 0x75};
 
-    private void readHeader() {
-        final byte[] expectedHeader = new byte[] {ByteCode.PROGRAM_HEADER.code(), (byte) 0x00, (byte) 0x6D, (byte) 0x00, (byte) 0x75};
+    private byte readHeader() {
         expect(expectedHeader);
         final byte bytecodeVersion = currentByte;
-        if (bytecodeVersion > ByteCode.BYTECODE_VERSION) throw new ByteCodeException("Unsupported bytecode version: " + bytecodeVersion);
+        if (bytecodeVersion < ByteCode.BYTECODE_VERSION_INLINE || bytecodeVersion > ByteCode.BYTECODE_VERSION) throw new ByteCodeException("Unsupported bytecode version: " + bytecodeVersion);
         next();
         expect(ByteCode.INSTRUCT_FINISH);
-        instructionSet.add(new ByteCodeInstruction(ByteCode.PROGRAM_HEADER.code(), (byte) 0x00, (byte) 0x6D, (byte) 0x00, (byte) 0x75, bytecodeVersion));
+        instruction();
+        return bytecodeVersion;
     }
 
-    public static List<Byte> listOfByteArray(final byte... arr) {
-        return listOfByteArray(ArrayUtils.toObject(arr));
-    }
-
-    public static List<Byte> listOfByteArray(final Byte... arr) {
-        return List.of(arr);
-    }
+    private static final ByteCode[] valueTypes = new ByteCode[] {ByteCode.ENUM_VALUE, ByteCode.FLOAT_VALUE, ByteCode.INTEGER_VALUE, ByteCode.LONG_INTEGER_VALUE,
+            ByteCode.CHARACTER_VALUE, ByteCode.STRING_VALUE, ByteCode.DOUBLE_VALUE, ByteCode.BOOL_VALUE, ByteCode.NULL_VALUE};
 
-    private Byte[] readValue() throws Throwable {
+    private void readValue() {
         final ByteCode valueType = byteCodeOfByte(currentByte);
-        expectAny(valueType, ByteCode.ENUM_VALUE, ByteCode.FLOAT_VALUE, ByteCode.INTEGER_VALUE, ByteCode.LONG_INTEGER_VALUE, ByteCode.CHARACTER_VALUE,
-                ByteCode.STRING_VALUE, ByteCode.DOUBLE_VALUE, ByteCode.BOOL_VALUE, ByteCode.NULL_VALUE);
+        expectAny(valueType, valueTypes);
 
-        return switch (valueType) {
+        switch (valueType) {
             case BOOL_VALUE, INTEGER_VALUE, CHARACTER_VALUE -> readIntegerValue();
             case LONG_INTEGER_VALUE -> readLongIntegerValue();
             case ENUM_VALUE -> readEnumValue();
             case FLOAT_VALUE -> readFloatValue();
             case DOUBLE_VALUE -> readDoubleValue();
             case STRING_VALUE -> readStringValue();
-            default -> new Byte[0];
-        };
-    }
-
-    private Byte[] readLongIntegerValue() {
-        return readBytes(8);
+        }
     }
 
-    private Byte[] readIntegerValue() {
-        return readBytes(4);
+    private void readLongIntegerValue() {
+        skip(8);
     }
 
-    private Byte[] readEnumValue() {
-        return readBytes(8);
+    private void readIntegerValue() {
+        skip(4);
     }
 
-    private Byte[] readDoubleValue() {
-        return readBytes(8);
+    private void readEnumValue() {
+        skip(8);
     }
 
-    private Byte[] readFloatValue() {
-        return readBytes(4);
+    private void readDoubleValue() {
+        skip(8);
     }
 
-    private Byte[] readByteValue() {
-        return readBytes(1);
+    private void readFloatValue() {
+        skip(4);
     }
 
-    private Byte[] readStringValue() {
-        final List<Byte> result = new ArrayList<>();
-        final Byte[] lengthBytes = readBytes(4);
-        final int length = ByteCode.bytesToInt(ArrayUtils.toPrimitive(lengthBytes));
-        final Byte[] stringBytes = readBytes(length);
-
-        result.addAll(List.of(lengthBytes));
-        result.addAll(List.of(stringBytes));
-        return result.toArray(new Byte[0]);
+    private void readStringValue() {
+        if (currentBytePos + Integer.BYTES > programLength) throw new ByteCodeException("Reached end of file");
+        final int length = bytecodeProgram.getInt(currentBytePos);
+        if (length < 0) throw new ByteCodeException("Invalid string length " + length + " at position " + currentBytePos);
+        skip(Integer.BYTES);
+        skip(length);
     }
 
-    private Byte[] readBytes(final int amount) {
-        final List<Byte> result = new ArrayList<>();
-        for (int i = 0; i < amount; i++) {
-            result.add(currentByte);
-            next();
-        }
-        return result.toArray(new Byte[0]);
+    // steps over the given amount of operand bytes, without looking at them
+    private void skip(final int amount) {
+        if (amount == 0) return;
+        if ((long) currentBytePos + amount > programLength) throw new ByteCodeException("Reached end of file");
+        currentBytePos += amount - 1;
+        next();
     }
 
     private void expectAny(@NotNull final ByteCode code, @NotNull final ByteCode... possible) {
-        expectAny(code.code(), ArrayUtils.toPrimitive(Arrays.stream(possible).map(ByteCode::code).toList().toArray(new Byte[0])));
+        expectAny(code.code(), possible);
     }
 
     private void expectAny(final byte b, @NotNull final ByteCode... possible) {
-        expectAny(b, ArrayUtils.toPrimitive(Arrays.stream(possible).map(ByteCode::code).toList().toArray(new Byte[0])));
+        for (final ByteCode code : possible) {
+            if (code.code() == b) {
+                next();
+                return;
+            }
+        }
+        throw new ByteCodeException("Expected any of the possible bytes " +
+                Arrays.stream(possible).map(c -> byteToHexString(c.code())).toList()
+                + ", but got " + byteToHexString(b) + " instead");
     }
 
-    private void expectAny(final byte b, final byte... possible) {
-        if (!List.of(ArrayUtils.toObject(possible)).contains(b))
-            throw new ByteCodeException("Expected any of the possible bytes " +
-                    Arrays.stream(ArrayUtils.toObject(possible)).map(ByteCodeReader::byteToHexString).toList()
-                    + ", but got " + byteToHexString(b) + " instead");
-        next();
+    private void expect(@NotNull final ByteCode next) {
+        expect(next.code());
     }
 
     private void expect(@NotNull final ByteCode... nextBytes) {
-        expect(ArrayUtils.toPrimitive(Arrays.stream(nextBytes).map(ByteCode::code).toList().toArray(new Byte[0])));
+        for (final ByteCode next : nextBytes) expect(next.code());
     }
 
     private void expect(final byte... nextBytes) {
-        for (final byte next : nextBytes) {
-            if (currentByte != next)
-                throw new ByteCodeException("Expected byte " + byteToHexString(next) + " at position " + currentBytePos + ", got " + byteToHexString(currentByte) + " instead");
-            next();
-        }
+        for (final byte next : nextBytes) expect(next);
+    }
+
+    private void expect(final byte next) {
+        if (currentByte != next)
+            throw new ByteCodeException("Expected byte " + byteToHexString(next) + " at position " + currentBytePos + ", got " + byteToHexString(currentByte) + " instead");
+        next();
     }
 
     private void next() {
-        if (currentBytePos >= bytecodeProgram.size()) throw new ByteCodeException("Reached end of file");
+        if (currentBytePos >= programLength) throw new ByteCodeException("Reached end of file");
         currentBytePos++;
-        currentByte = currentBytePos >= bytecodeProgram.size() ? 0 : bytecodeProgram.get(currentBytePos);
+        currentByte = currentBytePos >= programLength ? 0 : bytecodeProgram.get(currentBytePos);
     }
 
     public static List<ByteCodeInstruction> read(@NotNull final String bytecode, @NotNull final MessageHandler messageHandler) {
@@ -260,14 +299,21 @@ public class ByteCodeReader {
         return new ByteCodeReader(bytecodeFile, messageHandler).read();
     }
 
+    public static List<ByteCodeInstruction> read(@NotNull final File bytecodeFile, @NotNull final MessageHandler messageHandler, final boolean validate) throws Throwable {
+        return new ByteCodeReader(bytecodeFile, messageHandler, validate).read();
+    }
+
+    public static List<ByteCodeInstruction> read(@NotNull final ByteBuffer bytecode, @NotNull final MessageHandler messageHandler) {
+        return new ByteCodeReader(bytecode, messageHandler).read();
+    }
+
     public static String byteToHexString(final byte b) {
         return String.format("%02x", b);
     }
 
     public String toString() {
-        return "|-" + "-".repeat(32 * 3) + "|\n" + Lists.partition(bytecodeProgram
-                .stream()
-                .map(ByteCodeReader::byteToHexString)
+        return "|-" + "-".repeat(32 * 3) + "|\n" + Lists.partition(IntStream.range(0, programLength)
+                .mapToObj(i -> byteToHexString(bytecodeProgram.get(i)))
                 .toList(), 32)
                 .stream()
                 .map(l -> {
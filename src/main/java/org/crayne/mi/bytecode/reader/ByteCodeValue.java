@@ -1,393 +1,400 @@
 package org.crayne.mi.bytecode.reader;
 
-import org.apache.commons.lang3.ArrayUtils;
-import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeEnum;
 import org.crayne.mi.bytecode.common.ByteCodeException;
 import org.crayne.mi.bytecode.common.ByteDatatype;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.stream.Stream;
 
-public record ByteCodeValue(ByteDatatype type, Byte[] value, ByteCodeInterpreter runtime) {
+// a runtime value is a tagged slot: the datatype, the primitive payload as raw long bits and a reference for non-primitive payloads.
+// bool, char, int, long and enum ordinals are stored as plain long values, floats and doubles as their raw ieee bits,
+// strings are kept in ref, and enum values keep a reference to their enum definition in ref, so that their name can always be resolved.
+public record ByteCodeValue(ByteDatatype type, long bits, Object ref) {
 
-    public static ByteCodeValue boolValue(final boolean b, @NotNull final ByteCodeInterpreter runtime) {
-        return new ByteCodeValue(ByteDatatype.BOOL, ArrayUtils.toObject(ByteCode.intToBytes(b ? 1 : 0)), runtime);
+    public static final ByteCodeValue TRUE = new ByteCodeValue(ByteDatatype.BOOL, 1L, null);
+    public static final ByteCodeValue FALSE = new ByteCodeValue(ByteDatatype.BOOL, 0L, null);
+    public static final ByteCodeValue NULL = new ByteCodeValue(ByteDatatype.NULL, 0L, null);
+
+    private static final int INT_CACHE_LOW = -128;
+    private static final int INT_CACHE_HIGH = 1023;
+    private static final ByteCodeValue[] intCache = new ByteCodeValue[INT_CACHE_HIGH - INT_CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < intCache.length; i++) intCache[i] = new ByteCodeValue(ByteDatatype.INT, i + INT_CACHE_LOW, null);
+    }
+
+    public static ByteCodeValue boolValue(final boolean b) {
+        return b ? TRUE : FALSE;
+    }
+
+    public static ByteCodeValue charValue(final int c) {
+        return new ByteCodeValue(ByteDatatype.CHAR, c, null);
+    }
+
+    public static ByteCodeValue intValue(final int i) {
+        if (i >= INT_CACHE_LOW && i <= INT_CACHE_HIGH) return intCache[i - INT_CACHE_LOW];
+        return new ByteCodeValue(ByteDatatype.INT, i, null);
     }
 
-    private static boolean boolValue(final Byte[] val) {
-        return ByteCode.bytesToInt(ArrayUtils.toPrimitive(val)) != 0;
+    public static ByteCodeValue longValue(final long l) {
+        return new ByteCodeValue(ByteDatatype.LONG, l, null);
     }
 
-    private static char charValue(final Byte[] val) {
-        return (char) ByteCode.bytesToInt(ArrayUtils.toPrimitive(val));
+    public static ByteCodeValue floatValue(final float f) {
+        return new ByteCodeValue(ByteDatatype.FLOAT, Float.floatToRawIntBits(f), null);
     }
 
-    public static ByteCodeValue charValue(final int c, @NotNull final ByteCodeInterpreter runtime) {
-        return new ByteCodeValue(ByteDatatype.CHAR, ArrayUtils.toObject(ByteCode.intToBytes(c)), runtime);
+    public static ByteCodeValue doubleValue(final double d) {
+        return new ByteCodeValue(ByteDatatype.DOUBLE, Double.doubleToRawLongBits(d), null);
     }
 
-    public static ByteCodeValue intValue(final int i, @NotNull final ByteCodeInterpreter runtime) {
-        return new ByteCodeValue(ByteDatatype.INT, ArrayUtils.toObject(ByteCode.intToBytes(i)), runtime);
+    public static ByteCodeValue stringValue(@NotNull final String s) {
+        return new ByteCodeValue(ByteDatatype.STRING, 0L, s);
     }
 
-    private static int intValue(final Byte[] val) {
-        return ByteCode.bytesToInt(ArrayUtils.toPrimitive(val));
+    public static ByteCodeValue enumValue(@NotNull final ByteCodeEnum enumDef, final int ordinal) {
+        return new ByteCodeValue(ByteDatatype.ofEnum("", enumDef.id()), ordinal, enumDef);
     }
 
-    public static ByteCodeValue longValue(final long l, @NotNull final ByteCodeInterpreter runtime) {
-        return new ByteCodeValue(ByteDatatype.LONG, ArrayUtils.toObject(ByteCode.longToBytes(l)), runtime);
+    public static ByteCodeValue nullValue() {
+        return NULL;
     }
 
-    private static long longValue(final Byte[] val) {
-        return ByteCode.bytesToLong(ArrayUtils.toPrimitive(val));
+    // the value a declared but not yet defined variable holds
+    public static ByteCodeValue defaultValue(@NotNull final ByteDatatype type) {
+        return switch (type.code()) {
+            case 0x00 -> FALSE;
+            case 0x02 -> intValue(0);
+            case 0x08 -> NULL;
+            default -> new ByteCodeValue(type, 0L, null);
+        };
+    }
+
+    public static ByteCodeValue ofObject(@NotNull final ByteDatatype type, final Object obj) {
+        if (obj == null) return NULL;
+        return switch (type.code()) {
+            case 0x00 -> boolValue((boolean) obj);
+            case 0x01 -> charValue(obj instanceof final Character c ? c : (int) obj);
+            case 0x02 -> intValue((int) obj);
+            case 0x03 -> longValue((long) obj);
+            case 0x04 -> floatValue((float) obj);
+            case 0x05 -> doubleValue((double) obj);
+            case 0x06 -> stringValue(String.valueOf(obj));
+            case 0x08 -> NULL;
+            default -> throw new ByteCodeException("Cannot convert " + obj + " to a value of type " + type);
+        };
     }
 
-    public static ByteCodeValue floatValue(final float f, @NotNull final ByteCodeInterpreter runtime) {
-        return new ByteCodeValue(ByteDatatype.FLOAT, ArrayUtils.toObject(ByteCode.floatToBytes(f)), runtime);
+    public byte code() {
+        return type.code();
     }
 
-    private static float floatValue(final Byte[] val) {
-        return ByteCode.bytesToFloat(ArrayUtils.toPrimitive(val));
+    public boolean asBool() {
+        return switch (type.code()) {
+            case 0x04 -> asFloat() != 0.0f;
+            case 0x05 -> asDouble() != 0.0d;
+            case 0x06 -> ref != null && !((String) ref).isEmpty();
+            default -> bits != 0L;
+        };
     }
 
-    public static ByteCodeValue doubleValue(final double d, @NotNull final ByteCodeInterpreter runtime) {
-        return new ByteCodeValue(ByteDatatype.DOUBLE, ArrayUtils.toObject(ByteCode.doubleToBytes(d)), runtime);
+    public int asInt() {
+        return switch (type.code()) {
+            case 0x04 -> (int) asFloat();
+            case 0x05 -> (int) asDouble();
+            default -> (int) bits;
+        };
     }
 
-    private static double doubleValue(final Byte[] val) {
-        return ByteCode.bytesToDouble(ArrayUtils.toPrimitive(val));
+    public long asLong() {
+        return switch (type.code()) {
+            case 0x04 -> (long) Float.intBitsToFloat((int) bits);
+            case 0x05 -> (long) Double.longBitsToDouble(bits);
+            default -> bits;
+        };
     }
 
-    public static ByteCodeValue stringValue(@NotNull final String s, @NotNull final ByteCodeInterpreter runtime) {
-        final Byte[] codes = ByteCode.string(s).codes();
-        return new ByteCodeValue(ByteDatatype.STRING, Arrays.stream(codes).toList().subList(1, codes.length - 1).toArray(new Byte[0]), runtime);
+    public float asFloat() {
+        return switch (type.code()) {
+            case 0x04 -> Float.intBitsToFloat((int) bits);
+            case 0x05 -> (float) Double.longBitsToDouble(bits);
+            default -> (float) bits;
+        };
     }
 
-    private static String stringValue(final Byte[] val) {
-        return ByteCode.bytesToString(ArrayUtils.toPrimitive(val), true);
+    public double asDouble() {
+        return switch (type.code()) {
+            case 0x04 -> Float.intBitsToFloat((int) bits);
+            case 0x05 -> Double.longBitsToDouble(bits);
+            default -> (double) bits;
+        };
     }
 
-    private static ByteCodeValue nullValue(@NotNull final ByteCodeInterpreter runtime) {
-        return new ByteCodeValue(ByteDatatype.NULL, new Byte[0], runtime);
+    public String asText() {
+        return switch (type.code()) {
+            case 0x00, 0x02 -> Integer.toString((int) bits);
+            case 0x01 -> Character.toString((char) bits);
+            case 0x03 -> Long.toString(bits);
+            case 0x04 -> Float.toString(asFloat());
+            case 0x05 -> Double.toString(asDouble());
+            case 0x06 -> (String) ref;
+            case 0x07 -> ref instanceof final ByteCodeEnum enumDef ? enumDef.nameof((int) bits) : null;
+            default -> null;
+        };
     }
 
     public boolean noneMatchType(@NotNull final ByteDatatype... types) {
-        return !Stream.of(types).map(ByteDatatype::id).toList().contains(type.id());
+        return Stream.of(types).map(ByteDatatype::code).noneMatch(c -> c == type.code());
     }
 
     public boolean notANumber() {
-        return noneMatchType(ByteDatatype.INT, ByteDatatype.LONG, ByteDatatype.CHAR, ByteDatatype.FLOAT, ByteDatatype.DOUBLE);
+        return !isNumber(type.code());
     }
 
     public boolean notAnInteger() {
-        return noneMatchType(ByteDatatype.INT, ByteDatatype.LONG, ByteDatatype.CHAR);
+        return !isInteger(type.code());
     }
 
-    public ByteCodeValue not() {
-        if (isnull()) throw new ByteCodeException("Expected nonnull value for 'not' operator");
-        if (noneMatchType(ByteDatatype.BOOL)) throw new ByteCodeException("Expected boolean value for 'not' operator");
-        final int val = ByteCode.bytesToInt(ArrayUtils.toPrimitive(value));
-        return boolValue(val == 0, runtime);
+    private static boolean isNumber(final byte code) {
+        return code >= 0x01 && code <= 0x05;
+    }
+
+    private static boolean isInteger(final byte code) {
+        return code >= 0x01 && code <= 0x03;
     }
 
     public boolean isnull() {
-        return type == ByteDatatype.NULL;
+        return type.code() == ByteDatatype.NULL.code();
+    }
+
+    public boolean isEnum() {
+        return type.code() == ByteDatatype.ENUM.code();
+    }
+
+    public ByteCodeValue not() {
+        if (isnull()) throw new ByteCodeException("Expected nonnull value for 'not' operator");
+        if (type.code() != 0x00) throw new ByteCodeException("Expected boolean value for 'not' operator");
+        return boolValue(bits == 0L);
     }
 
     public ByteCodeValue bit_not() {
         if (isnull()) throw new ByteCodeException("Expected nonnull value for 'bit-not' operator");
         if (notAnInteger()) throw new ByteCodeException("Expected integer value for 'bit-not' operator");
-        return switch (type.id()) {
-            case 0x02 -> intValue(~intValue(value), runtime);
-            case 0x01 -> charValue(~intValue(value), runtime);
-            case 0x03 -> longValue(~longValue(value), runtime);
+        return switch (type.code()) {
+            case 0x02 -> intValue(~(int) bits);
+            case 0x01 -> charValue(~(int) bits);
+            case 0x03 -> longValue(~bits);
             default -> this;
         };
     }
 
     public ByteCodeValue equal(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        final boolean comparingEnums = type.code() == ByteDatatype.ENUM.code() && other.type.code() == ByteDatatype.ENUM.code();
-
-        if (comparingEnums) return boolValue(Arrays.equals(value, other.value), runtime);
-        if (heavier == null) return boolValue(false, runtime);
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
+        if (isEnum() && other.isEnum()) return boolValue(type.id() == other.type.id() && bits == other.bits);
+        if (isnull() || other.isnull()) return boolValue(isnull() && other.isnull());
+
+        return boolValue(switch (heavier(type.code(), other.type.code())) {
+            case 0x00, 0x01, 0x02 -> asInt() == other.asInt();
+            case 0x03 -> asLong() == other.asLong();
+            case 0x04 -> asFloat() == other.asFloat();
+            case 0x05 -> asDouble() == other.asDouble();
+            case 0x06 -> {
+                final String x = asText();
+                yield x != null && x.equals(other.asText());
+            }
+            default -> false;
+        });
+    }
 
-        return boolValue(Arrays.equals(safeCastX.value, safeCastY.value), runtime);
+    // the type-specialized operator paths below all work the same way:
+    // find the heavier of both datatypes, then read both payloads directly as that type, without creating casted intermediate values.
+    // if there is no common datatype (for example when using enums), the left value is returned unchanged.
+    private byte operandType(@NotNull final ByteCodeValue other, @NotNull final String operator) {
+        final byte heavier = heavier(type.code(), other.type.code());
+        if (heavier != -1 && (isnull() || other.isnull())) throw new ByteCodeException("Expected nonnull value for '" + operator + "' operator");
+        return heavier;
     }
 
     public ByteCodeValue plus(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'plus' operator");
-        if (safeCastX.notANumber() && safeCastX.noneMatchType(ByteDatatype.STRING))
-            throw new ByteCodeException("Expected string or number value for 'plus' operator");
-
-        return switch (safeCastX.type.id()) {
-            case 0x02 -> intValue(intValue(safeCastX.value) + intValue(safeCastY.value), runtime);
-            case 0x01 -> charValue(intValue(safeCastX.value) + intValue(safeCastY.value), runtime);
-            case 0x03 -> longValue(longValue(safeCastX.value) + longValue(safeCastY.value), runtime);
-            case 0x04 -> floatValue(floatValue(safeCastX.value) + floatValue(safeCastY.value), runtime);
-            case 0x05 -> doubleValue(doubleValue(safeCastX.value) + doubleValue(safeCastY.value), runtime);
-            case 0x06 -> stringValue(stringValue(safeCastX.value) + stringValue(safeCastY.value), runtime);
-            default -> this;
+        final byte heavier = operandType(other, "plus");
+        return switch (heavier) {
+            case -1 -> this;
+            case 0x02 -> intValue(asInt() + other.asInt());
+            case 0x01 -> charValue(asInt() + other.asInt());
+            case 0x03 -> longValue(asLong() + other.asLong());
+            case 0x04 -> floatValue(asFloat() + other.asFloat());
+            case 0x05 -> doubleValue(asDouble() + other.asDouble());
+            case 0x06 -> stringValue(asText() + other.asText());
+            default -> throw new ByteCodeException("Expected string or number value for 'plus' operator");
         };
     }
 
     public ByteCodeValue minus(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'minus' operator");
-        if (safeCastX.notANumber()) throw new ByteCodeException("Expected number value for 'minus' operator");
-
-        return switch (safeCastX.type.id()) {
-            case 0x02 -> intValue(intValue(safeCastX.value) - intValue(safeCastY.value), runtime);
-            case 0x01 -> charValue(intValue(safeCastX.value) - intValue(safeCastY.value), runtime);
-            case 0x03 -> longValue(longValue(safeCastX.value) - longValue(safeCastY.value), runtime);
-            case 0x04 -> floatValue(floatValue(safeCastX.value) - floatValue(safeCastY.value), runtime);
-            case 0x05 -> doubleValue(doubleValue(safeCastX.value) - doubleValue(safeCastY.value), runtime);
-            default -> this;
+        final byte heavier = operandType(other, "minus");
+        return switch (heavier) {
+            case -1 -> this;
+            case 0x02 -> intValue(asInt() - other.asInt());
+            case 0x01 -> charValue(asInt() - other.asInt());
+            case 0x03 -> longValue(asLong() - other.asLong());
+            case 0x04 -> floatValue(asFloat() - other.asFloat());
+            case 0x05 -> doubleValue(asDouble() - other.asDouble());
+            default -> throw new ByteCodeException("Expected number value for 'minus' operator");
         };
     }
 
     public ByteCodeValue multiply(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'multiply' operator");
-        if (safeCastX.notANumber()) throw new ByteCodeException("Expected number value for 'multiply' operator");
-
-        return switch (safeCastX.type.id()) {
-            case 0x02 -> intValue(intValue(safeCastX.value) * intValue(safeCastY.value), runtime);
-            case 0x01 -> charValue(intValue(safeCastX.value) * intValue(safeCastY.value), runtime);
-            case 0x03 -> longValue(longValue(safeCastX.value) * longValue(safeCastY.value), runtime);
-            case 0x04 -> floatValue(floatValue(safeCastX.value) * floatValue(safeCastY.value), runtime);
-            case 0x05 -> doubleValue(doubleValue(safeCastX.value) * doubleValue(safeCastY.value), runtime);
-            default -> this;
+        final byte heavier = operandType(other, "multiply");
+        return switch (heavier) {
+            case -1 -> this;
+            case 0x02 -> intValue(asInt() * other.asInt());
+            case 0x01 -> charValue(asInt() * other.asInt());
+            case 0x03 -> longValue(asLong() * other.asLong());
+            case 0x04 -> floatValue(asFloat() * other.asFloat());
+            case 0x05 -> doubleValue(asDouble() * other.asDouble());
+            default -> throw new ByteCodeException("Expected number value for 'multiply' operator");
         };
     }
 
     public ByteCodeValue divide(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'divide' operator");
-        if (safeCastX.notANumber()) throw new ByteCodeException("Expected number value for 'divide' operator");
-
-        return switch (safeCastX.type.id()) {
-            case 0x02 -> intValue(intValue(safeCastX.value) / intValue(safeCastY.value), runtime);
-            case 0x01 -> charValue(intValue(safeCastX.value) / intValue(safeCastY.value), runtime);
-            case 0x03 -> longValue(longValue(safeCastX.value) / longValue(safeCastY.value), runtime);
-            case 0x04 -> floatValue(floatValue(safeCastX.value) / floatValue(safeCastY.value), runtime);
-            case 0x05 -> doubleValue(doubleValue(safeCastX.value) / doubleValue(safeCastY.value), runtime);
-            default -> this;
+        final byte heavier = operandType(other, "divide");
+        return switch (heavier) {
+            case -1 -> this;
+            case 0x02 -> intValue(asInt() / other.asInt());
+            case 0x01 -> charValue(asInt() / other.asInt());
+            case 0x03 -> longValue(asLong() / other.asLong());
+            case 0x04 -> floatValue(asFloat() / other.asFloat());
+            case 0x05 -> doubleValue(asDouble() / other.asDouble());
+            default -> throw new ByteCodeException("Expected number value for 'divide' operator");
         };
     }
 
     public ByteCodeValue modulo(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'modulo' operator");
-        if (safeCastX.notANumber()) throw new ByteCodeException("Expected number value for 'modulo' operator");
-
-        return switch (safeCastX.type.id()) {
-            case 0x02 -> intValue(intValue(safeCastX.value) % intValue(safeCastY.value), runtime);
-            case 0x01 -> charValue(intValue(safeCastX.value) % intValue(safeCastY.value), runtime);
-            case 0x03 -> longValue(longValue(safeCastX.value) % longValue(safeCastY.value), runtime);
-            case 0x04 -> floatValue(floatValue(safeCastX.value) % floatValue(safeCastY.value), runtime);
-            case 0x05 -> doubleValue(doubleValue(safeCastX.value) % doubleValue(safeCastY.value), runtime);
-            default -> this;
+        final byte heavier = operandType(other, "modulo");
+        return switch (heavier) {
+            case -1 -> this;
+            case 0x02 -> intValue(asInt() % other.asInt());
+            case 0x01 -> charValue(asInt() % other.asInt());
+            case 0x03 -> longValue(asLong() % other.asLong());
+            case 0x04 -> floatValue(asFloat() % other.asFloat());
+            case 0x05 -> doubleValue(asDouble() % other.asDouble());
+            default -> throw new ByteCodeException("Expected number value for 'modulo' operator");
         };
     }
 
     public ByteCodeValue bit_and(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'bit-and' operator");
-        if (safeCastX.notAnInteger()) throw new ByteCodeException("Expected integer value for 'bit-and' operator");
-
-        return switch (safeCastX.type.id()) {
-            case 0x02 -> intValue(intValue(safeCastX.value) & intValue(safeCastY.value), runtime);
-            case 0x01 -> charValue(intValue(safeCastX.value) & intValue(safeCastY.value), runtime);
-            case 0x03 -> longValue(longValue(safeCastX.value) & longValue(safeCastY.value), runtime);
-            default -> this;
+        final byte heavier = operandType(other, "bit-and");
+        return switch (heavier) {
+            case -1 -> this;
+            case 0x02 -> intValue(asInt() & other.asInt());
+            case 0x01 -> charValue(asInt() & other.asInt());
+            case 0x03 -> longValue(asLong() & other.asLong());
+            default -> throw new ByteCodeException("Expected integer value for 'bit-and' operator");
         };
     }
 
     public ByteCodeValue bit_or(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'bit-or' operator");
-        if (safeCastX.notAnInteger()) throw new ByteCodeException("Expected integer value for 'bit-or' operator");
-
-        return switch (safeCastX.type.id()) {
-            case 0x02 -> intValue(intValue(safeCastX.value) | intValue(safeCastY.value), runtime);
-            case 0x01 -> charValue(intValue(safeCastX.value) | intValue(safeCastY.value), runtime);
-            case 0x03 -> longValue(longValue(safeCastX.value) | longValue(safeCastY.value), runtime);
-            default -> this;
+        final byte heavier = operandType(other, "bit-or");
+        return switch (heavier) {
+            case -1 -> this;
+            case 0x02 -> intValue(asInt() | other.asInt());
+            case 0x01 -> charValue(asInt() | other.asInt());
+            case 0x03 -> longValue(asLong() | other.asLong());
+            default -> throw new ByteCodeException("Expected integer value for 'bit-or' operator");
         };
     }
 
     public ByteCodeValue bit_xor(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'bit-xor' operator");
-        if (safeCastX.notAnInteger()) throw new ByteCodeException("Expected integer value for 'bit-xor' operator");
-
-        return switch (safeCastX.type.id()) {
-            case 0x02 -> intValue(intValue(safeCastX.value) ^ intValue(safeCastY.value), runtime);
-            case 0x01 -> charValue(intValue(safeCastX.value) ^ intValue(safeCastY.value), runtime);
-            case 0x03 -> longValue(longValue(safeCastX.value) ^ longValue(safeCastY.value), runtime);
-            default -> this;
+        final byte heavier = operandType(other, "bit-xor");
+        return switch (heavier) {
+            case -1 -> this;
+            case 0x02 -> intValue(asInt() ^ other.asInt());
+            case 0x01 -> charValue(asInt() ^ other.asInt());
+            case 0x03 -> longValue(asLong() ^ other.asLong());
+            default -> throw new ByteCodeException("Expected integer value for 'bit-xor' operator");
         };
     }
 
     public ByteCodeValue bit_shift_left(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'bit-shift-left' operator");
-        if (safeCastX.notAnInteger()) throw new ByteCodeException("Expected integer value for 'bit-shift-left' operator");
-
-        return switch (safeCastX.type.id()) {
-            case 0x02 -> intValue(intValue(safeCastX.value) << intValue(safeCastY.value), runtime);
-            case 0x01 -> charValue(intValue(safeCastX.value) << intValue(safeCastY.value), runtime);
-            case 0x03 -> longValue(longValue(safeCastX.value) << longValue(safeCastY.value), runtime);
-            default -> this;
+        final byte heavier = operandType(other, "bit-shift-left");
+        return switch (heavier) {
+            case -1 -> this;
+            case 0x02 -> intValue(asInt() << other.asInt());
+            case 0x01 -> charValue(asInt() << other.asInt());
+            case 0x03 -> longValue(asLong() << other.asLong());
+            default -> throw new ByteCodeException("Expected integer value for 'bit-shift-left' operator");
         };
     }
 
     public ByteCodeValue bit_shift_right(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'bit-shift-right' operator");
-        if (safeCastX.notAnInteger()) throw new ByteCodeException("Expected integer value for 'bit-shift-right' operator");
-
-        return switch (safeCastX.type.id()) {
-            case 0x02 -> intValue(intValue(safeCastX.value) >> intValue(safeCastY.value), runtime);
-            case 0x01 -> charValue(intValue(safeCastX.value) >> intValue(safeCastY.value), runtime);
-            case 0x03 -> longValue(longValue(safeCastX.value) >> longValue(safeCastY.value), runtime);
-            default -> this;
+        final byte heavier = operandType(other, "bit-shift-right");
+        return switch (heavier) {
+            case -1 -> this;
+            case 0x02 -> intValue(asInt() >> other.asInt());
+            case 0x01 -> charValue(asInt() >> other.asInt());
+            case 0x03 -> longValue(asLong() >> other.asLong());
+            default -> throw new ByteCodeException("Expected integer value for 'bit-shift-right' operator");
         };
     }
 
     public ByteCodeValue logical_and(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'logical-and' operator");
-        if (safeCastX.noneMatchType(ByteDatatype.BOOL)) throw new ByteCodeException("Expected boolean value for 'logical-and' operator");
-
-        return safeCastX.type.id() == 0x00 ? boolValue(boolValue(safeCastX.value) && boolValue(safeCastY.value), runtime) : this;
+        final byte heavier = operandType(other, "logical-and");
+        if (heavier == -1) return this;
+        if (heavier != 0x00) throw new ByteCodeException("Expected boolean value for 'logical-and' operator");
+        return boolValue(bits != 0L && other.bits != 0L);
     }
 
     public ByteCodeValue logical_or(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'logical-or' operator");
-        if (safeCastX.noneMatchType(ByteDatatype.BOOL)) throw new ByteCodeException("Expected boolean value for 'logical-or' operator");
+        final byte heavier = operandType(other, "logical-or");
+        if (heavier == -1) return this;
+        if (heavier != 0x00) throw new ByteCodeException("Expected boolean value for 'logical-or' operator");
+        return boolValue(bits != 0L || other.bits != 0L);
+    }
+
+    // compares both values as their heavier datatype, returning a negative number, zero or a positive number.
+    // strings are compared by their length.
+    private int compare(@NotNull final ByteCodeValue other, @NotNull final String operator) {
+        final byte heavier = operandType(other, operator);
+        return switch (heavier) {
+            case 0x01, 0x02 -> Integer.compare(asInt(), other.asInt());
+            case 0x03 -> Long.compare(asLong(), other.asLong());
+            case 0x04 -> compareFloating(asFloat(), other.asFloat());
+            case 0x05 -> compareFloating(asDouble(), other.asDouble());
+            case 0x06 -> Integer.compare(asText().length(), other.asText().length());
+            default -> throw new ByteCodeException("Expected string or number value for '" + operator + "' operator");
+        };
+    }
+
+    // unlike Double.compare, any comparison involving NaN has to be false, so NaN compares as unordered here
+    private static int compareFloating(final double x, final double y) {
+        if (x < y) return -1;
+        if (x > y) return 1;
+        return x == y ? 0 : Integer.MIN_VALUE;
+    }
 
-        return safeCastX.type.id() == 0x00 ? boolValue(boolValue(safeCastX.value) || boolValue(safeCastY.value), runtime) : this;
+    private boolean comparable(@NotNull final ByteCodeValue other) {
+        return heavier(type.code(), other.type.code()) != -1;
     }
 
     public ByteCodeValue less_than(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'less-than' operator");
-        if (safeCastX.notANumber() && safeCastX.noneMatchType(ByteDatatype.STRING))
-            throw new ByteCodeException("Expected string or number value for 'less-than' operator");
-
-        return switch (safeCastX.type.id()) {
-            case 0x02, 0x01 -> boolValue(intValue(safeCastX.value) < intValue(safeCastY.value), runtime);
-            case 0x03 -> boolValue(longValue(safeCastX.value) < longValue(safeCastY.value), runtime);
-            case 0x04 -> boolValue(floatValue(safeCastX.value) < floatValue(safeCastY.value), runtime);
-            case 0x05 -> boolValue(doubleValue(safeCastX.value) < doubleValue(safeCastY.value), runtime);
-            case 0x06 -> boolValue(stringValue(safeCastX.value).length() < stringValue(safeCastY.value).length(), runtime);
-            default -> this;
-        };
+        if (!comparable(other)) return this;
+        final int cmp = compare(other, "less-than");
+        return boolValue(cmp < 0 && cmp != Integer.MIN_VALUE);
     }
 
     public ByteCodeValue less_than_or_equal(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'less-than-or-equal' operator");
-        if (safeCastX.notANumber() && safeCastX.noneMatchType(ByteDatatype.STRING))
-            throw new ByteCodeException("Expected string or number value for 'less-than-or-equal' operator");
-
-        return switch (safeCastX.type.id()) {
-            case 0x02, 0x01 -> boolValue(intValue(safeCastX.value) <= intValue(safeCastY.value), runtime);
-            case 0x03 -> boolValue(longValue(safeCastX.value) <= longValue(safeCastY.value), runtime);
-            case 0x04 -> boolValue(floatValue(safeCastX.value) <= floatValue(safeCastY.value), runtime);
-            case 0x05 -> boolValue(doubleValue(safeCastX.value) <= doubleValue(safeCastY.value), runtime);
-            case 0x06 -> boolValue(stringValue(safeCastX.value).length() <= stringValue(safeCastY.value).length(), runtime);
-            default -> this;
-        };
+        if (!comparable(other)) return this;
+        final int cmp = compare(other, "less-than-or-equal");
+        return boolValue(cmp <= 0 && cmp != Integer.MIN_VALUE);
     }
 
     public ByteCodeValue greater_than(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'greater-than' operator");
-        if (safeCastX.notANumber() && safeCastX.noneMatchType(ByteDatatype.STRING))
-            throw new ByteCodeException("Expected string or number value for 'greater-than' operator");
-
-        return switch (safeCastX.type.id()) {
-            case 0x02, 0x01 -> boolValue(intValue(safeCastX.value) > intValue(safeCastY.value), runtime);
-            case 0x03 -> boolValue(longValue(safeCastX.value) > longValue(safeCastY.value), runtime);
-            case 0x04 -> boolValue(floatValue(safeCastX.value) > floatValue(safeCastY.value), runtime);
-            case 0x05 -> boolValue(doubleValue(safeCastX.value) > doubleValue(safeCastY.value), runtime);
-            case 0x06 -> boolValue(stringValue(safeCastX.value).length() > stringValue(safeCastY.value).length(), runtime);
-            default -> this;
-        };
+        if (!comparable(other)) return this;
+        return boolValue(compare(other, "greater-than") > 0);
     }
 
     public ByteCodeValue greater_than_or_equal(@NotNull final ByteCodeValue other) {
-        final ByteDatatype heavier = heavier(type, other.type);
-        if (heavier == null) return this;
-        final ByteCodeValue safeCastX = cast(heavier);
-        final ByteCodeValue safeCastY = other.cast(heavier);
-        if (safeCastX.isnull()) throw new ByteCodeException("Expected nonnull value for 'greater-than-or-equal' operator");
-        if (safeCastX.notANumber() && safeCastX.noneMatchType(ByteDatatype.STRING))
-            throw new ByteCodeException("Expected string or number value for 'greater-than-or-equal' operator");
-
-        return switch (safeCastX.type.id()) {
-            case 0x02, 0x01 -> boolValue(intValue(safeCastX.value) >= intValue(safeCastY.value), runtime);
-            case 0x03 -> boolValue(longValue(safeCastX.value) >= longValue(safeCastY.value), runtime);
-            case 0x04 -> boolValue(floatValue(safeCastX.value) >= floatValue(safeCastY.value), runtime);
-            case 0x05 -> boolValue(doubleValue(safeCastX.value) >= doubleValue(safeCastY.value), runtime);
-            case 0x06 -> boolValue(stringValue(safeCastX.value).length() >= stringValue(safeCastY.value).length(), runtime);
-            default -> this;
-        };
+        if (!comparable(other)) return this;
+        return boolValue(compare(other, "greater-than-or-equal") >= 0);
     }
 
     public String asString() {
@@ -395,41 +402,43 @@ public record ByteCodeValue(ByteDatatype type, Byte[] value, ByteCodeInterpreter
     }
 
     public Object asObject() {
-        return switch (type.id()) {
-            case 0x00 -> boolValue(value);
-            case 0x01 -> charValue(value);
-            case 0x02 -> intValue(value);
-            case 0x03 -> longValue(value);
-            case 0x04 -> floatValue(value);
-            case 0x05 -> doubleValue(value);
-            case 0x06 -> stringValue(value);
+        return switch (type.code()) {
+            case 0x00 -> bits != 0L;
+            case 0x01 -> (char) bits;
+            case 0x02 -> (int) bits;
+            case 0x03 -> bits;
+            case 0x04 -> asFloat();
+            case 0x05 -> asDouble();
+            case 0x06 -> ref;
             default -> null;
         };
     }
 
-    private static final Map<Integer, Integer> datatypeRanking = new HashMap<>() {{
-        this.put(ByteDatatype.DOUBLE.id(), 3);
-        this.put(ByteDatatype.FLOAT.id(), 4);
-        this.put(ByteDatatype.LONG.id(), 5);
-        this.put(ByteDatatype.INT.id(), 6);
-        this.put(ByteDatatype.CHAR.id(), 6);
-        this.put(ByteDatatype.BOOL.id(), 7);
-        this.put(ByteDatatype.STRING.id(), 8);
-        this.put(ByteDatatype.NULL.id(), 9);
-    }};
+    // ranking of the primitive datatypes by their byte code, the lower the heavier. enums (0x07) cannot be ranked.
+    // equally ranked datatypes resolve to the left one, the same way MiDatatype.heavier does at compile time
+    private static final int[] datatypeRanking = new int[] {7, 6, 6, 5, 4, 3, 8, -1, 9};
 
-    public static ByteDatatype heavier(@NotNull final ByteDatatype d1, @NotNull final ByteDatatype d2) {
-        if (d1.id() == ByteDatatype.STRING.id()) return d1;
-        if (d2.id() == ByteDatatype.STRING.id()) return d2;
+    private static int rank(final byte code) {
+        return code < 0 || code >= datatypeRanking.length ? -1 : datatypeRanking[code];
+    }
+
+    public static byte heavier(final byte c1, final byte c2) {
+        if (c1 == 0x06 || c2 == 0x06) return 0x06;
+
+        final int r1 = rank(c1);
+        final int r2 = rank(c2);
+        if (r1 == -1 || r2 == -1) return -1;
+        return r1 <= r2 ? c1 : c2;
+    }
 
-        final Integer r1 = datatypeRanking.get(d1.id());
-        final Integer r2 = datatypeRanking.get(d2.id());
-        if (r1 == null || r2 == null) return null;
-        return r1 < r2 ? d1 : d2;
+    public static ByteDatatype heavier(@NotNull final ByteDatatype d1, @NotNull final ByteDatatype d2) {
+        final byte heavier = heavier(d1.code(), d2.code());
+        if (heavier == -1) return null;
+        return heavier == d1.code() ? d1 : d2;
     }
 
     public ByteCodeValue cast(@NotNull final ByteDatatype newType) {
-        return switch (newType.id()) {
+        return switch (newType.code()) {
             case 0x00 -> castToBool();
             case 0x01 -> castToChar();
             case 0x02 -> castToInt();
@@ -437,141 +446,113 @@ public record ByteCodeValue(ByteDatatype type, Byte[] value, ByteCodeInterpreter
             case 0x04 -> castToFloat();
             case 0x05 -> castToDouble();
             case 0x06 -> castToString();
-            case 0x08 -> nullValue(runtime);
+            case 0x08 -> NULL;
             default -> null;
         };
     }
 
     public ByteCodeValue castToBool() {
-        return switch (type.id()) {
+        return switch (type.code()) {
             case 0x00 -> this;
-            case 0x01, 0x02 -> boolValue(intValue(value) != 0, runtime);
-            case 0x03 -> boolValue(longValue(value) != 0L, runtime);
-            case 0x04 -> boolValue(floatValue(value) != 0.0f, runtime);
-            case 0x05 -> boolValue(doubleValue(value) != 0.0d, runtime);
-            case 0x06 -> boolValue(!stringValue(value).isEmpty(), runtime);
-            case 0x07 -> boolValue(false, runtime);
-            case 0x08 -> nullValue(runtime);
+            case 0x01, 0x02, 0x03, 0x04, 0x05, 0x06 -> boolValue(asBool());
+            case 0x07 -> FALSE;
+            case 0x08 -> NULL;
             default -> null;
         };
     }
 
     public ByteCodeValue castToChar() {
-        if (type.code() == ByteDatatype.ENUM.code()) return charValue(runtime.ordinalOfEnumMember(this), runtime);
-        return switch (type.id()) {
-            case 0x00, 0x02 -> charValue(intValue(value), runtime);
+        return switch (type.code()) {
+            case 0x00, 0x02, 0x03, 0x04, 0x05, 0x07 -> charValue(asInt());
             case 0x01 -> this;
-            case 0x03 -> charValue((int) longValue(value), runtime);
-            case 0x04 -> charValue((int) floatValue(value), runtime);
-            case 0x05 -> charValue((int) doubleValue(value), runtime);
             case 0x06 -> {
-                final String val = stringValue(value);
-                yield charValue(val.length() == 1 ? val.charAt(0) : 0, runtime);
+                final String val = (String) ref;
+                yield charValue(val.length() == 1 ? val.charAt(0) : 0);
             }
-            case 0x08 -> nullValue(runtime);
+            case 0x08 -> NULL;
             default -> null;
         };
     }
 
     public ByteCodeValue castToInt() {
-        if (type.code() == ByteDatatype.ENUM.code()) return intValue(runtime.ordinalOfEnumMember(this), runtime);
-        return switch (type.id()) {
-            case 0x00, 0x01 -> intValue(intValue(value), runtime);
+        return switch (type.code()) {
+            case 0x00, 0x01, 0x03, 0x04, 0x05, 0x07 -> intValue(asInt());
             case 0x02 -> this;
-            case 0x03 -> intValue((int) longValue(value), runtime);
-            case 0x04 -> intValue((int) floatValue(value), runtime);
-            case 0x05 -> intValue((int) doubleValue(value), runtime);
             case 0x06 -> {
-                final String val = stringValue(value);
                 try {
-                    yield intValue(Integer.parseInt(val), runtime);
+                    yield intValue(Integer.parseInt((String) ref));
                 } catch (final NumberFormatException e) {
-                    yield intValue(Integer.MIN_VALUE, runtime);
+                    yield intValue(Integer.MIN_VALUE);
                 }
             }
-            case 0x08 -> nullValue(runtime);
+            case 0x08 -> NULL;
             default -> null;
         };
     }
 
     public ByteCodeValue castToLong() {
-        if (type.code() == ByteDatatype.ENUM.code()) return longValue(runtime.ordinalOfEnumMember(this), runtime);
-        return switch (type.id()) {
-            case 0x00, 0x01, 0x02 -> longValue(longValue(value), runtime);
+        return switch (type.code()) {
+            case 0x00, 0x01, 0x02, 0x04, 0x05, 0x07 -> longValue(asLong());
             case 0x03 -> this;
-            case 0x04 -> longValue((long) floatValue(value), runtime);
-            case 0x05 -> longValue((long) doubleValue(value), runtime);
             case 0x06 -> {
-                final String val = stringValue(value);
                 try {
-                    yield longValue(Long.parseLong(val), runtime);
+                    yield longValue(Long.parseLong((String) ref));
                 } catch (final NumberFormatException e) {
-                    yield longValue(Long.MIN_VALUE, runtime);
+                    yield longValue(Long.MIN_VALUE);
                 }
             }
-            case 0x08 -> nullValue(runtime);
+            case 0x08 -> NULL;
             default -> null;
         };
     }
 
     public ByteCodeValue castToFloat() {
-        if (type.code() == ByteDatatype.ENUM.code()) return floatValue(runtime.ordinalOfEnumMember(this), runtime);
-        return switch (type.id()) {
-            case 0x00, 0x01, 0x02 -> floatValue(intValue(value), runtime);
-            case 0x03 -> floatValue(longValue(value), runtime);
+        return switch (type.code()) {
+            case 0x00, 0x01, 0x02, 0x03, 0x05, 0x07 -> floatValue(asFloat());
             case 0x04 -> this;
-            case 0x05 -> floatValue((float) doubleValue(value), runtime);
             case 0x06 -> {
-                final String val = stringValue(value);
                 try {
-                    yield doubleValue(Float.parseFloat(val), runtime);
+                    yield floatValue(Float.parseFloat((String) ref));
                 } catch (final NumberFormatException e) {
-                    yield doubleValue(Float.NaN, runtime);
+                    yield floatValue(Float.NaN);
                 }
             }
-            case 0x08 -> nullValue(runtime);
+            case 0x08 -> NULL;
             default -> null;
         };
     }
 
     public ByteCodeValue castToDouble() {
-        if (type.code() == ByteDatatype.ENUM.code()) return doubleValue(runtime.ordinalOfEnumMember(this), runtime);
-        return switch (type.id()) {
-            case 0x00, 0x01, 0x02 -> doubleValue(intValue(value), runtime);
-            case 0x03 -> doubleValue(longValue(value), runtime);
-            case 0x04 -> doubleValue(floatValue(value), runtime);
+        return switch (type.code()) {
+            case 0x00, 0x01, 0x02, 0x03, 0x04, 0x07 -> doubleValue(asDouble());
             case 0x05 -> this;
             case 0x06 -> {
-                final String val = stringValue(value);
                 try {
-                    yield doubleValue(Double.parseDouble(val), runtime);
+                    yield doubleValue(Double.parseDouble((String) ref));
                 } catch (final NumberFormatException e) {
-                    yield doubleValue(Double.NaN, runtime);
+                    yield doubleValue(Double.NaN);
                 }
             }
-            case 0x08 -> nullValue(runtime);
+            case 0x08 -> NULL;
             default -> null;
         };
     }
 
     public ByteCodeValue castToString() {
-        if (type.code() == ByteDatatype.ENUM.code()) return stringValue(runtime.nameOfEnumMember(this), runtime);
-        return switch (type.id()) {
-            case 0x00, 0x02 -> stringValue("" + intValue(value), runtime);
-            case 0x01 -> stringValue(Character.toString((char) intValue(value)), runtime);
-            case 0x03 -> stringValue("" + longValue(value), runtime);
-            case 0x04 -> stringValue("" + floatValue(value), runtime);
-            case 0x05 -> stringValue("" + doubleValue(value), runtime);
+        return switch (type.code()) {
             case 0x06 -> this;
-            case 0x08 -> nullValue(runtime);
-            default -> null;
+            case 0x08 -> NULL;
+            default -> {
+                final String text = asText();
+                yield text == null ? null : stringValue(text);
+            }
         };
     }
 
     public String toString() {
         return "ByteCodeValue{" +
                 "type=" + type +
-                ", value=" + String.join(", ", Arrays.stream(value).map(ByteCodeReader::byteToHexString).toList()) +
+                ", value=" + (isEnum() ? "ordinal " + bits : asObject()) +
                 '}';
     }
 }
@@ -0,0 +1,353 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// writes just enough of the class file format for JitCompiler: a constant pool, static fields and methods with code and exception tables.
+// the classes are version 49, which are verified by type inference, so no stack map frames have to be computed
+final class ClassFileWriter {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolSize = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<Code> methods = new ArrayList<>();
+
+    ClassFileWriter(@NotNull final String name) {
+        thisClass = classRef(name);
+        superClass = classRef("java/lang/Object");
+    }
+
+    // constant pool entries are shared, the key being their tag and contents
+    private int entry(@NotNull final String key, final int slots, @NotNull final PoolWriter writer) {
+        final Integer existing = entries.get(key);
+        if (existing != null) return existing;
+        final int index = poolSize;
+        try {
+            writer.write(poolOut);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        poolSize += slots;
+        if (poolSize > 0xFFFF) throw new IllegalStateException("Too many constants in class file");
+        entries.put(key, index);
+        return index;
+    }
+
+    private interface PoolWriter {
+        void write(@NotNull DataOutputStream out) throws IOException;
+    }
+
+    int utf8(@NotNull final String value) {
+        return entry("U" + value, 1, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    int classRef(@NotNull final String name) {
+        final int utf8 = utf8(name);
+        return entry("C" + name, 1, out -> {
+            out.writeByte(7);
+            out.writeShort(utf8);
+        });
+    }
+
+    int string(@NotNull final String value) {
+        final int utf8 = utf8(value);
+        return entry("S" + value, 1, out -> {
+            out.writeByte(8);
+            out.writeShort(utf8);
+        });
+    }
+
+    int integer(final int value) {
+        return entry("I" + value, 1, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    int floating(final float value) {
+        return entry("F" + Float.floatToRawIntBits(value), 1, out -> {
+            out.writeByte(4);
+            out.writeInt(Float.floatToRawIntBits(value));
+        });
+    }
+
+    int longInteger(final long value) {
+        return entry("J" + value, 2, out -> {
+            out.writeByte(5);
+            out.writeLong(value);
+        });
+    }
+
+    int doubleFloating(final double value) {
+        return entry("D" + Double.doubleToRawLongBits(value), 2, out -> {
+            out.writeByte(6);
+            out.writeLong(Double.doubleToRawLongBits(value));
+        });
+    }
+
+    private int nameAndType(@NotNull final String name, @NotNull final String descriptor) {
+        final int nameIndex = utf8(name);
+        final int descriptorIndex = utf8(descriptor);
+        return entry("N" + name + " " + descriptor, 1, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+    }
+
+    private int member(final int tag, @NotNull final String owner, @NotNull final String name, @NotNull final String descriptor) {
+        final int ownerIndex = classRef(owner);
+        final int nameAndType = nameAndType(name, descriptor);
+        return entry(tag + owner + "." + name + " " + descriptor, 1, out -> {
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    int fieldRef(@NotNull final String owner, @NotNull final String name, @NotNull final String descriptor) {
+        return member(9, owner, name, descriptor);
+    }
+
+    int methodRef(@NotNull final String owner, @NotNull final String name, @NotNull final String descriptor) {
+        return member(10, owner, name, descriptor);
+    }
+
+    int interfaceMethodRef(@NotNull final String owner, @NotNull final String name, @NotNull final String descriptor) {
+        return member(11, owner, name, descriptor);
+    }
+
+    void field(final int access, @NotNull final String name, @NotNull final String descriptor) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    Code method(final int access, @NotNull final String name, @NotNull final String descriptor) {
+        final Code code = new Code(access, utf8(name), utf8(descriptor));
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        final int codeAttribute = utf8("Code");
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolSize);
+            pool.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(fields.size());
+            for (final byte[] field : fields) out.write(field);
+            out.writeShort(methods.size());
+            for (final Code method : methods) method.write(out, codeAttribute);
+            out.writeShort(0);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // the code of one method. jumps go to labels, which are patched once the method is finished
+    final class Code {
+
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private byte[] code = new byte[256];
+        private int size;
+        private int maxStack;
+        private int maxLocals;
+        private int[] labels = new int[16];
+        private int labelCount;
+        // pairs of (position of the branch offset, label), the offset being relative to the branch instruction at position - 1
+        private int[] fixups = new int[32];
+        private int fixupCount;
+        private final List<int[]> handlers = new ArrayList<>();
+
+        private Code(final int access, final int name, final int descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void maxs(final int maxStack, final int maxLocals) {
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+
+        private void u1(final int value) {
+            if (size == code.length) code = Arrays.copyOf(code, size * 2);
+            code[size++] = (byte) value;
+        }
+
+        private void u2(final int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        void op(final int opcode) {
+            u1(opcode);
+        }
+
+        void op(final int opcode, final int u1) {
+            u1(opcode);
+            u1(u1);
+        }
+
+        void opShort(final int opcode, final int u2) {
+            u1(opcode);
+            u2(u2);
+        }
+
+        void iconst(final int value) {
+            if (value >= -1 && value <= 5) op(JvmOpcodes.ICONST_0 + value);
+            else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) op(JvmOpcodes.BIPUSH, value);
+            else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) opShort(JvmOpcodes.SIPUSH, value);
+            else ldc(integer(value));
+        }
+
+        void ldc(final int index) {
+            if (index <= 0xFF) op(JvmOpcodes.LDC, index);
+            else opShort(JvmOpcodes.LDC_W, index);
+        }
+
+        void ldc2(final int index) {
+            opShort(JvmOpcodes.LDC2_W, index);
+        }
+
+        void local(final int opcode, final int slot) {
+            if (slot > 0xFF) {
+                u1(JvmOpcodes.WIDE);
+                opShort(opcode, slot);
+            } else op(opcode, slot);
+        }
+
+        void iinc(final int slot, final int amount) {
+            if (slot > 0xFF) {
+                u1(JvmOpcodes.WIDE);
+                opShort(JvmOpcodes.IINC, slot);
+                u2(amount);
+            } else {
+                op(JvmOpcodes.IINC, slot);
+                u1(amount);
+            }
+        }
+
+        void invoke(final int opcode, @NotNull final String owner, @NotNull final String name, @NotNull final String descriptor) {
+            if (opcode == JvmOpcodes.INVOKEINTERFACE) {
+                opShort(opcode, interfaceMethodRef(owner, name, descriptor));
+                u1(JvmOpcodes.argumentSlots(descriptor) + 1);
+                u1(0);
+            } else opShort(opcode, methodRef(owner, name, descriptor));
+        }
+
+        void field(final int opcode, @NotNull final String owner, @NotNull final String name, @NotNull final String descriptor) {
+            opShort(opcode, fieldRef(owner, name, descriptor));
+        }
+
+        void type(final int opcode, @NotNull final String type) {
+            opShort(opcode, classRef(type));
+        }
+
+        int newLabel() {
+            if (labelCount == labels.length) labels = Arrays.copyOf(labels, labelCount * 2);
+            labels[labelCount] = -1;
+            return labelCount++;
+        }
+
+        void mark(final int label) {
+            labels[label] = size;
+        }
+
+        void jump(final int opcode, final int label) {
+            u1(opcode);
+            if (fixupCount + 2 > fixups.length) fixups = Arrays.copyOf(fixups, fixups.length * 2);
+            fixups[fixupCount++] = size;
+            fixups[fixupCount++] = label;
+            u2(0);
+        }
+
+        // the code between the two labels is covered by a handler at the third one, catching the given class (null for any)
+        void handler(final int start, final int end, final int handler, final String type) {
+            handlers.add(new int[] {start, end, handler, type == null ? 0 : classRef(type)});
+        }
+
+        private void write(@NotNull final DataOutputStream out, final int codeAttribute) throws IOException {
+            for (int i = 0; i < fixupCount; i += 2) {
+                final int at = fixups[i];
+                final int target = labels[fixups[i + 1]];
+                if (target < 0) throw new IllegalStateException("Jump to a label that was never placed");
+                final int offset = target - (at - 1);
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) throw new IllegalStateException("Jump offset too large for a class file");
+                code[at] = (byte) (offset >> 8);
+                code[at + 1] = (byte) offset;
+            }
+            if (size > 0xFFFF) throw new IllegalStateException("Method too large for a class file");
+
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + size + 8 * handlers.size());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(size);
+            out.write(code, 0, size);
+            out.writeShort(handlers.size());
+            for (final int[] handler : handlers) {
+                out.writeShort(labels[handler[0]]);
+                out.writeShort(labels[handler[1]]);
+                out.writeShort(labels[handler[2]]);
+                out.writeShort(handler[3]);
+            }
+            out.writeShort(0);
+        }
+
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.jetbrains.annotations.NotNull;
+
+// builds the nodes of the closure engine (see ClosureNode) from the register code of a program, once while it is prepared.
+// functions without register code have no nodes either, calls to them go through the push stack
+final class ClosureCompiler {
+
+    private final RegisterProgram program;
+    private final ByteCodeValue[] constants;
+    private final ByteDatatype[] datatypes;
+    private final ClosureFunction[] functions;
+
+    private ClosureCompiler(@NotNull final RegisterProgram program, @NotNull final LinkedProgram code, final int functionCount) {
+        this.program = program;
+        this.constants = code.constants();
+        this.datatypes = code.datatypes();
+        this.functions = new ClosureFunction[functionCount];
+    }
+
+    // the nodes of every function by id, null for the ones without register code
+    static ClosureFunction[] compile(@NotNull final RegisterProgram program, @NotNull final LinkedProgram code, final int functionCount) {
+        final ClosureCompiler compiler = new ClosureCompiler(program, code, functionCount);
+        for (int id = 0; id < functionCount; id++) {
+            final RegisterFunction registerCode = program.function(id);
+            if (registerCode != null) compiler.functions[id] = new ClosureFunction(registerCode);
+        }
+        for (int id = 0; id < functionCount; id++) {
+            if (compiler.functions[id] != null) compiler.functions[id].nodes(compiler.nodes(program.function(id).code()));
+        }
+        return compiler.functions;
+    }
+
+    private ClosureNode[] nodes(final int @NotNull [] code) {
+        final ClosureNode[] nodes = new ClosureNode[code.length / 4];
+        for (int pc = 0; pc < code.length; pc += 4) nodes[pc / 4] = node(pc / 4 + 1, code[pc], code[pc + 1], code[pc + 2], code[pc + 3]);
+        return nodes;
+    }
+
+    private ByteCodeValue constant(final int operand) {
+        return operand >= 0 ? null : constants[~operand];
+    }
+
+    // jump targets are indices into the int code, four ints per instruction
+    private ClosureNode node(final int next, final int opcode, final int a, final int b, final int c) {
+        return switch (opcode) {
+            case Opcodes.MOVE -> b >= 0 ? new ClosureNode.MoveRegister(next, a, b) : new ClosureNode.MoveConstant(next, a, constants[~b]);
+            case Opcodes.LOAD_GLOBAL -> new ClosureNode.LoadGlobal(next, a, b);
+            case Opcodes.STORE_GLOBAL -> new ClosureNode.StoreGlobal(next, a, b, constant(b));
+            case Opcodes.INC_LOCAL -> new ClosureNode.Increment(next, a, 1);
+            case Opcodes.DEC_LOCAL -> new ClosureNode.Increment(next, a, -1);
+            case Opcodes.INC_GLOBAL -> new ClosureNode.IncrementGlobal(next, a, 1);
+            case Opcodes.DEC_GLOBAL -> new ClosureNode.IncrementGlobal(next, a, -1);
+            case Opcodes.DECLARE_VARIABLE -> new ClosureNode.Declare(next, a, datatypes[b]);
+            case Opcodes.CAST -> new ClosureNode.Cast(next, a, b, constant(b), datatypes[c]);
+            case Opcodes.NOT -> new ClosureNode.Not(next, a, b, constant(b), false);
+            case Opcodes.BIT_NOT -> new ClosureNode.Not(next, a, b, constant(b), true);
+            case Opcodes.TRACEBACK -> new ClosureNode.Traceback(next, a);
+            case Opcodes.JUMP -> new ClosureNode.Jump(a / 4);
+            case Opcodes.JUMP_IF -> new ClosureNode.JumpIf(next, a, constant(a), b / 4, true);
+            case Opcodes.JUMP_IF_NOT -> new ClosureNode.JumpIf(next, a, constant(a), b / 4, false);
+            case Opcodes.JUMP_IF_EQUALS, Opcodes.JUMP_IF_NOT_EQUALS, Opcodes.JUMP_IF_LESS_THAN, Opcodes.JUMP_IF_NOT_LESS_THAN,
+                    Opcodes.JUMP_IF_GREATER_THAN, Opcodes.JUMP_IF_NOT_GREATER_THAN, Opcodes.JUMP_IF_LESS_THAN_OR_EQUAL,
+                    Opcodes.JUMP_IF_NOT_LESS_THAN_OR_EQUAL, Opcodes.JUMP_IF_GREATER_THAN_OR_EQUAL, Opcodes.JUMP_IF_NOT_GREATER_THAN_OR_EQUAL ->
+                    // even opcodes jump if the comparison holds, odd ones if it does not
+                    new ClosureNode.CompareJump(next, RegisterInterpreter.compareOperator(opcode), a, constant(a), b, constant(b), c / 4, (opcode & 1) == 0);
+            case Opcodes.FUNCTION_CALL -> functions[a] != null
+                    ? new ClosureNode.Call(next, functions[a], b)
+                    : new ClosureNode.CallOnStack(next, a, b, c);
+            case Opcodes.RETURN_STATEMENT -> new ClosureNode.Return(a, constant(a), b == 1);
+            default -> {
+                if (!Opcodes.binaryOperator(opcode)) throw new IllegalStateException("Unexpected opcode in register code: " + opcode);
+                final boolean typed = opcode >= Opcodes.INT_PLUS && opcode <= Opcodes.STRING_CONCAT;
+                final int operator = typed ? Opcodes.generic(opcode) : opcode;
+                yield opcode >= Opcodes.INT_PLUS && opcode <= Opcodes.INT_GREATER_THAN_OR_EQUAL
+                        ? new ClosureNode.IntOperator(next, operator, a, b, constant(b), c, constant(c))
+                        : new ClosureNode.Operator(next, operator, a, b, constant(b), c, constant(c));
+            }
+        };
+    }
+
+}
@@ -0,0 +1,36 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.jetbrains.annotations.NotNull;
+
+// the nodes of a function for the closure engine (see ClosureCompiler), with the frame layout of its register code.
+// the nodes are set once every function of the program exists, since calls refer to their callee directly
+final class ClosureFunction {
+
+    private final RegisterFunction registerCode;
+    private ClosureNode[] nodes;
+
+    ClosureFunction(@NotNull final RegisterFunction registerCode) {
+        this.registerCode = registerCode;
+    }
+
+    ClosureNode[] nodes() {
+        return nodes;
+    }
+
+    void nodes(@NotNull final ClosureNode[] nodes) {
+        this.nodes = nodes;
+    }
+
+    int locals() {
+        return registerCode.locals();
+    }
+
+    int frameSize() {
+        return registerCode.frameSize();
+    }
+
+    int arity() {
+        return registerCode.arity();
+    }
+
+}
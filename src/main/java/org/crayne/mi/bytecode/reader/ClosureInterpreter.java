@@ -0,0 +1,111 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.reader.function.ByteCodeInternFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeNativeFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeRuntimeFunction;
+import org.jetbrains.annotations.NotNull;
+
+// runs the nodes of the closure engine (see ClosureCompiler). frames live on a register file just like in RegisterInterpreter,
+// but every call is a call of execute() on the jvm stack, since there is no dispatch loop to keep the callers in.
+// the global variables stay on the variable stack of the owning interpreter, so all engines share them
+final class ClosureInterpreter {
+
+    private static final int MAX_REGISTERS = 1 << 24;
+
+    private final ByteCodeInterpreter owner;
+    private final RegisterProgram program;
+    private final ByteCodeRuntimeFunction[] functions;
+    private final ValueStack pushStack;
+    private final int maxCallDepth;
+    final ValueStack globals;
+    final ValueStack registers = new ValueStack("register file", MAX_REGISTERS);
+
+    private int callDepth;
+    // the deepest call of the current run, to tell where the jvm stack ran out
+    private int deepest;
+    // where the running function puts its result: the first argument of its call, or the push stack for the entry function
+    private int returnRegister;
+
+    ClosureInterpreter(@NotNull final ByteCodeInterpreter owner, @NotNull final ByteCodeProgram program, @NotNull final ValueStack globals,
+                       @NotNull final ValueStack pushStack, final int maxCallDepth) {
+        this.owner = owner;
+        this.program = program.registerProgram();
+        this.functions = program.functions();
+        this.globals = globals;
+        this.pushStack = pushStack;
+        this.maxCallDepth = maxCallDepth;
+    }
+
+    // runs the function with its arguments on the push stack, leaving its result there just like the stack code would
+    void run(@NotNull final ClosureFunction entry) {
+        callDepth = 0;
+        deepest = 0;
+        registers.reserve(entry.frameSize());
+        for (int i = entry.arity() - 1; i >= 0; i--) {
+            registers.setFrom(entry.locals() + i, pushStack, pushStack.top());
+            pushStack.drop(1);
+        }
+        try {
+            execute(entry.nodes(), 0);
+        } catch (final StackOverflowError e) {
+            // the engine thread has a stack sized for maxCallDepth (see EngineThread), which very deeply nested expressions may still exhaust
+            throw new ByteCodeException("Stack overflow: the jvm stack ran out at a call depth of " + deepest + ", below the maximum call depth of " + maxCallDepth);
+        } finally {
+            registers.clear();
+        }
+    }
+
+    private void execute(@NotNull final ClosureNode[] nodes, final int base) {
+        int next = 0;
+        while (next >= 0) next = nodes[next].run(this, base);
+    }
+
+    // the callee gets a new frame on top of the register file, its result replaces the first argument
+    void call(@NotNull final ClosureFunction callee, final int args) {
+        if (callDepth >= maxCallDepth) throw new ByteCodeException("Stack overflow: exceeded the maximum call depth of " + maxCallDepth);
+        final int base = registers.size();
+        registers.reserve(callee.frameSize());
+        for (int i = 0; i < callee.arity(); i++) registers.setFrom(base + callee.locals() + i, registers, args + i);
+        final int callerReturnRegister = returnRegister;
+        callDepth++;
+        if (callDepth > deepest) deepest = callDepth;
+        returnRegister = args;
+        try {
+            execute(callee.nodes(), base);
+        } finally {
+            callDepth--;
+            returnRegister = callerReturnRegister;
+        }
+        registers.truncate(base);
+    }
+
+    void returned(final boolean result, final int register, final ByteCodeValue constant) {
+        if (!result) return;
+        if (callDepth == 0) {
+            if (constant != null) pushStack.push(constant);
+            else pushStack.pushFrom(registers, register);
+            return;
+        }
+        if (constant != null) registers.set(returnRegister, constant);
+        else registers.setFrom(returnRegister, registers, register);
+    }
+
+    // functions without nodes and native functions take their arguments from the push stack and leave their result there
+    void callOnStack(final int functionId, final int args, final int results) {
+        final int arity = program.arity(functionId);
+        for (int i = 0; i < arity; i++) pushStack.pushFrom(registers, args + i);
+        final ByteCodeRuntimeFunction function = functions[functionId];
+        if (function instanceof final ByteCodeInternFunction internFunc) owner.runOnStack(internFunc);
+        else if (function instanceof final ByteCodeNativeFunction nativeFunc) owner.invokeNativeFuncCall(nativeFunc);
+        if (results == 0) return;
+
+        registers.setFrom(args, pushStack, pushStack.top());
+        pushStack.drop(1);
+    }
+
+    void traceback(final int line) {
+        owner.traceback(line);
+    }
+
+}
@@ -0,0 +1,370 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.jetbrains.annotations.NotNull;
+
+// one instruction of register code with everything it needs already looked up (see ClosureCompiler): registers are offsets into the
+// frame, constants are the values themselves, jumps go to node indices and calls to the callee. running a function is just calling
+// run on one node after the other, so the jvm sees a small method per kind of instruction instead of one big switch.
+// operands are a register x, or a constant cx if that is not null
+abstract class ClosureNode {
+
+    // runs the node in the frame starting at base and returns the index of the next node, -1 once the function returns
+    abstract int run(@NotNull ClosureInterpreter machine, int base);
+
+    static byte code(@NotNull final ValueStack registers, final int base, final int x, final ByteCodeValue cx) {
+        return cx != null ? cx.type().code() : registers.code(base + x);
+    }
+
+    static long bits(@NotNull final ValueStack registers, final int base, final int x, final ByteCodeValue cx) {
+        return cx != null ? cx.bits() : registers.bits(base + x);
+    }
+
+    static Object ref(@NotNull final ValueStack registers, final int base, final int x, final ByteCodeValue cx) {
+        return cx != null ? cx.ref() : registers.ref(base + x);
+    }
+
+    static ByteCodeValue value(@NotNull final ValueStack registers, final int base, final int x, final ByteCodeValue cx) {
+        return cx != null ? cx : registers.get(base + x);
+    }
+
+    static final class MoveRegister extends ClosureNode {
+        private final int next, dst, x;
+
+        MoveRegister(final int next, final int dst, final int x) {
+            this.next = next;
+            this.dst = dst;
+            this.x = x;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            machine.registers.setFrom(base + dst, machine.registers, base + x);
+            return next;
+        }
+    }
+
+    static final class MoveConstant extends ClosureNode {
+        private final int next, dst;
+        private final ByteCodeValue value;
+
+        MoveConstant(final int next, final int dst, @NotNull final ByteCodeValue value) {
+            this.next = next;
+            this.dst = dst;
+            this.value = value;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            machine.registers.set(base + dst, value);
+            return next;
+        }
+    }
+
+    static final class LoadGlobal extends ClosureNode {
+        private final int next, dst, global;
+
+        LoadGlobal(final int next, final int dst, final int global) {
+            this.next = next;
+            this.dst = dst;
+            this.global = global;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            machine.registers.setFrom(base + dst, machine.globals, global);
+            return next;
+        }
+    }
+
+    static final class StoreGlobal extends ClosureNode {
+        private final int next, global, x;
+        private final ByteCodeValue cx;
+
+        StoreGlobal(final int next, final int global, final int x, final ByteCodeValue cx) {
+            this.next = next;
+            this.global = global;
+            this.x = x;
+            this.cx = cx;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            if (cx != null) machine.globals.set(global, cx);
+            else machine.globals.setFrom(global, machine.registers, base + x);
+            return next;
+        }
+    }
+
+    static final class Increment extends ClosureNode {
+        private final int next, register, amount;
+
+        Increment(final int next, final int register, final int amount) {
+            this.next = next;
+            this.register = register;
+            this.amount = amount;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            ByteCodeInterpreter.increment(machine.registers, base + register, amount);
+            return next;
+        }
+    }
+
+    static final class IncrementGlobal extends ClosureNode {
+        private final int next, global, amount;
+
+        IncrementGlobal(final int next, final int global, final int amount) {
+            this.next = next;
+            this.global = global;
+            this.amount = amount;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            ByteCodeInterpreter.increment(machine.globals, global, amount);
+            return next;
+        }
+    }
+
+    static final class Declare extends ClosureNode {
+        private final int next, dst;
+        private final ByteDatatype datatype;
+
+        Declare(final int next, final int dst, @NotNull final ByteDatatype datatype) {
+            this.next = next;
+            this.dst = dst;
+            this.datatype = datatype;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            machine.registers.set(base + dst, ByteCodeValue.defaultValue(datatype));
+            return next;
+        }
+    }
+
+    static final class Cast extends ClosureNode {
+        private final int next, dst, x;
+        private final ByteCodeValue cx;
+        private final ByteDatatype datatype;
+
+        Cast(final int next, final int dst, final int x, final ByteCodeValue cx, @NotNull final ByteDatatype datatype) {
+            this.next = next;
+            this.dst = dst;
+            this.x = x;
+            this.cx = cx;
+            this.datatype = datatype;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            final ByteCodeValue value = value(machine.registers, base, x, cx);
+            final ByteCodeValue cast = value.cast(datatype);
+            if (cast == null) throw new ByteCodeException("Cannot cast " + value.type() + " to " + datatype);
+            machine.registers.set(base + dst, cast);
+            return next;
+        }
+    }
+
+    static final class Not extends ClosureNode {
+        private final int next, dst, x;
+        private final ByteCodeValue cx;
+        private final boolean bitwise;
+
+        Not(final int next, final int dst, final int x, final ByteCodeValue cx, final boolean bitwise) {
+            this.next = next;
+            this.dst = dst;
+            this.x = x;
+            this.cx = cx;
+            this.bitwise = bitwise;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            final ByteCodeValue value = value(machine.registers, base, x, cx);
+            machine.registers.set(base + dst, bitwise ? value.bit_not() : value.not());
+            return next;
+        }
+    }
+
+    static final class Traceback extends ClosureNode {
+        private final int next, line;
+
+        Traceback(final int next, final int line) {
+            this.next = next;
+            this.line = line;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            machine.traceback(line);
+            return next;
+        }
+    }
+
+    static final class Jump extends ClosureNode {
+        private final int target;
+
+        Jump(final int target) {
+            this.target = target;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            return target;
+        }
+    }
+
+    static final class JumpIf extends ClosureNode {
+        private final int next, x, target;
+        private final ByteCodeValue cx;
+        private final boolean expected;
+
+        JumpIf(final int next, final int x, final ByteCodeValue cx, final int target, final boolean expected) {
+            this.next = next;
+            this.x = x;
+            this.cx = cx;
+            this.target = target;
+            this.expected = expected;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            final ValueStack registers = machine.registers;
+            if (code(registers, base, x, cx) != ByteDatatype.BOOL.code()) throw new ByteCodeException("Expected boolean value as condition for jump-if opcode");
+            return (bits(registers, base, x, cx) != 0L) == expected ? target : next;
+        }
+    }
+
+    // ints are compared right away, everything else the same way RegisterInterpreter.compare does it
+    static final class CompareJump extends ClosureNode {
+        private final int next, operator, x, y, target;
+        private final ByteCodeValue cx, cy;
+        private final boolean expected;
+
+        CompareJump(final int next, final int operator, final int x, final ByteCodeValue cx, final int y, final ByteCodeValue cy,
+                    final int target, final boolean expected) {
+            this.next = next;
+            this.operator = operator;
+            this.x = x;
+            this.cx = cx;
+            this.y = y;
+            this.cy = cy;
+            this.target = target;
+            this.expected = expected;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            final ValueStack registers = machine.registers;
+            final byte type = code(registers, base, x, cx);
+            final boolean holds;
+            if (type < 0x02 || type > 0x05 || code(registers, base, y, cy) != type) {
+                final ByteCodeValue result = ByteCodeInterpreter.operate(operator, value(registers, base, x, cx), value(registers, base, y, cy));
+                if (result.type().code() != ByteDatatype.BOOL.code()) throw new ByteCodeException("Expected boolean value as condition for jump-if opcode");
+                holds = result.bits() != 0L;
+            } else {
+                final long left = bits(registers, base, x, cx);
+                final long right = bits(registers, base, y, cy);
+                holds = switch (type) {
+                    case 0x02 -> ByteCodeInterpreter.compare(operator, Integer.compare((int) left, (int) right));
+                    case 0x03 -> ByteCodeInterpreter.compare(operator, Long.compare(left, right));
+                    case 0x04 -> ByteCodeInterpreter.compare(operator, Float.intBitsToFloat((int) left), Float.intBitsToFloat((int) right));
+                    default -> ByteCodeInterpreter.compare(operator, Double.longBitsToDouble(left), Double.longBitsToDouble(right));
+                };
+            }
+            return holds == expected ? target : next;
+        }
+    }
+
+    // an operator the compiler typed as int, which only checks that both values still are ints
+    static final class IntOperator extends ClosureNode {
+        private final int next, operator, dst, x, y;
+        private final ByteCodeValue cx, cy;
+
+        IntOperator(final int next, final int operator, final int dst, final int x, final ByteCodeValue cx, final int y, final ByteCodeValue cy) {
+            this.next = next;
+            this.operator = operator;
+            this.dst = dst;
+            this.x = x;
+            this.cx = cx;
+            this.y = y;
+            this.cy = cy;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            final ValueStack registers = machine.registers;
+            if (code(registers, base, x, cx) != 0x02 || code(registers, base, y, cy) != 0x02
+                    || !RegisterInterpreter.intOperator(registers, operator, base + dst, (int) bits(registers, base, x, cx), (int) bits(registers, base, y, cy))) {
+                registers.set(base + dst, ByteCodeInterpreter.operate(operator, value(registers, base, x, cx), value(registers, base, y, cy)));
+            }
+            return next;
+        }
+    }
+
+    static final class Operator extends ClosureNode {
+        private final int next, operator, dst, x, y;
+        private final ByteCodeValue cx, cy;
+
+        Operator(final int next, final int operator, final int dst, final int x, final ByteCodeValue cx, final int y, final ByteCodeValue cy) {
+            this.next = next;
+            this.operator = operator;
+            this.dst = dst;
+            this.x = x;
+            this.cx = cx;
+            this.y = y;
+            this.cy = cy;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            final ValueStack registers = machine.registers;
+            final byte type = code(registers, base, x, cx);
+            if (type != code(registers, base, y, cy) || !RegisterInterpreter.operator(registers, operator, base + dst, type,
+                    bits(registers, base, x, cx), bits(registers, base, y, cy), ref(registers, base, x, cx), ref(registers, base, y, cy))) {
+                registers.set(base + dst, ByteCodeInterpreter.operate(operator, value(registers, base, x, cx), value(registers, base, y, cy)));
+            }
+            return next;
+        }
+    }
+
+    // the result, if the callee returns one, replaces the first argument
+    static final class Call extends ClosureNode {
+        private final int next, args;
+        private final ClosureFunction callee;
+
+        Call(final int next, @NotNull final ClosureFunction callee, final int args) {
+            this.next = next;
+            this.callee = callee;
+            this.args = args;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            machine.call(callee, base + args);
+            return next;
+        }
+    }
+
+    static final class CallOnStack extends ClosureNode {
+        private final int next, functionId, args, results;
+
+        CallOnStack(final int next, final int functionId, final int args, final int results) {
+            this.next = next;
+            this.functionId = functionId;
+            this.args = args;
+            this.results = results;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            machine.callOnStack(functionId, base + args, results);
+            return next;
+        }
+    }
+
+    static final class Return extends ClosureNode {
+        private final int x;
+        private final ByteCodeValue cx;
+        private final boolean result;
+
+        Return(final int x, final ByteCodeValue cx, final boolean result) {
+            this.x = x;
+            this.cx = cx;
+            this.result = result;
+        }
+
+        int run(@NotNull final ClosureInterpreter machine, final int base) {
+            machine.returned(result, base + x, cx);
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteCodeSection;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// reads the body of a compact (version 2) program, everything after its header, back into instructions of the inline format.
+// see CompactByteCodeEncoder for the layout
+public class CompactByteCodeDecoder {
+
+    private final ByteBuffer program;
+    private final int programLength;
+    private final boolean validate;
+    private int pos;
+    private byte[][] strings;
+
+    private CompactByteCodeDecoder(@NotNull final ByteBuffer program, final int begin, final boolean validate) {
+        this.program = program;
+        this.programLength = program.limit();
+        this.pos = begin;
+        this.validate = validate;
+    }
+
+    public static List<ByteCodeInstruction> decode(@NotNull final ByteBuffer program, final int begin, final boolean validate) {
+        return new CompactByteCodeDecoder(program, begin, validate).decode();
+    }
+
+    private List<ByteCodeInstruction> decode() {
+        strings = new byte[readLength()][];
+        for (int i = 0; i < strings.length; i++) {
+            final int length = readLength();
+            if (pos + length > programLength) throw new ByteCodeException("Reached end of file");
+            strings[i] = new byte[length];
+            program.get(pos, strings[i]);
+            pos += length;
+        }
+
+        final int sections = readLength();
+        long instructions = 0;
+        for (int i = 0; i < sections; i++) {
+            ByteCodeSection.of(readByte());
+            instructions += readLength();
+        }
+        if (instructions > programLength - pos) throw new ByteCodeException("Section table lists " + instructions + " instructions, which cannot fit into the rest of the file");
+
+        final List<ByteCodeInstruction> result = new ArrayList<>((int) instructions);
+        // the header is at index 0
+        for (int i = 1; i <= instructions; i++) result.add(ByteCodeInstruction.ofEncoded(instruction(i)));
+        if (pos != programLength) throw new ByteCodeException("Unexpected bytes after the last instruction at position " + pos);
+        return result;
+    }
+
+    private byte[] instruction(final int index) {
+        final byte opcode = readByte();
+        final ByteCode code = ByteCode.decode(opcode);
+        if (code == null) throw new ByteCodeException("Unrecognized bytecode instruction " + ByteCodeReader.byteToHexString(opcode) + " at position " + (pos - 1));
+
+        return switch (code) {
+            case PUSH -> value(opcode);
+            case DEFINE_VARIABLE, DECLARE_VARIABLE, CAST -> {
+                final byte datatype = readByte();
+                if (validate && ByteDatatype.ofId(datatype) == ByteDatatype.UNKNOWN)
+                    throw new ByteCodeException("Unknown datatype " + ByteCodeReader.byteToHexString(datatype) + " at position " + (pos - 1));
+
+                final byte[] codes = instruction(opcode, 1);
+                codes[1] = datatype;
+                yield codes;
+            }
+            // labels are 1-based, so the label of this instruction is index + 1
+            case JUMP, JUMP_IF, JUMP_IF_NOT, JUMP_IF_EQUALS, JUMP_IF_NOT_EQUALS, JUMP_IF_LESS_THAN, JUMP_IF_NOT_LESS_THAN, JUMP_IF_GREATER_THAN, JUMP_IF_NOT_GREATER_THAN,
+                    JUMP_IF_LESS_THAN_OR_EQUAL, JUMP_IF_NOT_LESS_THAN_OR_EQUAL, JUMP_IF_GREATER_THAN_OR_EQUAL, JUMP_IF_NOT_GREATER_THAN_OR_EQUAL -> putInt(instruction(opcode, Integer.BYTES), 1, unzigzag(readVarInt()) + index + 1);
+            case POP, TRACEBACK, STDLIB_FINISH_LINE -> putInt(instruction(opcode, Integer.BYTES), 1, unzigzag(readVarInt()));
+            case FUNCTION_CALL -> putLong(instruction(opcode, Long.BYTES), 1, unzigzag(readVarLong()));
+            case FUNCTION_DEFINITION_BEGIN -> string(opcode, ByteCode.INSTRUCT_FINISH.code());
+            case NATIVE_FUNCTION_DEFINITION_BEGIN -> string(opcode, ByteCode.INSTRUCT_FINISH.code(), ByteCode.FUNCTION_DEFINITION_END.code());
+            case ENUM_MEMBER_DEFINITION -> string(opcode);
+            case FUNCTION_DEFINITION_END, VALUE_AT_ADDRESS, EQUALS, NOT, PLUS, MINUS, MULTIPLY, DIVIDE, MODULO,
+                    BIT_AND, BIT_OR, BIT_XOR, BIT_NOT, LOGICAL_AND, LOGICAL_OR, LESS_THAN, LESS_THAN_OR_EQUAL, GREATER_THAN, GREATER_THAN_OR_EQUAL, RELATIVE_TO_ABSOLUTE_ADDRESS,
+                    MUTATE_VARIABLE, MUTATE_VARIABLE_AND_PUSH, INC_VARIABLE, INC_VARIABLE_AND_PUSH, DEC_VARIABLE, DEC_VARIABLE_AND_PUSH, BITSHIFT_LEFT,
+                    BITSHIFT_RIGHT, VALUE_AT_RELATIVE_ADDRESS, RETURN_STATEMENT, ENUM_DEFINITION_END, ENUM_DEFINITION_BEGIN -> instruction(opcode, 0);
+            default -> {
+                if (!ByteCode.typedOperator(code)) throw new ByteCodeException("Unhandled bytecode instruction " + code);
+                yield instruction(opcode, 0);
+            }
+        };
+    }
+
+    private byte[] value(final byte opcode) {
+        final byte valueType = readByte();
+        final ByteCode type = ByteCode.decode(valueType);
+        if (type == null) throw new ByteCodeException("Cannot find bytecode corresponding to " + ByteCodeReader.byteToHexString(valueType));
+
+        final byte[] codes = switch (type) {
+            case BOOL_VALUE, INTEGER_VALUE, CHARACTER_VALUE -> putInt(instruction(opcode, 1 + Integer.BYTES), 2, unzigzag(readVarInt()));
+            case LONG_INTEGER_VALUE -> putLong(instruction(opcode, 1 + Long.BYTES), 2, unzigzag(readVarLong()));
+            case ENUM_VALUE -> putInt(putInt(instruction(opcode, 1 + 2 * Integer.BYTES), 2, readVarInt()), 6, readVarInt());
+            case FLOAT_VALUE -> raw(instruction(opcode, 1 + Float.BYTES), 2, Float.BYTES);
+            case DOUBLE_VALUE -> raw(instruction(opcode, 1 + Double.BYTES), 2, Double.BYTES);
+            case STRING_VALUE -> string(opcode);
+            case NULL_VALUE -> instruction(opcode, 1);
+            default -> throw new ByteCodeException("Cannot push a value of type " + type);
+        };
+        codes[1] = valueType;
+        return codes;
+    }
+
+    // opcode, STRING_VALUE, 4 length bytes, the string itself, then the given trailing bytes
+    private byte[] string(final byte opcode, final byte... trailing) {
+        final int index = readVarInt();
+        if (index < 0 || index >= strings.length) throw new ByteCodeException("String pool index " + index + " is out of bounds for a pool of " + strings.length + " strings");
+
+        final byte[] string = strings[index];
+        final byte[] codes = instruction(opcode, 1 + Integer.BYTES + string.length + trailing.length);
+        codes[1] = ByteCode.STRING_VALUE.code();
+        putInt(codes, 2, string.length);
+        System.arraycopy(string, 0, codes, 2 + Integer.BYTES, string.length);
+        System.arraycopy(trailing, 0, codes, 2 + Integer.BYTES + string.length, trailing.length);
+        return codes;
+    }
+
+    // an encoded instruction with room for the given amount of operand bytes, already ending with INSTRUCT_FINISH
+    private static byte[] instruction(final byte opcode, final int operands) {
+        final byte[] codes = new byte[operands + 2];
+        codes[0] = opcode;
+        codes[codes.length - 1] = ByteCode.INSTRUCT_FINISH.code();
+        return codes;
+    }
+
+    private byte[] raw(final byte @NotNull [] codes, final int offset, final int amount) {
+        if (pos + amount > programLength) throw new ByteCodeException("Reached end of file");
+        program.get(pos, codes, offset, amount);
+        pos += amount;
+        return codes;
+    }
+
+    private static byte[] putInt(final byte @NotNull [] codes, final int offset, final int i) {
+        for (int b = 0; b < Integer.BYTES; b++) codes[offset + b] = (byte) (i >>> (24 - 8 * b));
+        return codes;
+    }
+
+    private static byte[] putLong(final byte @NotNull [] codes, final int offset, final long l) {
+        for (int b = 0; b < Long.BYTES; b++) codes[offset + b] = (byte) (l >>> (56 - 8 * b));
+        return codes;
+    }
+
+    private byte readByte() {
+        if (pos >= programLength) throw new ByteCodeException("Reached end of file");
+        return program.get(pos++);
+    }
+
+    private long readVarLong() {
+        long result = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            final byte b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new ByteCodeException("Malformed varint ending at position " + pos);
+    }
+
+    private int readVarInt() {
+        final long result = readVarLong();
+        if ((result & ~0xFFFFFFFFL) != 0) throw new ByteCodeException("Varint ending at position " + pos + " does not fit into 32 bits");
+        return (int) result;
+    }
+
+    private int readLength() {
+        final int length = readVarInt();
+        if (length < 0) throw new ByteCodeException("Invalid length " + Integer.toUnsignedString(length) + " at position " + pos);
+        return length;
+    }
+
+    private static int unzigzag(final int i) {
+        return (i >>> 1) ^ -(i & 1);
+    }
+
+    private static long unzigzag(final long l) {
+        return (l >>> 1) ^ -(l & 1);
+    }
+
+}
@@ -0,0 +1,66 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.communication.MiExecutionException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// the engines that make every mi call a jvm call (ClosureInterpreter, JitRuntime) are limited by the jvm stack of the thread
+// running them, which may be far too small for the maximum call depth. they run on a thread of their own instead, with a stack
+// sized for that depth. the calling thread waits for it, so the interpreter is still only used by one thread at a time.
+// the thread goes away after it was idle for a while and is started again the next time
+final class EngineThread {
+
+    // the jvm stack a single mi call takes on these engines, with plenty of room for calls nested in expressions and
+    // for code the jvm has not compiled yet
+    static final long STACK_PER_CALL = 1024;
+    private static final long BASE_STACK = 1 << 20;
+    private static final long MAX_STACK = 1L << 30;
+    private static final long IDLE_SECONDS = 30;
+
+    private final ThreadPoolExecutor executor;
+    private volatile Thread thread;
+
+    EngineThread(final int maxCallDepth) {
+        final long stackSize = Math.min(BASE_STACK + maxCallDepth * STACK_PER_CALL, MAX_STACK);
+        executor = new ThreadPoolExecutor(1, 1, IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+            final Thread created = new Thread(null, task, "mi-engine", stackSize);
+            created.setDaemon(true);
+            thread = created;
+            return created;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // runs the task on the engine thread and waits for it, rethrowing whatever it throws. the task keeps using the interpreter
+    // until it is done, so an interrupt only ends the wait after that
+    void run(@NotNull final Runnable task) {
+        if (Thread.currentThread() == thread) {
+            task.run();
+            return;
+        }
+        final Future<?> result = executor.submit(task);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    result.get();
+                    return;
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                } catch (final ExecutionException e) {
+                    if (e.getCause() instanceof final RuntimeException runtimeException) throw runtimeException;
+                    if (e.getCause() instanceof final Error error) throw error;
+                    throw new MiExecutionException("Mi function failed: " + e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,18 @@
+package org.crayne.mi.bytecode.reader;
+
+// how an interpreter runs the functions of a program, see ByteCodeInterpreter.engine
+public enum ExecutionEngine {
+
+    // the linked stack code, one instruction after the other
+    STACK,
+
+    // the register code of every function that has some (see RegisterCompiler), the stack code for the rest
+    REGISTER,
+
+    // the register code as well, prebuilt into a node per instruction that runs it (see ClosureCompiler), the stack code for the rest
+    CLOSURE,
+
+    // the stack code, until a function becomes hot and is compiled to jvm code (see Jit)
+    JIT
+
+}
@@ -0,0 +1,231 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.apache.commons.lang3.StringUtils;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.reader.function.ByteCodeInternFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeNativeFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeRuntimeFunction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+// the static layout of an intern function: for every reachable instruction, how many values are on the push stack and how many variables
+// the function has defined right before it runs. the compiler emits code where both are the same on every path to an instruction,
+// which is what lets other engines give every push stack entry and every variable a fixed slot in a frame.
+// functions for which that does not hold (like calls whose unused results pile up in a loop) have no shape and only run on the stack code
+public final class FunctionShape {
+
+    private static final int UNREACHABLE = -1;
+
+    private final int id;
+    private final int begin;
+    private final int end;
+    private final int arity;
+    private final int[] stackDepths;
+    private final int[] variableDepths;
+    private final boolean[] jumpTargets;
+    private int results = UNREACHABLE;
+    private int maxStack;
+    private int maxVariables;
+
+    private FunctionShape(final int id, final int begin, final int end, final int arity) {
+        this.id = id;
+        this.begin = begin;
+        this.end = end;
+        this.arity = arity;
+        this.stackDepths = new int[end - begin + 1];
+        this.variableDepths = new int[end - begin + 1];
+        this.jumpTargets = new boolean[end - begin + 1];
+        Arrays.fill(stackDepths, UNREACHABLE);
+        this.maxStack = arity;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    // the index of the function definition begin instruction, which is also the label of the ByteCodeInternFunction
+    public int begin() {
+        return begin;
+    }
+
+    // the index of the function definition end instruction
+    public int end() {
+        return end;
+    }
+
+    public int arity() {
+        return arity;
+    }
+
+    // the amount of values the function leaves on the push stack when it returns, 0 or 1 for anything the compiler emits
+    public int results() {
+        return results;
+    }
+
+    public int maxStack() {
+        return maxStack;
+    }
+
+    public int maxVariables() {
+        return maxVariables;
+    }
+
+    public boolean reachable(final int instruction) {
+        return stackDepths[instruction - begin] != UNREACHABLE;
+    }
+
+    public int stackDepth(final int instruction) {
+        return stackDepths[instruction - begin];
+    }
+
+    public int variableDepth(final int instruction) {
+        return variableDepths[instruction - begin];
+    }
+
+    public boolean jumpTarget(final int instruction) {
+        return jumpTargets[instruction - begin];
+    }
+
+    // the shapes of all intern functions by function id, null for native functions and for functions without a static shape
+    public static FunctionShape[] analyze(@NotNull final LinkedProgram code, @NotNull final ByteCodeRuntimeFunction[] functions) {
+        // the amount of results of a call depends on the callee, so they are found first, by walking every function
+        // while skipping the paths through calls to functions that have no known result count yet, until nothing changes anymore
+        final int[] results = new int[functions.length];
+        for (int id = 0; id < functions.length; id++)
+            results[id] = functions[id] instanceof final ByteCodeNativeFunction nativeFunc ? (nativeFunc.returnType() == ByteDatatype.VOID ? 0 : 1) : UNREACHABLE;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int id = 0; id < functions.length; id++) {
+                if (results[id] != UNREACHABLE || !(functions[id] instanceof final ByteCodeInternFunction internFunc)) continue;
+                final FunctionShape shape = walk(code, functions, results, id, internFunc, true);
+                if (shape == null || shape.results == UNREACHABLE) continue;
+                results[id] = shape.results;
+                changed = true;
+            }
+        }
+
+        final FunctionShape[] shapes = new FunctionShape[functions.length];
+        for (int id = 0; id < functions.length; id++) {
+            if (results[id] != UNREACHABLE && functions[id] instanceof final ByteCodeInternFunction internFunc)
+                shapes[id] = walk(code, functions, results, id, internFunc, false);
+        }
+        return shapes;
+    }
+
+    private static FunctionShape walk(@NotNull final LinkedProgram code, @NotNull final ByteCodeRuntimeFunction[] functions, final int @NotNull [] results,
+                                      final int id, @NotNull final ByteCodeInternFunction function, final boolean lenient) {
+        final int[] opcodes = code.opcodes();
+        final int[] operands = code.operands();
+        final int begin = function.label();
+        int end = begin + 1;
+        while (end < opcodes.length && opcodes[end] != Opcodes.FUNCTION_DEFINITION_END) end++;
+        if (end == opcodes.length) return null;
+
+        final FunctionShape shape = new FunctionShape(id, begin, end, arity(code.strings()[operands[begin]]));
+        final Deque<Integer> work = new ArrayDeque<>();
+        if (!shape.enter(begin + 1, shape.arity, 0, work)) return null;
+
+        while (!work.isEmpty()) {
+            final int i = work.pop();
+            int stack = shape.stackDepth(i);
+            int variables = shape.variableDepth(i);
+            int next = i + 1;
+            int jump = UNREACHABLE;
+
+            switch (opcodes[i]) {
+                case Opcodes.PUSH, Opcodes.LOAD_LOCAL, Opcodes.LOAD_GLOBAL, Opcodes.LOAD_LOCAL_ADD_CONST -> {
+                    stack++;
+                    if (opcodes[i] != Opcodes.PUSH) next = i + 2;
+                }
+                case Opcodes.POP -> variables -= operands[i];
+                case Opcodes.DEFINE_VARIABLE -> {
+                    stack--;
+                    variables++;
+                }
+                case Opcodes.DECLARE_VARIABLE -> variables++;
+                case Opcodes.VALUE_AT_RELATIVE_ADDRESS, Opcodes.VALUE_AT_ADDRESS, Opcodes.RELATIVE_TO_ABSOLUTE_ADDRESS, Opcodes.NOT, Opcodes.BIT_NOT,
+                        Opcodes.CAST, Opcodes.TRACEBACK, Opcodes.INC_VARIABLE_AND_PUSH, Opcodes.DEC_VARIABLE_AND_PUSH -> {}
+                case Opcodes.INC_LOCAL, Opcodes.DEC_LOCAL -> next = i + 3;
+                case Opcodes.STORE_LOCAL -> {
+                    stack--;
+                    next = i + 3;
+                }
+                case Opcodes.STORE_GLOBAL -> {
+                    stack--;
+                    next = i + 2;
+                }
+                case Opcodes.MUTATE_VARIABLE -> stack -= 2;
+                case Opcodes.MUTATE_VARIABLE_AND_PUSH, Opcodes.INC_VARIABLE, Opcodes.DEC_VARIABLE -> stack--;
+                case Opcodes.JUMP -> {
+                    jump = operands[i];
+                    next = UNREACHABLE;
+                }
+                case Opcodes.JUMP_IF, Opcodes.JUMP_IF_NOT -> {
+                    stack--;
+                    jump = operands[i];
+                }
+                case Opcodes.JUMP_IF_EQUALS, Opcodes.JUMP_IF_NOT_EQUALS, Opcodes.JUMP_IF_LESS_THAN, Opcodes.JUMP_IF_NOT_LESS_THAN,
+                        Opcodes.JUMP_IF_GREATER_THAN, Opcodes.JUMP_IF_NOT_GREATER_THAN, Opcodes.JUMP_IF_LESS_THAN_OR_EQUAL,
+                        Opcodes.JUMP_IF_NOT_LESS_THAN_OR_EQUAL, Opcodes.JUMP_IF_GREATER_THAN_OR_EQUAL, Opcodes.JUMP_IF_NOT_GREATER_THAN_OR_EQUAL -> {
+                    stack -= 2;
+                    jump = operands[i];
+                }
+                case Opcodes.FUNCTION_CALL -> {
+                    final int callee = operands[i];
+                    if (results[callee] == UNREACHABLE) {
+                        if (lenient) continue; // the path is picked up again once the callee is known
+                        return null;
+                    }
+                    stack += results[callee] - arity(functions[callee], code);
+                }
+                case Opcodes.RETURN_STATEMENT, Opcodes.FUNCTION_DEFINITION_END -> {
+                    if (shape.results != UNREACHABLE && shape.results != stack) return null;
+                    shape.results = stack;
+                    next = UNREACHABLE;
+                }
+                default -> {
+                    if (Opcodes.binaryOperator(opcodes[i])) stack--;
+                    else return null; // definitions of functions, enums and the like never appear inside of a function
+                }
+            }
+            if (stack < 0 || variables < 0) return null;
+            if (jump != UNREACHABLE) {
+                if (jump <= begin || jump > end || !shape.enter(jump, stack, variables, work)) return null;
+                shape.jumpTargets[jump - begin] = true;
+            }
+            if (next != UNREACHABLE && (next > end || !shape.enter(next, stack, variables, work))) return null;
+        }
+        return shape;
+    }
+
+    // false if the instruction was already reached with a different stack or variable depth
+    private boolean enter(final int instruction, final int stack, final int variables, @NotNull final Deque<Integer> work) {
+        final int index = instruction - begin;
+        if (stackDepths[index] != UNREACHABLE) return stackDepths[index] == stack && variableDepths[index] == variables;
+
+        stackDepths[index] = stack;
+        variableDepths[index] = variables;
+        maxStack = Math.max(maxStack, stack);
+        maxVariables = Math.max(maxVariables, variables);
+        work.push(instruction);
+        return true;
+    }
+
+    static int arity(@NotNull final ByteCodeRuntimeFunction function, @NotNull final LinkedProgram code) {
+        if (function instanceof final ByteCodeNativeFunction nativeFunc) return nativeFunc.arity();
+        final int label = ((ByteCodeInternFunction) function).label();
+        return arity(code.strings()[code.operands()[label]]);
+    }
+
+    // the same signature format ByteCodeInterpreter.evalInternFunc reads
+    private static int arity(@NotNull final String signature) {
+        final String params = StringUtils.substringBetween(signature, "[", "]");
+        return params == null || params.isEmpty() ? 0 : params.split(", ").length;
+    }
+
+}
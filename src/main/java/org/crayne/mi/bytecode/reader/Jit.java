@@ -0,0 +1,88 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.reader.function.ByteCodeInternFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeRuntimeFunction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// decides which functions of a program are hot and keeps their compiled code, shared by every interpreter of the program.
+// a function is compiled on the call after it was called HOT_INVOCATIONS times or its loops jumped back HOT_BACK_EDGES times;
+// running code is never replaced, so a loop that is already running keeps running in the interpreter
+final class Jit {
+
+    static final int HOT_INVOCATIONS = 1000;
+    static final int HOT_BACK_EDGES = 10000;
+
+    private final ByteCodeProgram program;
+    private final ByteCodeRuntimeFunction[] functions;
+    // the function every instruction belongs to, -1 outside of intern functions
+    private final int[] functionAt;
+    private final JitFunction[] compiled;
+    // 1 for the functions the compiler rejected, read without the lock on every call of them
+    private final AtomicIntegerArray failed;
+
+    Jit(@NotNull final ByteCodeProgram program) {
+        this.program = program;
+        this.functions = program.functions();
+        this.compiled = new JitFunction[functions.length];
+        this.failed = new AtomicIntegerArray(functions.length);
+
+        final int[] opcodes = program.code().opcodes();
+        this.functionAt = new int[opcodes.length];
+        Arrays.fill(functionAt, -1);
+        for (int id = 0; id < functions.length; id++) {
+            if (!(functions[id] instanceof final ByteCodeInternFunction internFunc)) continue;
+            for (int i = internFunc.label(); i < opcodes.length; i++) {
+                functionAt[i] = id;
+                if (opcodes[i] == Opcodes.FUNCTION_DEFINITION_END) break;
+            }
+        }
+    }
+
+    int id(@NotNull final ByteCodeInternFunction function) {
+        return functionAt[function.label()];
+    }
+
+    // the counts stop once they reach what makes a function hot, so they never overflow
+    void backEdge(final int label) {
+        final int id = functionAt[label];
+        if (id == -1) return;
+        final ByteCodeInternFunction function = (ByteCodeInternFunction) functions[id];
+        if (function.backEdges() < HOT_BACK_EDGES) function.countBackEdge();
+    }
+
+    // counts a call of the function and returns its compiled code, compiling it first if it just became hot. null if it is not compiled.
+    // compiled functions are immutable, so reading them without a lock at worst finds one a little later. once the function is compiled
+    // or was rejected, it is not counted anymore
+    JitFunction enter(final int functionId) {
+        final JitFunction existing = compiled[functionId];
+        if (existing != null) return existing;
+        if (failed.get(functionId) != 0) return null;
+
+        final ByteCodeInternFunction function = (ByteCodeInternFunction) functions[functionId];
+        if (function.countInvocation() < HOT_INVOCATIONS && function.backEdges() < HOT_BACK_EDGES) return null;
+        return compile(functionId);
+    }
+
+    // code that was compiled elsewhere (see AotProgram), used from now on like the code the jit compiled itself
+    synchronized void install(@NotNull final JitFunction function) {
+        if (function.id() < 0 || function.id() >= functions.length || !(functions[function.id()] instanceof ByteCodeInternFunction)) throw new IllegalArgumentException("Function " + function.id() + " is not an intern function");
+        compiled[function.id()] = function;
+    }
+
+    private synchronized JitFunction compile(final int functionId) {
+        if (compiled[functionId] != null || failed.get(functionId) != 0) return compiled[functionId];
+
+        final RegisterFunction registerCode = program.registerProgram().function(functionId);
+        try {
+            if (registerCode != null) compiled[functionId] = JitCompiler.compile(program, registerCode);
+        } catch (final RuntimeException | LinkageError e) {
+            compiled[functionId] = null; // anything the compiler or the jvm does not accept just stays in the interpreter
+        }
+        if (compiled[functionId] == null) failed.set(functionId, 1);
+        return compiled[functionId];
+    }
+
+}
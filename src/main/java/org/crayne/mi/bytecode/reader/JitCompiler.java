@@ -0,0 +1,825 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.apache.commons.lang3.StringUtils;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.reader.function.ByteCodeNativeFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeRuntimeFunction;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static org.crayne.mi.bytecode.reader.JvmOpcodes.*;
+
+// translates the register code of a function (see RegisterCompiler) into jvm code, so that the jvm can compile mi loops like java code.
+// every register gets a static type where all the values written to it have the same one: bools, ints, longs, floats and doubles
+// then live in jvm locals of that type and their operators are single jvm instructions. all other registers hold ByteCodeValues
+// and go through the same operators the interpreters use. every function becomes two static methods:
+//   fast(JitRuntime, parameters...)   the function itself, parameters and result in their static types
+//   call(JitRuntime, ByteCodeValue[]) unboxes the arguments, calls fast and boxes the result
+// the jit puts them into a hidden class of their own, calling the function itself directly, native functions through a method handle
+// constant of their method and everything else through JitRuntime.call. AotCompiler puts all functions of a module into one class
+// and also calls other compiled functions and native methods directly
+final class JitCompiler {
+
+    private static final int UNSET = 0, BOOL = 1, INT = 2, LONG = 3, FLOAT = 4, DOUBLE = 5, DYNAMIC = 6, VOID = 7;
+
+    private static final String VALUE = "org/crayne/mi/bytecode/reader/ByteCodeValue";
+    private static final String VALUE_DESCRIPTOR = "L" + VALUE + ";";
+    private static final String RUNTIME = "org/crayne/mi/bytecode/reader/JitRuntime";
+    private static final String RUNTIME_DESCRIPTOR = "L" + RUNTIME + ";";
+    private static final String INTERPRETER = "org/crayne/mi/bytecode/reader/ByteCodeInterpreter";
+    private static final String METHOD_HANDLE = "java/lang/invoke/MethodHandle";
+    private static final String CLASS_NAME = "org/crayne/mi/bytecode/reader/MiFunction";
+
+    private final RegisterFunction function;
+    private final ClassFileWriter writer;
+    private final String className;
+    private final String fastName;
+    private final String callName;
+    // the compilers of the other functions that can be called directly, null for the ones that cannot
+    private final IntFunction<JitCompiler> callees;
+    private final boolean directNatives;
+    private final RegisterProgram program;
+    private final ByteCodeValue[] constants;
+    private final ByteDatatype[] datatypes;
+    private final ByteCodeRuntimeFunction[] functions;
+    private final int[] code;
+    private final int[] types;
+    private final int[] parameterTypes;
+    private int returnType = UNSET;
+    private final int[] slots;
+    private int maxLocals;
+
+    private final List<MethodHandle> natives = new ArrayList<>();
+    private ClassFileWriter.Code method;
+    private int[] labels;
+    private int nativeFailure = -1;
+    private int maxArgs;
+
+    JitCompiler(@NotNull final ByteCodeProgram program, @NotNull final RegisterFunction function, @NotNull final ClassFileWriter writer,
+                @NotNull final String className, @NotNull final String fastName, @NotNull final String callName,
+                @NotNull final IntFunction<JitCompiler> callees, final boolean directNatives) {
+        this.function = function;
+        this.writer = writer;
+        this.className = className;
+        this.fastName = fastName;
+        this.callName = callName;
+        this.callees = callees;
+        this.directNatives = directNatives;
+        this.program = program.registerProgram();
+        this.constants = program.code().constants();
+        this.datatypes = program.code().datatypes();
+        this.functions = program.functions();
+        this.code = function.code();
+        this.types = new int[function.frameSize()];
+        this.slots = new int[function.frameSize()];
+        this.parameterTypes = parameterTypes(program.code().strings()[program.code().operands()[function.label()]], function.arity());
+        for (int i = 0; i < parameterTypes.length; i++) types[function.locals() + i] = parameterTypes[i];
+    }
+
+    static JitFunction compile(@NotNull final ByteCodeProgram program, @NotNull final RegisterFunction function) {
+        final ClassFileWriter writer = new ClassFileWriter(CLASS_NAME);
+        final JitCompiler compiler;
+        try {
+            compiler = new JitCompiler(program, function, writer, CLASS_NAME, "fast", "call", id -> null, false);
+            compiler.inferTypes();
+            compiler.settleReturnType();
+            compiler.inferTypes();
+            compiler.settleTypes();
+            compiler.write();
+        } catch (final Untranslatable e) {
+            return null;
+        }
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            final byte[] bytes = writer.toByteArray();
+            final MethodHandles.Lookup hidden = compiler.natives.isEmpty()
+                    ? lookup.defineHiddenClass(bytes, true)
+                    : lookup.defineHiddenClassWithClassData(bytes, compiler.natives.toArray(new MethodHandle[0]), true);
+            return new JitFunction(function.id(), hidden.findStatic(hidden.lookupClass(), "call", CALL_TYPE), compiler.parameterCodes());
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static final MethodType CALL_TYPE = MethodType.methodType(ByteCodeValue.class, JitRuntime.class, ByteCodeValue[].class);
+
+    // writes both methods of the function, after its types were inferred and settled
+    void write() {
+        final String fastDescriptor = fastDescriptor();
+        writeFast(fastDescriptor);
+        writeCall(fastDescriptor);
+        if (!natives.isEmpty()) writeNativeHandles();
+    }
+
+    // the type codes the arguments of the call method have to have (see JitFunction)
+    byte[] parameterCodes() {
+        final byte[] parameterCodes = new byte[parameterTypes.length];
+        for (int i = 0; i < parameterCodes.length; i++) parameterCodes[i] = code(parameterTypes[i]);
+        return parameterCodes;
+    }
+
+    RegisterFunction function() {
+        return function;
+    }
+
+    String className() {
+        return className;
+    }
+
+    String fastName() {
+        return fastName;
+    }
+
+    static final class Untranslatable extends RuntimeException {
+        private Untranslatable() {
+            super(null, null, false, false);
+        }
+    }
+
+    // the declared parameter types from the signature of the function definition, the same format ByteCodeInterpreter.evalInternFunc reads
+    private static int[] parameterTypes(@NotNull final String signature, final int arity) {
+        final String params = StringUtils.substringBetween(signature, "[", "]");
+        final int[] parameterTypes = new int[arity];
+        final String[] declared = params == null || params.isEmpty() ? new String[0] : params.split(", ");
+        if (declared.length != arity) throw new Untranslatable();
+        for (int i = 0; i < arity; i++) parameterTypes[i] = typeOf(ByteDatatype.fromString(declared[i]).code());
+        return parameterTypes;
+    }
+
+    private static int typeOf(final byte datatypeCode) {
+        return switch (datatypeCode) {
+            case 0x00 -> BOOL;
+            case 0x02 -> INT;
+            case 0x03 -> LONG;
+            case 0x04 -> FLOAT;
+            case 0x05 -> DOUBLE;
+            default -> DYNAMIC;
+        };
+    }
+
+    private static byte code(final int type) {
+        return switch (type) {
+            case BOOL -> 0x00;
+            case INT -> 0x02;
+            case LONG -> 0x03;
+            case FLOAT -> 0x04;
+            case DOUBLE -> 0x05;
+            default -> -1;
+        };
+    }
+
+    private static boolean numeric(final int type) {
+        return type >= INT && type <= DOUBLE;
+    }
+
+    private static boolean arithmetic(final int operator) {
+        return operator >= Opcodes.PLUS && operator <= Opcodes.MODULO;
+    }
+
+    private static boolean comparison(final int operator) {
+        return operator == Opcodes.EQUALS || operator >= Opcodes.LESS_THAN && operator <= Opcodes.GREATER_THAN_OR_EQUAL;
+    }
+
+    private static int operator(final int opcode) {
+        return opcode >= Opcodes.INT_PLUS && opcode <= Opcodes.STRING_CONCAT ? Opcodes.generic(opcode) : opcode;
+    }
+
+    private int operandType(final int operand) {
+        if (operand >= 0) return types[operand];
+        return typeOf(constants[~operand].type().code());
+    }
+
+    private static int join(final int a, final int b) {
+        if (a == UNSET) return b;
+        if (b == UNSET || a == b) return a;
+        return DYNAMIC;
+    }
+
+    private static int operatorType(final int operator, final int x, final int y) {
+        if (x == UNSET || y == UNSET) return UNSET;
+        if (x != y || !numeric(x)) return DYNAMIC;
+        if (arithmetic(operator)) return x;
+        return comparison(operator) ? BOOL : DYNAMIC;
+    }
+
+    // the compiler of a function that is called directly if every argument has the type of its parameter (or the parameter takes any value),
+    // null if the call has to go through JitRuntime.call
+    private JitCompiler directCallee(final int functionId, final int args) {
+        final JitCompiler callee = functionId == function.id() ? this : callees.apply(functionId);
+        if (callee == null) return null;
+        for (int i = 0; i < callee.parameterTypes.length; i++) {
+            if (callee.parameterTypes[i] != DYNAMIC && operandType(args + i) != callee.parameterTypes[i]) return null;
+        }
+        return callee;
+    }
+
+    // the types only ever go from UNSET to a type to DYNAMIC, so this ends after a few rounds. returns whether any type changed,
+    // as the types of direct calls depend on the return types of other functions (see AotCompiler)
+    boolean inferTypes() {
+        boolean changedAny = false;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int pc = 0; pc < code.length; pc += 4) {
+                final int opcode = code[pc], a = code[pc + 1], b = code[pc + 2], c = code[pc + 3];
+                final int target;
+                final int type;
+                switch (opcode) {
+                    case Opcodes.MOVE -> {
+                        target = a;
+                        type = operandType(b);
+                    }
+                    case Opcodes.LOAD_GLOBAL, Opcodes.CAST, Opcodes.BIT_NOT -> {
+                        target = a;
+                        type = DYNAMIC;
+                    }
+                    case Opcodes.INC_LOCAL, Opcodes.DEC_LOCAL -> {
+                        target = a;
+                        type = types[a] == INT || types[a] == UNSET ? types[a] : DYNAMIC;
+                    }
+                    case Opcodes.DECLARE_VARIABLE -> {
+                        target = a;
+                        type = typeOf(datatypes[b].code());
+                    }
+                    case Opcodes.NOT -> {
+                        target = a;
+                        final int value = operandType(b);
+                        type = value == BOOL || value == UNSET ? value : DYNAMIC;
+                    }
+                    case Opcodes.FUNCTION_CALL -> {
+                        if (c == 0) continue;
+                        target = b;
+                        final JitCompiler callee = directCallee(a, b);
+                        type = callee != null ? callee.returnType : DYNAMIC;
+                    }
+                    case Opcodes.RETURN_STATEMENT -> {
+                        final int joined = b == 0 ? VOID : join(returnType, operandType(a));
+                        changed |= joined != returnType;
+                        returnType = joined;
+                        continue;
+                    }
+                    case Opcodes.STORE_GLOBAL, Opcodes.INC_GLOBAL, Opcodes.DEC_GLOBAL, Opcodes.TRACEBACK, Opcodes.JUMP, Opcodes.JUMP_IF, Opcodes.JUMP_IF_NOT,
+                            Opcodes.JUMP_IF_EQUALS, Opcodes.JUMP_IF_NOT_EQUALS, Opcodes.JUMP_IF_LESS_THAN, Opcodes.JUMP_IF_NOT_LESS_THAN,
+                            Opcodes.JUMP_IF_GREATER_THAN, Opcodes.JUMP_IF_NOT_GREATER_THAN, Opcodes.JUMP_IF_LESS_THAN_OR_EQUAL,
+                            Opcodes.JUMP_IF_NOT_LESS_THAN_OR_EQUAL, Opcodes.JUMP_IF_GREATER_THAN_OR_EQUAL, Opcodes.JUMP_IF_NOT_GREATER_THAN_OR_EQUAL -> {
+                        continue;
+                    }
+                    default -> {
+                        if (!Opcodes.binaryOperator(opcode)) throw new Untranslatable();
+                        target = a;
+                        type = operatorType(operator(opcode), operandType(b), operandType(c));
+                    }
+                }
+                final int joined = join(types[target], type);
+                changed |= joined != types[target];
+                types[target] = joined;
+            }
+            changedAny |= changed;
+        }
+        return changedAny;
+    }
+
+    // a function that only ever returns by calling itself (or a function that calls it) returns any value.
+    // this may still change the types of its callers, so they are inferred once more before they are settled
+    void settleReturnType() {
+        if (returnType == UNSET) returnType = DYNAMIC;
+    }
+
+    void settleTypes() {
+        for (int r = 0; r < types.length; r++) if (types[r] == UNSET) types[r] = DYNAMIC;
+    }
+
+    private static String descriptor(final int type) {
+        return switch (type) {
+            case BOOL, INT -> "I";
+            case LONG -> "J";
+            case FLOAT -> "F";
+            case DOUBLE -> "D";
+            case VOID -> "V";
+            default -> VALUE_DESCRIPTOR;
+        };
+    }
+
+    private static int size(final int type) {
+        return type == LONG || type == DOUBLE ? 2 : 1;
+    }
+
+    private static int loadOpcode(final int type) {
+        return switch (type) {
+            case BOOL, INT -> ILOAD;
+            case LONG -> LLOAD;
+            case FLOAT -> FLOAD;
+            case DOUBLE -> DLOAD;
+            default -> ALOAD;
+        };
+    }
+
+    private static int storeOpcode(final int type) {
+        return loadOpcode(type) + (ISTORE - ILOAD);
+    }
+
+    private String fastDescriptor() {
+        final StringBuilder descriptor = new StringBuilder("(").append(RUNTIME_DESCRIPTOR);
+        for (final int type : parameterTypes) descriptor.append(descriptor(type));
+        return descriptor.append(')').append(descriptor(returnType)).toString();
+    }
+
+    private void writeFast(@NotNull final String descriptor) {
+        method = writer.method(ClassFileWriter.ACC_STATIC, fastName, descriptor);
+        int slot = 1;
+        final int[] parameterSlots = new int[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            parameterSlots[i] = slot;
+            slot += size(parameterTypes[i]);
+        }
+        for (int r = 0; r < types.length; r++) {
+            slots[r] = slot;
+            slot += size(types[r]);
+        }
+        maxLocals = slot;
+
+        method.op(ALOAD, 0);
+        method.invoke(INVOKEVIRTUAL, RUNTIME, "enter", "()V");
+        // every register starts out with a value of its type, so that the jvm sees it assigned on every path
+        for (int r = 0; r < types.length; r++) {
+            pushZero(types[r]);
+            method.local(storeOpcode(types[r]), slots[r]);
+        }
+        for (int i = 0; i < parameterTypes.length; i++) {
+            method.local(loadOpcode(parameterTypes[i]), parameterSlots[i]);
+            store(function.locals() + i, parameterTypes[i]);
+        }
+
+        labels = new int[code.length / 4];
+        for (int i = 0; i < labels.length; i++) labels[i] = method.newLabel();
+        for (int pc = 0; pc < code.length; pc += 4) {
+            method.mark(labels[pc / 4]);
+            translate(code[pc], code[pc + 1], code[pc + 2], code[pc + 3]);
+        }
+        if (nativeFailure != -1) {
+            method.mark(nativeFailure);
+            method.invoke(INVOKESTATIC, RUNTIME, "nativeFailure", "(Ljava/lang/Throwable;)Ljava/lang/RuntimeException;");
+            method.op(ATHROW);
+        }
+        method.maxs(8 + 2 * (maxArgs + 2), maxLocals);
+    }
+
+    private void writeCall(@NotNull final String fastDescriptor) {
+        method = writer.method(ClassFileWriter.ACC_STATIC, callName, "(" + RUNTIME_DESCRIPTOR + "[" + VALUE_DESCRIPTOR + ")" + VALUE_DESCRIPTOR);
+        method.op(ALOAD, 0);
+        for (int i = 0; i < parameterTypes.length; i++) {
+            method.op(ALOAD, 1);
+            method.iconst(i);
+            method.op(AALOAD);
+            unbox(parameterTypes[i]);
+        }
+        method.invoke(INVOKESTATIC, className, fastName, fastDescriptor);
+        if (returnType == VOID) method.op(ACONST_NULL);
+        else box(returnType);
+        method.op(ARETURN);
+        method.maxs(4 + 2 * parameterTypes.length, 2);
+    }
+
+    // the method handles of the native functions are the class data, each one is put into a static final field so that the jvm can inline it
+    private void writeNativeHandles() {
+        for (int i = 0; i < natives.size(); i++)
+            writer.field(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_STATIC | ClassFileWriter.ACC_FINAL, "native" + i, "L" + METHOD_HANDLE + ";");
+
+        method = writer.method(ClassFileWriter.ACC_STATIC, "<clinit>", "()V");
+        method.invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;");
+        method.ldc(writer.string("_"));
+        method.ldc(writer.classRef("[L" + METHOD_HANDLE + ";"));
+        method.invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "classData", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;");
+        method.type(CHECKCAST, "[L" + METHOD_HANDLE + ";");
+        for (int i = 0; i < natives.size(); i++) {
+            method.op(DUP);
+            method.iconst(i);
+            method.op(AALOAD);
+            method.field(PUTSTATIC, className, "native" + i, "L" + METHOD_HANDLE + ";");
+        }
+        method.op(POP);
+        method.op(RETURN);
+        method.maxs(4, 0);
+    }
+
+    private void translate(final int opcode, final int a, final int b, final int c) {
+        switch (opcode) {
+            case Opcodes.MOVE -> {
+                final int type = load(b);
+                store(a, type);
+            }
+            case Opcodes.LOAD_GLOBAL -> {
+                runtime();
+                method.iconst(b);
+                method.invoke(INVOKEVIRTUAL, RUNTIME, "global", "(I)" + VALUE_DESCRIPTOR);
+                store(a, DYNAMIC);
+            }
+            case Opcodes.STORE_GLOBAL -> {
+                runtime();
+                method.iconst(a);
+                loadAs(b, DYNAMIC);
+                method.invoke(INVOKEVIRTUAL, RUNTIME, "storeGlobal", "(I" + VALUE_DESCRIPTOR + ")V");
+            }
+            case Opcodes.INC_LOCAL, Opcodes.DEC_LOCAL -> {
+                final int amount = opcode == Opcodes.INC_LOCAL ? 1 : -1;
+                if (types[a] == INT) {
+                    method.iinc(slots[a], amount);
+                    return;
+                }
+                method.local(ALOAD, slots[a]);
+                method.iconst(amount);
+                method.invoke(INVOKESTATIC, RUNTIME, "increment", "(" + VALUE_DESCRIPTOR + "I)" + VALUE_DESCRIPTOR);
+                method.local(ASTORE, slots[a]);
+            }
+            case Opcodes.INC_GLOBAL, Opcodes.DEC_GLOBAL -> {
+                runtime();
+                method.iconst(a);
+                method.iconst(opcode == Opcodes.INC_GLOBAL ? 1 : -1);
+                method.invoke(INVOKEVIRTUAL, RUNTIME, "incrementGlobal", "(II)V");
+            }
+            case Opcodes.DECLARE_VARIABLE -> {
+                if (types[a] == DYNAMIC) {
+                    runtime();
+                    method.iconst(b);
+                    method.invoke(INVOKEVIRTUAL, RUNTIME, "defaultValue", "(I)" + VALUE_DESCRIPTOR);
+                } else pushZero(types[a]);
+                method.local(storeOpcode(types[a]), slots[a]);
+            }
+            case Opcodes.CAST -> {
+                runtime();
+                loadAs(b, DYNAMIC);
+                method.iconst(c);
+                method.invoke(INVOKEVIRTUAL, RUNTIME, "cast", "(" + VALUE_DESCRIPTOR + "I)" + VALUE_DESCRIPTOR);
+                store(a, DYNAMIC);
+            }
+            case Opcodes.NOT -> {
+                if (operandType(b) == BOOL) {
+                    load(b);
+                    method.iconst(1);
+                    method.op(IXOR);
+                    store(a, BOOL);
+                    return;
+                }
+                loadAs(b, DYNAMIC);
+                method.invoke(INVOKEVIRTUAL, VALUE, "not", "()" + VALUE_DESCRIPTOR);
+                store(a, DYNAMIC);
+            }
+            case Opcodes.BIT_NOT -> {
+                loadAs(b, DYNAMIC);
+                method.invoke(INVOKEVIRTUAL, VALUE, "bit_not", "()" + VALUE_DESCRIPTOR);
+                store(a, DYNAMIC);
+            }
+            case Opcodes.TRACEBACK -> {
+                runtime();
+                method.iconst(a);
+                method.invoke(INVOKEVIRTUAL, RUNTIME, "traceback", "(I)V");
+            }
+            case Opcodes.JUMP -> method.jump(GOTO, labels[a / 4]);
+            case Opcodes.JUMP_IF, Opcodes.JUMP_IF_NOT -> {
+                if (operandType(a) == BOOL) load(a);
+                else {
+                    loadAs(a, DYNAMIC);
+                    method.invoke(INVOKESTATIC, RUNTIME, "condition", "(" + VALUE_DESCRIPTOR + ")Z");
+                }
+                method.jump(opcode == Opcodes.JUMP_IF ? IFNE : IFEQ, labels[b / 4]);
+            }
+            case Opcodes.JUMP_IF_EQUALS, Opcodes.JUMP_IF_NOT_EQUALS, Opcodes.JUMP_IF_LESS_THAN, Opcodes.JUMP_IF_NOT_LESS_THAN,
+                    Opcodes.JUMP_IF_GREATER_THAN, Opcodes.JUMP_IF_NOT_GREATER_THAN, Opcodes.JUMP_IF_LESS_THAN_OR_EQUAL,
+                    Opcodes.JUMP_IF_NOT_LESS_THAN_OR_EQUAL, Opcodes.JUMP_IF_GREATER_THAN_OR_EQUAL, Opcodes.JUMP_IF_NOT_GREATER_THAN_OR_EQUAL -> {
+                final int operator = switch (opcode) {
+                    case Opcodes.JUMP_IF_EQUALS, Opcodes.JUMP_IF_NOT_EQUALS -> Opcodes.EQUALS;
+                    case Opcodes.JUMP_IF_LESS_THAN, Opcodes.JUMP_IF_NOT_LESS_THAN -> Opcodes.LESS_THAN;
+                    case Opcodes.JUMP_IF_GREATER_THAN, Opcodes.JUMP_IF_NOT_GREATER_THAN -> Opcodes.GREATER_THAN;
+                    case Opcodes.JUMP_IF_LESS_THAN_OR_EQUAL, Opcodes.JUMP_IF_NOT_LESS_THAN_OR_EQUAL -> Opcodes.LESS_THAN_OR_EQUAL;
+                    default -> Opcodes.GREATER_THAN_OR_EQUAL;
+                };
+                final boolean expected = (opcode & 1) == 0; // even opcodes jump if the comparison holds, odd ones if it does not
+                final int type = operandType(a);
+                if (type == operandType(b) && numeric(type)) {
+                    load(a);
+                    load(b);
+                    compareJump(type, operator, expected, labels[c / 4]);
+                    return;
+                }
+                method.iconst(operator);
+                loadAs(a, DYNAMIC);
+                loadAs(b, DYNAMIC);
+                method.invoke(INVOKESTATIC, RUNTIME, "compare", "(I" + VALUE_DESCRIPTOR + VALUE_DESCRIPTOR + ")Z");
+                method.jump(expected ? IFNE : IFEQ, labels[c / 4]);
+            }
+            case Opcodes.FUNCTION_CALL -> call(a, b, c);
+            case Opcodes.RETURN_STATEMENT -> {
+                runtime();
+                method.invoke(INVOKEVIRTUAL, RUNTIME, "exit", "()V");
+                if (returnType == VOID) {
+                    method.op(RETURN);
+                    return;
+                }
+                loadAs(a, returnType);
+                method.op(switch (returnType) {
+                    case BOOL, INT -> IRETURN;
+                    case LONG -> LRETURN;
+                    case FLOAT -> FRETURN;
+                    case DOUBLE -> DRETURN;
+                    default -> ARETURN;
+                });
+            }
+            default -> operator(operator(opcode), a, b, c);
+        }
+    }
+
+    private void operator(final int operator, final int dst, final int x, final int y) {
+        final int type = operandType(x);
+        if (type == operandType(y) && numeric(type) && arithmetic(operator)) {
+            load(x);
+            load(y);
+            final int index = switch (operator) {
+                case Opcodes.PLUS -> IADD;
+                case Opcodes.MINUS -> ISUB;
+                case Opcodes.MULTIPLY -> IMUL;
+                case Opcodes.DIVIDE -> IDIV;
+                default -> IREM;
+            };
+            // the int, long, float and double forms of every arithmetic instruction follow each other.
+            // java throws the same ArithmeticException for integer divisions by zero that the interpreters do
+            method.op(index + type - INT);
+            store(dst, type);
+            return;
+        }
+        if (type == operandType(y) && numeric(type) && comparison(operator)) {
+            load(x);
+            load(y);
+            final int holds = method.newLabel();
+            final int end = method.newLabel();
+            compareJump(type, operator, true, holds);
+            method.iconst(0);
+            method.jump(GOTO, end);
+            method.mark(holds);
+            method.iconst(1);
+            method.mark(end);
+            store(dst, BOOL);
+            return;
+        }
+        method.iconst(operator);
+        loadAs(x, DYNAMIC);
+        loadAs(y, DYNAMIC);
+        method.invoke(INVOKESTATIC, INTERPRETER, "operate", "(I" + VALUE_DESCRIPTOR + VALUE_DESCRIPTOR + ")" + VALUE_DESCRIPTOR);
+        store(dst, DYNAMIC);
+    }
+
+    // compares the two values on the jvm stack and jumps if the result is the expected one. comparisons with NaN never hold,
+    // so less-than comparisons of floats and doubles treat NaN as greater and greater-than ones treat it as less
+    private void compareJump(final int type, final int operator, final boolean expected, final int label) {
+        final int condition = switch (operator) {
+            case Opcodes.EQUALS -> expected ? IFEQ : IFNE;
+            case Opcodes.LESS_THAN -> expected ? IFLT : IFGE;
+            case Opcodes.GREATER_THAN -> expected ? IFGT : IFLE;
+            case Opcodes.LESS_THAN_OR_EQUAL -> expected ? IFLE : IFGT;
+            default -> expected ? IFGE : IFLT;
+        };
+        final boolean lessThan = operator == Opcodes.LESS_THAN || operator == Opcodes.LESS_THAN_OR_EQUAL;
+        switch (type) {
+            case INT -> {
+                method.jump(condition + (IF_ICMPEQ - IFEQ), label);
+                return;
+            }
+            case LONG -> method.op(LCMP);
+            case FLOAT -> method.op(lessThan ? FCMPG : FCMPL);
+            default -> method.op(lessThan ? DCMPG : DCMPL);
+        }
+        method.jump(condition, label);
+    }
+
+    private void call(final int functionId, final int args, final int results) {
+        final int arity = program.arity(functionId);
+        maxArgs = Math.max(maxArgs, arity);
+        final JitCompiler callee = directCallee(functionId, args);
+        if (callee != null) {
+            runtime();
+            for (int i = 0; i < arity; i++) loadAs(args + i, callee.parameterTypes[i]);
+            method.invoke(INVOKESTATIC, callee.className, callee.fastName, callee.fastDescriptor());
+            if (results == 1) store(args, callee.returnType);
+            else if (callee.returnType != VOID) method.op(size(callee.returnType) == 2 ? POP2 : POP);
+            return;
+        }
+        if (functions[functionId] instanceof final ByteCodeNativeFunction nativeFunc
+                && (directNatives ? directNativeCall(functionId, nativeFunc, args, results) : nativeCall(functionId, nativeFunc, args, results))) return;
+
+        runtime();
+        method.iconst(functionId);
+        method.iconst(arity);
+        method.type(ANEWARRAY, VALUE);
+        for (int i = 0; i < arity; i++) {
+            method.op(DUP);
+            method.iconst(i);
+            loadAs(args + i, DYNAMIC);
+            method.op(AASTORE);
+        }
+        method.iconst(results);
+        method.invoke(INVOKEVIRTUAL, RUNTIME, "call", "(I[" + VALUE_DESCRIPTOR + "I)" + VALUE_DESCRIPTOR);
+        if (results == 1) store(args, DYNAMIC);
+        else method.op(POP);
+    }
+
+    // invokes the java method of a native function through a method handle constant. arguments that have the exact primitive type
+    // of their parameter are passed as they are, all others are passed as the objects the interpreter would pass (see ValueStack.objectAt),
+    // so that the method handle converts them the same way it does for the interpreter
+    private boolean nativeCall(final int functionId, @NotNull final ByteCodeNativeFunction nativeFunc, final int args, final int results) {
+        final Class<?>[] parameters = nativeFunc.method().getParameterTypes();
+        final Class<?>[] passed = new Class<?>[parameters.length];
+        final StringBuilder descriptor = new StringBuilder("(");
+        for (int i = 0; i < parameters.length; i++) {
+            final int type = operandType(args + i);
+            final Class<?> primitive = primitive(type);
+            passed[i] = primitive != null && parameters[i] == primitive ? primitive : Object.class;
+            descriptor.append(passed[i] == Object.class ? "Ljava/lang/Object;" : type == BOOL ? "Z" : descriptor(type));
+        }
+        descriptor.append(")Ljava/lang/Object;");
+
+        final MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(nativeFunc.method()).asType(MethodType.methodType(Object.class, passed));
+        } catch (final IllegalAccessException | RuntimeException e) {
+            return false;
+        }
+        final int field = natives.size();
+        natives.add(handle);
+
+        runtime();
+        method.field(GETSTATIC, className, "native" + field, "L" + METHOD_HANDLE + ";");
+        for (int i = 0; i < parameters.length; i++) {
+            if (passed[i] != Object.class) {
+                load(args + i);
+                continue;
+            }
+            loadAs(args + i, DYNAMIC);
+            method.invoke(INVOKEVIRTUAL, VALUE, "asObject", "()Ljava/lang/Object;");
+        }
+        if (nativeFailure == -1) nativeFailure = method.newLabel();
+        final int start = method.newLabel();
+        final int end = method.newLabel();
+        method.mark(start);
+        method.invoke(INVOKEVIRTUAL, METHOD_HANDLE, "invokeExact", descriptor.toString());
+        method.mark(end);
+        method.handler(start, end, nativeFailure, "java/lang/Throwable");
+
+        nativeResult(functionId, results, args);
+        return true;
+    }
+
+    // calls a native method with invokestatic, converting the arguments the same way the method handles of native functions do:
+    // wrappers and other objects are cast to their parameter type, primitives have to have exactly the type of their parameter.
+    // only works where the class of the method is visible from the compiled code, which is the case for AotCompiler
+    private boolean directNativeCall(final int functionId, @NotNull final ByteCodeNativeFunction nativeFunc, final int args, final int results) {
+        final Method nativeMethod = nativeFunc.method();
+        final Class<?> owner = nativeMethod.getDeclaringClass();
+        if (owner.isInterface() || !Modifier.isPublic(owner.getModifiers()) || !Modifier.isPublic(nativeMethod.getModifiers())) return false;
+        final Class<?>[] parameters = nativeMethod.getParameterTypes();
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i].isPrimitive() ? parameters[i] != primitive(operandType(args + i)) : !Modifier.isPublic(parameters[i].getModifiers())) return false;
+        }
+
+        runtime();
+        if (nativeFailure == -1) nativeFailure = method.newLabel();
+        final int start = method.newLabel();
+        final int end = method.newLabel();
+        method.mark(start);
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i].isPrimitive()) {
+                load(args + i);
+                continue;
+            }
+            final int type = operandType(args + i);
+            if (primitive(type) != null) {
+                load(args + i);
+                javaBox(primitive(type));
+            } else {
+                loadAs(args + i, DYNAMIC);
+                method.invoke(INVOKEVIRTUAL, VALUE, "asObject", "()Ljava/lang/Object;");
+            }
+            if (parameters[i] != Object.class) method.type(CHECKCAST, internalName(parameters[i]));
+        }
+        method.invoke(INVOKESTATIC, internalName(owner), nativeMethod.getName(), MethodType.methodType(nativeMethod.getReturnType(), parameters).toMethodDescriptorString());
+        if (nativeMethod.getReturnType() == void.class) method.op(ACONST_NULL);
+        else if (nativeMethod.getReturnType().isPrimitive()) javaBox(nativeMethod.getReturnType());
+        method.mark(end);
+        method.handler(start, end, nativeFailure, "java/lang/Throwable");
+
+        nativeResult(functionId, results, args);
+        return true;
+    }
+
+    // the runtime and the result of the native method are on the stack
+    private void nativeResult(final int functionId, final int results, final int args) {
+        method.iconst(functionId);
+        method.invoke(INVOKEVIRTUAL, RUNTIME, "nativeResult", "(Ljava/lang/Object;I)" + VALUE_DESCRIPTOR);
+        if (results == 1) store(args, DYNAMIC);
+        else method.op(POP);
+    }
+
+    private static Class<?> primitive(final int type) {
+        return switch (type) {
+            case BOOL -> boolean.class;
+            case INT -> int.class;
+            case LONG -> long.class;
+            case FLOAT -> float.class;
+            case DOUBLE -> double.class;
+            default -> null;
+        };
+    }
+
+    private static String internalName(@NotNull final Class<?> type) {
+        return type.isArray() ? type.descriptorString() : type.getName().replace('.', '/');
+    }
+
+    // boxes a java primitive into its wrapper, like passing it as an Object would
+    private void javaBox(@NotNull final Class<?> primitive) {
+        final String wrapper = internalName(MethodType.methodType(primitive).wrap().returnType());
+        method.invoke(INVOKESTATIC, wrapper, "valueOf", "(" + primitive.descriptorString() + ")L" + wrapper + ";");
+    }
+
+    private void runtime() {
+        method.op(ALOAD, 0);
+    }
+
+    // pushes a register or constant in its own type and returns that type
+    private int load(final int operand) {
+        final int type = operandType(operand);
+        if (operand >= 0) {
+            method.local(loadOpcode(type), slots[operand]);
+            return type;
+        }
+        final ByteCodeValue constant = constants[~operand];
+        switch (type) {
+            case BOOL -> method.iconst(constant.bits() != 0L ? 1 : 0);
+            case INT -> method.iconst((int) constant.bits());
+            case LONG -> method.ldc2(writer.longInteger(constant.bits()));
+            case FLOAT -> method.ldc(writer.floating(Float.intBitsToFloat((int) constant.bits())));
+            case DOUBLE -> method.ldc2(writer.doubleFloating(Double.longBitsToDouble(constant.bits())));
+            default -> {
+                runtime();
+                method.iconst(~operand);
+                method.invoke(INVOKEVIRTUAL, RUNTIME, "constant", "(I)" + VALUE_DESCRIPTOR);
+            }
+        }
+        return type;
+    }
+
+    private void loadAs(final int operand, final int type) {
+        convert(load(operand), type);
+    }
+
+    private void store(final int register, final int type) {
+        convert(type, types[register]);
+        method.local(storeOpcode(types[register]), slots[register]);
+    }
+
+    // a value of a static type can always become a ByteCodeValue, any other conversion means the types were inferred wrong
+    private void convert(final int from, final int to) {
+        if (from == to) return;
+        if (to != DYNAMIC) throw new Untranslatable();
+        box(from);
+    }
+
+    private void box(final int type) {
+        switch (type) {
+            case BOOL -> method.invoke(INVOKESTATIC, VALUE, "boolValue", "(Z)" + VALUE_DESCRIPTOR);
+            case INT -> method.invoke(INVOKESTATIC, VALUE, "intValue", "(I)" + VALUE_DESCRIPTOR);
+            case LONG -> method.invoke(INVOKESTATIC, VALUE, "longValue", "(J)" + VALUE_DESCRIPTOR);
+            case FLOAT -> method.invoke(INVOKESTATIC, VALUE, "floatValue", "(F)" + VALUE_DESCRIPTOR);
+            case DOUBLE -> method.invoke(INVOKESTATIC, VALUE, "doubleValue", "(D)" + VALUE_DESCRIPTOR);
+            default -> {}
+        }
+    }
+
+    private void unbox(final int type) {
+        switch (type) {
+            case BOOL -> method.invoke(INVOKESTATIC, RUNTIME, "boolOf", "(" + VALUE_DESCRIPTOR + ")Z");
+            case INT -> method.invoke(INVOKESTATIC, RUNTIME, "intOf", "(" + VALUE_DESCRIPTOR + ")I");
+            case LONG -> method.invoke(INVOKESTATIC, RUNTIME, "longOf", "(" + VALUE_DESCRIPTOR + ")J");
+            case FLOAT -> method.invoke(INVOKESTATIC, RUNTIME, "floatOf", "(" + VALUE_DESCRIPTOR + ")F");
+            case DOUBLE -> method.invoke(INVOKESTATIC, RUNTIME, "doubleOf", "(" + VALUE_DESCRIPTOR + ")D");
+            default -> {}
+        }
+    }
+
+    private void pushZero(final int type) {
+        switch (type) {
+            case BOOL, INT -> method.op(ICONST_0);
+            case LONG -> method.op(LCONST_0);
+            case FLOAT -> method.op(FCONST_0);
+            case DOUBLE -> method.op(DCONST_0);
+            default -> method.op(ACONST_NULL);
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandle;
+
+// the jvm code of a hot function (see JitCompiler). entry takes the runtime and the arguments and returns the result, null if there is none.
+// the compiled code keeps parameters of primitive types in jvm locals, so it only accepts arguments of exactly the declared type
+// (parameterCodes, -1 for parameters of any type). everything else is left to the interpreter
+record JitFunction(int id, @NotNull MethodHandle entry, byte @NotNull [] parameterCodes) {
+
+    int arity() {
+        return parameterCodes.length;
+    }
+
+    boolean accepts(@NotNull final ByteCodeValue[] args) {
+        for (int i = 0; i < parameterCodes.length; i++) {
+            if (parameterCodes[i] != -1 && args[i].type().code() != parameterCodes[i]) return false;
+        }
+        return true;
+    }
+
+    ByteCodeValue call(@NotNull final JitRuntime runtime, @NotNull final ByteCodeValue[] args) {
+        try {
+            return (ByteCodeValue) entry.invokeExact(runtime, args);
+        } catch (final RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new ByteCodeException("Cannot invoke compiled function: " + e);
+        }
+    }
+
+}
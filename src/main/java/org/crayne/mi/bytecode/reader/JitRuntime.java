@@ -0,0 +1,172 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.reader.function.ByteCodeInternFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeNativeFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeRuntimeFunction;
+import org.jetbrains.annotations.NotNull;
+
+// what jit compiled code calls into (see JitCompiler): one instance per interpreter, which is passed to every compiled function,
+// and the static helpers for everything that is not a single jvm instruction. all of it behaves exactly like the interpreters do
+final class JitRuntime {
+
+    private final ByteCodeInterpreter owner;
+    private final Jit jit;
+    private final ByteCodeValue[] constants;
+    private final ByteDatatype[] datatypes;
+    private final ByteCodeRuntimeFunction[] functions;
+    private final ValueStack globals;
+    private final ValueStack pushStack;
+    private final int maxCallDepth;
+    private int depth;
+    // the deepest call since the interpreter entered compiled code, to tell where the jvm stack ran out
+    private int deepest;
+
+    JitRuntime(@NotNull final ByteCodeInterpreter owner, @NotNull final ByteCodeProgram program, @NotNull final ValueStack globals,
+               @NotNull final ValueStack pushStack, final int maxCallDepth) {
+        this.owner = owner;
+        this.jit = program.jit();
+        this.constants = program.code().constants();
+        this.datatypes = program.code().datatypes();
+        this.functions = program.functions();
+        this.globals = globals;
+        this.pushStack = pushStack;
+        this.maxCallDepth = maxCallDepth;
+    }
+
+    // calls a hot function from the interpreter, with its arguments on top of the push stack. returns false if it has no compiled code
+    // (yet) or does not take arguments of these types, in which case the interpreter runs the function itself
+    boolean tryCall(final int functionId) {
+        final JitFunction compiled = jit.enter(functionId);
+        if (compiled == null) return false;
+
+        final ByteCodeValue[] args = new ByteCodeValue[compiled.arity()];
+        final int first = pushStack.size() - args.length;
+        for (int i = 0; i < args.length; i++) args[i] = pushStack.get(first + i);
+        if (!compiled.accepts(args)) return false;
+
+        pushStack.truncate(first);
+        final ByteCodeValue result = invoke(compiled, args);
+        if (result != null) pushStack.push(result);
+        return true;
+    }
+
+    // the entry from the interpreter. compiled code runs on the engine thread, which has a stack sized for maxCallDepth (see EngineThread),
+    // so the jvm stack only runs out first for very deeply nested expressions
+    ByteCodeValue invoke(@NotNull final JitFunction compiled, @NotNull final ByteCodeValue[] args) {
+        final int entryDepth = depth;
+        if (entryDepth == 0) deepest = 0;
+        try {
+            return compiled.call(this, args);
+        } catch (final StackOverflowError e) {
+            throw new ByteCodeException("Stack overflow: the jvm stack ran out at a call depth of " + deepest + ", below the maximum call depth of " + maxCallDepth);
+        } finally {
+            depth = entryDepth;
+        }
+    }
+
+    void enter() {
+        final int callDepth = ++depth + owner.callDepth();
+        if (callDepth > maxCallDepth) throw new ByteCodeException("Stack overflow: exceeded the maximum call depth of " + maxCallDepth);
+        if (callDepth > deepest) deepest = callDepth;
+    }
+
+    void exit() {
+        depth--;
+    }
+
+    // calls a function that compiled code has no direct call for, returning its result or null if it has none
+    ByteCodeValue call(final int functionId, @NotNull final ByteCodeValue[] args, final int results) {
+        final ByteCodeRuntimeFunction function = functions[functionId];
+        if (function instanceof final ByteCodeInternFunction internFunc) {
+            final JitFunction compiled = jit.enter(functionId);
+            if (compiled != null && compiled.accepts(args)) return compiled.call(this, args);
+
+            for (final ByteCodeValue arg : args) pushStack.push(arg);
+            owner.runOnStack(internFunc);
+        } else if (function instanceof final ByteCodeNativeFunction nativeFunc) {
+            for (final ByteCodeValue arg : args) pushStack.push(arg);
+            owner.invokeNativeFuncCall(nativeFunc);
+        }
+        return results == 0 ? null : pushStack.pop();
+    }
+
+    ByteCodeValue nativeResult(final Object result, final int functionId) {
+        final ByteCodeNativeFunction nativeFunc = (ByteCodeNativeFunction) functions[functionId];
+        final Object checked = nativeFunc.checkResult(result);
+        return nativeFunc.returnType() == ByteDatatype.VOID ? null : ByteCodeValue.ofObject(nativeFunc.returnType(), checked);
+    }
+
+    // the same wrapping ByteCodeInterpreter.invokeNativeFuncCall does
+    static RuntimeException nativeFailure(@NotNull final Throwable e) {
+        if (e instanceof final ByteCodeException byteCodeException) return byteCodeException;
+        return new ByteCodeException("Cannot invoke native function method: " + e);
+    }
+
+    ByteCodeValue constant(final int index) {
+        return constants[index];
+    }
+
+    ByteCodeValue global(final int index) {
+        return globals.get(index);
+    }
+
+    void storeGlobal(final int index, @NotNull final ByteCodeValue value) {
+        globals.set(index, value);
+    }
+
+    void incrementGlobal(final int index, final int amount) {
+        ByteCodeInterpreter.increment(globals, index, amount);
+    }
+
+    ByteCodeValue defaultValue(final int datatype) {
+        return ByteCodeValue.defaultValue(datatypes[datatype]);
+    }
+
+    ByteCodeValue cast(@NotNull final ByteCodeValue value, final int datatype) {
+        final ByteCodeValue cast = value.cast(datatypes[datatype]);
+        if (cast == null) throw new ByteCodeException("Cannot cast " + value.type() + " to " + datatypes[datatype]);
+        return cast;
+    }
+
+    void traceback(final int line) {
+        owner.traceback(line);
+    }
+
+    static ByteCodeValue increment(@NotNull final ByteCodeValue value, final int amount) {
+        if (value.type().code() == ByteDatatype.INT.code()) return ByteCodeValue.intValue((int) value.bits() + amount);
+        return value.plus(ByteCodeValue.intValue(amount));
+    }
+
+    static boolean condition(@NotNull final ByteCodeValue value) {
+        if (value.type().code() != ByteDatatype.BOOL.code()) throw new ByteCodeException("Expected boolean value as condition for jump-if opcode");
+        return value.bits() != 0L;
+    }
+
+    static boolean compare(final int operator, @NotNull final ByteCodeValue x, @NotNull final ByteCodeValue y) {
+        return condition(ByteCodeInterpreter.operate(operator, x, y));
+    }
+
+    // arguments of compiled functions are checked before the call (see JitFunction.accepts), so these only ever see their own type
+    static int intOf(@NotNull final ByteCodeValue value) {
+        return (int) value.bits();
+    }
+
+    static boolean boolOf(@NotNull final ByteCodeValue value) {
+        return value.bits() != 0L;
+    }
+
+    static long longOf(@NotNull final ByteCodeValue value) {
+        return value.bits();
+    }
+
+    static float floatOf(@NotNull final ByteCodeValue value) {
+        return Float.intBitsToFloat((int) value.bits());
+    }
+
+    static double doubleOf(@NotNull final ByteCodeValue value) {
+        return Double.longBitsToDouble(value.bits());
+    }
+
+}
@@ -0,0 +1,106 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.jetbrains.annotations.NotNull;
+
+// the jvm instructions JitCompiler emits, see the jvm specification chapter 6
+final class JvmOpcodes {
+
+    private JvmOpcodes() {}
+
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int LCONST_0 = 0x09;
+    static final int FCONST_0 = 0x0B;
+    static final int DCONST_0 = 0x0E;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int ILOAD = 0x15;
+    static final int LLOAD = 0x16;
+    static final int FLOAD = 0x17;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int ISTORE = 0x36;
+    static final int LSTORE = 0x37;
+    static final int FSTORE = 0x38;
+    static final int DSTORE = 0x39;
+    static final int ASTORE = 0x3A;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int IADD = 0x60;
+    static final int LADD = 0x61;
+    static final int FADD = 0x62;
+    static final int DADD = 0x63;
+    static final int ISUB = 0x64;
+    static final int LSUB = 0x65;
+    static final int FSUB = 0x66;
+    static final int DSUB = 0x67;
+    static final int IMUL = 0x68;
+    static final int LMUL = 0x69;
+    static final int FMUL = 0x6A;
+    static final int DMUL = 0x6B;
+    static final int IDIV = 0x6C;
+    static final int LDIV = 0x6D;
+    static final int FDIV = 0x6E;
+    static final int DDIV = 0x6F;
+    static final int IREM = 0x70;
+    static final int LREM = 0x71;
+    static final int FREM = 0x72;
+    static final int DREM = 0x73;
+    static final int IXOR = 0x82;
+    static final int IINC = 0x84;
+    static final int LCMP = 0x94;
+    static final int FCMPL = 0x95;
+    static final int FCMPG = 0x96;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9A;
+    static final int IFLT = 0x9B;
+    static final int IFGE = 0x9C;
+    static final int IFGT = 0x9D;
+    static final int IFLE = 0x9E;
+    static final int IF_ICMPEQ = 0x9F;
+    static final int IF_ICMPNE = 0xA0;
+    static final int IF_ICMPLT = 0xA1;
+    static final int IF_ICMPGE = 0xA2;
+    static final int IF_ICMPGT = 0xA3;
+    static final int IF_ICMPLE = 0xA4;
+    static final int GOTO = 0xA7;
+    static final int IRETURN = 0xAC;
+    static final int LRETURN = 0xAD;
+    static final int FRETURN = 0xAE;
+    static final int DRETURN = 0xAF;
+    static final int ARETURN = 0xB0;
+    static final int RETURN = 0xB1;
+    static final int GETSTATIC = 0xB2;
+    static final int PUTSTATIC = 0xB3;
+    static final int INVOKEVIRTUAL = 0xB6;
+    static final int INVOKESTATIC = 0xB8;
+    static final int INVOKEINTERFACE = 0xB9;
+    static final int ANEWARRAY = 0xBD;
+    static final int ATHROW = 0xBF;
+    static final int CHECKCAST = 0xC0;
+    static final int WIDE = 0xC4;
+
+    // the amount of local variable slots the parameters of a method descriptor take up
+    static int argumentSlots(@NotNull final String descriptor) {
+        int slots = 0;
+        for (int i = 1; descriptor.charAt(i) != ')'; i++) {
+            final char c = descriptor.charAt(i);
+            slots += c == 'J' || c == 'D' ? 2 : 1;
+            if (c == 'L') i = descriptor.indexOf(';', i);
+            else if (c == '[') {
+                while (descriptor.charAt(i) == '[') i++;
+                if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+            }
+        }
+        return slots;
+    }
+
+}
@@ -0,0 +1,14 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteDatatype;
+
+// a program lowered by the ByteCodeLinker. instruction i has the opcode opcodes[i] and the operand operands[i],
+// which is, depending on the opcode, the index of a pushed constant, of a datatype, of a string, a resolved jump target (an instruction index),
+// a function id, a plain integer (pop amount, traceback line) or a variable address (superinstructions, see ByteCodeLinker.fuse)
+public record LinkedProgram(int[] opcodes, int[] operands, ByteCodeValue[] constants, ByteDatatype[] datatypes, String[] strings) {
+
+    public int size() {
+        return opcodes.length;
+    }
+
+}
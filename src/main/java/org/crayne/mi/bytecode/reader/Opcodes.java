@@ -0,0 +1,158 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.jetbrains.annotations.NotNull;
+
+// the opcodes of a linked program. every instruction opcode is the unsigned value of its ByteCode code,
+// so that the interpreter can switch over plain ints instead of enum constants
+public final class Opcodes {
+
+    private Opcodes() {}
+
+    public static final int PROGRAM_HEADER = 0x01;
+    public static final int JUMP = 0x03;
+    public static final int JUMP_IF = 0x04;
+    public static final int JUMP_IF_NOT = 0x05;
+    public static final int JUMP_IF_EQUALS = 0x10;
+    public static final int JUMP_IF_NOT_EQUALS = 0x11;
+    public static final int JUMP_IF_LESS_THAN = 0x12;
+    public static final int JUMP_IF_NOT_LESS_THAN = 0x13;
+    public static final int JUMP_IF_GREATER_THAN = 0x14;
+    public static final int JUMP_IF_NOT_GREATER_THAN = 0x15;
+    public static final int JUMP_IF_LESS_THAN_OR_EQUAL = 0x16;
+    public static final int JUMP_IF_NOT_LESS_THAN_OR_EQUAL = 0x17;
+    public static final int JUMP_IF_GREATER_THAN_OR_EQUAL = 0x18;
+    public static final int JUMP_IF_NOT_GREATER_THAN_OR_EQUAL = 0x19;
+    public static final int PUSH = 0x07;
+    public static final int POP = 0x08;
+    public static final int VALUE_AT_RELATIVE_ADDRESS = 0x09;
+
+    public static final int INT_PLUS = 0x20;
+    public static final int INT_MINUS = 0x21;
+    public static final int INT_MULTIPLY = 0x22;
+    public static final int INT_DIVIDE = 0x23;
+    public static final int INT_MODULO = 0x24;
+    public static final int INT_EQUALS = 0x25;
+    public static final int INT_LESS_THAN = 0x26;
+    public static final int INT_GREATER_THAN = 0x27;
+    public static final int INT_LESS_THAN_OR_EQUAL = 0x28;
+    public static final int INT_GREATER_THAN_OR_EQUAL = 0x29;
+
+    public static final int LONG_PLUS = 0x30;
+    public static final int LONG_MINUS = 0x31;
+    public static final int LONG_MULTIPLY = 0x32;
+    public static final int LONG_DIVIDE = 0x33;
+    public static final int LONG_MODULO = 0x34;
+    public static final int LONG_EQUALS = 0x35;
+    public static final int LONG_LESS_THAN = 0x36;
+    public static final int LONG_GREATER_THAN = 0x37;
+    public static final int LONG_LESS_THAN_OR_EQUAL = 0x38;
+    public static final int LONG_GREATER_THAN_OR_EQUAL = 0x39;
+
+    public static final int FLOAT_PLUS = 0x40;
+    public static final int FLOAT_MINUS = 0x41;
+    public static final int FLOAT_MULTIPLY = 0x42;
+    public static final int FLOAT_DIVIDE = 0x43;
+    public static final int FLOAT_MODULO = 0x44;
+    public static final int FLOAT_EQUALS = 0x45;
+    public static final int FLOAT_LESS_THAN = 0x46;
+    public static final int FLOAT_GREATER_THAN = 0x47;
+    public static final int FLOAT_LESS_THAN_OR_EQUAL = 0x48;
+    public static final int FLOAT_GREATER_THAN_OR_EQUAL = 0x49;
+
+    public static final int DOUBLE_PLUS = 0x50;
+    public static final int DOUBLE_MINUS = 0x51;
+    public static final int DOUBLE_MULTIPLY = 0x52;
+    public static final int DOUBLE_DIVIDE = 0x53;
+    public static final int DOUBLE_MODULO = 0x54;
+    public static final int DOUBLE_EQUALS = 0x55;
+    public static final int DOUBLE_LESS_THAN = 0x56;
+    public static final int DOUBLE_GREATER_THAN = 0x57;
+    public static final int DOUBLE_LESS_THAN_OR_EQUAL = 0x58;
+    public static final int DOUBLE_GREATER_THAN_OR_EQUAL = 0x59;
+    public static final int STRING_CONCAT = 0x60;
+
+    public static final int NOT = 0xA0;
+    public static final int PLUS = 0xA1;
+    public static final int MINUS = 0xA2;
+    public static final int MULTIPLY = 0xA3;
+    public static final int DIVIDE = 0xA4;
+    public static final int MODULO = 0xA5;
+    public static final int LOGICAL_AND = 0xA6;
+    public static final int LOGICAL_OR = 0xA7;
+    public static final int BIT_AND = 0xA8;
+    public static final int BIT_OR = 0xA9;
+    public static final int BIT_XOR = 0xAA;
+    public static final int BITSHIFT_LEFT = 0xAB;
+    public static final int BITSHIFT_RIGHT = 0xAC;
+    public static final int EQUALS = 0xAD;
+    public static final int LESS_THAN = 0xAE;
+    public static final int GREATER_THAN = 0xAF;
+    public static final int LESS_THAN_OR_EQUAL = 0xB0;
+    public static final int GREATER_THAN_OR_EQUAL = 0xB1;
+    public static final int BIT_NOT = 0xB2;
+    public static final int CAST = 0xB3;
+    public static final int NATIVE_FUNCTION_DEFINITION_BEGIN = 0xB4;
+    public static final int TRACEBACK = 0xB5;
+    public static final int STDLIB_FINISH_LINE = 0xB6;
+
+    public static final int DECLARE_VARIABLE = 0xC0;
+    public static final int DEFINE_VARIABLE = 0xC1;
+    public static final int VALUE_AT_ADDRESS = 0xC2;
+    public static final int FUNCTION_DEFINITION_BEGIN = 0xC3;
+    public static final int FUNCTION_DEFINITION_END = 0xC4;
+    public static final int FUNCTION_CALL = 0xC5;
+    public static final int RETURN_STATEMENT = 0xC6;
+    public static final int MUTATE_VARIABLE = 0xC7;
+    public static final int ENUM_DEFINITION_BEGIN = 0xC8;
+    public static final int ENUM_DEFINITION_END = 0xC9;
+    public static final int ENUM_MEMBER_DEFINITION = 0xCA;
+    public static final int MUTATE_VARIABLE_AND_PUSH = 0xCB;
+    public static final int INC_VARIABLE = 0xD7;
+    public static final int DEC_VARIABLE = 0xD8;
+    public static final int INC_VARIABLE_AND_PUSH = 0xD9;
+    public static final int DEC_VARIABLE_AND_PUSH = 0xDA;
+    public static final int RELATIVE_TO_ABSOLUTE_ADDRESS = 0xD6;
+
+    // superinstructions, which have no ByteCode of their own. they are only created by ByteCodeLinker.fuse and their operand is a variable address
+    public static final int LOAD_LOCAL = 0x70;
+    public static final int LOAD_GLOBAL = 0x71;
+    public static final int STORE_LOCAL = 0x72;
+    public static final int STORE_GLOBAL = 0x73;
+    public static final int INC_LOCAL = 0x74;
+    public static final int DEC_LOCAL = 0x75;
+    public static final int LOAD_LOCAL_ADD_CONST = 0x76;
+
+    // only used in register code, see RegisterCompiler
+    public static final int MOVE = 0x78;
+    public static final int INC_GLOBAL = 0x79;
+    public static final int DEC_GLOBAL = 0x7A;
+
+    private static final int[] genericOperators = ByteCode.typedOperators.stream().mapToInt(Opcodes::of).toArray();
+
+    // the generic operator a type-specialized one was made from (see ByteCode.typed)
+    public static int generic(final int typedOperator) {
+        return typedOperator == STRING_CONCAT ? PLUS : genericOperators[typedOperator & 0x0F];
+    }
+
+    // the type-specialized form of a generic operator for two operands of the given type code, -1 if there is none
+    public static int typed(final int genericOperator, final byte type) {
+        if (type == 0x06) return genericOperator == PLUS ? STRING_CONCAT : -1;
+        if (type < 0x02 || type > 0x05) return -1;
+        for (int i = 0; i < genericOperators.length; i++) {
+            if (genericOperators[i] == genericOperator) return type << 4 | i;
+        }
+        return -1;
+    }
+
+    // every operator that pops two values and pushes its result, generic or typed
+    public static boolean binaryOperator(final int opcode) {
+        if (opcode >= PLUS && opcode <= GREATER_THAN_OR_EQUAL) return true;
+        return opcode == STRING_CONCAT || opcode >= INT_PLUS && opcode <= DOUBLE_GREATER_THAN_OR_EQUAL && (opcode & 0x0F) < genericOperators.length;
+    }
+
+    public static int of(@NotNull final ByteCode code) {
+        return Byte.toUnsignedInt(code.code());
+    }
+
+}
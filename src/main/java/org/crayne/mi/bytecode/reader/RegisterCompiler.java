@@ -0,0 +1,324 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.reader.function.ByteCodeRuntimeFunction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+// translates the stack code of a function into register code. every variable of a function gets a register (its relative address),
+// followed by one register for every push stack entry the function may have at once (see FunctionShape), so that the push stack
+// disappears: instructions read their operands straight from the registers of the variables or from the constant pool and write
+// their result into the register of the entry the stack code would have pushed.
+//
+// register code is made of instructions of four ints: the opcode (the opcode of the stack instruction it replaces, or one of the
+// register only ones) and three operands. operands that are read may be registers (>= 0) or constants (~index into the constant pool);
+// jump targets are indices into the code. the layouts are
+//   MOVE dst, src                    LOAD_GLOBAL dst, global          STORE_GLOBAL global, src
+//   INC_LOCAL reg                    DEC_LOCAL reg                    INC_GLOBAL global, DEC_GLOBAL global
+//   DECLARE_VARIABLE reg, datatype   CAST dst, src, datatype          NOT dst, src, BIT_NOT dst, src
+//   (operator) dst, x, y             JUMP target                      JUMP_IF cond, target, JUMP_IF_NOT cond, target
+//   JUMP_IF_(compare) x, y, target   FUNCTION_CALL id, args, results  RETURN_STATEMENT src, results
+//   TRACEBACK line
+// calls take their arguments from consecutive registers starting at args and put their result into args.
+// entries are only copied into their own register where needed (before jumps, calls and writes to a variable they were read from),
+// so that most operators take a variable or a constant directly
+final class RegisterCompiler {
+
+    private static final int NONE = -1;
+
+    private final LinkedProgram program;
+    private final ByteCodeRuntimeFunction[] functions;
+    private final FunctionShape shape;
+    private final int locals;
+    private final int[] opcodes;
+    private final int[] operands;
+
+    private int[] code = new int[64];
+    private int size;
+    private final int[] pcs;
+    private final boolean[] extraTargets;
+    private int[] jumps = new int[16];
+    private int jumpCount;
+
+    // the operand every push stack entry is at right now: its own register, the register of a variable or a constant.
+    // entries that hold the address of a variable (relative to absolute address) only ever live until the next instruction
+    private final int[] stack;
+    private final boolean[] addresses;
+    private int depth;
+    // the position of the destination operand of the last instruction, as long as nothing came after it
+    private int lastWrite = NONE;
+
+    private static final class Untranslatable extends RuntimeException {
+        private Untranslatable() {
+            super(null, null, false, false);
+        }
+    }
+
+    private RegisterCompiler(@NotNull final LinkedProgram program, @NotNull final ByteCodeRuntimeFunction[] functions, @NotNull final FunctionShape shape) {
+        this.program = program;
+        this.functions = functions;
+        this.shape = shape;
+        this.locals = shape.maxVariables();
+        this.opcodes = program.opcodes();
+        this.operands = program.operands();
+        this.pcs = new int[shape.end() - shape.begin() + 1];
+        this.extraTargets = new boolean[pcs.length];
+        this.stack = new int[shape.maxStack()];
+        this.addresses = new boolean[shape.maxStack()];
+    }
+
+    public static RegisterProgram compile(@NotNull final LinkedProgram program, @NotNull final ByteCodeRuntimeFunction[] functions) {
+        final FunctionShape[] shapes = FunctionShape.analyze(program, functions);
+        final RegisterFunction[] compiled = new RegisterFunction[functions.length];
+        final int[] arities = new int[functions.length];
+        for (int id = 0; id < functions.length; id++) {
+            arities[id] = FunctionShape.arity(functions[id], program);
+            if (shapes[id] == null || shapes[id].results() > 1) continue;
+            try {
+                compiled[id] = new RegisterCompiler(program, functions, shapes[id]).compile();
+            } catch (final Untranslatable e) {
+                compiled[id] = null;
+            }
+        }
+        return new RegisterProgram(compiled, arities);
+    }
+
+    private RegisterFunction compile() {
+        final int begin = shape.begin();
+        int fallthrough = NONE; // the instruction the last one continues at, NONE after jumps and returns
+        for (int i = begin + 1; i <= shape.end(); i++) {
+            if (!shape.reachable(i)) continue;
+            if (fallthrough != NONE && fallthrough != i) {
+                // a superinstruction skipped instructions that are reached by jumps, those are translated on their own
+                materializeAll();
+                jump(Opcodes.JUMP, NONE, NONE, fallthrough);
+                extraTargets[fallthrough - begin] = true;
+                fallthrough = NONE;
+            }
+            if (fallthrough == NONE || shape.jumpTarget(i) || extraTargets[i - begin]) {
+                if (fallthrough != NONE) materializeAll();
+                depth = shape.stackDepth(i);
+                for (int d = 0; d < depth; d++) {
+                    stack[d] = temp(d);
+                    addresses[d] = false;
+                }
+                lastWrite = NONE;
+            }
+            pcs[i - begin] = size;
+            fallthrough = translate(i);
+        }
+        for (int j = 0; j < jumpCount; j++) code[jumps[j]] = pcs[code[jumps[j]] - begin];
+
+        return new RegisterFunction(shape.id(), begin, Arrays.copyOf(code, size), locals, locals + shape.maxStack(), shape.arity());
+    }
+
+    // translates one instruction, returning the instruction that runs after it or NONE if it does not continue with the next one
+    private int translate(final int i) {
+        final int opcode = opcodes[i];
+        final int operand = operands[i];
+        switch (opcode) {
+            case Opcodes.PUSH -> push(~operand);
+            case Opcodes.POP -> {}
+            case Opcodes.TRACEBACK -> emit(Opcodes.TRACEBACK, operand, 0, 0);
+            case Opcodes.LOAD_LOCAL, Opcodes.LOAD_LOCAL_ADD_CONST -> {
+                push(local(operand));
+                return i + 2;
+            }
+            case Opcodes.VALUE_AT_RELATIVE_ADDRESS -> push(local(constantAddress(pop())));
+            case Opcodes.LOAD_GLOBAL -> {
+                loadGlobal(operand - 1);
+                return i + 2;
+            }
+            case Opcodes.VALUE_AT_ADDRESS -> loadGlobal(constantAddress(pop()) - 1);
+            case Opcodes.RELATIVE_TO_ABSOLUTE_ADDRESS -> {
+                final int address = local(constantAddress(pop()));
+                push(address);
+                addresses[depth - 1] = true;
+            }
+            case Opcodes.DEFINE_VARIABLE -> assignLocal(shape.variableDepth(i), pop());
+            case Opcodes.DECLARE_VARIABLE -> {
+                final int variable = local(shape.variableDepth(i));
+                flushLocal(variable);
+                emit(Opcodes.DECLARE_VARIABLE, variable, operand, 0);
+            }
+            case Opcodes.STORE_LOCAL -> {
+                assignLocal(local(operand), pop());
+                return i + 3;
+            }
+            case Opcodes.STORE_GLOBAL -> {
+                emit(Opcodes.STORE_GLOBAL, operand - 1, pop(), 0);
+                return i + 2;
+            }
+            case Opcodes.MUTATE_VARIABLE, Opcodes.MUTATE_VARIABLE_AND_PUSH -> {
+                final boolean local = addresses[depth - 1];
+                final int address = local ? pop() : constantAddress(pop());
+                if (opcode == Opcodes.MUTATE_VARIABLE && local) assignLocal(address, pop());
+                else if (opcode == Opcodes.MUTATE_VARIABLE) emit(Opcodes.STORE_GLOBAL, address - 1, pop(), 0);
+                else if (local) {
+                    flushLocal(address);
+                    emit(Opcodes.MOVE, address, stack[depth - 1], 0);
+                } else emit(Opcodes.STORE_GLOBAL, address - 1, stack[depth - 1], 0);
+            }
+            case Opcodes.INC_LOCAL, Opcodes.DEC_LOCAL -> {
+                final int variable = local(operand);
+                flushLocal(variable);
+                emit(opcode, variable, 0, 0);
+                return i + 3;
+            }
+            case Opcodes.INC_VARIABLE, Opcodes.DEC_VARIABLE, Opcodes.INC_VARIABLE_AND_PUSH, Opcodes.DEC_VARIABLE_AND_PUSH -> {
+                final boolean inc = opcode == Opcodes.INC_VARIABLE || opcode == Opcodes.INC_VARIABLE_AND_PUSH;
+                final boolean result = opcode == Opcodes.INC_VARIABLE_AND_PUSH || opcode == Opcodes.DEC_VARIABLE_AND_PUSH;
+                if (addresses[depth - 1]) {
+                    final int variable = pop();
+                    flushLocal(variable);
+                    emit(inc ? Opcodes.INC_LOCAL : Opcodes.DEC_LOCAL, variable, 0, 0);
+                    if (result) push(variable);
+                } else {
+                    final int global = constantAddress(pop()) - 1;
+                    emit(inc ? Opcodes.INC_GLOBAL : Opcodes.DEC_GLOBAL, global, 0, 0);
+                    if (result) loadGlobal(global);
+                }
+            }
+            case Opcodes.NOT, Opcodes.BIT_NOT -> {
+                final int value = pop();
+                write(opcode, value, 0);
+            }
+            case Opcodes.CAST -> {
+                final int value = pop();
+                write(opcode, value, operand);
+            }
+            case Opcodes.JUMP -> {
+                materializeAll();
+                jump(Opcodes.JUMP, NONE, NONE, operand);
+                return NONE;
+            }
+            case Opcodes.JUMP_IF, Opcodes.JUMP_IF_NOT -> {
+                final int condition = pop();
+                materializeAll();
+                jump(opcode, condition, NONE, operand);
+            }
+            case Opcodes.JUMP_IF_EQUALS, Opcodes.JUMP_IF_NOT_EQUALS, Opcodes.JUMP_IF_LESS_THAN, Opcodes.JUMP_IF_NOT_LESS_THAN,
+                    Opcodes.JUMP_IF_GREATER_THAN, Opcodes.JUMP_IF_NOT_GREATER_THAN, Opcodes.JUMP_IF_LESS_THAN_OR_EQUAL,
+                    Opcodes.JUMP_IF_NOT_LESS_THAN_OR_EQUAL, Opcodes.JUMP_IF_GREATER_THAN_OR_EQUAL, Opcodes.JUMP_IF_NOT_GREATER_THAN_OR_EQUAL -> {
+                final int y = pop();
+                final int x = pop();
+                materializeAll();
+                jump(opcode, x, y, operand);
+            }
+            case Opcodes.FUNCTION_CALL -> {
+                final int arity = FunctionShape.arity(functions[operand], program);
+                final int args = depth - arity;
+                for (int d = args; d < depth; d++) materialize(d);
+                final int results = shape.stackDepth(i + 1) - args;
+                if (results > 1) throw new Untranslatable();
+
+                emit(Opcodes.FUNCTION_CALL, operand, temp(args), results);
+                depth = args;
+                if (results == 1) push(temp(args));
+            }
+            case Opcodes.RETURN_STATEMENT, Opcodes.FUNCTION_DEFINITION_END -> {
+                emit(Opcodes.RETURN_STATEMENT, shape.results() == 1 ? pop() : 0, shape.results(), 0);
+                return NONE;
+            }
+            default -> {
+                if (!Opcodes.binaryOperator(opcode)) throw new Untranslatable();
+                final int y = pop();
+                final int x = pop();
+                write(opcode, x, y);
+            }
+        }
+        return i + 1;
+    }
+
+    private int temp(final int depth) {
+        return locals + depth;
+    }
+
+    private void push(final int operand) {
+        stack[depth] = operand;
+        addresses[depth] = false;
+        depth++;
+    }
+
+    private int pop() {
+        return stack[--depth];
+    }
+
+    private int local(final int address) {
+        if (address < 0 || address >= locals) throw new Untranslatable();
+        return address;
+    }
+
+    // the value of a pushed int constant, which is what the compiler uses for addresses
+    private int constantAddress(final int operand) {
+        if (operand >= 0) throw new Untranslatable(); // computed addresses are left to the stack code
+        final ByteCodeValue value = program.constants()[~operand];
+        if (value.type().code() != ByteDatatype.INT.code()) throw new Untranslatable();
+        return (int) value.bits();
+    }
+
+    // emits an instruction that writes its result into the register of a new push stack entry
+    private void write(final int opcode, final int x, final int y) {
+        final int result = temp(depth);
+        emit(opcode, result, x, y);
+        lastWrite = size - 3;
+        push(result);
+    }
+
+    private void loadGlobal(final int global) {
+        write(Opcodes.LOAD_GLOBAL, global, 0);
+    }
+
+    private void assignLocal(final int variable, final int value) {
+        flushLocal(variable);
+        if (value == variable) return;
+        if (value >= locals && lastWrite != NONE && code[lastWrite] == value) {
+            code[lastWrite] = variable; // the result goes right into the variable instead of being moved there
+            lastWrite = NONE;
+            return;
+        }
+        emit(Opcodes.MOVE, variable, value, 0);
+    }
+
+    // the entries that were read from a variable get their own copy before the variable changes
+    private void flushLocal(final int variable) {
+        for (int d = 0; d < depth; d++) if (stack[d] == variable && !addresses[d]) materialize(d);
+    }
+
+    private void materialize(final int d) {
+        if (addresses[d]) throw new Untranslatable();
+        if (stack[d] == temp(d)) return;
+        emit(Opcodes.MOVE, temp(d), stack[d], 0);
+        stack[d] = temp(d);
+    }
+
+    private void materializeAll() {
+        for (int d = 0; d < depth; d++) materialize(d);
+    }
+
+    // jump targets are instruction indices until every instruction has been translated
+    private void jump(final int opcode, final int x, final int y, final int target) {
+        switch (opcode) {
+            case Opcodes.JUMP -> emit(opcode, target, 0, 0);
+            case Opcodes.JUMP_IF, Opcodes.JUMP_IF_NOT -> emit(opcode, x, target, 0);
+            default -> emit(opcode, x, y, target);
+        }
+        if (jumpCount == jumps.length) jumps = Arrays.copyOf(jumps, jumpCount * 2);
+        jumps[jumpCount++] = switch (opcode) {
+            case Opcodes.JUMP -> size - 3;
+            case Opcodes.JUMP_IF, Opcodes.JUMP_IF_NOT -> size - 2;
+            default -> size - 1;
+        };
+    }
+
+    private void emit(final int opcode, final int a, final int b, final int c) {
+        if (size + 4 > code.length) code = Arrays.copyOf(code, code.length * 2);
+        code[size++] = opcode;
+        code[size++] = a;
+        code[size++] = b;
+        code[size++] = c;
+        lastWrite = NONE;
+    }
+
+}
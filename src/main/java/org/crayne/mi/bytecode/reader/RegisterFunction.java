@@ -0,0 +1,5 @@
+package org.crayne.mi.bytecode.reader;
+
+// the register code of an intern function (see RegisterCompiler). a call gets a frame of frameSize registers,
+// the variables in the first locals ones and the push stack entries after them, starting with the arguments
+public record RegisterFunction(int id, int label, int[] code, int locals, int frameSize, int arity) {}
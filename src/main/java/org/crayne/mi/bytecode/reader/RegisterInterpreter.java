@@ -0,0 +1,322 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.reader.function.ByteCodeInternFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeNativeFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeRuntimeFunction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+// runs register code (see RegisterCompiler). every call gets a frame of registers on top of the register file, calls between
+// functions that have register code stay in the same loop, calls to anything else go through the push stack like the stack code does.
+// the global variables stay on the variable stack of the owning interpreter, so both engines share them
+final class RegisterInterpreter {
+
+    private static final int MAX_REGISTERS = 1 << 24;
+
+    private final ByteCodeInterpreter owner;
+    private final RegisterProgram program;
+    private final ByteCodeValue[] constants;
+    private final ByteDatatype[] datatypes;
+    private final ByteCodeRuntimeFunction[] functions;
+    private final ValueStack globals;
+    private final ValueStack pushStack;
+    private final ValueStack registers = new ValueStack("register file", MAX_REGISTERS);
+    private final int maxCallDepth;
+
+    // the frames of the callers, the running function is kept in locals of run()
+    private int[] returnCode = new int[64];
+    private int[][] callerCode = new int[64][];
+    private int[] callerPcs = new int[64];
+    private int[] callerBases = new int[64];
+    private int callDepth;
+
+    RegisterInterpreter(@NotNull final ByteCodeInterpreter owner, @NotNull final ByteCodeProgram program, @NotNull final ValueStack globals,
+                        @NotNull final ValueStack pushStack, final int maxCallDepth) {
+        this.owner = owner;
+        this.program = program.registerProgram();
+        this.constants = program.code().constants();
+        this.datatypes = program.code().datatypes();
+        this.functions = program.functions();
+        this.globals = globals;
+        this.pushStack = pushStack;
+        this.maxCallDepth = maxCallDepth;
+    }
+
+    // runs the function with its arguments on the push stack, leaving its result there just like the stack code would
+    void run(@NotNull final RegisterFunction entry) {
+        callDepth = 0;
+        int base = 0;
+        registers.reserve(entry.frameSize());
+        for (int i = entry.arity() - 1; i >= 0; i--) {
+            registers.setFrom(entry.locals() + i, pushStack, pushStack.top());
+            pushStack.drop(1);
+        }
+        int[] code = entry.code();
+        int pc = 0;
+        try {
+            while (true) {
+                final int opcode = code[pc];
+                final int a = code[pc + 1];
+                final int b = code[pc + 2];
+                final int c = code[pc + 3];
+                pc += 4;
+                switch (opcode) {
+                    case Opcodes.MOVE -> copy(base + a, b, base);
+                    case Opcodes.LOAD_GLOBAL -> registers.setFrom(base + a, globals, b);
+                    case Opcodes.STORE_GLOBAL -> {
+                        if (b >= 0) globals.setFrom(a, registers, base + b);
+                        else globals.set(a, constants[~b]);
+                    }
+                    case Opcodes.INC_LOCAL -> ByteCodeInterpreter.increment(registers, base + a, 1);
+                    case Opcodes.DEC_LOCAL -> ByteCodeInterpreter.increment(registers, base + a, -1);
+                    case Opcodes.INC_GLOBAL -> ByteCodeInterpreter.increment(globals, a, 1);
+                    case Opcodes.DEC_GLOBAL -> ByteCodeInterpreter.increment(globals, a, -1);
+                    case Opcodes.DECLARE_VARIABLE -> registers.set(base + a, ByteCodeValue.defaultValue(datatypes[b]));
+                    case Opcodes.CAST -> {
+                        final ByteCodeValue value = value(b, base);
+                        final ByteCodeValue cast = value.cast(datatypes[c]);
+                        if (cast == null) throw new ByteCodeException("Cannot cast " + value.type() + " to " + datatypes[c]);
+                        registers.set(base + a, cast);
+                    }
+                    case Opcodes.NOT -> registers.set(base + a, value(b, base).not());
+                    case Opcodes.BIT_NOT -> registers.set(base + a, value(b, base).bit_not());
+                    case Opcodes.TRACEBACK -> owner.traceback(a);
+                    case Opcodes.JUMP -> pc = a;
+                    case Opcodes.JUMP_IF -> {
+                        if (condition(a, base)) pc = b;
+                    }
+                    case Opcodes.JUMP_IF_NOT -> {
+                        if (!condition(a, base)) pc = b;
+                    }
+                    case Opcodes.JUMP_IF_EQUALS, Opcodes.JUMP_IF_NOT_EQUALS, Opcodes.JUMP_IF_LESS_THAN, Opcodes.JUMP_IF_NOT_LESS_THAN,
+                            Opcodes.JUMP_IF_GREATER_THAN, Opcodes.JUMP_IF_NOT_GREATER_THAN, Opcodes.JUMP_IF_LESS_THAN_OR_EQUAL,
+                            Opcodes.JUMP_IF_NOT_LESS_THAN_OR_EQUAL, Opcodes.JUMP_IF_GREATER_THAN_OR_EQUAL, Opcodes.JUMP_IF_NOT_GREATER_THAN_OR_EQUAL -> {
+                        // even opcodes jump if the comparison holds, odd ones if it does not
+                        if (compare(compareOperator(opcode), a, b, base) == ((opcode & 1) == 0)) pc = c;
+                    }
+                    case Opcodes.FUNCTION_CALL -> {
+                        final RegisterFunction callee = program.function(a);
+                        if (callee == null) {
+                            callOnStack(a, base + b, c);
+                            continue;
+                        }
+                        if (callDepth == returnCode.length) growFrames();
+                        callerCode[callDepth] = code;
+                        callerPcs[callDepth] = pc;
+                        callerBases[callDepth] = base;
+                        returnCode[callDepth] = base + b;
+                        callDepth++;
+
+                        final int args = base + b;
+                        base = registers.size();
+                        registers.reserve(callee.frameSize());
+                        for (int i = 0; i < callee.arity(); i++) registers.setFrom(base + callee.locals() + i, registers, args + i);
+                        code = callee.code();
+                        pc = 0;
+                    }
+                    case Opcodes.RETURN_STATEMENT -> {
+                        if (callDepth == 0) {
+                            if (b == 1) pushValue(a, base);
+                            return;
+                        }
+                        callDepth--;
+                        if (b == 1) copy(returnCode[callDepth], a, base);
+                        registers.truncate(base);
+                        code = callerCode[callDepth];
+                        pc = callerPcs[callDepth];
+                        base = callerBases[callDepth];
+                        callerCode[callDepth] = null;
+                    }
+                    default -> operator(opcode, base + a, b, c, base);
+                }
+            }
+        } finally {
+            registers.clear();
+            Arrays.fill(callerCode, 0, callDepth, null);
+        }
+    }
+
+    private void growFrames() {
+        if (callDepth >= maxCallDepth) throw new ByteCodeException("Stack overflow: exceeded the maximum call depth of " + maxCallDepth);
+        final int capacity = Math.min(returnCode.length * 2, maxCallDepth);
+        returnCode = Arrays.copyOf(returnCode, capacity);
+        callerCode = Arrays.copyOf(callerCode, capacity);
+        callerPcs = Arrays.copyOf(callerPcs, capacity);
+        callerBases = Arrays.copyOf(callerBases, capacity);
+    }
+
+    // functions without register code and native functions take their arguments from the push stack and leave their result there
+    private void callOnStack(final int functionId, final int args, final int results) {
+        final int arity = program.arity(functionId);
+        for (int i = 0; i < arity; i++) pushStack.pushFrom(registers, args + i);
+        final ByteCodeRuntimeFunction function = functions[functionId];
+        if (function instanceof final ByteCodeInternFunction internFunc) owner.runOnStack(internFunc);
+        else if (function instanceof final ByteCodeNativeFunction nativeFunc) owner.invokeNativeFuncCall(nativeFunc);
+        if (results == 0) return;
+
+        registers.setFrom(args, pushStack, pushStack.top());
+        pushStack.drop(1);
+    }
+
+    static int compareOperator(final int compareJump) {
+        return switch (compareJump) {
+            case Opcodes.JUMP_IF_EQUALS, Opcodes.JUMP_IF_NOT_EQUALS -> Opcodes.EQUALS;
+            case Opcodes.JUMP_IF_LESS_THAN, Opcodes.JUMP_IF_NOT_LESS_THAN -> Opcodes.LESS_THAN;
+            case Opcodes.JUMP_IF_GREATER_THAN, Opcodes.JUMP_IF_NOT_GREATER_THAN -> Opcodes.GREATER_THAN;
+            case Opcodes.JUMP_IF_LESS_THAN_OR_EQUAL, Opcodes.JUMP_IF_NOT_LESS_THAN_OR_EQUAL -> Opcodes.LESS_THAN_OR_EQUAL;
+            default -> Opcodes.GREATER_THAN_OR_EQUAL;
+        };
+    }
+
+    // the same comparison ByteCodeInterpreter.evalCompareJump does, numbers of the same type are compared without creating any values
+    private boolean compare(final int operator, final int x, final int y, final int base) {
+        final byte type = code(x, base);
+        if (type < 0x02 || type > 0x05 || code(y, base) != type) {
+            final ByteCodeValue result = ByteCodeInterpreter.operate(operator, value(x, base), value(y, base));
+            if (result.type().code() != ByteDatatype.BOOL.code()) throw new ByteCodeException("Expected boolean value as condition for jump-if opcode");
+            return result.bits() != 0L;
+        }
+        final long left = bits(x, base);
+        final long right = bits(y, base);
+        return switch (type) {
+            case 0x02 -> ByteCodeInterpreter.compare(operator, Integer.compare((int) left, (int) right));
+            case 0x03 -> ByteCodeInterpreter.compare(operator, Long.compare(left, right));
+            case 0x04 -> ByteCodeInterpreter.compare(operator, Float.intBitsToFloat((int) left), Float.intBitsToFloat((int) right));
+            default -> ByteCodeInterpreter.compare(operator, Double.longBitsToDouble(left), Double.longBitsToDouble(right));
+        };
+    }
+
+    private boolean condition(final int operand, final int base) {
+        if (code(operand, base) != ByteDatatype.BOOL.code()) throw new ByteCodeException("Expected boolean value as condition for jump-if opcode");
+        return bits(operand, base) != 0L;
+    }
+
+    // typed operators are only a hint here, the fast paths are picked by the types the operands actually have.
+    // the operands are read before the result is written, since the destination may be one of them
+    private void operator(final int opcode, final int dst, final int x, final int y, final int base) {
+        final int operator = opcode >= Opcodes.INT_PLUS && opcode <= Opcodes.STRING_CONCAT ? Opcodes.generic(opcode) : opcode;
+        final byte type = code(x, base);
+        if (type == code(y, base) && operator(registers, operator, dst, type, bits(x, base), bits(y, base), ref(x, base), ref(y, base))) return;
+        registers.set(dst, ByteCodeInterpreter.operate(operator, value(x, base), value(y, base)));
+    }
+
+    // the fast paths for two operands of the same type, writing the result into dst. false if there is none for the operator and type,
+    // which leaves the operator to ByteCodeInterpreter.operate. shared with the closure engine (see ClosureNode)
+    static boolean operator(@NotNull final ValueStack registers, final int operator, final int dst, final byte type,
+                            final long left, final long right, final Object leftRef, final Object rightRef) {
+        if (operator < Opcodes.PLUS || operator > Opcodes.GREATER_THAN_OR_EQUAL) return false;
+        return switch (type) {
+            case 0x02 -> intOperator(registers, operator, dst, (int) left, (int) right);
+            case 0x03 -> longOperator(registers, operator, dst, left, right);
+            case 0x04 -> floatOperator(registers, operator, dst, Float.intBitsToFloat((int) left), Float.intBitsToFloat((int) right));
+            case 0x05 -> doubleOperator(registers, operator, dst, Double.longBitsToDouble(left), Double.longBitsToDouble(right));
+            case 0x06 -> stringConcat(registers, operator, dst, leftRef, rightRef);
+            default -> false;
+        };
+    }
+
+    static boolean intOperator(@NotNull final ValueStack registers, final int operator, final int dst, final int x, final int y) {
+        switch (operator) {
+            case Opcodes.PLUS -> registers.setInt(dst, x + y);
+            case Opcodes.MINUS -> registers.setInt(dst, x - y);
+            case Opcodes.MULTIPLY -> registers.setInt(dst, x * y);
+            case Opcodes.DIVIDE, Opcodes.MODULO -> {
+                if (y == 0) return false;
+                registers.setInt(dst, operator == Opcodes.DIVIDE ? x / y : x % y);
+            }
+            case Opcodes.EQUALS, Opcodes.LESS_THAN, Opcodes.GREATER_THAN, Opcodes.LESS_THAN_OR_EQUAL, Opcodes.GREATER_THAN_OR_EQUAL ->
+                    registers.setBool(dst, ByteCodeInterpreter.compare(operator, Integer.compare(x, y)));
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean longOperator(@NotNull final ValueStack registers, final int operator, final int dst, final long x, final long y) {
+        switch (operator) {
+            case Opcodes.PLUS -> registers.set(dst, ByteDatatype.LONG, x + y);
+            case Opcodes.MINUS -> registers.set(dst, ByteDatatype.LONG, x - y);
+            case Opcodes.MULTIPLY -> registers.set(dst, ByteDatatype.LONG, x * y);
+            case Opcodes.DIVIDE, Opcodes.MODULO -> {
+                if (y == 0L) return false;
+                registers.set(dst, ByteDatatype.LONG, operator == Opcodes.DIVIDE ? x / y : x % y);
+            }
+            case Opcodes.EQUALS, Opcodes.LESS_THAN, Opcodes.GREATER_THAN, Opcodes.LESS_THAN_OR_EQUAL, Opcodes.GREATER_THAN_OR_EQUAL ->
+                    registers.setBool(dst, ByteCodeInterpreter.compare(operator, Long.compare(x, y)));
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean floatOperator(@NotNull final ValueStack registers, final int operator, final int dst, final float x, final float y) {
+        switch (operator) {
+            case Opcodes.PLUS -> registers.set(dst, ByteDatatype.FLOAT, Float.floatToRawIntBits(x + y));
+            case Opcodes.MINUS -> registers.set(dst, ByteDatatype.FLOAT, Float.floatToRawIntBits(x - y));
+            case Opcodes.MULTIPLY -> registers.set(dst, ByteDatatype.FLOAT, Float.floatToRawIntBits(x * y));
+            case Opcodes.DIVIDE -> registers.set(dst, ByteDatatype.FLOAT, Float.floatToRawIntBits(x / y));
+            case Opcodes.MODULO -> registers.set(dst, ByteDatatype.FLOAT, Float.floatToRawIntBits(x % y));
+            case Opcodes.EQUALS, Opcodes.LESS_THAN, Opcodes.GREATER_THAN, Opcodes.LESS_THAN_OR_EQUAL, Opcodes.GREATER_THAN_OR_EQUAL ->
+                    registers.setBool(dst, ByteCodeInterpreter.compare(operator, x, y));
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean doubleOperator(@NotNull final ValueStack registers, final int operator, final int dst, final double x, final double y) {
+        switch (operator) {
+            case Opcodes.PLUS -> registers.set(dst, ByteDatatype.DOUBLE, Double.doubleToRawLongBits(x + y));
+            case Opcodes.MINUS -> registers.set(dst, ByteDatatype.DOUBLE, Double.doubleToRawLongBits(x - y));
+            case Opcodes.MULTIPLY -> registers.set(dst, ByteDatatype.DOUBLE, Double.doubleToRawLongBits(x * y));
+            case Opcodes.DIVIDE -> registers.set(dst, ByteDatatype.DOUBLE, Double.doubleToRawLongBits(x / y));
+            case Opcodes.MODULO -> registers.set(dst, ByteDatatype.DOUBLE, Double.doubleToRawLongBits(x % y));
+            case Opcodes.EQUALS, Opcodes.LESS_THAN, Opcodes.GREATER_THAN, Opcodes.LESS_THAN_OR_EQUAL, Opcodes.GREATER_THAN_OR_EQUAL ->
+                    registers.setBool(dst, ByteCodeInterpreter.compare(operator, x, y));
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean stringConcat(@NotNull final ValueStack registers, final int operator, final int dst, final Object x, final Object y) {
+        if (operator != Opcodes.PLUS) return false;
+        registers.set(dst, ByteCodeValue.stringValue((String) x + y));
+        return true;
+    }
+
+    // operands that are read are either registers of the running frame or constants
+    private byte code(final int operand, final int base) {
+        return operand >= 0 ? registers.code(base + operand) : constants[~operand].type().code();
+    }
+
+    private long bits(final int operand, final int base) {
+        return operand >= 0 ? registers.bits(base + operand) : constants[~operand].bits();
+    }
+
+    private Object ref(final int operand, final int base) {
+        return operand >= 0 ? registers.ref(base + operand) : constants[~operand].ref();
+    }
+
+    private ByteCodeValue value(final int operand, final int base) {
+        return operand >= 0 ? registers.get(base + operand) : constants[~operand];
+    }
+
+    private void copy(final int dst, final int operand, final int base) {
+        if (operand >= 0) registers.setFrom(dst, registers, base + operand);
+        else registers.set(dst, constants[~operand]);
+    }
+
+    private void pushValue(final int operand, final int base) {
+        if (operand >= 0) pushStack.pushFrom(registers, base + operand);
+        else pushStack.push(constants[~operand]);
+    }
+
+}
@@ -0,0 +1,45 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.reader.function.ByteCodeInternFunction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+// the register code of every function that could be translated, shared read-only by every interpreter of a program
+public final class RegisterProgram {
+
+    private final RegisterFunction[] functions;
+    private final int[] arities;
+    private final Map<Integer, RegisterFunction> functionsByLabel = new HashMap<>();
+
+    RegisterProgram(@NotNull final RegisterFunction[] functions, final int @NotNull [] arities) {
+        this.functions = functions;
+        this.arities = arities;
+        for (final RegisterFunction function : functions) if (function != null) functionsByLabel.put(function.label(), function);
+    }
+
+    // the register code of the function with the given id, null if it only exists as stack code
+    RegisterFunction function(final int functionId) {
+        return functions[functionId];
+    }
+
+    RegisterFunction function(@NotNull final ByteCodeInternFunction function) {
+        return functionsByLabel.get(function.label());
+    }
+
+    int arity(final int functionId) {
+        return arities[functionId];
+    }
+
+    public int translated() {
+        return (int) Arrays.stream(functions).filter(Objects::nonNull).count();
+    }
+
+    public int functions() {
+        return functions.length;
+    }
+
+}
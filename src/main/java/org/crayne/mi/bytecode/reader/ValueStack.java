@@ -0,0 +1,226 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+// a growable stack of value slots. every slot is split into its datatype, its primitive payload and its reference payload
+// (the same layout as ByteCodeValue), so that values can be pushed, copied and modified in place without allocating
+public class ValueStack {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final String name;
+    private final int maxSize;
+    private ByteDatatype[] types;
+    private long[] bits;
+    private Object[] refs;
+    private int size;
+
+    public ValueStack(@NotNull final String name, final int maxSize) {
+        this.name = name;
+        this.maxSize = maxSize;
+        final int capacity = Math.min(INITIAL_CAPACITY, maxSize);
+        this.types = new ByteDatatype[capacity];
+        this.bits = new long[capacity];
+        this.refs = new Object[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int top() {
+        if (size == 0) throw new ByteCodeException("Cannot read value, " + name + " is empty");
+        return size - 1;
+    }
+
+    private int allocate() {
+        if (size == types.length) grow();
+        return size++;
+    }
+
+    private void grow() {
+        if (size >= maxSize) throw new ByteCodeException("Stack overflow: " + name + " exceeded its maximum size of " + maxSize + " values");
+        final int capacity = (int) Math.min((long) types.length * 2, maxSize);
+        types = Arrays.copyOf(types, capacity);
+        bits = Arrays.copyOf(bits, capacity);
+        refs = Arrays.copyOf(refs, capacity);
+    }
+
+    // adds the given amount of slots on top, which keep whatever they held before until they are written
+    public void reserve(final int amount) {
+        if ((long) size + amount > maxSize) throw new ByteCodeException("Stack overflow: " + name + " exceeded its maximum size of " + maxSize + " values");
+        while (size + amount > types.length) grow();
+        size += amount;
+    }
+
+    public void push(@NotNull final ByteCodeValue value) {
+        final int slot = allocate();
+        types[slot] = value.type();
+        bits[slot] = value.bits();
+        refs[slot] = value.ref();
+    }
+
+    public void pushInt(final int value) {
+        final int slot = allocate();
+        types[slot] = ByteDatatype.INT;
+        bits[slot] = value;
+        refs[slot] = null;
+    }
+
+    public void pushBool(final boolean value) {
+        final int slot = allocate();
+        types[slot] = ByteDatatype.BOOL;
+        bits[slot] = value ? 1L : 0L;
+        refs[slot] = null;
+    }
+
+    // pushes a java object as a value of the given type, converting it the same way ByteCodeValue.ofObject does
+    public void pushObject(@NotNull final ByteDatatype type, final Object obj) {
+        if (obj == null) {
+            pushSlot(ByteDatatype.NULL, 0L, null);
+            return;
+        }
+        switch (type.code()) {
+            case 0x00 -> pushSlot(ByteDatatype.BOOL, (boolean) obj ? 1L : 0L, null);
+            case 0x01 -> pushSlot(ByteDatatype.CHAR, obj instanceof final Character c ? c : (int) obj, null);
+            case 0x02 -> pushSlot(ByteDatatype.INT, (int) obj, null);
+            case 0x03 -> pushSlot(ByteDatatype.LONG, (long) obj, null);
+            case 0x04 -> pushSlot(ByteDatatype.FLOAT, Float.floatToRawIntBits((float) obj), null);
+            case 0x05 -> pushSlot(ByteDatatype.DOUBLE, Double.doubleToRawLongBits((double) obj), null);
+            case 0x06 -> pushSlot(ByteDatatype.STRING, 0L, String.valueOf(obj));
+            case 0x08 -> pushSlot(ByteDatatype.NULL, 0L, null);
+            default -> throw new ByteCodeException("Cannot convert " + obj + " to a value of type " + type);
+        }
+    }
+
+    private void pushSlot(@NotNull final ByteDatatype type, final long value, final Object ref) {
+        final int slot = allocate();
+        types[slot] = type;
+        bits[slot] = value;
+        refs[slot] = ref;
+    }
+
+    // pushes a copy of the slot at the given index of another (or the same) stack
+    public void pushFrom(@NotNull final ValueStack other, final int index) {
+        final int slot = allocate();
+        types[slot] = other.types[index];
+        bits[slot] = other.bits[index];
+        refs[slot] = other.refs[index];
+    }
+
+    // overwrites the slot at the given index with a copy of a slot of another stack
+    public void setFrom(final int index, @NotNull final ValueStack other, final int otherIndex) {
+        types[index] = other.types[otherIndex];
+        bits[index] = other.bits[otherIndex];
+        refs[index] = other.refs[otherIndex];
+    }
+
+    public void set(final int index, @NotNull final ByteCodeValue value) {
+        types[index] = value.type();
+        bits[index] = value.bits();
+        refs[index] = value.ref();
+    }
+
+    public void setBits(final int index, final long value) {
+        bits[index] = value;
+    }
+
+    public void set(final int index, @NotNull final ByteDatatype type, final long value) {
+        types[index] = type;
+        bits[index] = value;
+        refs[index] = null;
+    }
+
+    public void setInt(final int index, final int value) {
+        set(index, ByteDatatype.INT, value);
+    }
+
+    public void setBool(final int index, final boolean value) {
+        set(index, ByteDatatype.BOOL, value ? 1L : 0L);
+    }
+
+    public ByteCodeValue get(final int index) {
+        final ByteDatatype type = types[index];
+        return switch (type.code()) {
+            case 0x00 -> ByteCodeValue.boolValue(bits[index] != 0L);
+            case 0x02 -> ByteCodeValue.intValue((int) bits[index]);
+            case 0x08 -> ByteCodeValue.NULL;
+            default -> new ByteCodeValue(type, bits[index], refs[index]);
+        };
+    }
+
+    public ByteDatatype type(final int index) {
+        return types[index];
+    }
+
+    public byte code(final int index) {
+        return types[index].code();
+    }
+
+    public long bits(final int index) {
+        return bits[index];
+    }
+
+    public Object ref(final int index) {
+        return refs[index];
+    }
+
+    // reads the slot the same way ByteCodeValue.asInt does
+    public int intAt(final int index) {
+        return switch (types[index].code()) {
+            case 0x04 -> (int) Float.intBitsToFloat((int) bits[index]);
+            case 0x05 -> (int) Double.longBitsToDouble(bits[index]);
+            default -> (int) bits[index];
+        };
+    }
+
+    // reads the slot as a java object the same way ByteCodeValue.asObject does
+    public Object objectAt(final int index) {
+        return switch (types[index].code()) {
+            case 0x00 -> bits[index] != 0L;
+            case 0x01 -> (char) bits[index];
+            case 0x02 -> (int) bits[index];
+            case 0x03 -> bits[index];
+            case 0x04 -> Float.intBitsToFloat((int) bits[index]);
+            case 0x05 -> Double.longBitsToDouble(bits[index]);
+            case 0x06 -> refs[index];
+            default -> null;
+        };
+    }
+
+    public ByteCodeValue pop() {
+        final ByteCodeValue value = get(top());
+        drop(1);
+        return value;
+    }
+
+    public int popInt() {
+        final int value = intAt(top());
+        drop(1);
+        return value;
+    }
+
+    public void drop(final int amount) {
+        if (amount > size) throw new ByteCodeException("Cannot perform pop, " + name + " is empty");
+        truncate(size - amount);
+    }
+
+    public void truncate(final int newSize) {
+        // release references of dropped strings and enums
+        for (int i = newSize; i < size; i++) refs[i] = null;
+        size = newSize;
+    }
+
+    public void clear() {
+        truncate(0);
+    }
+
+}
@@ -6,6 +6,11 @@ import java.lang.reflect.Method;
 
 public class ByteCodeInternFunction extends ByteCodeRuntimeFunction {
 
+    // how often the function was called and how often its loops jumped back, counted by the jit engine to find hot functions.
+    // a function is shared by every interpreter of a program and the counts are not synchronized, so they are only approximate
+    private int invocations;
+    private int backEdges;
+
     public ByteCodeInternFunction(@NotNull final Integer jumpLabel) {
         super(jumpLabel);
     }
@@ -19,4 +24,20 @@ public class ByteCodeInternFunction extends ByteCodeRuntimeFunction {
         return jumpLabel == null ? -1 : jumpLabel;
     }
 
+    public int countInvocation() {
+        return ++invocations;
+    }
+
+    public void countBackEdge() {
+        backEdges++;
+    }
+
+    public int invocations() {
+        return invocations;
+    }
+
+    public int backEdges() {
+        return backEdges;
+    }
+
 }
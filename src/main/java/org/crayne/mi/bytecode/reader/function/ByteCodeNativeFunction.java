@@ -1,22 +1,103 @@
 package org.crayne.mi.bytecode.reader.function;
 
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.reader.ValueStack;
 import org.jetbrains.annotations.NotNull;
 
+import javax.annotation.Nonnull;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 
 public class ByteCodeNativeFunction extends ByteCodeRuntimeFunction {
 
+    // functions with up to this many parameters are invoked directly, larger ones get their arguments spread from an array
+    private static final int MAX_DIRECT_ARITY = 4;
+
+    // the native method, adapted to take and return plain Objects, so that it can be called with invokeExact
+    private final MethodHandle handle;
+    private final int arity;
+    private final ByteDatatype returnType;
+    private final boolean nonnull;
+
     protected ByteCodeNativeFunction(@NotNull final Integer jumpLabel) {
         super(jumpLabel);
         throw new IllegalArgumentException("Cannot use jump labels for native functions");
     }
 
-    public ByteCodeNativeFunction(@NotNull final Method nativeMethod) {
+    public ByteCodeNativeFunction(@NotNull final Method nativeMethod, @NotNull final ByteDatatype returnType) {
         super(nativeMethod);
+        if (!Modifier.isStatic(nativeMethod.getModifiers())) throw new ByteCodeException("Native function method " + nativeMethod + " has to be static");
+
+        this.arity = nativeMethod.getParameterCount();
+        this.returnType = returnType;
+        this.nonnull = nativeMethod.isAnnotationPresent(Nonnull.class);
+        try {
+            final MethodHandle generic = MethodHandles.publicLookup().unreflect(nativeMethod).asType(MethodType.genericMethodType(arity));
+            this.handle = arity > MAX_DIRECT_ARITY ? generic.asSpreader(Object[].class, arity) : generic;
+        } catch (final IllegalAccessException e) {
+            throw new ByteCodeException("Cannot access native function method " + nativeMethod + ": " + e.getMessage());
+        }
     }
 
     public Method method() {
         return nativeMethod;
     }
 
+    public int arity() {
+        return arity;
+    }
+
+    public ByteDatatype returnType() {
+        return returnType;
+    }
+
+    // pops the arguments off the given stack (the last argument being on top), calls the method with them and returns its result
+    public Object invoke(@NotNull final ValueStack stack) throws Throwable {
+        final int first = stack.size() - arity;
+        if (first < 0) throw new ByteCodeException("Expected " + arity + " arguments on the push stack for native function " + nativeMethod);
+
+        final Object result = switch (arity) {
+            case 0 -> (Object) handle.invokeExact();
+            case 1 -> {
+                final Object a = stack.objectAt(first);
+                stack.truncate(first);
+                yield (Object) handle.invokeExact(a);
+            }
+            case 2 -> {
+                final Object a = stack.objectAt(first), b = stack.objectAt(first + 1);
+                stack.truncate(first);
+                yield (Object) handle.invokeExact(a, b);
+            }
+            case 3 -> {
+                final Object a = stack.objectAt(first), b = stack.objectAt(first + 1), c = stack.objectAt(first + 2);
+                stack.truncate(first);
+                yield (Object) handle.invokeExact(a, b, c);
+            }
+            case 4 -> {
+                final Object a = stack.objectAt(first), b = stack.objectAt(first + 1), c = stack.objectAt(first + 2), d = stack.objectAt(first + 3);
+                stack.truncate(first);
+                yield (Object) handle.invokeExact(a, b, c, d);
+            }
+            default -> {
+                final Object[] args = new Object[arity];
+                for (int i = 0; i < arity; i++) args[i] = stack.objectAt(first + i);
+                stack.truncate(first);
+                yield (Object) handle.invokeExact(args);
+            }
+        };
+        return checkResult(result);
+    }
+
+    // the result of the method, as long as it is allowed to be what it is. for callers that invoke the method on their own, like jit compiled code
+    public Object checkResult(final Object result) {
+        if (result == null && nonnull)
+            throw new ByteCodeException("Null-value returned by native java method " + nativeMethod + " while also annotated with " + Nonnull.class);
+
+        return result;
+    }
+
 }
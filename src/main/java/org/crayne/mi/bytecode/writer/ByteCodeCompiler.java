@@ -1,7 +1,10 @@
 package org.crayne.mi.bytecode.writer;
 
 import org.crayne.mi.bytecode.common.*;
+import org.crayne.mi.bytecode.reader.ByteCodeValue;
+import org.crayne.mi.lang.MiDatatype;
 import org.crayne.mi.lang.MiEqualOperator;
+import org.crayne.mi.lang.MiModifier;
 import org.crayne.mi.parsing.ast.Node;
 import org.crayne.mi.parsing.ast.NodeType;
 import org.crayne.mi.parsing.lexer.Token;
@@ -10,8 +13,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -22,20 +24,24 @@ public class ByteCodeCompiler {
     private final List<ByteCodeInstruction> globalVariables;
     private final List<ByteCodeInstruction> functionDefinitions;
     private final List<ByteCodeInstruction> enumDefinitions;
+    private final List<ByteCodeInstruction> prologue;
+    private final ByteCodeEmitter emitter;
     private final SyntaxTree tree;
+    private final OptimizationLevel optimization;
 
     private final Map<String, Integer> globalVariableStorage;
     private final LinkedHashMap<String, Integer> localVariableStorage;
     private final Map<String, ByteCodeEnum> enumStorage;
     private final Set<ByteCodeFunctionDefinition> functionStorage;
     private final List<ByteLoopBound> loopBounds;
+    private final ByteCodeConstantFolder constants = new ByteCodeConstantFolder();
+    private final List<String> inliningReport = new ArrayList<>();
 
     private final List<String> currentModuleName = new ArrayList<>() {{this.add("!PARENT");}};
 
     private int absoluteAddress = 1;
     private int relativeAddress = -1;
     private long functionId = 0;
-    private int label = 2;
     private int enumId = 0;
     private final List<Integer> localScopeVariables;
     private int scope = -1;
@@ -48,7 +54,12 @@ public class ByteCodeCompiler {
     private final List<Map.Entry<String, QueuedFunctionDefinition>> defineFunctionScopesLater = new ArrayList<>();
 
     public ByteCodeCompiler(@NotNull final SyntaxTree tree) {
+        this(tree, OptimizationLevel.PEEPHOLE);
+    }
+
+    public ByteCodeCompiler(@NotNull final SyntaxTree tree, @NotNull final OptimizationLevel optimization) {
         this.tree = tree;
+        this.optimization = optimization;
         globalVariableStorage = new HashMap<>();
         localScopeVariables = new ArrayList<>();
         localVariableStorage = new LinkedHashMap<>();
@@ -59,12 +70,19 @@ public class ByteCodeCompiler {
         functionDefinitions = new ArrayList<>();
         loopBounds = new ArrayList<>();
         result = new ArrayList<>();
+        prologue = new ArrayList<>();
+        emitter = new ByteCodeEmitter(List.of(prologue, globalVariables, enumDefinitions, functionDefinitions, result));
     }
 
     public int getStdlibFinishLine() {
         return tree.getStdlibFinishLine();
     }
 
+    // the functions that had calls inlined into them while compiling, and which ones
+    public List<String> getInliningReport() {
+        return inliningReport;
+    }
+
     public String getLine(final int line) {
         return tree.getLine(line);
     }
@@ -89,17 +107,38 @@ public class ByteCodeCompiler {
             panic("Expected 'PARENT' node at the beginning of syntax tree");
             return new ArrayList<>();
         }
-        result.addAll(0, functionDefinitions);
-        result.addAll(0, enumDefinitions);
-        result.addAll(0, globalVariables);
-        result.add(0, ByteCode.stdlibFinishLine(tree.getStdlibFinishLine()));
-        result.add(0, header());
+        prologue.add(header());
+        prologue.add(ByteCode.stdlibFinishLine(tree.getStdlibFinishLine()));
+
+        final List<ByteCodeInstruction> optimized = switch (optimization) {
+            case NONE -> emitter.link();
+            case PEEPHOLE -> ByteCodeOptimizer.optimize(emitter.link());
+            case SSA -> ByteCodeOptimizer.optimize(SsaOptimizer.optimize(emitter.link(), functionStorage, inliningReport));
+        };
+        result.clear();
+        result.addAll(optimized);
         return result;
     }
 
     public static void compileToFile(@NotNull final List<ByteCodeInstruction> bytecode, @NotNull final File file) throws IOException {
+        compileToFile(bytecode, file, ByteCode.BYTECODE_VERSION);
+    }
+
+    public static void compileToFile(@NotNull final List<ByteCodeInstruction> bytecode, @NotNull final File file, final byte version) throws IOException {
         if (bytecode.isEmpty()) return;
-        Files.writeString(file.toPath(), String.join("", bytecode.stream().map(b -> b.write()).toList()), StandardCharsets.ISO_8859_1);
+        try (final ByteCodeWriter writer = ByteCodeWriter.open(file)) {
+            writer.write(bytecode, version);
+        }
+    }
+
+    public static void compileTo(@NotNull final List<ByteCodeInstruction> bytecode, @NotNull final WritableByteChannel channel) throws IOException {
+        compileTo(bytecode, channel, ByteCode.BYTECODE_VERSION);
+    }
+
+    public static void compileTo(@NotNull final List<ByteCodeInstruction> bytecode, @NotNull final WritableByteChannel channel, final byte version) throws IOException {
+        final ByteCodeWriter writer = new ByteCodeWriter(channel);
+        writer.write(bytecode, version);
+        writer.flush();
     }
 
     private void compileParent(@NotNull final Node parent, @NotNull final List<ByteCodeInstruction> result) {
@@ -170,7 +209,6 @@ public class ByteCodeCompiler {
         enumId++;
         final List<ByteCodeInstruction> bytes = defineEnum(enumDef);
         enumDefinitions.addAll(bytes);
-        label += bytes.size();
         enumStorage.put(currentModuleName() + "." + name, enumDef);
     }
 
@@ -211,34 +249,49 @@ public class ByteCodeCompiler {
         // the plan is to jump to the else scope if the condition was false, otherwise just keep going (execute if scope)
         // then, after the if scope, jump to whenever the else scope ends
 
-        final int elseJumpIndex = result.size(); // save the index in the result, to add the label later
-        label++;
+        final ByteCodeEmitter.Label elseLabel = emitter.label();
+        emitter.jump(JUMP_IF, elseLabel, result);
         compileLocalScope(ifScope, result); // normally parse the if scope
-        final int afterElseJumpIndex = result.size() + 1; // save the index in the result, to add the other label later
-        final int elseJumpLabel = label + 2; // then get the label of where the else scope starts (+ 2, because 2 jumps have to be added)
-        if (hasElse) { // check if there even is an else scope
-            final Node elseScope = instr.child(2);
-            label++;
-            compileLocalScope(elseScope, result); // parse the else scope like normal here
-        }
-        result.add(elseJumpIndex, jumpIf(elseJumpLabel - (hasElse ? 0 : 1))); // add the jump statements using the saved labels, at their right positions
-        if (hasElse) { // to avoid unnecessary jumping, just check if theres an else at all
-            result.add(afterElseJumpIndex, jump(label + 1));
+        if (!hasElse) { // to avoid unnecessary jumping, just check if theres an else at all
+            emitter.place(elseLabel, result);
+            return;
         }
+        final ByteCodeEmitter.Label afterElseLabel = emitter.label();
+        emitter.jump(JUMP, afterElseLabel, result);
+        emitter.place(elseLabel, result);
+        compileLocalScope(instr.child(2), result); // parse the else scope like normal here
+        emitter.place(afterElseLabel, result);
     }
 
     private void compileTernaryOperator(@NotNull final Node condition, @NotNull final Node ifExpr, @NotNull final Node elseExpr, @NotNull final List<ByteCodeInstruction> result) {
         compileExpression(condition, result);
         rawInstruction(new ByteCodeInstruction(NOT.code()), result);
-        final int elseJumpIndex = result.size();
-        label++;
+        final ByteCodeEmitter.Label elseLabel = emitter.label();
+        final ByteCodeEmitter.Label afterElseLabel = emitter.label();
+        emitter.jump(JUMP_IF, elseLabel, result);
         compileExpression(ifExpr, result);
-        final int afterElseJumpIndex = result.size() + 1; // save the index in the result, to add the other label later
-        final int elseJumpLabel = label + 2;
-        label++;
+        emitter.jump(JUMP, afterElseLabel, result);
+        emitter.place(elseLabel, result);
         compileExpression(elseExpr, result);
-        result.add(elseJumpIndex, jumpIf(elseJumpLabel)); // add the jump statements using the saved labels, at their right positions
-        result.add(afterElseJumpIndex, jump(label + 1));
+        emitter.place(afterElseLabel, result);
+    }
+
+    // short-circuits && and ||: the right side is only evaluated if the left side does not decide the result yet.
+    // global variables are evaluated while the program is prepared, which does not follow jumps, so both sides are always evaluated there
+    private void compileLogicalOperator(final Node x, final Node y, final boolean and, @NotNull final List<ByteCodeInstruction> result) {
+        if (!compilingFunction()) {
+            operator(x, y, and ? LOGICAL_AND : LOGICAL_OR, result);
+            return;
+        }
+        compileExpression(x, result);
+        final ByteCodeEmitter.Label shortCircuitLabel = emitter.label();
+        final ByteCodeEmitter.Label afterShortCircuitLabel = emitter.label();
+        emitter.jump(and ? JUMP_IF_NOT : JUMP_IF, shortCircuitLabel, result); // jump to pushing the result right away, if x is false for && or true for ||
+        compileExpression(y, result); // otherwise the result is y
+        emitter.jump(JUMP, afterShortCircuitLabel, result);
+        emitter.place(shortCircuitLabel, result);
+        push(result, ByteCode.boolValue(!and).codes());
+        emitter.place(afterShortCircuitLabel, result);
     }
 
     private void compileBreakStatement(@NotNull final List<ByteCodeInstruction> result) {
@@ -246,11 +299,10 @@ public class ByteCodeCompiler {
             panic("Unexpected 'break' statement outside of loop");
             return;
         }
-        push(result, ByteCode.integer(1).codes());
+        push(result, ByteCode.boolValue(true).codes());
         // the way to implement break, is to push a literal "true" value, then jump to the condition check, right to the jump_if of the loop
         // this way, no crazy code is required and it still works as expected -> it jumps to after the loop end, always
-        final int beforeJumpIf = loopBounds.get(loopBounds.size() - 1).beforeJumpIfLabel() - 1;
-        rawInstruction(ByteCode.jump(beforeJumpIf), result);
+        emitter.jump(JUMP, loopBounds.get(loopBounds.size() - 1).jumpIfLabel(), result);
     }
 
     private void compileContinueStatement(@NotNull final List<ByteCodeInstruction> result) {
@@ -262,46 +314,47 @@ public class ByteCodeCompiler {
         final Node forLoopInstr = bound.forloopInstr();
         // continue works similarly like break, however here we simply execute the for loop instruction (if it is not null) and jump back to the condition check of the loop
         if (forLoopInstr != null) compileInstruction(forLoopInstr, result);
-        rawInstruction(ByteCode.jump(bound.beginLabel()), result);
+        emitter.jump(JUMP, bound.beginLabel(), result);
     }
 
-    private int compileLoopStatement(@NotNull final Node condition, @NotNull final Node scope, final Node forLoopInstr, @NotNull final List<ByteCodeInstruction> result) {
-        final int loopBeginLabel = label + 1;
+    // the scope label is placed right at the start of the loop scope, which is only useful for do {} while cond;
+    private void compileLoopStatement(@NotNull final Node condition, @NotNull final Node scope, final Node forLoopInstr,
+                                      final ByteCodeEmitter.Label scopeLabel, @NotNull final List<ByteCodeInstruction> result) {
+        final ByteCodeEmitter.Label loopBeginLabel = emitter.here(result);
 
         compileExpression(condition.child(0), result);
         rawInstruction(new ByteCodeInstruction(NOT.code()), result); // while loops will work similarly like if statements
         // the plan is to jump out of the loop once the condition is false (once the inverted condition is true)
         // but if the condition is false, there will be an unconditional jump back to the condition check (after the entire loop "scope")
-        final int afterLoopJumpIndex = result.size(); // save the current index for later, so we can add back the jump statement with the label (which we do not have yet)
-        label++;
-        final int labelBeforeJumpIf = label + 1;
+        final ByteCodeEmitter.Label jumpIfLabel = emitter.here(result);
+        final ByteCodeEmitter.Label afterLoopLabel = emitter.label();
+        emitter.jump(JUMP_IF, afterLoopLabel, result); // the condition jump, which exits the loop once the condition is false
+        if (scopeLabel != null) emitter.place(scopeLabel, result);
 
-        loopBounds.add(new ByteLoopBound(loopBeginLabel, labelBeforeJumpIf, forLoopInstr));
+        loopBounds.add(new ByteLoopBound(loopBeginLabel, jumpIfLabel, forLoopInstr));
         compileLocalScope(scope, result);
         loopBounds.remove(loopBounds.size() - 1);
 
         if (forLoopInstr != null) compileInstruction(forLoopInstr, result); // for loops -- one difference between them and while loops is obviously the instruction executed at every iteration
-        rawInstruction(ByteCode.jump(loopBeginLabel), result); // the unconditional jump mentioned earlier (this goes back to the condition check)
-        result.add(afterLoopJumpIndex, ByteCode.jumpIf(label + 1)); // add the condition jump, which exits the loop once the condition is false
-        return labelBeforeJumpIf; // this is only useful for do {} while cond;
+        emitter.jump(JUMP, loopBeginLabel, result); // the unconditional jump mentioned earlier (this goes back to the condition check)
+        emitter.place(afterLoopLabel, result);
     }
 
     private void compileWhileStatement(@NotNull final Node instr, @NotNull final List<ByteCodeInstruction> result) {
         final Node condition = instr.child(0).child(0);
         final Node scope = instr.child(1);
-        compileLoopStatement(condition, scope, null, result);
+        compileLoopStatement(condition, scope, null, null, result);
     }
 
     private void compileDoWhileStatement(@NotNull final Node instr, @NotNull final List<ByteCodeInstruction> result) {
         final Node condition = instr.child(1).child(0);
         final Node scope = instr.child(0);
-        final int beforeLoopJumpIndex = result.size();
         // the plan for bytecode generation in do while is simple:
         // simply compile a while loop as usual BUT add a jump, that completely ignores the condition checking the first time.
         // this way, the loop scope will always be executed atleast once. after that, it jumps to the condition checking and loops like a normal while loop would
-        label++;
-        final int loopLabel = compileLoopStatement(condition, scope, null, result);
-        result.add(beforeLoopJumpIndex, ByteCode.jump(loopLabel + 1));
+        final ByteCodeEmitter.Label scopeLabel = emitter.label();
+        emitter.jump(JUMP, scopeLabel, result);
+        compileLoopStatement(condition, scope, null, scopeLabel, result);
     }
 
     private void compileForStatement(@NotNull final Node instr, @NotNull final List<ByteCodeInstruction> result) {
@@ -313,7 +366,7 @@ public class ByteCodeCompiler {
         final Node condition = instr.child(0).child(1).child(0);
         final Node forLoopInstr = instr.child(0).child(2).child(0);
         final Node scope = instr.child(1);
-        compileLoopStatement(condition, scope, forLoopInstr, result);
+        compileLoopStatement(condition, scope, forLoopInstr, null, result);
 
         deleteLocalScopeVars(result);
     }
@@ -328,10 +381,6 @@ public class ByteCodeCompiler {
         rawInstruction(new ByteCodeInstruction(RETURN_STATEMENT.code()), result);
     }
 
-    private void singleInstruction(@NotNull final ByteCode byteCode, @NotNull final List<ByteCodeInstruction> result) {
-        rawInstruction(new ByteCodeInstruction(byteCode.code()), result);
-    }
-
     private void compileVariableMutation(@NotNull final Node instr, final boolean pushMutated, @NotNull final List<ByteCodeInstruction> result) {
         final String identifier = instr.child(0).value().token();
         final String operator = instr.child(1).value().token();
@@ -339,21 +388,22 @@ public class ByteCodeCompiler {
 
         final MiEqualOperator equalOperation = MiEqualOperator.of(operator).orElse(null);
 
-        if (equalOperation != MiEqualOperator.SET && value != null) compileExpression(instr.child(0), result);
-        if (value != null) compileExpression(value.child(0), result);
-
-        if (equalOperation != null) switch (equalOperation) {
-            case ADD -> singleInstruction(PLUS, result);
-            case SUB -> singleInstruction(MINUS, result);
-            case MULT -> singleInstruction(MULTIPLY, result);
-            case DIV -> singleInstruction(DIVIDE, result);
-            case OR -> singleInstruction(BIT_OR, result);
-            case AND -> singleInstruction(BIT_AND, result);
-            case XOR -> singleInstruction(BIT_XOR, result);
-            case MOD -> singleInstruction(MODULO, result);
-            case LSHIFT -> singleInstruction(BITSHIFT_LEFT, result);
-            case RSHIFT -> singleInstruction(BITSHIFT_RIGHT, result);
-        }
+        final ByteCode operation = equalOperation == null ? null : switch (equalOperation) {
+            case ADD -> PLUS;
+            case SUB -> MINUS;
+            case MULT -> MULTIPLY;
+            case DIV -> DIVIDE;
+            case OR -> BIT_OR;
+            case AND -> BIT_AND;
+            case XOR -> BIT_XOR;
+            case MOD -> MODULO;
+            case LSHIFT -> BITSHIFT_LEFT;
+            case RSHIFT -> BITSHIFT_RIGHT;
+            case SET, INC, DEC -> null;
+        };
+        // a compound assignment is the operator on the variable and the value, so it gets the same type-specialized operator
+        if (operation != null && value != null) operator(instr.child(0), value.child(0), operation, result);
+        else if (value != null) compileExpression(value.child(0), result);
         if (identifier.startsWith("!PARENT.")) {
             final int absoluteAddress = globalVariableStorage.get(identifier);
             push(result, ByteCode.integer(absoluteAddress));
@@ -482,7 +532,6 @@ public class ByteCodeCompiler {
 
                     relativeAddress = defineArgs.size();
 
-                    label++;
                     if (scope == null) {
                         panic("The function scope of '" + name + "' is null");
                         return;
@@ -500,7 +549,6 @@ public class ByteCodeCompiler {
             return;
         }
         functionDefinitions.add(nativeFunction(javaMethod));
-        label++;
         functionId++;
     }
 
@@ -513,11 +561,21 @@ public class ByteCodeCompiler {
         compileExpression(definition.child(3).child(0), !compilingFunction() ? globalVariables : result);
         final ByteDatatype type = variableDeclarationCommon(definition);
         rawInstruction(defineVariable(type), !compilingFunction() ? globalVariables : result);
+        if (!compilingFunction()) defineConstantGlobal(definition, type);
+    }
+
+    // constant global variables with a value known at compile time are never loaded at runtime, their value is pushed directly instead.
+    // the variable itself is still defined, so that the addresses of all other globals stay the same
+    private void defineConstantGlobal(@NotNull final Node definition, @NotNull final ByteDatatype type) {
+        final List<MiModifier> modifiers = definition.child(0).children().stream().map(n -> MiModifier.of(n.type())).flatMap(Optional::stream).toList();
+        if (MiModifier.effectiveMutabilityModifier(modifiers) != MiModifier.CONST) return;
+
+        final Optional<ByteCodeValue> value = constants.fold(definition.child(3).child(0));
+        if (value.isPresent() && value.get().type().code() == type.code()) constants.defineConstantGlobal(definition.child(1).value().token(), value.get());
     }
 
     private void rawInstruction(@NotNull final ByteCodeInstruction instr, @NotNull final List<ByteCodeInstruction> result) {
         result.add(instr);
-        label++;
     }
 
     private void compileExpression(final Node node, @NotNull final List<ByteCodeInstruction> result) {
@@ -530,6 +588,11 @@ public class ByteCodeCompiler {
             ofLiteral(node, result);
             return;
         }
+        final Optional<ByteCodeValue> folded = constants.fold(node);
+        if (folded.isPresent()) {
+            push(result, ByteCodeConstantFolder.push(folded.get()));
+            return;
+        }
         operator(node.type(), node.children(), node.value(), result);
     }
 
@@ -567,8 +630,8 @@ public class ByteCodeCompiler {
             case ADD -> operator(x, y, PLUS, result);
             case SUBTRACT -> operator(x, y, MINUS, result);
             case MODULUS -> operator(x, y, MODULO, result);
-            case LOGICAL_AND -> operator(x, y, LOGICAL_AND, result);
-            case LOGICAL_OR -> operator(x, y, LOGICAL_OR, result);
+            case LOGICAL_AND -> compileLogicalOperator(x, y, true, result);
+            case LOGICAL_OR -> compileLogicalOperator(x, y, false, result);
             case XOR ->  operator(x, y, BIT_XOR, result);
             case BIT_AND -> operator(x, y, BIT_AND, result);
             case BIT_OR -> operator(x, y, BIT_OR, result);
@@ -636,9 +699,34 @@ public class ByteCodeCompiler {
     }
 
     private void operator(final Node v1, final Node v2, final ByteCode op, @NotNull final List<ByteCodeInstruction> result) {
+        final ByteDatatype type = operandType(v1, v2, op);
         compileExpression(v1, result);
+        widen(v1, type, result);
         compileExpression(v2, result);
-        rawInstruction(new ByteCodeInstruction(op.code()), result);
+        widen(v2, type, result);
+        rawInstruction(new ByteCodeInstruction(type == null ? op.code() : ByteCode.typed(op, type).orElse(op).code()), result);
+    }
+
+    private static final Set<String> typedOperandTypes = Set.of("int", "long", "float", "double");
+
+    // the type both operands are widened to if the expression parser knows the types of both of them and there is a type-specialized operator for it.
+    // strings are only concatenated, which does not need any widening
+    private static ByteDatatype operandType(final Node v1, final Node v2, @NotNull final ByteCode op) {
+        if (v1 == null || v2 == null || v1.datatype() == null || v2.datatype() == null) return null;
+        final MiDatatype t1 = v1.datatype();
+        final MiDatatype t2 = v2.datatype();
+
+        if (op == PLUS && (t1.name().equals("string") || t2.name().equals("string"))) return ByteDatatype.STRING;
+        if (!ByteCode.typedOperators.contains(op) || t1.nullable() || t2.nullable()) return null;
+        if (!typedOperandTypes.contains(t1.name()) || !typedOperandTypes.contains(t2.name())) return null;
+
+        final MiDatatype heavier = MiDatatype.heavier(t1, t2);
+        return heavier == null ? null : ByteDatatype.of(heavier.name());
+    }
+
+    private void widen(final Node value, final ByteDatatype type, @NotNull final List<ByteCodeInstruction> result) {
+        if (type == null || type == ByteDatatype.STRING || value.datatype().name().equals(type.name())) return;
+        rawInstruction(cast(type), result);
     }
 
     public String toString() {
@@ -0,0 +1,134 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.reader.ByteCodeValue;
+import org.crayne.mi.parsing.ast.Node;
+import org.crayne.mi.parsing.ast.NodeType;
+import org.crayne.mi.parsing.lexer.Token;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BinaryOperator;
+
+// evaluates expressions made up of literals and immutable global variables at compile time.
+// the operators are the ones the interpreter uses (see ByteCodeValue), so a folded expression results in the exact value it would have had at runtime.
+// anything that would fail at runtime (division by zero, mismatching types) is left alone, so that the error still happens at runtime with a proper traceback
+public class ByteCodeConstantFolder {
+
+    private final Map<String, ByteCodeValue> constantGlobals = new HashMap<>();
+
+    public void defineConstantGlobal(@NotNull final String name, @NotNull final ByteCodeValue value) {
+        constantGlobals.put(name, value);
+    }
+
+    public Optional<ByteCodeValue> constantGlobal(@NotNull final String name) {
+        return Optional.ofNullable(constantGlobals.get(name));
+    }
+
+    public Optional<ByteCodeValue> fold(final Node node) {
+        try {
+            return value(node).filter(v -> !v.isEnum());
+        } catch (final ByteCodeException | ArithmeticException | ClassCastException e) {
+            return Optional.empty();
+        }
+    }
+
+    // the same node structure ByteCodeCompiler.compileExpression walks through
+    private Optional<ByteCodeValue> value(final Node node) {
+        if (node == null) return Optional.empty();
+        if (node.children().size() == 1 && node.type() == NodeType.VALUE && node.child(0).type().getAsDataType() != null) return literal(node.child(0));
+        if (node.children().isEmpty() && node.type().getAsDataType() != null) return literal(node);
+
+        return value(node.type(), node.children(), node.value());
+    }
+
+    private Optional<ByteCodeValue> value(@NotNull final NodeType op, @NotNull final List<Node> values, final Token nodeVal) {
+        final Node x = values.size() > 0 ? values.get(0) : null;
+        final Node y = values.size() > 1 ? values.get(1) : null;
+
+        return switch (op) {
+            case DIVIDE -> binary(x, y, ByteCodeValue::divide);
+            case MULTIPLY -> binary(x, y, ByteCodeValue::multiply);
+            case ADD -> binary(x, y, ByteCodeValue::plus);
+            case SUBTRACT -> binary(x, y, ByteCodeValue::minus);
+            case MODULUS -> binary(x, y, ByteCodeValue::modulo);
+            case LOGICAL_AND -> binary(x, y, ByteCodeValue::logical_and);
+            case LOGICAL_OR -> binary(x, y, ByteCodeValue::logical_or);
+            case XOR -> binary(x, y, ByteCodeValue::bit_xor);
+            case BIT_AND -> binary(x, y, ByteCodeValue::bit_and);
+            case BIT_OR -> binary(x, y, ByteCodeValue::bit_or);
+            case LSHIFT -> binary(x, y, ByteCodeValue::bit_shift_left);
+            case RSHIFT -> binary(x, y, ByteCodeValue::bit_shift_right);
+            case LESS_THAN -> binary(x, y, ByteCodeValue::less_than);
+            case LESS_THAN_EQ -> binary(x, y, ByteCodeValue::less_than_or_equal);
+            case GREATER_THAN -> binary(x, y, ByteCodeValue::greater_than);
+            case GREATER_THAN_EQ -> binary(x, y, ByteCodeValue::greater_than_or_equal);
+            case EQUALS -> binary(x, y, ByteCodeValue::equal);
+            case NOTEQUALS -> binary(x, y, ByteCodeValue::equal).map(ByteCodeValue::not);
+            case BOOL_NOT -> value(new Node(NodeType.VALUE, -1, values)).map(ByteCodeValue::not);
+            case BIT_NOT -> value(new Node(NodeType.VALUE, -1, values)).map(ByteCodeValue::bit_not);
+            case NEGATE -> value(x).map(ByteCodeValue.intValue(0)::minus);
+            case CAST_VALUE -> {
+                final ByteDatatype type = ByteDatatype.of(nodeVal.token());
+                if (type == null) yield Optional.empty(); // enum casts
+                yield value(new Node(NodeType.VALUE, -1, values)).map(v -> v.cast(type));
+            }
+            case IDENTIFIER -> constantGlobal(nodeVal.token());
+            case VALUE -> value(values.get(0).type(), values.get(0).children(), values.get(0).value());
+            default -> Optional.empty();
+        };
+    }
+
+    private Optional<ByteCodeValue> binary(final Node x, final Node y, @NotNull final BinaryOperator<ByteCodeValue> op) {
+        final Optional<ByteCodeValue> left = value(x);
+        if (left.isEmpty()) return left;
+        final Optional<ByteCodeValue> right = value(y);
+        if (right.isEmpty()) return right;
+        return Optional.ofNullable(op.apply(left.get(), right.get()));
+    }
+
+    // decodes the literal from the same bytes ByteCodeCompiler would push for it
+    private static Optional<ByteCodeValue> literal(@NotNull final Node node) {
+        final String value = node.value().token();
+        return Optional.ofNullable(switch (node.type().getAsDataType().name()) {
+            case "bool" -> ByteCodeValue.boolValue(ByteCode.bytesToInt(payload(ByteCode.bool(value))) != 0);
+            case "string" -> ByteCodeValue.stringValue(new String(value.substring(1, value.length() - 1).getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.ISO_8859_1));
+            case "double" -> ByteCodeValue.doubleValue(ByteCode.bytesToDouble(payload(ByteCode.doubleFloating(value))));
+            case "float" -> ByteCodeValue.floatValue(ByteCode.bytesToFloat(payload(ByteCode.floating(value))));
+            case "long" -> ByteCodeValue.longValue(ByteCode.bytesToLong(payload(ByteCode.longInteger(value))));
+            case "int" -> ByteCodeValue.intValue(ByteCode.bytesToInt(payload(ByteCode.integer(value))));
+            case "char" -> ByteCodeValue.charValue(ByteCode.bytesToInt(payload(ByteCode.character(value))));
+            case "null" -> ByteCodeValue.nullValue();
+            default -> null;
+        });
+    }
+
+    // the encoded value without its leading type code and trailing INSTRUCT_FINISH
+    private static byte[] payload(@NotNull final Byte[] codes) {
+        return ArrayUtils.toPrimitive(Arrays.copyOfRange(codes, 1, codes.length - 1));
+    }
+
+    // the operand of a PUSH instruction that pushes the given value
+    public static Byte[] push(@NotNull final ByteCodeValue value) {
+        return (switch (value.type().code()) {
+            case 0x00 -> ByteCode.boolValue(value.asBool());
+            case 0x01 -> ByteCode.character(value.asInt());
+            case 0x02 -> ByteCode.integer(value.asInt());
+            case 0x03 -> ByteCode.longInteger(value.asLong());
+            case 0x04 -> ByteCode.floating(value.asFloat());
+            case 0x05 -> ByteCode.doubleFloating(value.asDouble());
+            case 0x06 -> ByteCode.string(value.asText());
+            case 0x08 -> ByteCode.nullValue();
+            default -> throw new ByteCodeException("Cannot push a constant of type " + value.type());
+        }).codes();
+    }
+
+}
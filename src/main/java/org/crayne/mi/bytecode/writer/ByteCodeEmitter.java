@@ -0,0 +1,75 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// the jumps of a program being compiled into several sections (see ByteCodeCompiler). a jump refers to a label, which may be placed
+// after the jump already, and only gets its operand once the sections are concatenated into the program. this way instructions are
+// only ever appended to a section, and no label has to be counted by hand
+final class ByteCodeEmitter {
+
+    // a position in one of the sections, placed exactly once
+    static final class Label {
+        private List<ByteCodeInstruction> section;
+        private int index;
+    }
+
+    private record Fixup(@NotNull List<ByteCodeInstruction> section, int index, @NotNull ByteCode jump, @NotNull Label target) {}
+
+    private final List<List<ByteCodeInstruction>> sections;
+    private final List<Fixup> fixups = new ArrayList<>();
+
+    // the sections in the order they end up in the program
+    ByteCodeEmitter(@NotNull final List<List<ByteCodeInstruction>> sections) {
+        this.sections = sections;
+    }
+
+    Label label() {
+        return new Label();
+    }
+
+    // the label of the instruction added to the section next
+    void place(@NotNull final Label label, @NotNull final List<ByteCodeInstruction> section) {
+        if (label.section != null) throw new ByteCodeException("Cannot place the same label twice");
+        label.section = section;
+        label.index = section.size();
+    }
+
+    Label here(@NotNull final List<ByteCodeInstruction> section) {
+        final Label label = label();
+        place(label, section);
+        return label;
+    }
+
+    // adds any jump instruction to the section, leading to the label once the program is linked
+    void jump(@NotNull final ByteCode jump, @NotNull final Label target, @NotNull final List<ByteCodeInstruction> section) {
+        fixups.add(new Fixup(section, section.size(), jump, target));
+        section.add(ByteCode.jump(jump, 0));
+    }
+
+    // concatenates the sections and fills in the operand of every jump. the instruction at index i of the program is jumped to with label i + 1
+    List<ByteCodeInstruction> link() {
+        final Map<List<ByteCodeInstruction>, Integer> offsets = new IdentityHashMap<>();
+        int size = 0;
+        for (final List<ByteCodeInstruction> section : sections) {
+            offsets.put(section, size);
+            size += section.size();
+        }
+        for (final Fixup fixup : fixups) {
+            final Label target = fixup.target();
+            if (target.section == null) throw new ByteCodeException("Jump to a label that was never placed");
+            fixup.section().set(fixup.index(), ByteCode.jump(fixup.jump(), offsets.get(target.section) + target.index + 1));
+        }
+        final List<ByteCodeInstruction> program = new ArrayList<>(size);
+        for (final List<ByteCodeInstruction> section : sections) program.addAll(section);
+        return program;
+    }
+
+}
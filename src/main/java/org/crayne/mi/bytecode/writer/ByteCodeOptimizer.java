@@ -0,0 +1,322 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.crayne.mi.bytecode.common.ByteCode.*;
+
+// a peephole and jump threading stage over a compiled program. jumps are resolved to the instructions they lead to while optimizing,
+// so that instructions can be removed freely, and are turned back into labels at the end. the optimizations are repeated until nothing changes:
+//
+//   jump threading     jumps leading to an unconditional jump go to its target directly, jumps to a return are replaced by the return,
+//                      jumps to a pushed constant that is checked right away go where the check leads
+//   break              push true, jump to a jump-if becomes a jump to the target of that jump-if (see ByteCodeCompiler.compileBreakStatement)
+//   conditions         not, jump-if becomes jump-if-not (and the other way round), not, not is removed,
+//                      a comparison followed by jump-if or jump-if-not becomes a single compare-and-jump instruction,
+//                      a conditional jump over a jump becomes the inverted conditional jump to its target,
+//                      constant conditions are resolved into a jump or removed entirely
+//   unreachable code   instructions after returns and jumps that no path through the function leads to are removed
+//   jumps to the next instruction are removed
+//
+// unreachable code is only removed inside of function definitions, and every function keeps its definition begin and end
+public class ByteCodeOptimizer {
+
+    // every conditional jump and the one jumping in exactly the opposite cases
+    private static final Map<ByteCode, ByteCode> inverted = new EnumMap<>(ByteCode.class);
+
+    // every comparison and the compare-and-jump instructions replacing it when followed by jump-if or jump-if-not
+    private static final Map<ByteCode, ByteCode> fusedJumpIf = new EnumMap<>(ByteCode.class);
+    private static final Map<ByteCode, ByteCode> fusedJumpIfNot = new EnumMap<>(ByteCode.class);
+
+    private static void invert(@NotNull final ByteCode jumpIf, @NotNull final ByteCode jumpIfNot) {
+        inverted.put(jumpIf, jumpIfNot);
+        inverted.put(jumpIfNot, jumpIf);
+    }
+
+    private static void fuse(@NotNull final ByteCode comparison, @NotNull final ByteCode jumpIf, @NotNull final ByteCode jumpIfNot) {
+        invert(jumpIf, jumpIfNot);
+        for (final ByteDatatype type : List.of(ByteDatatype.NULL, ByteDatatype.INT, ByteDatatype.LONG, ByteDatatype.FLOAT, ByteDatatype.DOUBLE)) {
+            // the compare-and-jump instructions are not typed, they compare numbers of the same type right away anyway
+            final ByteCode typed = type == ByteDatatype.NULL ? comparison : ByteCode.typed(comparison, type).orElseThrow();
+            fusedJumpIf.put(typed, jumpIf);
+            fusedJumpIfNot.put(typed, jumpIfNot);
+        }
+    }
+
+    static {
+        invert(JUMP_IF, JUMP_IF_NOT);
+        fuse(EQUALS, JUMP_IF_EQUALS, JUMP_IF_NOT_EQUALS);
+        fuse(LESS_THAN, JUMP_IF_LESS_THAN, JUMP_IF_NOT_LESS_THAN);
+        fuse(GREATER_THAN, JUMP_IF_GREATER_THAN, JUMP_IF_NOT_GREATER_THAN);
+        fuse(LESS_THAN_OR_EQUAL, JUMP_IF_LESS_THAN_OR_EQUAL, JUMP_IF_NOT_LESS_THAN_OR_EQUAL);
+        fuse(GREATER_THAN_OR_EQUAL, JUMP_IF_GREATER_THAN_OR_EQUAL, JUMP_IF_NOT_GREATER_THAN_OR_EQUAL);
+    }
+
+    private static final class Instruction {
+        private ByteCodeInstruction instr;
+        private ByteCode code;
+        private Instruction target;
+        private boolean removed;
+        private boolean jumpedTo;
+        private int index;
+
+        private Instruction(@NotNull final ByteCodeInstruction instr) {
+            this.instr = instr;
+            this.code = ByteCode.decode(instr.opcode());
+        }
+
+        private boolean is(@NotNull final ByteCode code) {
+            return this.code == code;
+        }
+
+        private boolean jump() {
+            return is(JUMP) || conditionalJump();
+        }
+
+        private boolean conditionalJump() {
+            return inverted.containsKey(code);
+        }
+
+        // the conditional jumps taking a boolean condition, unlike the compare-and-jump instructions that take two values
+        private boolean boolJump() {
+            return is(JUMP_IF) || is(JUMP_IF_NOT);
+        }
+
+        // -1 if this does not push a constant boolean, otherwise 0 or 1
+        private int pushedBool() {
+            if (!is(PUSH) || instr.length() != 7 || instr.at(1) != BOOL_VALUE.code()) return -1;
+            return instr.at(5) != 0 || instr.at(4) != 0 || instr.at(3) != 0 || instr.at(2) != 0 ? 1 : 0;
+        }
+
+        private void replace(@NotNull final ByteCodeInstruction instr, final Instruction target) {
+            this.instr = instr;
+            this.code = ByteCode.decode(instr.opcode());
+            this.target = target;
+        }
+    }
+
+    private final List<Instruction> program;
+
+    private ByteCodeOptimizer(@NotNull final List<ByteCodeInstruction> program) {
+        this.program = new ArrayList<>(program.size());
+        for (final ByteCodeInstruction instr : program) this.program.add(new Instruction(instr));
+
+        for (int i = 0; i < program.size(); i++) {
+            final Instruction instr = this.program.get(i);
+            if (!instr.jump()) continue;
+
+            // labels are 1-based
+            final int target = ByteCode.bytesToInt(new byte[] {instr.instr.at(1), instr.instr.at(2), instr.instr.at(3), instr.instr.at(4)}) - 1;
+            if (target < 0 || target >= program.size()) throw new ByteCodeException("Instruction " + i + " jumps to label " + (target + 1) + ", which is outside of the program");
+            instr.target = this.program.get(target);
+        }
+    }
+
+    public static List<ByteCodeInstruction> optimize(@NotNull final List<ByteCodeInstruction> program) {
+        return new ByteCodeOptimizer(program).optimize();
+    }
+
+    private List<ByteCodeInstruction> optimize() {
+        boolean changed = true;
+        while (changed) {
+            index();
+            changed = threadJumps();
+            changed |= peephole();
+            changed |= removeUnreachable();
+            compact();
+        }
+        index();
+        return encode();
+    }
+
+    private void index() {
+        for (int i = 0; i < program.size(); i++) {
+            final Instruction instr = program.get(i);
+            instr.index = i;
+            instr.jumpedTo = false;
+        }
+        for (final Instruction instr : program) if (instr.jump()) instr.target.jumpedTo = true;
+    }
+
+    private static void retarget(@NotNull final Instruction instr, @NotNull final Instruction target) {
+        instr.target = target;
+        target.jumpedTo = true;
+    }
+
+    private boolean threadJumps() {
+        boolean changed = false;
+        for (final Instruction instr : program) {
+            if (!instr.jump()) continue;
+
+            final Instruction target = destination(instr.target);
+            if (target != instr.target) {
+                retarget(instr, target);
+                changed = true;
+            }
+            if (instr.is(JUMP) && (target.is(RETURN_STATEMENT) || target.is(FUNCTION_DEFINITION_END))) {
+                instr.replace(new ByteCodeInstruction(RETURN_STATEMENT.code()), null);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // where execution ends up after reaching the given instruction, following unconditional jumps and constant conditions
+    // that are checked right away, like the push false, jump-if-not at the end of a short-circuiting &&
+    private Instruction destination(@NotNull Instruction target) {
+        for (int hops = 0; hops < program.size(); hops++) {
+            final Instruction next;
+            final int pushed = target.pushedBool();
+            final Instruction conditional = pushed == -1 ? null : next(target.index);
+            if (target.is(JUMP)) {
+                next = target.target;
+            } else if (conditional != null && conditional.boolJump()) {
+                next = (pushed == 1) == conditional.is(JUMP_IF) ? conditional.target : next(conditional.index);
+            } else break;
+
+            if (next == null || next == target) break;
+            target = next;
+        }
+        return target;
+    }
+
+    private boolean peephole() {
+        boolean changed = false;
+        for (int i = 0; i < program.size(); i++) {
+            final Instruction first = program.get(i);
+            if (first.removed) continue;
+
+            if (first.is(JUMP) && next(i) == first.target) {
+                first.removed = true;
+                changed = true;
+                continue;
+            }
+            final int j = nextIndex(i);
+            if (j == -1) continue;
+            final Instruction second = program.get(j);
+            if (second.jumpedTo) continue; // the second instruction may also be reached without the first one
+
+            final int pushed = first.pushedBool();
+            if (first.is(NOT) && second.is(NOT)) {
+                first.removed = true;
+                second.removed = true;
+            } else if (first.is(NOT) && second.conditionalJump()) {
+                first.removed = true;
+                second.replace(jump(inverted.get(second.code), 0), second.target);
+            } else if (fusedJumpIf.containsKey(first.code) && second.boolJump()) {
+                first.removed = true;
+                second.replace(jump((second.is(JUMP_IF) ? fusedJumpIf : fusedJumpIfNot).get(first.code), 0), second.target);
+            } else if (pushed != -1 && second.is(NOT)) {
+                first.replace(push(boolValue(pushed == 0).codes()), null);
+                second.removed = true;
+            } else if (pushed != -1 && second.boolJump()) {
+                first.removed = true;
+                if ((pushed == 1) == second.is(JUMP_IF)) second.replace(jump(0), second.target);
+                else second.removed = true;
+            } else if (first.conditionalJump() && second.is(JUMP) && next(j) == first.target) {
+                // a conditional jump over an unconditional one, like at the end of an if statement containing only a continue
+                first.replace(jump(inverted.get(first.code), 0), second.target);
+                second.removed = true;
+            } else if (pushed != -1 && second.is(JUMP) && second.target.boolJump()) {
+                // a break, or any other jump with a constant condition to a conditional jump
+                final Instruction conditional = second.target;
+                final Instruction target = (pushed == 1) == conditional.is(JUMP_IF) ? conditional.target : next(conditional.index);
+                if (target == null) continue;
+                first.replace(jump(0), target);
+                target.jumpedTo = true;
+                second.removed = true;
+            } else continue;
+            changed = true;
+        }
+        return changed;
+    }
+
+    // removes everything inside of function definitions that cannot be reached from the beginning of the function
+    private boolean removeUnreachable() {
+        boolean changed = false;
+        final boolean[] reachable = new boolean[program.size()];
+        final Deque<Integer> pending = new ArrayDeque<>();
+
+        for (int begin = 0; begin < program.size(); begin++) {
+            if (!program.get(begin).is(FUNCTION_DEFINITION_BEGIN)) continue;
+
+            int end = begin + 1;
+            while (end < program.size() && !program.get(end).is(FUNCTION_DEFINITION_END)) end++;
+            if (end == program.size()) throw new ByteCodeException("Function definition at instruction " + begin + " does not end");
+
+            pending.push(begin + 1);
+            while (!pending.isEmpty()) {
+                final int i = pending.pop();
+                if (i > end || reachable[i]) continue;
+                reachable[i] = true;
+
+                final Instruction instr = program.get(i);
+                if (instr.removed) { // removed in this round already, so it just falls through
+                    pending.push(i + 1);
+                    continue;
+                }
+                if (instr.jump()) pending.push(instr.target.index);
+                if (!instr.is(JUMP) && !instr.is(RETURN_STATEMENT) && !instr.is(FUNCTION_DEFINITION_END)) pending.push(i + 1);
+            }
+            for (int i = begin + 1; i < end; i++) {
+                final Instruction instr = program.get(i);
+                if (reachable[i] || instr.removed) continue;
+                instr.removed = true;
+                changed = true;
+            }
+            begin = end;
+        }
+        return changed;
+    }
+
+    private int nextIndex(final int index) {
+        for (int i = index + 1; i < program.size(); i++) if (!program.get(i).removed) return i;
+        return -1;
+    }
+
+    private Instruction next(final int index) {
+        final int i = nextIndex(index);
+        return i == -1 ? null : program.get(i);
+    }
+
+    // drops removed instructions. jumps to a removed instruction continue at the next one that is still there
+    private void compact() {
+        Instruction following = null;
+        final Instruction[] replacement = new Instruction[program.size()];
+        for (int i = program.size() - 1; i >= 0; i--) {
+            final Instruction instr = program.get(i);
+            if (!instr.removed) following = instr;
+            replacement[i] = following;
+        }
+        for (final Instruction instr : program) {
+            if (instr.removed || !instr.jump() || !instr.target.removed) continue;
+            instr.target = replacement[instr.target.index];
+            if (instr.target == null) throw new ByteCodeException("Jump leads past the end of the program after optimizing");
+        }
+        program.removeIf(instr -> instr.removed);
+    }
+
+    private List<ByteCodeInstruction> encode() {
+        final List<ByteCodeInstruction> result = new ArrayList<>(program.size());
+        for (final Instruction instr : program) {
+            if (!instr.jump()) {
+                result.add(instr.instr);
+                continue;
+            }
+            final int label = instr.target.index + 1;
+            result.add(jump(instr.code, label));
+        }
+        return result;
+    }
+
+}
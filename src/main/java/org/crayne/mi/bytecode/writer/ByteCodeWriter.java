@@ -0,0 +1,123 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+
+public class ByteCodeWriter implements Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+
+    // encoded instructions are collected in here and only handed to the channel once it is full, so nothing but this buffer is ever allocated
+    private final ByteBuffer buffer;
+    private long written = 0;
+
+    public ByteCodeWriter(@NotNull final WritableByteChannel channel, final int bufferSize) {
+        if (bufferSize <= 0) throw new IllegalArgumentException("Expected a positive buffer size, got " + bufferSize);
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public ByteCodeWriter(@NotNull final WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ByteCodeWriter(@NotNull final OutputStream out) {
+        this(Channels.newChannel(out));
+    }
+
+    public static ByteCodeWriter open(@NotNull final File file) throws IOException {
+        return new ByteCodeWriter(FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    }
+
+    public ByteCodeWriter write(@NotNull final ByteCodeInstruction instr) throws IOException {
+        return put(instr.bytes(), 0, instr.length());
+    }
+
+    public ByteCodeWriter write(@NotNull final Collection<ByteCodeInstruction> instrs) throws IOException {
+        for (final ByteCodeInstruction instr : instrs) write(instr);
+        return this;
+    }
+
+    // writes a whole program in the given bytecode version, see ByteCode.BYTECODE_VERSION_INLINE and ByteCode.BYTECODE_VERSION_COMPACT
+    public ByteCodeWriter write(@NotNull final List<ByteCodeInstruction> program, final byte version) throws IOException {
+        switch (version) {
+            case ByteCode.BYTECODE_VERSION_INLINE -> write(program);
+            case ByteCode.BYTECODE_VERSION_COMPACT -> CompactByteCodeEncoder.encode(program, this);
+            default -> throw new IllegalArgumentException("Cannot write unknown bytecode version " + version);
+        }
+        return this;
+    }
+
+    public ByteCodeWriter put(final byte b) throws IOException {
+        if (!buffer.hasRemaining()) drain();
+        buffer.put(b);
+        written++;
+        return this;
+    }
+
+    public ByteCodeWriter put(final byte @NotNull [] bytes, final int offset, final int length) throws IOException {
+        int pos = offset;
+        final int end = offset + length;
+        while (pos < end) {
+            if (!buffer.hasRemaining()) drain();
+            final int amount = Math.min(buffer.remaining(), end - pos);
+            buffer.put(bytes, pos, amount);
+            pos += amount;
+        }
+        written += length;
+        return this;
+    }
+
+    // unsigned LEB128, 7 bits per byte with the highest bit set on every byte but the last
+    public ByteCodeWriter putVarLong(final long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            put((byte) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        return put((byte) remaining);
+    }
+
+    public ByteCodeWriter putVarInt(final int value) throws IOException {
+        return putVarLong(Integer.toUnsignedLong(value));
+    }
+
+    // amount of bytes passed to this writer so far, including the ones still buffered
+    public long written() {
+        return written;
+    }
+
+    public void flush() throws IOException {
+        drain();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+}
@@ -2,4 +2,4 @@ package org.crayne.mi.bytecode.writer;
 
 import org.crayne.mi.parsing.ast.Node;
 
-public record ByteLoopBound(int beginLabel, int beforeJumpIfLabel, Node forloopInstr) { }
+public record ByteLoopBound(ByteCodeEmitter.Label beginLabel, ByteCodeEmitter.Label jumpIfLabel, Node forloopInstr) { }
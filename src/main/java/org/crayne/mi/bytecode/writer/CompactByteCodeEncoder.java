@@ -0,0 +1,178 @@
+package org.crayne.mi.bytecode.writer;
+
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteCodeSection;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// writes a program in the compact bytecode format (version 2):
+//
+//   header         PROGRAM_HEADER 00 6d 00 75 02 INSTRUCT_FINISH, the same as in version 1
+//   string pool    varint count, then every string as varint length + ISO-8859-1 bytes. equal strings are only stored once
+//   section table  varint count, then every section as kind byte + varint amount of instructions.
+//                  sections are consecutive runs of globals, enums, functions or other code, in program order
+//   instructions   opcode byte + operands, without any INSTRUCT_FINISH
+//
+// operands are varints (zigzag encoded when signed), strings are indices into the pool and jumps are relative to their own label
+public class CompactByteCodeEncoder {
+
+    private final List<ByteCodeInstruction> program;
+    private final Map<String, Integer> stringPool = new LinkedHashMap<>();
+    private final List<Map.Entry<ByteCodeSection, Integer>> sections = new ArrayList<>();
+
+    private CompactByteCodeEncoder(@NotNull final List<ByteCodeInstruction> program) {
+        this.program = program;
+    }
+
+    public static void encode(@NotNull final List<ByteCodeInstruction> program, @NotNull final ByteCodeWriter writer) throws IOException {
+        if (program.isEmpty() || program.get(0).opcode() != ByteCode.PROGRAM_HEADER.code())
+            throw new ByteCodeException("Expected the program to begin with a " + ByteCode.PROGRAM_HEADER + " instruction");
+
+        new CompactByteCodeEncoder(program).encode(writer);
+    }
+
+    private void encode(@NotNull final ByteCodeWriter writer) throws IOException {
+        collect();
+
+        final byte[] header = program.get(0).bytes();
+        writer.put(header, 0, header.length - 2);
+        writer.put(ByteCode.BYTECODE_VERSION_COMPACT);
+        writer.put(ByteCode.INSTRUCT_FINISH.code());
+
+        writer.putVarInt(stringPool.size());
+        for (final String s : stringPool.keySet()) {
+            final byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+            writer.putVarInt(bytes.length);
+            writer.put(bytes, 0, bytes.length);
+        }
+
+        writer.putVarInt(sections.size());
+        for (final Map.Entry<ByteCodeSection, Integer> section : sections) {
+            writer.put(section.getKey().code());
+            writer.putVarInt(section.getValue());
+        }
+
+        for (int i = 1; i < program.size(); i++) instruction(i, writer);
+    }
+
+    // fills the string pool and splits the program into sections
+    private void collect() {
+        boolean inFunction = false;
+        boolean inEnum = false;
+        boolean definitionsBegun = false;
+        ByteCodeSection current = null;
+        int count = 0;
+
+        for (int i = 1; i < program.size(); i++) {
+            final byte[] codes = program.get(i).bytes();
+            final ByteCode code = type(codes, i);
+
+            final ByteCodeSection section;
+            switch (code) {
+                case FUNCTION_DEFINITION_BEGIN, NATIVE_FUNCTION_DEFINITION_BEGIN, ENUM_MEMBER_DEFINITION -> string(codes, 1);
+                case PUSH -> {
+                    if (codes[1] == ByteCode.STRING_VALUE.code()) string(codes, 1);
+                }
+            }
+            switch (code) {
+                case FUNCTION_DEFINITION_BEGIN -> {
+                    inFunction = true;
+                    section = ByteCodeSection.FUNCTIONS;
+                }
+                case ENUM_DEFINITION_BEGIN -> {
+                    inEnum = true;
+                    section = ByteCodeSection.ENUMS;
+                }
+                case NATIVE_FUNCTION_DEFINITION_BEGIN -> section = ByteCodeSection.FUNCTIONS;
+                default -> section = inFunction ? ByteCodeSection.FUNCTIONS : inEnum ? ByteCodeSection.ENUMS
+                        : definitionsBegun ? ByteCodeSection.CODE : ByteCodeSection.GLOBALS;
+            }
+            if (code == ByteCode.FUNCTION_DEFINITION_END) inFunction = false;
+            if (code == ByteCode.ENUM_DEFINITION_END) inEnum = false;
+            if (section == ByteCodeSection.FUNCTIONS || section == ByteCodeSection.ENUMS) definitionsBegun = true;
+
+            if (section != current) {
+                if (current != null) sections.add(Map.entry(current, count));
+                current = section;
+                count = 0;
+            }
+            count++;
+        }
+        if (current != null) sections.add(Map.entry(current, count));
+    }
+
+    private void instruction(final int index, @NotNull final ByteCodeWriter writer) throws IOException {
+        final byte[] codes = program.get(index).bytes();
+        final ByteCode code = type(codes, index);
+        writer.put(codes[0]);
+
+        switch (code) {
+            case PUSH -> value(codes, writer);
+            case DEFINE_VARIABLE, DECLARE_VARIABLE, CAST -> writer.put(codes[1]);
+
+            // labels are 1-based, so the label of this instruction is index + 1
+            case JUMP, JUMP_IF, JUMP_IF_NOT, JUMP_IF_EQUALS, JUMP_IF_NOT_EQUALS, JUMP_IF_LESS_THAN, JUMP_IF_NOT_LESS_THAN, JUMP_IF_GREATER_THAN, JUMP_IF_NOT_GREATER_THAN,
+                    JUMP_IF_LESS_THAN_OR_EQUAL, JUMP_IF_NOT_LESS_THAN_OR_EQUAL, JUMP_IF_GREATER_THAN_OR_EQUAL, JUMP_IF_NOT_GREATER_THAN_OR_EQUAL -> writer.putVarInt(zigzag(readInt(codes, 1) - (index + 1)));
+            case POP, TRACEBACK, STDLIB_FINISH_LINE -> writer.putVarInt(zigzag(readInt(codes, 1)));
+            case FUNCTION_CALL -> writer.putVarLong(zigzag(readLong(codes, 1)));
+            case FUNCTION_DEFINITION_BEGIN, NATIVE_FUNCTION_DEFINITION_BEGIN, ENUM_MEMBER_DEFINITION -> writer.putVarInt(string(codes, 1));
+            case PROGRAM_HEADER -> throw new ByteCodeException("Unexpected " + code + " at instruction " + index);
+        }
+    }
+
+    private void value(final byte @NotNull [] codes, @NotNull final ByteCodeWriter writer) throws IOException {
+        final ByteCode valueType = ByteCode.decode(codes[1]);
+        if (valueType == null) throw new ByteCodeException("Cannot find bytecode corresponding to " + String.format("%02x", codes[1]));
+        writer.put(codes[1]);
+
+        switch (valueType) {
+            case BOOL_VALUE, INTEGER_VALUE, CHARACTER_VALUE -> writer.putVarInt(zigzag(readInt(codes, 2)));
+            case LONG_INTEGER_VALUE -> writer.putVarLong(zigzag(readLong(codes, 2)));
+            case ENUM_VALUE -> writer.putVarInt(readInt(codes, 2)).putVarInt(readInt(codes, 6));
+            case FLOAT_VALUE -> writer.put(codes, 2, Float.BYTES);
+            case DOUBLE_VALUE -> writer.put(codes, 2, Double.BYTES);
+            case STRING_VALUE -> writer.putVarInt(string(codes, 1));
+            case NULL_VALUE -> {}
+            default -> throw new ByteCodeException("Cannot push a value of type " + valueType);
+        }
+    }
+
+    // the string operand starting with its STRING_VALUE code at the given offset, as an index into the string pool
+    private int string(final byte @NotNull [] codes, final int offset) {
+        if (codes[offset] != ByteCode.STRING_VALUE.code()) throw new ByteCodeException("Expected a string operand in " + ByteCode.decode(codes[0]) + " instruction");
+        final int length = readInt(codes, offset + 1);
+        final String s = new String(codes, offset + 5, length, StandardCharsets.ISO_8859_1);
+        return stringPool.computeIfAbsent(s, k -> stringPool.size());
+    }
+
+    private static ByteCode type(final byte @NotNull [] codes, final int index) {
+        final ByteCode code = ByteCode.decode(codes[0]);
+        if (code == null) throw new ByteCodeException("Cannot read bytecode instruction " + index);
+        return code;
+    }
+
+    private static int readInt(final byte @NotNull [] arr, final int offset) {
+        return Ints.fromBytes(arr[offset], arr[offset + 1], arr[offset + 2], arr[offset + 3]);
+    }
+
+    private static long readLong(final byte @NotNull [] arr, final int offset) {
+        return Longs.fromBytes(arr[offset], arr[offset + 1], arr[offset + 2], arr[offset + 3],
+                arr[offset + 4], arr[offset + 5], arr[offset + 6], arr[offset + 7]);
+    }
+
+    private static int zigzag(final int i) {
+        return (i << 1) ^ (i >> 31);
+    }
+
+    private static long zigzag(final long l) {
+        return (l << 1) ^ (l >> 63);
+    }
+
+}
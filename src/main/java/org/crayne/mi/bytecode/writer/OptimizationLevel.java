@@ -0,0 +1,10 @@
+package org.crayne.mi.bytecode.writer;
+
+// how much the ByteCodeCompiler optimizes a program after compiling it
+public enum OptimizationLevel {
+
+    NONE,       // the code as compiled
+    PEEPHOLE,   // the ByteCodeOptimizer only
+    SSA         // the SsaOptimizer for every intern function, then the ByteCodeOptimizer
+
+}
@@ -0,0 +1,57 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// a basic block of a function in ssa form: its phis, the code that runs in order and the way it is left.
+// a block never has two edges to the same successor, so a predecessor identifies an edge and the operand of every phi
+final class SsaBlock {
+
+    enum Exit {
+        JUMP,       // to the only successor
+        BRANCH,     // to the first successor if the condition is true, to the second one otherwise
+        RETURN,     // returning the returned value, if there is one
+        END         // falling off the end of the function, returning the returned value just like a return statement
+    }
+
+    final int id;
+    final List<SsaValue> phis = new ArrayList<>();
+    final List<SsaValue> code = new ArrayList<>();
+    final List<SsaBlock> preds = new ArrayList<>();
+    final List<SsaBlock> succs = new ArrayList<>();
+    Exit exit = Exit.JUMP;
+    SsaValue condition;
+    SsaValue returned;
+
+    // the immediate dominator, and the position in reverse postorder (see SsaFunction.analyze)
+    SsaBlock idom;
+    int order = -1;
+
+    SsaBlock(final int id) {
+        this.id = id;
+    }
+
+    // the operands the exit of the block reads
+    List<SsaValue> exitArgs() {
+        if (exit == Exit.BRANCH) return List.of(condition);
+        return returned != null ? List.of(returned) : List.of();
+    }
+
+    void replaceSucc(@NotNull final SsaBlock succ, @NotNull final SsaBlock replacement) {
+        succs.set(succs.indexOf(succ), replacement);
+    }
+
+    // removes the edge from the predecessor, along with its operand of every phi
+    void removePred(@NotNull final SsaBlock pred) {
+        final int index = preds.indexOf(pred);
+        preds.remove(index);
+        for (final SsaValue phi : phis) phi.args.remove(index);
+    }
+
+    public String toString() {
+        return "block" + id;
+    }
+
+}
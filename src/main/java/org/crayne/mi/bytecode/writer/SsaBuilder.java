@@ -0,0 +1,392 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeFunctionDefinition;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.reader.ByteCodeValue;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.crayne.mi.bytecode.common.ByteCode.*;
+
+// builds the ssa form of an intern function from its stack code, by running the code of every block on a push stack and local
+// variables that hold values instead of actual data. reading a local is just the value it holds, so copies disappear right away.
+// a block with several predecessors starts with a phi for every local and push stack entry, the ones merging a single value are removed afterwards.
+//
+// the compiler leaves the result of a call that is not used on the push stack, so the push stack of two paths meeting may differ
+// in its lowest entries, which are never read again. a break skips the pops at the end of the scopes it leaves, so the locals of
+// two paths may differ in their topmost ones, which are never read again either, but would be where the next variable defined goes.
+// a function defining variables after that is left alone
+final class SsaBuilder {
+
+    private final List<ByteCodeInstruction> program;
+    private final int begin;
+    private final int end;
+    private final Map<Long, ByteCodeFunctionDefinition> functions;
+    private final boolean returnsValue;
+    private final SsaFunction function = new SsaFunction();
+    private final SsaBlock[] blockAt;
+    private final Map<SsaBlock, Integer> starts = new HashMap<>();
+    private final Map<String, SsaValue> defaults = new HashMap<>();
+
+    private final Map<SsaBlock, List<SsaValue>> exitStacks = new HashMap<>();
+    private final Map<SsaBlock, List<SsaValue>> exitVariables = new HashMap<>();
+    private final Map<SsaBlock, List<SsaValue>> stackPhis = new HashMap<>();
+    private final Map<SsaBlock, List<SsaValue>> variablePhis = new HashMap<>();
+    private final Map<SsaBlock, Integer> entryVariables = new HashMap<>();
+    private final Set<SsaBlock> definingBlocks = new HashSet<>();
+
+    private SsaBuilder(@NotNull final List<ByteCodeInstruction> program, final int begin, final int end,
+                       @NotNull final Map<Long, ByteCodeFunctionDefinition> functions, final boolean returnsValue) {
+        this.program = program;
+        this.begin = begin;
+        this.end = end;
+        this.functions = functions;
+        this.returnsValue = returnsValue;
+        this.blockAt = new SsaBlock[end - begin + 1];
+    }
+
+    // the function from the definition begin at begin to the definition end at end, its first arity instructions defining the arguments
+    static SsaFunction build(@NotNull final List<ByteCodeInstruction> program, final int begin, final int end, final int arity,
+                             @NotNull final Map<Long, ByteCodeFunctionDefinition> functions, final boolean returnsValue) {
+        return new SsaBuilder(program, begin, end, functions, returnsValue).build(arity);
+    }
+
+    private ByteCode code(final int index) {
+        return ByteCode.decode(program.get(index).opcode());
+    }
+
+    static boolean jump(final ByteCode code) {
+        return code == JUMP || code == JUMP_IF || code == JUMP_IF_NOT;
+    }
+
+    // labels are 1-based
+    static int target(@NotNull final ByteCodeInstruction instr) {
+        return ByteCode.bytesToInt(new byte[] {instr.at(1), instr.at(2), instr.at(3), instr.at(4)}) - 1;
+    }
+
+    // the id of the function a function call calls
+    static long callee(@NotNull final ByteCodeInstruction call) {
+        return ByteCode.bytesToLong(new byte[] {call.at(1), call.at(2), call.at(3), call.at(4), call.at(5), call.at(6), call.at(7), call.at(8)});
+    }
+
+    private SsaBlock blockAt(final int index) {
+        return blockAt[index - begin];
+    }
+
+    private SsaFunction build(final int arity) {
+        final SsaBlock entry = function.block();
+        function.blocks.add(entry);
+        splitIntoBlocks();
+        entry.succs.add(blockAt(begin + 1));
+        for (final SsaBlock block : function.blocks) for (final SsaBlock succ : block.succs) succ.preds.add(block);
+
+        final List<SsaValue> arguments = new ArrayList<>();
+        for (int address = 0; address < arity; address++) {
+            final ByteCodeInstruction define = program.get(begin + 1 + address);
+            if (define.opcode() != DEFINE_VARIABLE.code()) throw new SsaFunction.Unoptimizable();
+            final SsaValue param = function.value(SsaValue.Kind.PARAM, define, address);
+            param.type = datatype(define.at(1));
+            function.params.add(param);
+            arguments.add(0, param); // the first definition takes the last argument from the top of the push stack
+        }
+        exitStacks.put(entry, arguments);
+        exitVariables.put(entry, new ArrayList<>());
+        entryVariables.put(entry, 0);
+
+        for (final SsaBlock block : function.analyze()) if (block != entry) run(block);
+        fillPhis();
+        checkVariableDepths();
+        function.removeTrivialPhis();
+        function.inferTypes();
+        return function;
+    }
+
+    // a block starts at the beginning of the function, at every jump target and after every jump or return
+    private void splitIntoBlocks() {
+        final boolean[] leader = new boolean[end - begin + 1];
+        leader[1] = true;
+        for (int i = begin + 1; i < end; i++) {
+            final ByteCode code = code(i);
+            if (jump(code)) {
+                final int target = target(program.get(i));
+                if (target <= begin || target > end) throw new SsaFunction.Unoptimizable();
+                leader[target - begin] = true;
+            }
+            if (jump(code) || code == RETURN_STATEMENT) leader[i + 1 - begin] = true;
+        }
+        for (int i = begin + 1; i <= end; i++) {
+            if (!leader[i - begin]) continue;
+            final SsaBlock block = function.block();
+            blockAt[i - begin] = block;
+            starts.put(block, i);
+            function.blocks.add(block);
+        }
+        for (final SsaBlock block : List.copyOf(function.blocks.subList(1, function.blocks.size()))) {
+            final int last = last(block);
+            final ByteCode code = code(last);
+            if (code == JUMP) {
+                block.succs.add(blockAt(target(program.get(last))));
+            } else if (code == JUMP_IF || code == JUMP_IF_NOT) {
+                final SsaBlock target = blockAt(target(program.get(last)));
+                final SsaBlock next = blockAt(last + 1);
+                block.succs.add(code == JUMP_IF ? target : next);
+                // a block has a single edge to every successor, so a condition leading to the same block either way goes through another one
+                block.succs.add(target != next ? code == JUMP_IF ? next : target : edge(target));
+            } else if (code != RETURN_STATEMENT && code != FUNCTION_DEFINITION_END) {
+                block.succs.add(blockAt(last + 1));
+            }
+        }
+    }
+
+    private SsaBlock edge(@NotNull final SsaBlock target) {
+        final SsaBlock block = function.block();
+        block.succs.add(target);
+        function.blocks.add(function.blocks.indexOf(target), block);
+        return block;
+    }
+
+    // the index of the last instruction of a block that was split off the stack code
+    private int last(@NotNull final SsaBlock block) {
+        int last = starts.get(block);
+        while (last < end && blockAt(last + 1) == null) last++;
+        return last;
+    }
+
+    // runs the block on the values its predecessors leave behind, or on phis for them
+    private void run(@NotNull final SsaBlock block) {
+        final List<SsaValue> stack;
+        final List<SsaValue> variables;
+        if (block.preds.size() == 1) {
+            final SsaBlock pred = block.preds.get(0);
+            if (!exitStacks.containsKey(pred)) throw new SsaFunction.Unoptimizable();
+            stack = new ArrayList<>(exitStacks.get(pred));
+            variables = new ArrayList<>(exitVariables.get(pred));
+        } else {
+            int stackDepth = Integer.MAX_VALUE;
+            int variableDepth = Integer.MAX_VALUE;
+            for (final SsaBlock pred : block.preds) {
+                if (!exitStacks.containsKey(pred)) continue; // a back edge, its values are added to the phis later
+                stackDepth = Math.min(stackDepth, exitStacks.get(pred).size());
+                variableDepth = Math.min(variableDepth, exitVariables.get(pred).size());
+            }
+            if (stackDepth == Integer.MAX_VALUE) throw new SsaFunction.Unoptimizable();
+            stack = phis(block, stackDepth);
+            variables = phis(block, variableDepth);
+            stackPhis.put(block, List.copyOf(stack));
+            variablePhis.put(block, List.copyOf(variables));
+        }
+        entryVariables.put(block, variables.size());
+
+        if (starts.containsKey(block)) {
+            final int last = last(block);
+            for (int i = starts.get(block); i <= last; i++) run(block, program.get(i), stack, variables);
+        }
+        exitStacks.put(block, stack);
+        exitVariables.put(block, variables);
+    }
+
+    private List<SsaValue> phis(@NotNull final SsaBlock block, final int count) {
+        final List<SsaValue> phis = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final SsaValue phi = function.value(SsaValue.Kind.PHI, null, -1);
+            phi.block = block;
+            block.phis.add(phi);
+            phis.add(phi);
+        }
+        return phis;
+    }
+
+    private void run(@NotNull final SsaBlock block, @NotNull final ByteCodeInstruction instr, @NotNull final List<SsaValue> stack, @NotNull final List<SsaValue> variables) {
+        final ByteCode code = ByteCode.decode(instr.opcode());
+        if (code == null) throw new SsaFunction.Unoptimizable();
+        switch (code) {
+            case PUSH -> stack.add(function.constant(instr));
+            case POP -> {
+                final int amount = ByteCode.bytesToInt(new byte[] {instr.at(1), instr.at(2), instr.at(3), instr.at(4)});
+                if (amount < 0 || amount > variables.size()) throw new SsaFunction.Unoptimizable();
+                variables.subList(variables.size() - amount, variables.size()).clear();
+            }
+            case DEFINE_VARIABLE -> {
+                variables.add(pop(stack));
+                definingBlocks.add(block);
+            }
+            case DECLARE_VARIABLE -> {
+                variables.add(defaultValue(instr));
+                definingBlocks.add(block);
+            }
+            case VALUE_AT_RELATIVE_ADDRESS -> stack.add(local(variables, address(pop(stack))));
+            case RELATIVE_TO_ABSOLUTE_ADDRESS -> {
+                final int address = address(pop(stack));
+                local(variables, address);
+                stack.add(function.value(SsaValue.Kind.LOCAL_ADDRESS, null, address));
+            }
+            case VALUE_AT_ADDRESS -> {
+                final SsaValue target = popTarget(stack);
+                if (target.kind == SsaValue.Kind.LOCAL_ADDRESS) stack.add(local(variables, target.address));
+                else stack.add(schedule(block, SsaValue.Kind.LOAD_GLOBAL, null, address(target)));
+            }
+            case MUTATE_VARIABLE, MUTATE_VARIABLE_AND_PUSH -> {
+                final SsaValue target = popTarget(stack);
+                final SsaValue value = pop(stack);
+                if (target.kind == SsaValue.Kind.LOCAL_ADDRESS) {
+                    variables.set(target.address, value);
+                } else {
+                    schedule(block, SsaValue.Kind.STORE_GLOBAL, null, address(target)).args.add(value);
+                }
+                if (code == MUTATE_VARIABLE_AND_PUSH) stack.add(value);
+            }
+            case INC_VARIABLE, INC_VARIABLE_AND_PUSH, DEC_VARIABLE, DEC_VARIABLE_AND_PUSH -> {
+                final SsaValue target = popTarget(stack);
+                final boolean push = code == INC_VARIABLE_AND_PUSH || code == DEC_VARIABLE_AND_PUSH;
+                final ByteCodeInstruction increment = new ByteCodeInstruction((code == INC_VARIABLE || code == INC_VARIABLE_AND_PUSH ? INC_VARIABLE : DEC_VARIABLE).code());
+                if (target.kind == SsaValue.Kind.LOCAL_ADDRESS) {
+                    final SsaValue value = schedule(block, SsaValue.Kind.INCREMENT, increment, -1);
+                    value.args.add(local(variables, target.address));
+                    variables.set(target.address, value);
+                    if (push) stack.add(value);
+                } else {
+                    final int address = address(target);
+                    schedule(block, SsaValue.Kind.INC_GLOBAL, increment, address);
+                    if (push) stack.add(schedule(block, SsaValue.Kind.LOAD_GLOBAL, null, address));
+                }
+            }
+            case FUNCTION_CALL -> {
+                final ByteCodeFunctionDefinition callee = functions.get(callee(instr));
+                final int arity = callee == null ? -1 : callee.args().size();
+                if (arity == -1 || arity > stack.size()) throw new SsaFunction.Unoptimizable();
+
+                final SsaValue call = schedule(block, SsaValue.Kind.CALL, instr, -1);
+                for (int i = stack.size() - arity; i < stack.size(); i++) call.args.add(checked(stack.get(i)));
+                stack.subList(stack.size() - arity, stack.size()).clear();
+                call.results = callee.returnType() != ByteDatatype.VOID;
+                call.type = datatype(callee.returnType().code());
+                if (call.results) stack.add(call);
+            }
+            case TRACEBACK -> schedule(block, SsaValue.Kind.TRACEBACK, instr, -1);
+            case NOT, BIT_NOT, CAST -> {
+                final SsaValue operator = schedule(block, SsaValue.Kind.OPERATOR, instr, -1);
+                operator.args.add(pop(stack));
+                stack.add(operator);
+            }
+            case JUMP -> block.exit = SsaBlock.Exit.JUMP;
+            case JUMP_IF, JUMP_IF_NOT -> {
+                block.exit = SsaBlock.Exit.BRANCH;
+                block.condition = pop(stack);
+            }
+            case RETURN_STATEMENT, FUNCTION_DEFINITION_END -> {
+                block.exit = code == RETURN_STATEMENT ? SsaBlock.Exit.RETURN : SsaBlock.Exit.END;
+                if (returnsValue) block.returned = pop(stack);
+            }
+            default -> {
+                if (!binaryOperator(code)) throw new SsaFunction.Unoptimizable();
+                final SsaValue operator = schedule(block, SsaValue.Kind.OPERATOR, instr, -1);
+                final SsaValue y = pop(stack);
+                operator.args.add(pop(stack));
+                operator.args.add(y);
+                stack.add(operator);
+            }
+        }
+    }
+
+    static boolean binaryOperator(@NotNull final ByteCode code) {
+        final int c = Byte.toUnsignedInt(code.code());
+        return ByteCode.typedOperator(code) || c >= Byte.toUnsignedInt(PLUS.code()) && c <= Byte.toUnsignedInt(GREATER_THAN_OR_EQUAL.code());
+    }
+
+    private SsaValue schedule(@NotNull final SsaBlock block, @NotNull final SsaValue.Kind kind, final ByteCodeInstruction instr, final int address) {
+        final SsaValue value = function.value(kind, instr, address);
+        value.block = block;
+        block.code.add(value);
+        return value;
+    }
+
+    private static SsaValue checked(@NotNull final SsaValue value) {
+        if (value.kind == SsaValue.Kind.LOCAL_ADDRESS) throw new SsaFunction.Unoptimizable();
+        return value;
+    }
+
+    private static SsaValue popTarget(@NotNull final List<SsaValue> stack) {
+        if (stack.isEmpty()) throw new SsaFunction.Unoptimizable();
+        return stack.remove(stack.size() - 1);
+    }
+
+    private static SsaValue pop(@NotNull final List<SsaValue> stack) {
+        return checked(popTarget(stack));
+    }
+
+    private static SsaValue local(@NotNull final List<SsaValue> variables, final int address) {
+        if (address < 0 || address >= variables.size()) throw new SsaFunction.Unoptimizable();
+        return variables.get(address);
+    }
+
+    // the address a pushed int constant stands for
+    private static int address(@NotNull final SsaValue value) {
+        if (value.kind != SsaValue.Kind.CONST || value.instr.length() != 7 || value.instr.at(1) != INTEGER_VALUE.code()) throw new SsaFunction.Unoptimizable();
+        return ByteCode.bytesToInt(new byte[] {value.instr.at(2), value.instr.at(3), value.instr.at(4), value.instr.at(5)});
+    }
+
+    // the default value of a declared variable is pushed like any other constant, except for strings and enums, which cannot be pushed
+    private SsaValue defaultValue(@NotNull final ByteCodeInstruction declaration) {
+        final byte type = declaration.at(1);
+        if (type != ByteDatatype.STRING.code() && type != ByteDatatype.ENUM.code()) {
+            final ByteDatatype datatype = ByteDatatype.ofId(type);
+            if (datatype == ByteDatatype.UNKNOWN) throw new SsaFunction.Unoptimizable();
+            return function.constant(ByteCode.push(ByteCodeConstantFolder.push(ByteCodeValue.defaultValue(datatype))));
+        }
+        return defaults.computeIfAbsent(declaration.write(), k -> {
+            final SsaValue value = function.value(SsaValue.Kind.DEFAULT, declaration, -1);
+            value.type = datatype(type);
+            return value;
+        });
+    }
+
+    static int datatype(final byte code) {
+        return code < 0 || code == ByteDatatype.ENUM.code() || code > ByteDatatype.NULL.code() ? -1 : code;
+    }
+
+    // every predecessor was run by now, back edges included
+    private void fillPhis() {
+        for (final SsaBlock block : function.blocks) {
+            if (!stackPhis.containsKey(block)) continue;
+            final List<SsaValue> stack = stackPhis.get(block);
+            final List<SsaValue> variables = variablePhis.get(block);
+            for (final SsaBlock pred : block.preds) {
+                final List<SsaValue> predStack = exitStacks.get(pred);
+                final List<SsaValue> predVariables = exitVariables.get(pred);
+                if (predStack.size() < stack.size() || predVariables.size() < variables.size()) throw new SsaFunction.Unoptimizable();
+
+                // the push stacks are lined up at the top, the entries below the ones of the phis are unused results
+                for (int i = 0; i < stack.size(); i++) stack.get(i).args.add(checked(predStack.get(predStack.size() - stack.size() + i)));
+                for (int i = 0; i < variables.size(); i++) variables.get(i).args.add(checked(predVariables.get(i)));
+            }
+        }
+    }
+
+    // a path that has more locals than the block it leads to leaves them defined, so a variable defined after that would not be at its address
+    private void checkVariableDepths() {
+        final Set<SsaBlock> leaking = new HashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final SsaBlock block : function.blocks) {
+                if (leaking.contains(block)) continue;
+                for (final SsaBlock pred : block.preds) {
+                    if (!leaking.contains(pred) && exitVariables.get(pred).size() == entryVariables.get(block)) continue;
+                    leaking.add(block);
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        for (final SsaBlock block : leaking) if (definingBlocks.contains(block)) throw new SsaFunction.Unoptimizable();
+    }
+
+}
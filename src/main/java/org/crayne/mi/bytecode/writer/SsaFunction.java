@@ -0,0 +1,278 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.crayne.mi.bytecode.common.ByteCode.*;
+
+// an intern function as a control flow graph of basic blocks in ssa form (see SsaBuilder), which SsaOptimizer optimizes
+// and SsaLowering turns back into stack code. every local variable and push stack entry is a value defined exactly once,
+// values meeting at the start of a block from different predecessors are merged by phis
+final class SsaFunction {
+
+    // thrown for anything the ssa form does not cover, the function keeps its stack code then
+    static final class Unoptimizable extends RuntimeException {
+        Unoptimizable() {
+            super(null, null, false, false);
+        }
+    }
+
+    // the blocks in the order they are laid out in, starting with the entry block
+    final List<SsaBlock> blocks = new ArrayList<>();
+    // the arguments by the address of the local they are defined as
+    final List<SsaValue> params = new ArrayList<>();
+    private final Map<String, SsaValue> constants = new HashMap<>();
+    private int values;
+    private int blockIds;
+
+    SsaValue value(@NotNull final SsaValue.Kind kind, final ByteCodeInstruction instr, final int address) {
+        return new SsaValue(kind, instr, address, values++);
+    }
+
+    // the constant pushed by the instruction, the same value for the same constant every time
+    SsaValue constant(@NotNull final ByteCodeInstruction push) {
+        return constants.computeIfAbsent(push.write(), k -> {
+            final SsaValue value = value(SsaValue.Kind.CONST, push, -1);
+            value.type = constantType(ByteCode.decode(push.at(1)));
+            return value;
+        });
+    }
+
+    private static int constantType(final ByteCode value) {
+        if (value == null) return -1;
+        return switch (value) {
+            case BOOL_VALUE -> ByteDatatype.BOOL.code();
+            case CHARACTER_VALUE -> ByteDatatype.CHAR.code();
+            case INTEGER_VALUE -> ByteDatatype.INT.code();
+            case LONG_INTEGER_VALUE -> ByteDatatype.LONG.code();
+            case FLOAT_VALUE -> ByteDatatype.FLOAT.code();
+            case DOUBLE_VALUE -> ByteDatatype.DOUBLE.code();
+            case STRING_VALUE -> ByteDatatype.STRING.code();
+            case NULL_VALUE -> ByteDatatype.NULL.code();
+            default -> -1;
+        };
+    }
+
+    SsaBlock block() {
+        return new SsaBlock(blockIds++);
+    }
+
+    // every value has an id below this
+    int valueCount() {
+        return values;
+    }
+
+    SsaBlock entry() {
+        return blocks.get(0);
+    }
+
+    // removes the blocks that cannot be reached anymore and finds the order and immediate dominator of the others.
+    // returns the blocks in reverse postorder
+    List<SsaBlock> analyze() {
+        final List<SsaBlock> postorder = new ArrayList<>();
+        final Set<SsaBlock> visited = new HashSet<>();
+        final Deque<SsaBlock> path = new ArrayDeque<>();
+        final Deque<Integer> next = new ArrayDeque<>();
+        visited.add(entry());
+        path.push(entry());
+        next.push(0);
+        while (!path.isEmpty()) {
+            final SsaBlock block = path.peek();
+            final int succ = next.pop();
+            if (succ == block.succs.size()) {
+                postorder.add(path.pop());
+                continue;
+            }
+            next.push(succ + 1);
+            final SsaBlock target = block.succs.get(succ);
+            if (visited.add(target)) {
+                path.push(target);
+                next.push(0);
+            }
+        }
+        for (final SsaBlock block : blocks) {
+            if (visited.contains(block)) continue;
+            for (final SsaBlock succ : block.succs) if (visited.contains(succ)) succ.removePred(block);
+        }
+        blocks.removeIf(block -> !visited.contains(block));
+
+        final List<SsaBlock> order = new ArrayList<>(postorder);
+        Collections.reverse(order);
+        for (int i = 0; i < order.size(); i++) {
+            order.get(i).order = i;
+            order.get(i).idom = null;
+        }
+        // the iterative algorithm of cooper, harvey and kennedy
+        entry().idom = entry();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final SsaBlock block : order.subList(1, order.size())) {
+                SsaBlock idom = null;
+                for (final SsaBlock pred : block.preds) {
+                    if (pred.idom == null) continue;
+                    idom = idom == null ? pred : intersect(pred, idom);
+                }
+                if (idom != block.idom) {
+                    block.idom = idom;
+                    changed = true;
+                }
+            }
+        }
+        entry().idom = null;
+        return order;
+    }
+
+    private static SsaBlock intersect(SsaBlock a, SsaBlock b) {
+        while (a != b) {
+            while (a.order > b.order) a = a.idom;
+            while (b.order > a.order) b = b.idom;
+        }
+        return a;
+    }
+
+    static boolean dominates(@NotNull final SsaBlock a, final SsaBlock b) {
+        for (SsaBlock block = b; block != null; block = block.idom) if (block == a) return true;
+        return false;
+    }
+
+    // replaces every use of a value with another one
+    void replace(@NotNull final SsaValue value, @NotNull final SsaValue replacement) {
+        for (final SsaBlock block : blocks) {
+            for (final SsaValue phi : block.phis) Collections.replaceAll(phi.args, value, replacement);
+            for (final SsaValue instr : block.code) Collections.replaceAll(instr.args, value, replacement);
+            if (block.condition == value) block.condition = replacement;
+            if (block.returned == value) block.returned = replacement;
+        }
+    }
+
+    // how often every value is used as an operand
+    Map<SsaValue, Integer> uses() {
+        final Map<SsaValue, Integer> uses = new HashMap<>();
+        for (final SsaBlock block : blocks) {
+            for (final SsaValue phi : block.phis) for (final SsaValue arg : phi.args) uses.merge(arg, 1, Integer::sum);
+            for (final SsaValue instr : block.code) for (final SsaValue arg : instr.args) uses.merge(arg, 1, Integer::sum);
+            for (final SsaValue arg : block.exitArgs()) uses.merge(arg, 1, Integer::sum);
+        }
+        return uses;
+    }
+
+    // puts an empty block on the edge, laid out right before the successor
+    SsaBlock splitEdge(@NotNull final SsaBlock pred, @NotNull final SsaBlock succ) {
+        final SsaBlock block = block();
+        block.preds.add(pred);
+        block.succs.add(succ);
+        pred.replaceSucc(succ, block);
+        succ.preds.set(succ.preds.indexOf(pred), block);
+        blocks.add(blocks.indexOf(succ), block);
+        return block;
+    }
+
+    // removes the phis that merge a single value (besides themselves), until there are none left
+    void removeTrivialPhis() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final SsaBlock block : blocks) {
+                for (final SsaValue phi : List.copyOf(block.phis)) {
+                    SsaValue same = null;
+                    boolean trivial = true;
+                    for (final SsaValue arg : phi.args) {
+                        if (arg == phi || arg == same) continue;
+                        if (same != null) {
+                            trivial = false;
+                            break;
+                        }
+                        same = arg;
+                    }
+                    if (!trivial) continue;
+                    if (same == null) throw new Unoptimizable();
+                    block.phis.remove(phi);
+                    replace(phi, same);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // the types of phis, increments and operators follow from the ones of their operands. they start out without a type,
+    // so a variable keeps the type it has before a loop in the loop
+    void inferTypes() {
+        for (final SsaBlock block : blocks) {
+            for (final SsaValue phi : block.phis) phi.type = UNSET;
+            for (final SsaValue value : block.code) if (value.kind == SsaValue.Kind.OPERATOR || value.kind == SsaValue.Kind.INCREMENT) value.type = UNSET;
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final SsaBlock block : blocks) {
+                for (final SsaValue phi : block.phis) changed |= infer(phi, meet(phi.args));
+                for (final SsaValue value : block.code) {
+                    if (value.kind == SsaValue.Kind.INCREMENT) changed |= infer(value, value.args.get(0).type);
+                    if (value.kind == SsaValue.Kind.OPERATOR) changed |= infer(value, operatorType(value));
+                }
+            }
+        }
+        for (final SsaBlock block : blocks) {
+            for (final SsaValue phi : block.phis) if (phi.type == UNSET) phi.type = -1;
+            for (final SsaValue value : block.code) if (value.type == UNSET) value.type = -1;
+        }
+    }
+
+    private static final int UNSET = Integer.MIN_VALUE;
+
+    private static boolean infer(@NotNull final SsaValue value, final int type) {
+        if (type == value.type) return false;
+        value.type = type;
+        return true;
+    }
+
+    private static int meet(@NotNull final List<SsaValue> values) {
+        int type = UNSET;
+        for (final SsaValue value : values) {
+            if (value.type == UNSET) continue;
+            type = type == UNSET || type == value.type ? value.type : -1;
+        }
+        return type;
+    }
+
+    private static int operatorType(@NotNull final SsaValue operator) {
+        final ByteCode code = operator.code();
+        if (code == CAST) return SsaBuilder.datatype(operator.instr.at(1));
+        if (code == STRING_CONCAT) return ByteDatatype.STRING.code();
+        final ByteCode generic = ByteCode.typedOperator(code) ? ByteCode.typedOperators.get(code.code() & 0x0F) : code;
+        if (generic == EQUALS || generic == LESS_THAN || generic == GREATER_THAN || generic == LESS_THAN_OR_EQUAL || generic == GREATER_THAN_OR_EQUAL) return ByteDatatype.BOOL.code();
+        if (ByteCode.typedOperator(code)) return (code.code() >> 4) & 0x0F;
+
+        final int type = meet(operator.args);
+        if (type == UNSET || operator.args.stream().anyMatch(arg -> arg.type == UNSET)) return UNSET;
+        if (code == NOT) return type == ByteDatatype.BOOL.code() ? type : -1;
+        // the generic arithmetic operators result in the type of their operands if both have the same one
+        final boolean arithmetic = code == PLUS || code == MINUS || code == MULTIPLY || code == DIVIDE || code == MODULO;
+        return arithmetic && type >= ByteDatatype.CHAR.code() && type <= ByteDatatype.DOUBLE.code() ? type : -1;
+    }
+
+    public String toString() {
+        final StringBuilder result = new StringBuilder();
+        for (final SsaBlock block : blocks) {
+            result.append(block).append(" <- ").append(block.preds).append('\n');
+            for (final SsaValue phi : block.phis) result.append("  ").append(phi).append('\n');
+            for (final SsaValue instr : block.code) result.append("  ").append(instr).append('\n');
+            result.append("  ").append(block.exit.name().toLowerCase()).append(' ').append(block.exitArgs()).append(" -> ").append(block.succs).append('\n');
+        }
+        return result.toString();
+    }
+
+}
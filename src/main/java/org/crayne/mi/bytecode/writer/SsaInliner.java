@@ -0,0 +1,206 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.bytecode.common.ByteCodeFunctionDefinition;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.crayne.mi.bytecode.common.ByteCode.*;
+
+// replaces calls of small intern functions by their body, before SsaOptimizer optimizes the function calling them. the callee
+// is built in ssa form again for every call and its blocks are put between the two halves of the block calling it, its arguments
+// being the operands of the call and its returned values meeting in a phi after it. its locals are values of the caller then,
+// so their addresses are found anew by SsaLowering. the calls the inlined code makes are inlined as well, as long as the budget allows it.
+// a function calling itself, directly or through others, is never inlined
+final class SsaInliner {
+
+    // the most instructions of stack code a function may have to be inlined, and that may be inlined into a single function
+    static final int CALLEE_BUDGET = 32;
+    static final int CALLER_BUDGET = 256;
+
+    private final List<ByteCodeInstruction> program;
+    private final Map<Long, ByteCodeFunctionDefinition> functions;
+    // the definition begin and end of every intern function by its id, and the functions it calls
+    private final Map<Long, int[]> bodies = new HashMap<>();
+    private final Map<Long, Set<Long>> calls = new HashMap<>();
+    private final Set<Long> inlinable = new HashSet<>();
+
+    SsaInliner(@NotNull final List<ByteCodeInstruction> program, @NotNull final Map<Long, ByteCodeFunctionDefinition> functions,
+               @NotNull final Map<String, ByteCodeFunctionDefinition> bySignature) {
+        this.program = program;
+        this.functions = functions;
+        for (int i = 0; i < program.size(); i++) {
+            if (program.get(i).opcode() != FUNCTION_DEFINITION_BEGIN.code()) continue;
+            int end = i;
+            final Set<Long> callees = new HashSet<>();
+            while (program.get(end).opcode() != FUNCTION_DEFINITION_END.code()) {
+                if (program.get(end).opcode() == FUNCTION_CALL.code()) callees.add(SsaBuilder.callee(program.get(end)));
+                end++;
+            }
+            final ByteCodeFunctionDefinition def = bySignature.get(SsaOptimizer.signature(program.get(i)));
+            if (def != null) {
+                bodies.put(def.id(), new int[] {i, end});
+                calls.put(def.id(), callees);
+            }
+            i = end;
+        }
+        for (final Map.Entry<Long, int[]> body : bodies.entrySet()) {
+            final int size = body.getValue()[1] - body.getValue()[0] - 1;
+            if (size <= CALLEE_BUDGET && !recursive(body.getKey())) inlinable.add(body.getKey());
+        }
+    }
+
+    private boolean recursive(final long id) {
+        final Set<Long> visited = new HashSet<>();
+        final Deque<Long> next = new ArrayDeque<>(calls.get(id));
+        while (!next.isEmpty()) {
+            final long callee = next.pop();
+            if (callee == id) return true;
+            if (visited.add(callee) && calls.containsKey(callee)) next.addAll(calls.get(callee));
+        }
+        return false;
+    }
+
+    // inlines the calls of the function, returning how often every callee was inlined
+    Map<Long, Integer> inline(@NotNull final SsaFunction function) {
+        final Map<Long, Integer> inlined = new LinkedHashMap<>();
+        final Set<SsaValue> kept = new HashSet<>();
+        int budget = CALLER_BUDGET;
+        SsaValue call;
+        while ((call = nextCall(function, kept)) != null) {
+            final long id = SsaBuilder.callee(call.instr);
+            final int[] body = bodies.get(id);
+            final int size = body[1] - body[0] - 1;
+            final SsaFunction callee = size <= budget ? build(id) : null;
+            if (callee == null) {
+                kept.add(call);
+                continue;
+            }
+            splice(function, call, callee);
+            budget -= size;
+            inlined.merge(id, 1, Integer::sum);
+        }
+        if (!inlined.isEmpty()) {
+            function.analyze();
+            function.removeTrivialPhis();
+            function.inferTypes();
+        }
+        return inlined;
+    }
+
+    private SsaValue nextCall(@NotNull final SsaFunction function, @NotNull final Set<SsaValue> kept) {
+        for (final SsaBlock block : function.blocks) {
+            for (final SsaValue value : block.code) {
+                if (value.kind == SsaValue.Kind.CALL && !kept.contains(value) && inlinable.contains(SsaBuilder.callee(value.instr))) return value;
+            }
+        }
+        return null;
+    }
+
+    // the callee in ssa form, or null if it cannot be built or never returns
+    private SsaFunction build(final long id) {
+        final ByteCodeFunctionDefinition def = functions.get(id);
+        final int[] body = bodies.get(id);
+        try {
+            final SsaFunction callee = SsaBuilder.build(program, body[0], body[1], def.args().size(), functions, def.returnType() != ByteDatatype.VOID);
+            callee.analyze();
+            for (final SsaBlock block : callee.blocks) if (block.exit == SsaBlock.Exit.RETURN || block.exit == SsaBlock.Exit.END) return callee;
+            return null;
+        } catch (final SsaFunction.Unoptimizable e) {
+            return null;
+        }
+    }
+
+    private static void splice(@NotNull final SsaFunction function, @NotNull final SsaValue call, @NotNull final SsaFunction callee) {
+        // the code after the call continues in a block of its own
+        final SsaBlock block = call.block;
+        final SsaBlock after = function.block();
+        final int index = block.code.indexOf(call);
+        final List<SsaValue> rest = block.code.subList(index + 1, block.code.size());
+        for (final SsaValue value : rest) value.block = after;
+        after.code.addAll(rest);
+        block.code.subList(index, block.code.size()).clear();
+        after.exit = block.exit;
+        after.condition = block.condition;
+        after.returned = block.returned;
+        for (final SsaBlock succ : block.succs) succ.preds.set(succ.preds.indexOf(block), after);
+        after.succs.addAll(block.succs);
+        block.succs.clear();
+        block.exit = SsaBlock.Exit.JUMP;
+        block.condition = null;
+        block.returned = null;
+
+        final Map<SsaValue, SsaValue> values = new HashMap<>();
+        final Map<SsaBlock, SsaBlock> blocks = new HashMap<>();
+        // the first definition takes the last argument
+        for (final SsaValue param : callee.params) values.put(param, call.args.get(call.args.size() - 1 - param.address));
+        for (final SsaBlock calleeBlock : callee.blocks) {
+            final SsaBlock copy = function.block();
+            blocks.put(calleeBlock, copy);
+            for (final SsaValue phi : calleeBlock.phis) copy.phis.add(copy(function, phi, copy, values));
+            for (final SsaValue value : calleeBlock.code) copy.code.add(copy(function, value, copy, values));
+        }
+        final List<SsaValue> returned = new ArrayList<>();
+        for (final SsaBlock calleeBlock : callee.blocks) {
+            final SsaBlock copy = blocks.get(calleeBlock);
+            for (int i = 0; i < copy.phis.size(); i++) for (final SsaValue arg : calleeBlock.phis.get(i).args) copy.phis.get(i).args.add(value(function, arg, values));
+            for (int i = 0; i < copy.code.size(); i++) for (final SsaValue arg : calleeBlock.code.get(i).args) copy.code.get(i).args.add(value(function, arg, values));
+            for (final SsaBlock pred : calleeBlock.preds) copy.preds.add(blocks.get(pred));
+            if (calleeBlock.exit == SsaBlock.Exit.RETURN || calleeBlock.exit == SsaBlock.Exit.END) {
+                // returning continues after the call
+                copy.succs.add(after);
+                after.preds.add(copy);
+                if (call.results) returned.add(value(function, calleeBlock.returned, values));
+                continue;
+            }
+            copy.exit = calleeBlock.exit;
+            if (calleeBlock.condition != null) copy.condition = value(function, calleeBlock.condition, values);
+            for (final SsaBlock succ : calleeBlock.succs) copy.succs.add(blocks.get(succ));
+        }
+        final SsaBlock entry = blocks.get(callee.entry());
+        block.succs.add(entry);
+        entry.preds.add(block);
+
+        final int position = function.blocks.indexOf(block) + 1;
+        function.blocks.add(position, after);
+        function.blocks.addAll(position, callee.blocks.stream().map(blocks::get).toList());
+        if (call.results) {
+            final SsaValue phi = function.value(SsaValue.Kind.PHI, null, -1);
+            phi.block = after;
+            phi.args.addAll(returned);
+            after.phis.add(phi);
+            function.replace(call, phi);
+        }
+    }
+
+    private static SsaValue copy(@NotNull final SsaFunction function, @NotNull final SsaValue value, @NotNull final SsaBlock block, @NotNull final Map<SsaValue, SsaValue> values) {
+        final SsaValue copy = function.value(value.kind, value.instr, value.address);
+        copy.block = block;
+        copy.results = value.results;
+        copy.type = value.type;
+        values.put(value, copy);
+        return copy;
+    }
+
+    // the value of the caller standing for a value of the callee
+    private static SsaValue value(@NotNull final SsaFunction function, @NotNull final SsaValue value, @NotNull final Map<SsaValue, SsaValue> values) {
+        if (value.kind == SsaValue.Kind.CONST) return function.constant(value.instr);
+        return values.computeIfAbsent(value, v -> {
+            if (v.kind != SsaValue.Kind.DEFAULT) throw new SsaFunction.Unoptimizable();
+            final SsaValue copy = function.value(SsaValue.Kind.DEFAULT, v.instr, -1);
+            copy.type = v.type;
+            return copy;
+        });
+    }
+
+}
@@ -0,0 +1,460 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.reader.ByteCodeValue;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.crayne.mi.bytecode.common.ByteCode.*;
+
+// turns a function in ssa form back into stack code. a value used once, right where it is computed, stays on the push stack
+// the way the compiler leaves an operand there. every other value is stored into a local, values that are never live at the
+// same time share one (phis and their operands, increments and what they increment, preferably). all locals are declared
+// at the start of the function and the push stack is empty between blocks, so the shape of the function stays the same on every path
+final class SsaLowering {
+
+    private final SsaFunction function;
+    private final List<ByteCodeInstruction> header;
+
+    private final Map<SsaValue, Integer> uses;
+    private final Set<SsaValue> inline = new HashSet<>();
+    private final Map<SsaBlock, List<SsaValue>> roots = new HashMap<>();
+    private final Map<SsaValue, Set<SsaValue>> interference = new HashMap<>();
+
+    // the classes of values sharing a local, and the local of every value
+    private final Map<SsaValue, SsaValue> classes = new HashMap<>();
+    private final Map<SsaValue, List<SsaValue>> members = new HashMap<>();
+    private final Map<SsaValue, Integer> slots = new HashMap<>();
+    // the datatype code of every local, and the declarations of the locals beyond the arguments
+    private final List<Integer> slotTypes = new ArrayList<>();
+    private final List<ByteCodeInstruction> declarations = new ArrayList<>();
+    private final Map<SsaValue, Integer> pristine = new HashMap<>();
+    private int dead = -1;
+    private int temporary = -1;
+    // the locals written so far, a local the entry block has not written yet still holds the default value of its type
+    private final Set<Integer> written = new HashSet<>();
+
+    private final List<ByteCodeInstruction> body = new ArrayList<>();
+    private final Map<SsaBlock, Integer> starts = new HashMap<>();
+    private final Map<Integer, SsaBlock> jumps = new HashMap<>();
+
+    private SsaLowering(@NotNull final SsaFunction function, @NotNull final List<ByteCodeInstruction> header) {
+        this.function = function;
+        this.header = header;
+        splitCriticalEdges();
+        function.inferTypes();
+        this.uses = function.uses();
+    }
+
+    // header is the definition begin followed by the definitions of the arguments
+    static List<ByteCodeInstruction> lower(@NotNull final SsaFunction function, @NotNull final List<ByteCodeInstruction> header) {
+        return new SsaLowering(function, header).lower();
+    }
+
+    private List<ByteCodeInstruction> lower() {
+        findInlineValues();
+        interfere();
+        coalesce();
+        color();
+        for (int i = 0; i < function.blocks.size(); i++) emit(function.blocks.get(i), i + 1 < function.blocks.size() ? function.blocks.get(i + 1) : null);
+
+        final List<ByteCodeInstruction> result = new ArrayList<>(header);
+        result.addAll(declarations);
+        final int offset = result.size();
+        for (final Map.Entry<Integer, SsaBlock> jump : jumps.entrySet()) {
+            final ByteCodeInstruction instr = body.get(jump.getKey());
+            body.set(jump.getKey(), ByteCode.jump(ByteCode.decode(instr.opcode()), offset + starts.get(jump.getValue()) + 1));
+        }
+        result.addAll(body);
+        result.add(new ByteCodeInstruction(FUNCTION_DEFINITION_END.code()));
+        return result;
+    }
+
+    // the copies for the phis of a block go at the end of its predecessors, which therefore may not lead anywhere else
+    private void splitCriticalEdges() {
+        for (final SsaBlock block : List.copyOf(function.blocks)) {
+            if (block.phis.isEmpty()) continue;
+            for (final SsaBlock pred : List.copyOf(block.preds)) if (pred.succs.size() > 1) function.splitEdge(pred, block);
+        }
+    }
+
+    private boolean materialized(@NotNull final SsaValue value) {
+        return switch (value.kind) {
+            case PARAM, PHI, INCREMENT -> true;
+            case OPERATOR, LOAD_GLOBAL, CALL -> value.results && !inline.contains(value) && uses.getOrDefault(value, 0) > 0;
+            default -> false;
+        };
+    }
+
+    // a value is computed right where it is used if that is its only use, in the same block. the values that have to stay in
+    // order (see SsaValue.pinned) have to be computed in the same order as before, after the ones that are computed where they are
+    private void findInlineValues() {
+        for (final SsaBlock block : function.blocks) {
+            for (final SsaValue user : block.code) {
+                for (final SsaValue arg : user.args) if (arg.block == block && inlineable(arg)) inline.add(arg);
+            }
+            for (final SsaValue arg : block.exitArgs()) if (arg.block == block && inlineable(arg)) inline.add(arg);
+
+            while (true) {
+                final List<SsaValue> order = new ArrayList<>();
+                for (final SsaValue root : roots(block)) evaluationOrder(root, order);
+                for (final SsaValue arg : block.exitArgs()) if (inline.contains(arg)) evaluationOrder(arg, order);
+
+                SsaValue misplaced = null;
+                int last = -1;
+                for (final SsaValue value : order) {
+                    if (!value.pinned()) continue;
+                    final int index = block.code.indexOf(value);
+                    if (index < last) {
+                        misplaced = value;
+                        break;
+                    }
+                    last = index;
+                }
+                if (misplaced == null) break;
+                // only a value computed where it is used can end up after a value that comes after it
+                if (!inline.remove(misplaced)) throw new SsaFunction.Unoptimizable();
+            }
+            roots.put(block, roots(block));
+        }
+    }
+
+    private boolean inlineable(@NotNull final SsaValue value) {
+        return (value.kind == SsaValue.Kind.OPERATOR || value.kind == SsaValue.Kind.LOAD_GLOBAL || value.kind == SsaValue.Kind.CALL)
+                && value.results && uses.getOrDefault(value, 0) == 1;
+    }
+
+    private List<SsaValue> roots(@NotNull final SsaBlock block) {
+        return block.code.stream().filter(value -> !inline.contains(value)).toList();
+    }
+
+    // the values computed for a value, in the order they are computed
+    private void evaluationOrder(@NotNull final SsaValue value, @NotNull final List<SsaValue> order) {
+        for (final SsaValue arg : value.args) if (inline.contains(arg)) evaluationOrder(arg, order);
+        order.add(value);
+    }
+
+    // the values with a local that computing the value reads
+    private void reads(@NotNull final SsaValue value, @NotNull final Set<SsaValue> result) {
+        for (final SsaValue arg : value.args) {
+            if (inline.contains(arg)) reads(arg, result);
+            else if (materialized(arg)) result.add(arg);
+        }
+    }
+
+    private void readsOperand(@NotNull final SsaValue operand, @NotNull final Set<SsaValue> result) {
+        if (inline.contains(operand)) reads(operand, result);
+        else if (materialized(operand)) result.add(operand);
+    }
+
+    // the operands of the phis of the successor of a block, for the edge from it
+    private List<SsaValue> copied(@NotNull final SsaBlock block) {
+        if (block.succs.size() != 1) return List.of();
+        final SsaBlock succ = block.succs.get(0);
+        final int edge = succ.preds.indexOf(block);
+        return succ.phis.stream().map(phi -> phi.args.get(edge)).toList();
+    }
+
+    private void interfere() {
+        for (final SsaBlock block : function.blocks) {
+            for (final SsaValue phi : block.phis) interference.put(phi, new HashSet<>());
+            for (final SsaValue value : block.code) if (materialized(value)) interference.put(value, new HashSet<>());
+        }
+        for (final SsaValue param : function.params) interference.put(param, new HashSet<>());
+
+        final Map<SsaBlock, Set<SsaValue>> liveIn = new HashMap<>();
+        for (final SsaBlock block : function.blocks) liveIn.put(block, new HashSet<>());
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = function.blocks.size() - 1; i >= 0; i--) {
+                final SsaBlock block = function.blocks.get(i);
+                final Set<SsaValue> live = scan(block, liveOut(block, liveIn), false);
+                if (live.equals(liveIn.get(block))) continue;
+                liveIn.put(block, live);
+                changed = true;
+            }
+        }
+        for (final SsaBlock block : function.blocks) scan(block, liveOut(block, liveIn), true);
+    }
+
+    private Set<SsaValue> liveOut(@NotNull final SsaBlock block, @NotNull final Map<SsaBlock, Set<SsaValue>> liveIn) {
+        final Set<SsaValue> live = new HashSet<>();
+        for (final SsaBlock succ : block.succs) live.addAll(liveIn.get(succ));
+        for (final SsaValue operand : copied(block)) readsOperand(operand, live);
+        return live;
+    }
+
+    // goes through the block backwards, from the values live at its end to the ones live at its start
+    private Set<SsaValue> scan(@NotNull final SsaBlock block, @NotNull final Set<SsaValue> live, final boolean interfere) {
+        for (final SsaValue arg : block.exitArgs()) readsOperand(arg, live);
+        final List<SsaValue> roots = this.roots.get(block);
+        for (int i = roots.size() - 1; i >= 0; i--) {
+            final SsaValue root = roots.get(i);
+            if (materialized(root)) {
+                live.remove(root);
+                if (interfere) for (final SsaValue other : live) interfere(root, other);
+            }
+            reads(root, live);
+        }
+        final List<SsaValue> defined = new ArrayList<>(block.phis);
+        if (block == function.entry()) defined.addAll(function.params);
+        live.removeAll(defined);
+        if (interfere) {
+            for (final SsaValue value : defined) {
+                for (final SsaValue other : live) interfere(value, other);
+                for (final SsaValue other : defined) if (other != value) interfere(value, other);
+            }
+        }
+        return live;
+    }
+
+    private void interfere(@NotNull final SsaValue a, @NotNull final SsaValue b) {
+        interference.get(a).add(b);
+        interference.get(b).add(a);
+    }
+
+    private SsaValue find(@NotNull final SsaValue value) {
+        SsaValue root = value;
+        while (classes.get(root) != root) root = classes.get(root);
+        return root;
+    }
+
+    private SsaValue precolored(@NotNull final SsaValue root) {
+        for (final SsaValue member : members.get(root)) if (member.kind == SsaValue.Kind.PARAM) return member;
+        return null;
+    }
+
+    // values that are copied into each other share a local whenever they can, so the copy goes away
+    private void coalesce() {
+        for (final SsaValue value : interference.keySet()) {
+            classes.put(value, value);
+            members.put(value, new ArrayList<>(List.of(value)));
+        }
+        for (final SsaBlock block : function.blocks) {
+            for (final SsaValue phi : block.phis) for (final SsaValue arg : phi.args) if (materialized(arg)) merge(phi, arg);
+            for (final SsaValue value : block.code) if (value.kind == SsaValue.Kind.INCREMENT && materialized(value.args.get(0))) merge(value, value.args.get(0));
+        }
+    }
+
+    private void merge(@NotNull final SsaValue a, @NotNull final SsaValue b) {
+        final SsaValue x = find(a);
+        final SsaValue y = find(b);
+        if (x == y || x.type != y.type || precolored(x) != null && precolored(y) != null) return;
+        for (final SsaValue member : members.get(x)) for (final SsaValue other : interference.get(member)) if (find(other) == y) return;
+
+        classes.put(y, x);
+        members.get(x).addAll(members.remove(y));
+    }
+
+    private void color() {
+        for (final SsaValue param : function.params) slotTypes.add(param.type);
+        final List<SsaValue> uncolored = new ArrayList<>();
+        for (final SsaValue root : members.keySet()) {
+            final SsaValue param = precolored(root);
+            if (param != null) slots.put(root, param.address);
+            else uncolored.add(root);
+        }
+        uncolored.sort((a, b) -> Integer.compare(a.id, b.id));
+        for (final SsaValue root : uncolored) {
+            final Set<Integer> taken = new HashSet<>();
+            for (final SsaValue member : members.get(root)) {
+                for (final SsaValue other : interference.get(member)) {
+                    final Integer slot = slots.get(find(other));
+                    if (slot != null) taken.add(slot);
+                }
+            }
+            int slot = 0;
+            while (slot < slotTypes.size() && (taken.contains(slot) || slotTypes.get(slot) != root.type)) slot++;
+            if (slot == slotTypes.size()) declare(root.type);
+            slots.put(root, slot);
+        }
+    }
+
+    private int declare(final int type) {
+        return declare(ByteCode.declareVariable(type == -1 ? ByteDatatype.NULL : ByteDatatype.ofId(type)), type);
+    }
+
+    private int declare(@NotNull final ByteCodeInstruction declaration, final int type) {
+        declarations.add(declaration);
+        slotTypes.add(type);
+        return slotTypes.size() - 1;
+    }
+
+    private int slot(@NotNull final SsaValue value) {
+        return slots.get(find(value));
+    }
+
+    private void emit(@NotNull final SsaBlock block, final SsaBlock next) {
+        starts.put(block, body.size());
+        for (final SsaValue root : roots.get(block)) emitRoot(root);
+        copy(block);
+        switch (block.exit) {
+            case JUMP -> {
+                if (block.succs.get(0) != next) jump(JUMP, block.succs.get(0));
+            }
+            case BRANCH -> {
+                push(block.condition);
+                final SsaBlock taken = block.succs.get(0);
+                final SsaBlock notTaken = block.succs.get(1);
+                if (notTaken == next) {
+                    jump(JUMP_IF, taken);
+                } else if (taken == next) {
+                    jump(JUMP_IF_NOT, notTaken);
+                } else {
+                    jump(JUMP_IF, taken);
+                    jump(JUMP, notTaken);
+                }
+            }
+            case RETURN, END -> {
+                if (block.returned != null) push(block.returned);
+                // the definition end returns just like a return statement
+                if (next != null) body.add(new ByteCodeInstruction(RETURN_STATEMENT.code()));
+            }
+        }
+    }
+
+    private void jump(@NotNull final ByteCode jump, @NotNull final SsaBlock target) {
+        jumps.put(body.size(), target);
+        body.add(ByteCode.jump(jump, 0));
+    }
+
+    private void emitRoot(@NotNull final SsaValue value) {
+        switch (value.kind) {
+            case OPERATOR, LOAD_GLOBAL, CALL -> {
+                compute(value);
+                if (!value.results) return;
+                if (materialized(value)) store(slot(value));
+                else store(deadSlot()); // a result that is never used, which no local is needed for
+            }
+            case STORE_GLOBAL -> {
+                push(value.args.get(0));
+                address(value.address);
+                body.add(new ByteCodeInstruction(MUTATE_VARIABLE.code()));
+            }
+            case INC_GLOBAL -> {
+                address(value.address);
+                body.add(value.instr);
+            }
+            case TRACEBACK -> body.add(value.instr);
+            case INCREMENT -> {
+                final SsaValue arg = value.args.get(0);
+                final int slot = slot(value);
+                if (!materialized(arg) || slot(arg) != slot) {
+                    push(arg);
+                    store(slot);
+                }
+                address(slot);
+                body.add(new ByteCodeInstruction(RELATIVE_TO_ABSOLUTE_ADDRESS.code()));
+                body.add(value.instr);
+            }
+            default -> throw new SsaFunction.Unoptimizable();
+        }
+    }
+
+    // pushes the value onto the push stack
+    private void push(@NotNull final SsaValue value) {
+        if (value.kind == SsaValue.Kind.CONST) body.add(value.instr);
+        else if (value.kind == SsaValue.Kind.DEFAULT) load(pristineSlot(value));
+        else if (inline.contains(value)) compute(value);
+        else load(slot(value));
+    }
+
+    private void compute(@NotNull final SsaValue value) {
+        for (final SsaValue arg : value.args) push(arg);
+        if (value.kind == SsaValue.Kind.LOAD_GLOBAL) {
+            address(value.address);
+            body.add(new ByteCodeInstruction(VALUE_AT_ADDRESS.code()));
+        } else {
+            body.add(value.instr);
+        }
+    }
+
+    private void address(final int address) {
+        body.add(ByteCode.push(ByteCode.integer(address).codes()));
+    }
+
+    private void load(final int slot) {
+        address(slot);
+        body.add(new ByteCodeInstruction(VALUE_AT_RELATIVE_ADDRESS.code()));
+    }
+
+    private void store(final int slot) {
+        written.add(slot);
+        address(slot);
+        body.add(new ByteCodeInstruction(RELATIVE_TO_ABSOLUTE_ADDRESS.code()));
+        body.add(new ByteCodeInstruction(MUTATE_VARIABLE.code()));
+    }
+
+    private boolean declaredAs(final int slot, @NotNull final SsaValue value) {
+        if (slot < function.params.size() || written.contains(slot) || value.kind != SsaValue.Kind.CONST) return false;
+        final int type = slotTypes.get(slot);
+        if (type < ByteDatatype.BOOL.code() || type > ByteDatatype.DOUBLE.code()) return false;
+        return value.instr.write().equals(ByteCode.push(ByteCodeConstantFolder.push(ByteCodeValue.defaultValue(ByteDatatype.ofId(type)))).write());
+    }
+
+    // a default string or enum value cannot be pushed, so it is loaded from a local declared just like the variable it came from, and never changed
+    private int pristineSlot(@NotNull final SsaValue value) {
+        return pristine.computeIfAbsent(value, v -> declare(v.instr, -1));
+    }
+
+    private int deadSlot() {
+        if (dead == -1) dead = declare(-1);
+        return dead;
+    }
+
+    private int temporarySlot() {
+        if (temporary == -1) temporary = declare(-1);
+        return temporary;
+    }
+
+    private record Copy(int target, @NotNull SsaValue value, int source) {}
+
+    // the phis of the successor get their operands all at once, so a local is only overwritten once no other copy reads it anymore.
+    // copies that read each other in a cycle go through a temporary local
+    private void copy(@NotNull final SsaBlock block) {
+        final List<SsaValue> operands = copied(block);
+        if (operands.isEmpty()) return;
+        final List<SsaValue> phis = block.succs.get(0).phis;
+        final List<Copy> pending = new ArrayList<>();
+        for (int i = 0; i < phis.size(); i++) {
+            final SsaValue operand = operands.get(i);
+            final int target = slot(phis.get(i));
+            final int source = materialized(operand) ? slot(operand) : -1;
+            // a local the entry block would set to the value it was declared with already holds it
+            if (source == target || block == function.entry() && declaredAs(target, operand)) continue;
+            pending.add(new Copy(target, operand, source));
+        }
+        while (!pending.isEmpty()) {
+            Copy ready = null;
+            for (final Copy copy : pending) {
+                if (pending.stream().noneMatch(other -> other.source == copy.target)) {
+                    ready = copy;
+                    break;
+                }
+            }
+            if (ready != null) {
+                pending.remove(ready);
+                if (ready.source == -1) push(ready.value);
+                else load(ready.source);
+                store(ready.target);
+                continue;
+            }
+            // every target is still read by another copy, so one of them is saved first
+            final int saved = pending.get(0).target;
+            final int temporary = temporarySlot();
+            load(saved);
+            store(temporary);
+            pending.replaceAll(copy -> copy.source == saved ? new Copy(copy.target, copy.value, temporary) : copy);
+        }
+    }
+
+}
@@ -0,0 +1,451 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeFunctionDefinition;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.reader.ByteCodeValue;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.crayne.mi.bytecode.common.ByteCode.*;
+
+// optimizes every intern function of a linked program in ssa form (see SsaBuilder), before the ByteCodeOptimizer runs over it.
+// local variables and push stack entries become values, so the passes see through the loads and stores of locals:
+//
+//   inlining                 calls of small functions are replaced by their body (see SsaInliner)
+//   constants                operators on constants are computed right away (see ByteCodeConstantFolder), branches on a constant become jumps
+//   branch threading         a path giving a condition a constant value jumps where the condition leads right away
+//                            (a break pushing true for the loop condition, see ByteCodeCompiler.compileBreakStatement)
+//   straight blocks          a block that is the only successor of its only predecessor is appended to it
+//   common subexpressions    an operator applied to the same operands as one dominating it is computed once
+//   globals                  a global read again within a block without a call or increment in between is read once,
+//                            a global read after a store in the same block is the stored value
+//   loop invariant code      operators that cannot fail and only depend on values from outside of a loop are computed before it
+//   dead stores              a global stored again within the same block, without being read in between, is only stored once
+//   dead code                values that are never used and have no effect are removed
+//
+// the function is turned back into stack code by SsaLowering afterwards. functions the ssa form does not cover keep their code
+public class SsaOptimizer {
+
+    private final SsaFunction function;
+
+    private SsaOptimizer(@NotNull final SsaFunction function) {
+        this.function = function;
+    }
+
+    private record Expression(@NotNull String instr, @NotNull List<SsaValue> args) {}
+
+    public static List<ByteCodeInstruction> optimize(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<ByteCodeFunctionDefinition> functions) {
+        return optimize(program, functions, new ArrayList<>());
+    }
+
+    // adds a line to the report for every function that had calls inlined into it
+    public static List<ByteCodeInstruction> optimize(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<ByteCodeFunctionDefinition> functions,
+                                                     @NotNull final List<String> report) {
+        final Map<Long, ByteCodeFunctionDefinition> byId = new HashMap<>();
+        final Map<String, ByteCodeFunctionDefinition> bySignature = new HashMap<>();
+        for (final ByteCodeFunctionDefinition def : functions) {
+            byId.put(def.id(), def);
+            bySignature.put(def.name() + def.args(), def);
+        }
+        final SsaInliner inliner = new SsaInliner(program, byId, bySignature);
+        final List<ByteCodeInstruction> result = new ArrayList<>(program.size());
+        // the new index of every instruction that is kept as it is, and of the definition begin of every optimized function
+        final int[] moved = new int[program.size() + 1];
+        final List<Integer> jumps = new ArrayList<>();
+
+        for (int i = 0; i < program.size(); i++) {
+            final ByteCodeInstruction instr = program.get(i);
+            if (instr.opcode() == FUNCTION_DEFINITION_BEGIN.code()) {
+                int end = i;
+                while (program.get(end).opcode() != FUNCTION_DEFINITION_END.code()) end++;
+                final List<ByteCodeInstruction> lowered = optimize(program, i, end, bySignature.get(signature(instr)), byId, inliner, report);
+                if (lowered != null) {
+                    final int start = result.size();
+                    for (int j = i; j <= end; j++) moved[j] = -1;
+                    moved[i] = start;
+                    for (final ByteCodeInstruction l : lowered) {
+                        result.add(SsaBuilder.jump(ByteCode.decode(l.opcode())) ? ByteCode.jump(ByteCode.decode(l.opcode()), SsaBuilder.target(l) + start + 1) : l);
+                    }
+                    i = end;
+                    continue;
+                }
+            }
+            moved[i] = result.size();
+            if (SsaBuilder.jump(ByteCode.decode(instr.opcode()))) jumps.add(result.size());
+            result.add(instr);
+        }
+        moved[program.size()] = result.size();
+
+        for (final int index : jumps) {
+            final ByteCodeInstruction jump = result.get(index);
+            final int target = moved[SsaBuilder.target(jump)];
+            if (target == -1) throw new ByteCodeException("Jump into an optimized function");
+            result.set(index, ByteCode.jump(ByteCode.decode(jump.opcode()), target + 1));
+        }
+        return result;
+    }
+
+    // the module, name and argument types of an intern function, as the compiler writes them into its definition begin
+    static String signature(@NotNull final ByteCodeInstruction begin) {
+        final int length = ByteCode.bytesToInt(new byte[] {begin.at(2), begin.at(3), begin.at(4), begin.at(5)});
+        return new String(begin.bytes(), 6, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static List<ByteCodeInstruction> optimize(@NotNull final List<ByteCodeInstruction> program, final int begin, final int end,
+                                                      final ByteCodeFunctionDefinition def, @NotNull final Map<Long, ByteCodeFunctionDefinition> functions,
+                                                      @NotNull final SsaInliner inliner, @NotNull final List<String> report) {
+        if (def == null) return null;
+        final int arity = def.args().size();
+        try {
+            final SsaFunction function = SsaBuilder.build(program, begin, end, arity, functions, def.returnType() != ByteDatatype.VOID);
+            final Map<Long, Integer> inlined = inliner.inline(function);
+            new SsaOptimizer(function).optimize();
+            final List<ByteCodeInstruction> lowered = SsaLowering.lower(function, program.subList(begin, begin + 1 + arity));
+            if (!inlined.isEmpty()) report.add(report(def, inlined, functions));
+            return lowered;
+        } catch (final SsaFunction.Unoptimizable e) {
+            return null;
+        }
+    }
+
+    private static String report(@NotNull final ByteCodeFunctionDefinition def, @NotNull final Map<Long, Integer> inlined,
+                                 @NotNull final Map<Long, ByteCodeFunctionDefinition> functions) {
+        return "Inlined into " + name(def) + ": " + String.join(", ", inlined.entrySet().stream()
+                .map(e -> name(functions.get(e.getKey())) + (e.getValue() == 1 ? "" : " (" + e.getValue() + " calls)"))
+                .toList());
+    }
+
+    private static String name(@NotNull final ByteCodeFunctionDefinition def) {
+        return def.name().startsWith("!PARENT.") ? def.name().substring("!PARENT.".length()) : def.name();
+    }
+
+    private void optimize() {
+        simplify();
+        mergeBlocks();
+        eliminateCommonSubexpressions();
+        forwardGlobals();
+        hoistLoopInvariants();
+        eliminateDeadStores();
+        eliminateDeadCode();
+    }
+
+    private void simplify() {
+        while (true) {
+            boolean changed = foldConstants();
+            while (threadBranch()) changed = true;
+            if (!changed) return;
+            function.analyze();
+            function.removeTrivialPhis();
+        }
+    }
+
+    private boolean foldConstants() {
+        boolean changed = false;
+        for (final SsaBlock block : function.blocks) {
+            for (final SsaValue value : List.copyOf(block.code)) {
+                if (value.kind != SsaValue.Kind.OPERATOR || !value.args.stream().allMatch(arg -> arg.kind == SsaValue.Kind.CONST)) continue;
+                final ByteCodeInstruction folded = fold(value);
+                if (folded == null) continue;
+                block.code.remove(value);
+                function.replace(value, function.constant(folded));
+                changed = true;
+            }
+            if (block.exit != SsaBlock.Exit.BRANCH || block.condition.kind != SsaValue.Kind.CONST || block.condition.type != ByteDatatype.BOOL.code()) continue;
+            final SsaBlock skipped = block.succs.get(constantValue(block.condition).asBool() ? 1 : 0);
+            block.succs.remove(skipped);
+            skipped.removePred(block);
+            block.exit = SsaBlock.Exit.JUMP;
+            block.condition = null;
+            changed = true;
+        }
+        return changed;
+    }
+
+    // the push of the result of an operator on constants, or null if it fails (the error happens at runtime then)
+    private static ByteCodeInstruction fold(@NotNull final SsaValue operator) {
+        final ByteCode code = operator.code();
+        final ByteCode generic = ByteCode.typedOperator(code) ? ByteCode.typedOperators.get(code.code() & 0x0F) : code;
+        try {
+            final ByteCodeValue x = constantValue(operator.args.get(0));
+            final ByteCodeValue y = operator.args.size() > 1 ? constantValue(operator.args.get(1)) : null;
+            if (x == null || operator.args.size() > 1 && y == null) return null;
+            final ByteCodeValue result = switch (generic) {
+                case NOT -> x.not();
+                case BIT_NOT -> x.bit_not();
+                case CAST -> operator.instr.at(1) == ByteDatatype.ENUM.code() ? null : x.cast(ByteDatatype.ofId(operator.instr.at(1)));
+                case PLUS -> x.plus(y);
+                case MINUS -> x.minus(y);
+                case MULTIPLY -> x.multiply(y);
+                case DIVIDE -> x.divide(y);
+                case MODULO -> x.modulo(y);
+                case LOGICAL_AND -> x.logical_and(y);
+                case LOGICAL_OR -> x.logical_or(y);
+                case BIT_AND -> x.bit_and(y);
+                case BIT_OR -> x.bit_or(y);
+                case BIT_XOR -> x.bit_xor(y);
+                case BITSHIFT_LEFT -> x.bit_shift_left(y);
+                case BITSHIFT_RIGHT -> x.bit_shift_right(y);
+                case EQUALS -> x.equal(y);
+                case LESS_THAN -> x.less_than(y);
+                case GREATER_THAN -> x.greater_than(y);
+                case LESS_THAN_OR_EQUAL -> x.less_than_or_equal(y);
+                case GREATER_THAN_OR_EQUAL -> x.greater_than_or_equal(y);
+                default -> null;
+            };
+            return result == null || result.isEnum() ? null : ByteCode.push(ByteCodeConstantFolder.push(result));
+        } catch (final ByteCodeException | ArithmeticException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    // the value a constant pushes, or null for constants that are not folded
+    private static ByteCodeValue constantValue(@NotNull final SsaValue constant) {
+        final ByteCode type = ByteCode.decode(constant.instr.at(1));
+        if (type == null) return null;
+        final byte[] payload = Arrays.copyOfRange(constant.instr.bytes(), 2, constant.instr.length() - 1);
+        return switch (type) {
+            case BOOL_VALUE -> ByteCodeValue.boolValue(ByteCode.bytesToInt(payload) != 0);
+            case CHARACTER_VALUE -> ByteCodeValue.charValue(ByteCode.bytesToInt(payload));
+            case INTEGER_VALUE -> ByteCodeValue.intValue(ByteCode.bytesToInt(payload));
+            case LONG_INTEGER_VALUE -> ByteCodeValue.longValue(ByteCode.bytesToLong(payload));
+            case FLOAT_VALUE -> ByteCodeValue.floatValue(ByteCode.bytesToFloat(payload));
+            case DOUBLE_VALUE -> ByteCodeValue.doubleValue(ByteCode.bytesToDouble(payload));
+            case STRING_VALUE -> ByteCodeValue.stringValue(new String(payload, 4, payload.length - 4, StandardCharsets.ISO_8859_1));
+            default -> null;
+        };
+    }
+
+    // a block that only checks its phi, or its phi negated, leads to the same successor every time the phi is a constant,
+    // so the predecessors giving it a constant go to that successor right away
+    private boolean threadBranch() {
+        final Map<SsaValue, Integer> uses = function.uses();
+        for (final SsaBlock block : function.blocks) {
+            if (block.exit != SsaBlock.Exit.BRANCH || block.phis.size() != 1) continue;
+            final SsaValue phi = block.phis.get(0);
+            SsaValue condition = phi;
+            boolean negated = false;
+            boolean checksPhi = true;
+            for (final SsaValue instr : block.code) {
+                if (!instr.is(NOT) || instr.args.get(0) != condition || uses.get(condition) != 1) {
+                    checksPhi = false;
+                    break;
+                }
+                condition = instr;
+                negated = !negated;
+            }
+            if (!checksPhi || block.condition != condition || uses.get(condition) != 1) continue;
+
+            boolean changed = false;
+            for (final SsaBlock pred : List.copyOf(block.preds)) {
+                final SsaValue value = phi.args.get(block.preds.indexOf(pred));
+                if (value.kind != SsaValue.Kind.CONST || value.instr.length() != 7 || value.instr.at(1) != BOOL_VALUE.code()) continue;
+                final boolean constant = ByteCode.bytesToInt(new byte[] {value.instr.at(2), value.instr.at(3), value.instr.at(4), value.instr.at(5)}) != 0;
+                final boolean taken = constant != negated;
+                final SsaBlock target = block.succs.get(taken ? 0 : 1);
+                if (pred.succs.contains(target)) continue;
+
+                // the values of the phis of the target are the same ones the block passes on, none of them are defined in the block
+                final int edge = target.preds.indexOf(block);
+                pred.replaceSucc(block, target);
+                target.preds.add(pred);
+                for (final SsaValue targetPhi : target.phis) targetPhi.args.add(targetPhi.args.get(edge));
+                block.removePred(pred);
+                changed = true;
+            }
+            if (changed) return true;
+        }
+        return false;
+    }
+
+    private void mergeBlocks() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final SsaBlock block : function.blocks) {
+                if (block.exit != SsaBlock.Exit.JUMP) continue;
+                final SsaBlock succ = block.succs.get(0);
+                if (succ == block || succ.preds.size() != 1 || succ == function.entry()) continue;
+
+                // a block with a single predecessor has no phis
+                for (final SsaValue value : succ.code) value.block = block;
+                block.code.addAll(succ.code);
+                block.exit = succ.exit;
+                block.condition = succ.condition;
+                block.returned = succ.returned;
+                block.succs.clear();
+                block.succs.addAll(succ.succs);
+                for (final SsaBlock next : succ.succs) next.preds.set(next.preds.indexOf(succ), block);
+                function.blocks.remove(succ);
+                changed = true;
+                break;
+            }
+        }
+    }
+
+    // walks the dominator tree, so an expression is known in every block its first occurrence dominates
+    private void eliminateCommonSubexpressions() {
+        final List<SsaBlock> order = function.analyze();
+        final Map<SsaBlock, List<SsaBlock>> children = new HashMap<>();
+        for (final SsaBlock block : order) if (block.idom != null) children.computeIfAbsent(block.idom, b -> new ArrayList<>()).add(block);
+
+        final Map<Expression, SsaValue> available = new HashMap<>();
+        final Deque<SsaBlock> blocks = new ArrayDeque<>(List.of(function.entry()));
+        final Deque<List<Expression>> added = new ArrayDeque<>();
+        // marks the end of the subtree of the block below it
+        final SsaBlock done = new SsaBlock(-1);
+        while (!blocks.isEmpty()) {
+            final SsaBlock block = blocks.pop();
+            if (block == done) {
+                added.pop().forEach(available::remove);
+                continue;
+            }
+            final List<Expression> expressions = new ArrayList<>();
+            for (final SsaValue value : List.copyOf(block.code)) {
+                if (value.kind != SsaValue.Kind.OPERATOR) continue;
+                final Expression expression = new Expression(value.instr.write(), List.copyOf(value.args));
+                final SsaValue known = available.get(expression);
+                if (known == null) {
+                    available.put(expression, value);
+                    expressions.add(expression);
+                    continue;
+                }
+                block.code.remove(value);
+                function.replace(value, known);
+            }
+            added.push(expressions);
+            blocks.push(done);
+            for (final SsaBlock child : children.getOrDefault(block, List.of())) blocks.push(child);
+        }
+    }
+
+    private void forwardGlobals() {
+        for (final SsaBlock block : function.blocks) {
+            final Map<Integer, SsaValue> known = new HashMap<>();
+            for (final SsaValue value : List.copyOf(block.code)) {
+                switch (value.kind) {
+                    case LOAD_GLOBAL -> {
+                        final SsaValue previous = known.get(value.address);
+                        if (previous == null) {
+                            known.put(value.address, value);
+                            continue;
+                        }
+                        block.code.remove(value);
+                        function.replace(value, previous);
+                    }
+                    case STORE_GLOBAL -> known.put(value.address, value.args.get(0));
+                    case INC_GLOBAL -> known.remove(value.address);
+                    case CALL -> known.clear();
+                    default -> {}
+                }
+            }
+        }
+    }
+
+    private void hoistLoopInvariants() {
+        while (hoistLoopInvariant()) {}
+    }
+
+    // hoists the invariant operators of every loop, inner loops first. returns true once a loop needed a new preheader, since the
+    // dominators and loops have to be found again then
+    private boolean hoistLoopInvariant() {
+        final List<SsaBlock> order = function.analyze();
+        final Map<SsaBlock, Set<SsaBlock>> loops = new HashMap<>();
+        for (final SsaBlock block : order) {
+            for (final SsaBlock succ : block.succs) {
+                if (!SsaFunction.dominates(succ, block)) continue;
+                // a back edge, the loop is everything reaching it without passing the header
+                final Set<SsaBlock> body = loops.computeIfAbsent(succ, h -> new HashSet<>(List.of(h)));
+                final Deque<SsaBlock> work = new ArrayDeque<>(List.of(block));
+                while (!work.isEmpty()) {
+                    final SsaBlock member = work.pop();
+                    if (body.add(member)) work.addAll(member.preds);
+                }
+            }
+        }
+        final List<SsaBlock> headers = new ArrayList<>(loops.keySet());
+        headers.sort(Comparator.comparingInt(h -> loops.get(h).size()));
+
+        for (final SsaBlock header : headers) {
+            final Set<SsaBlock> body = loops.get(header);
+            final List<SsaBlock> outside = header.preds.stream().filter(pred -> !body.contains(pred)).toList();
+            if (outside.size() != 1) continue;
+
+            final List<SsaValue> invariant = new ArrayList<>();
+            final Set<SsaValue> hoisted = new HashSet<>();
+            for (final SsaBlock block : order) {
+                if (!body.contains(block)) continue;
+                for (final SsaValue value : block.code) {
+                    if (!value.movable() || value.args.stream().allMatch(SsaValue::rematerialized)) continue;
+                    if (value.args.stream().allMatch(arg -> hoisted.contains(arg) || arg.block == null || !body.contains(arg.block))) {
+                        invariant.add(value);
+                        hoisted.add(value);
+                    }
+                }
+            }
+            if (invariant.isEmpty()) continue;
+
+            final SsaBlock pred = outside.get(0);
+            final boolean split = pred.succs.size() > 1;
+            final SsaBlock preheader = split ? function.splitEdge(pred, header) : pred;
+            for (final SsaValue value : invariant) {
+                value.block.code.remove(value);
+                value.block = preheader;
+                preheader.code.add(value);
+            }
+            if (split) return true;
+        }
+        return false;
+    }
+
+    // a store is dead if the block stores the same global again before anything could read it
+    private void eliminateDeadStores() {
+        for (final SsaBlock block : function.blocks) {
+            final Map<Integer, SsaValue> pending = new HashMap<>();
+            for (final SsaValue value : List.copyOf(block.code)) {
+                switch (value.kind) {
+                    case STORE_GLOBAL -> {
+                        final SsaValue dead = pending.put(value.address, value);
+                        if (dead != null) block.code.remove(dead);
+                    }
+                    case LOAD_GLOBAL, INC_GLOBAL -> pending.remove(value.address);
+                    default -> {
+                        if (value.pinned()) pending.clear();
+                    }
+                }
+            }
+        }
+    }
+
+    private void eliminateDeadCode() {
+        final Set<SsaValue> live = new HashSet<>();
+        final Deque<SsaValue> work = new ArrayDeque<>();
+        for (final SsaBlock block : function.blocks) {
+            for (final SsaValue value : block.code) if (value.pinned() && value.kind != SsaValue.Kind.LOAD_GLOBAL) work.add(value);
+            work.addAll(block.exitArgs());
+        }
+        while (!work.isEmpty()) {
+            final SsaValue value = work.pop();
+            if (live.add(value)) work.addAll(value.args);
+        }
+        for (final SsaBlock block : function.blocks) {
+            block.phis.removeIf(phi -> !live.contains(phi));
+            block.code.removeIf(value -> !live.contains(value));
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.crayne.mi.bytecode.common.ByteCode.*;
+
+// a value of a function in ssa form (see SsaFunction), or one of the instructions of a block that only have an effect.
+// values are compared by identity, the constants of a function are created once per constant, so equal constants are the same value
+final class SsaValue {
+
+    enum Kind {
+        CONST,          // instr is the push of the constant, which is pushed again wherever the value is used
+        DEFAULT,        // the default value of a declared string or enum variable, instr being the declaration
+        PARAM,          // the argument that the function defines as the local at address
+        PHI,            // one operand per predecessor of the block, in the same order
+        OPERATOR,       // instr (an operator, not, bit not or cast) applied to the operands
+        LOAD_GLOBAL,    // the global variable at address
+        CALL,           // instr called with the operands, a value only if the callee returns one
+        INCREMENT,      // the operand incremented or decremented like instr (inc or dec variable) does it
+        STORE_GLOBAL,   // stores the operand into the global variable at address
+        INC_GLOBAL,     // increments or decrements the global variable at address like instr does it
+        TRACEBACK,      // instr
+        LOCAL_ADDRESS   // only while building: the absolute address of the local at address, right before it is used
+    }
+
+    final Kind kind;
+    final ByteCodeInstruction instr;
+    final int address;
+    final int id;
+    final List<SsaValue> args = new ArrayList<>();
+    SsaBlock block;
+    boolean results = true;
+    // the datatype code the value has, as far as the instructions tell, or -1
+    int type = -1;
+
+    SsaValue(@NotNull final Kind kind, final ByteCodeInstruction instr, final int address, final int id) {
+        this.kind = kind;
+        this.instr = instr;
+        this.address = address;
+        this.id = id;
+    }
+
+    ByteCode code() {
+        return ByteCode.decode(instr.opcode());
+    }
+
+    boolean is(@NotNull final ByteCode code) {
+        return instr != null && instr.opcode() == code.code();
+    }
+
+    // constants and defaults are never computed, they are pushed or loaded again wherever they are used
+    boolean rematerialized() {
+        return kind == Kind.CONST || kind == Kind.DEFAULT;
+    }
+
+    // whether the value can be computed anywhere its operands are known, any number of times or not at all: it cannot fail,
+    // does not read or write variables and has no other effect. this holds for operators the compiler typed for numbers
+    // (except the integer divisions, which fail for a divisor of zero) and for negating a boolean
+    boolean movable() {
+        if (kind != Kind.OPERATOR) return false;
+        final ByteCode code = code();
+        if (code == NOT) return args.get(0).type == ByteDatatype.BOOL.code();
+        if (code == STRING_CONCAT || !ByteCode.typedOperator(code)) return false;
+
+        final int type = (code.code() >> 4) & 0x0F;
+        final ByteCode operator = ByteCode.typedOperators.get(code.code() & 0x0F);
+        return type > ByteDatatype.LONG.code() || operator != DIVIDE && operator != MODULO;
+    }
+
+    // whether the value only exists for its effect, not counting calls
+    boolean effect() {
+        return kind == Kind.STORE_GLOBAL || kind == Kind.INC_GLOBAL || kind == Kind.TRACEBACK;
+    }
+
+    // whether the value is in the code of its block, instead of being a phi or defined outside of all blocks
+    boolean scheduled() {
+        return switch (kind) {
+            case OPERATOR, LOAD_GLOBAL, CALL, INCREMENT, STORE_GLOBAL, INC_GLOBAL, TRACEBACK -> true;
+            default -> false;
+        };
+    }
+
+    // whether the value has to stay in the order it was in relative to the other pinned values of its block
+    boolean pinned() {
+        return scheduled() && !movable();
+    }
+
+    public String toString() {
+        return kind.name().toLowerCase() + id + (instr != null ? " " + instr : "") + (args.isEmpty() ? "" : " " + args.stream().map(a -> a.kind.name().toLowerCase() + a.id).toList());
+    }
+
+}
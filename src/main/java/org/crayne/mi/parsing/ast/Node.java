@@ -1,5 +1,6 @@
 package org.crayne.mi.parsing.ast;
 
+import org.crayne.mi.lang.MiDatatype;
 import org.crayne.mi.parsing.lexer.Token;
 import org.jetbrains.annotations.NotNull;
 
@@ -14,6 +15,7 @@ public class Node {
     private final NodeType type;
     private Token value;
     private final int lineDebugging;
+    private MiDatatype datatype; // the static type of an expression, if the expression parser knows it
 
     public static Node of(@NotNull final NodeType type, final int lineDebugging) {
         return new Node(type, lineDebugging);
@@ -145,6 +147,14 @@ public class Node {
         return type;
     }
 
+    public MiDatatype datatype() {
+        return datatype;
+    }
+
+    public void datatype(final MiDatatype datatype) {
+        this.datatype = datatype;
+    }
+
     public List<Node> children() {
         return children;
     }
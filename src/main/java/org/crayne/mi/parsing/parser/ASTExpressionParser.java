@@ -152,6 +152,9 @@ public class ASTExpressionParser {
         if (NodeType.of(op) == NodeType.QUESTION_MARK) return evalTernaryOperator(x, y);
         if (x.type == null || y.type == null) return TypedNode.empty();
 
+        // the compiler picks type-specialized operators using these
+        x.node.datatype(x.type);
+        y.node.datatype(y.type);
         return new TypedNode(
                 isComparator(op.token()) ? MiDatatype.BOOL : MiDatatype.heavier(x.type, y.type),
                 new Node(NodeType.of(op.token()), -1, x.node, y.node));
@@ -414,6 +414,11 @@ public class ASTRefiner {
                             ? "Cast the value to " + varType.name() + " or change the variable datatype to " + valueType + "."
                             : "Mark your variable as nullable or use std.to_nonnull() to safely convert a null-value to a nonnull-value."));
         }
+        // the compiler picks the type-specialized operator of a compound assignment using these, like for any other operator
+        if (!incDec) {
+            child.child(0).datatype(varType);
+            child.child(2).child(0).datatype(valueType);
+        }
         variable.get().initialize();
         return true;
     }
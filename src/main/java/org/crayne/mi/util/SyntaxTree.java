@@ -1,9 +1,12 @@
 package org.crayne.mi.util;
 
+import org.crayne.mi.bytecode.common.ByteCode;
 import org.crayne.mi.bytecode.common.ByteCodeInstruction;
 import org.crayne.mi.util.errorhandler.Traceback;
 import org.crayne.mi.util.errorhandler.TracebackElement;
 import org.crayne.mi.bytecode.writer.ByteCodeCompiler;
+import org.crayne.mi.bytecode.writer.ByteCodeWriter;
+import org.crayne.mi.bytecode.writer.OptimizationLevel;
 import org.crayne.mi.log.LogHandler;
 import org.crayne.mi.log.MessageHandler;
 import org.crayne.mi.parsing.ast.Node;
@@ -61,14 +64,25 @@ public class SyntaxTree {
     }
 
     public void compile(@NotNull final File file) throws IOException {
-        final ByteCodeCompiler compiler = new ByteCodeCompiler(this);
+        compile(file, ByteCode.BYTECODE_VERSION);
+    }
+
+    public void compile(@NotNull final File file, final byte version) throws IOException {
+        compile(file, version, OptimizationLevel.PEEPHOLE);
+    }
+
+    public void compile(@NotNull final File file, final byte version, @NotNull final OptimizationLevel optimization) throws IOException {
+        final ByteCodeCompiler compiler = new ByteCodeCompiler(this, optimization);
         out.infoMsg("Compiling " + inputFile.getName() + "...");
         final List<ByteCodeInstruction> compiled = compiler.compile();
-        ByteCodeCompiler.compileToFile(compiled, file);
         if (compiled.isEmpty()) {
             out.errorMsg("Could not compile " + inputFile.getName() + ". See error output above.");
             return;
         }
+        for (final String inlined : compiler.getInliningReport()) out.infoMsg(inlined);
+        try (final ByteCodeWriter writer = ByteCodeWriter.open(file)) {
+            writer.write(compiled, version);
+        }
         out.infoMsg("Completed. See output file here: " + file.getAbsolutePath());
     }
 
@@ -0,0 +1,59 @@
+package org.crayne.mi;
+
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.communication.MiCommunicator;
+import org.crayne.mi.bytecode.communication.Value;
+import org.crayne.mi.bytecode.reader.ByteCodeInterpreter;
+import org.crayne.mi.bytecode.reader.ByteCodeProgram;
+import org.crayne.mi.bytecode.reader.ExecutionEngine;
+import org.crayne.mi.bytecode.writer.OptimizationLevel;
+import org.crayne.mi.stdlib.MiStandardLib;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// compiles small mi programs and runs them, for the tests comparing engines and optimization levels
+public final class MiTesting {
+
+    private MiTesting() {}
+
+    public static List<ByteCodeInstruction> compile(@NotNull final String code, @NotNull final OptimizationLevel optimization) {
+        final List<ByteCodeInstruction> compiled = new Mi(System.out, false).compile(MiStandardLib.standardLib(), code, optimization);
+        assertFalse(compiled.isEmpty(), "Could not compile the program, see the error output above");
+        return compiled;
+    }
+
+    public static ByteCodeProgram prepare(@NotNull final String code, @NotNull final OptimizationLevel optimization) {
+        return ByteCodeProgram.prepare(compile(code, optimization), new Mi(System.out, false).messageHandler());
+    }
+
+    public static MiCommunicator communicator(@NotNull final ByteCodeProgram program, @NotNull final ExecutionEngine engine) {
+        return program.newInterpreter(ByteCodeInterpreter.DEFAULT_MAX_CALL_DEPTH, engine).newCommunicator();
+    }
+
+    // the result of the function followed by everything it printed, or the message of what it failed with
+    public static String run(@NotNull final MiCommunicator communicator, @NotNull final String function, @NotNull final Object... args) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final PrintStream out = System.out;
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+        try {
+            final Optional<Value> result = communicator.invoke(function, args);
+            return result.map(value -> String.valueOf(value.value())).orElse("<none>") + "\n" + output.toString(StandardCharsets.UTF_8);
+        } catch (final RuntimeException e) {
+            return "failed: " + e.getMessage() + "\n" + output.toString(StandardCharsets.UTF_8);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    public static String run(@NotNull final ByteCodeProgram program, @NotNull final ExecutionEngine engine, @NotNull final String function, @NotNull final Object... args) {
+        return run(communicator(program, engine), function, args);
+    }
+
+}
@@ -0,0 +1,138 @@
+package org.crayne.mi.benchmark;
+
+import org.crayne.mi.Mi;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.communication.MiCommunicator;
+import org.crayne.mi.bytecode.reader.ByteCodeInterpreter;
+import org.crayne.mi.bytecode.reader.ByteCodeReader;
+import org.crayne.mi.bytecode.reader.ExecutionEngine;
+import org.crayne.mi.bytecode.writer.OptimizationLevel;
+import org.crayne.mi.log.MessageHandler;
+import org.crayne.mi.stdlib.MiStandardLib;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+// not a junit test, run the main method manually to compare the opcode decoding, loading and execution times
+public class DispatchBenchmark {
+
+    private static final String program = """
+            mod bench {
+
+                pub fn loop :: int (int n) {
+                    mut int sum = 0;
+                    for mut int i = 0, i < n, i++ {
+                        sum += i % 7;
+                    }
+                    return sum;
+                }
+
+                pub fn natives :: int (int n) {
+                    mut string s = "";
+                    for mut int i = 0, i < n, i++ {
+                        s = termion.color_reset();
+                    }
+                    return n;
+                }
+
+                pub fn fib :: int (int n) {
+                    if n < 2 { return n; }
+                    return fib(n - 1) + fib(n - 2);
+                }
+
+            }
+            """;
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    public static void main(@NotNull final String... args) {
+        final Mi mi = new Mi(System.out, false);
+        final MessageHandler messageHandler = mi.messageHandler();
+        final List<ByteCodeInstruction> instructions = mi.compile(MiStandardLib.standardLib(), program);
+        final String bytecode = String.join("", instructions.stream().map(b -> b.write()).toList());
+        final byte[] opcodes = new byte[instructions.size()];
+        for (int i = 0; i < opcodes.length; i++) opcodes[i] = instructions.get(i).codes()[0];
+
+        benchmark("opcode decode, linear scan (x1000)", () -> {
+            int found = 0;
+            for (int r = 0; r < 1000; r++) for (final byte b : opcodes) if (linearOf(b).isPresent()) found++;
+            return found;
+        });
+        benchmark("opcode decode, decode table (x1000)", () -> {
+            int found = 0;
+            for (int r = 0; r < 1000; r++) for (final byte b : opcodes) if (ByteCode.decode(b) != null) found++;
+            return found;
+        });
+        benchmark("load", () -> ByteCodeReader.read(bytecode, messageHandler).size());
+        final ByteBuffer buffer = ByteBuffer.wrap(bytecode.getBytes(StandardCharsets.ISO_8859_1));
+        benchmark("load, byte buffer", () -> ByteCodeReader.read(buffer, messageHandler).size());
+        benchmark("load, validated", () -> new ByteCodeReader(bytecode, messageHandler, true).read().size());
+
+        final MiCommunicator communicator = new ByteCodeInterpreter(ByteCodeReader.read(bytecode, messageHandler), messageHandler).newCommunicator();
+        benchmark("execute bench.loop(1000000)", () -> communicator.invoke("bench.loop", 1000000).orElseThrow());
+        benchmark("execute bench.natives(1000000)", () -> communicator.invoke("bench.natives", 1000000).orElseThrow());
+        benchmark("execute bench.fib(25)", () -> communicator.invoke("bench.fib", 25).orElseThrow());
+
+        final ByteCodeInterpreter registerInterpreter = new ByteCodeInterpreter(ByteCodeReader.read(bytecode, messageHandler), messageHandler);
+        registerInterpreter.engine(ExecutionEngine.REGISTER);
+        final MiCommunicator registers = registerInterpreter.newCommunicator();
+        benchmark("execute bench.loop(1000000), registers", () -> registers.invoke("bench.loop", 1000000).orElseThrow());
+        benchmark("execute bench.natives(1000000), registers", () -> registers.invoke("bench.natives", 1000000).orElseThrow());
+        benchmark("execute bench.fib(25), registers", () -> registers.invoke("bench.fib", 25).orElseThrow());
+
+        final ByteCodeInterpreter closureInterpreter = new ByteCodeInterpreter(ByteCodeReader.read(bytecode, messageHandler), messageHandler);
+        closureInterpreter.engine(ExecutionEngine.CLOSURE);
+        final MiCommunicator closures = closureInterpreter.newCommunicator();
+        benchmark("execute bench.loop(1000000), closures", () -> closures.invoke("bench.loop", 1000000).orElseThrow());
+        benchmark("execute bench.natives(1000000), closures", () -> closures.invoke("bench.natives", 1000000).orElseThrow());
+        benchmark("execute bench.fib(25), closures", () -> closures.invoke("bench.fib", 25).orElseThrow());
+
+        final ByteCodeInterpreter jitInterpreter = new ByteCodeInterpreter(ByteCodeReader.read(bytecode, messageHandler), messageHandler);
+        jitInterpreter.engine(ExecutionEngine.JIT);
+        final MiCommunicator jit = jitInterpreter.newCommunicator();
+        benchmark("execute bench.loop(1000000), jit", () -> jit.invoke("bench.loop", 1000000).orElseThrow());
+        benchmark("execute bench.natives(1000000), jit", () -> jit.invoke("bench.natives", 1000000).orElseThrow());
+        benchmark("execute bench.fib(25), jit", () -> jit.invoke("bench.fib", 25).orElseThrow());
+
+        final String ssaBytecode = String.join("", mi.compile(MiStandardLib.standardLib(), program, OptimizationLevel.SSA).stream().map(b -> b.write()).toList());
+        final MiCommunicator ssa = new ByteCodeInterpreter(ByteCodeReader.read(ssaBytecode, messageHandler), messageHandler).newCommunicator();
+        benchmark("execute bench.loop(1000000), ssa", () -> ssa.invoke("bench.loop", 1000000).orElseThrow());
+        benchmark("execute bench.natives(1000000), ssa", () -> ssa.invoke("bench.natives", 1000000).orElseThrow());
+        benchmark("execute bench.fib(25), ssa", () -> ssa.invoke("bench.fib", 25).orElseThrow());
+
+        final ByteCodeInterpreter ssaRegisterInterpreter = new ByteCodeInterpreter(ByteCodeReader.read(ssaBytecode, messageHandler), messageHandler);
+        ssaRegisterInterpreter.engine(ExecutionEngine.REGISTER);
+        final MiCommunicator ssaRegisters = ssaRegisterInterpreter.newCommunicator();
+        benchmark("execute bench.loop(1000000), ssa, registers", () -> ssaRegisters.invoke("bench.loop", 1000000).orElseThrow());
+        benchmark("execute bench.fib(25), ssa, registers", () -> ssaRegisters.invoke("bench.fib", 25).orElseThrow());
+    }
+
+    // the lookup ByteCode.of used before the decode table was introduced
+    private static Optional<ByteCode> linearOf(final byte code) {
+        return Arrays.stream(ByteCode.values()).filter(b -> b.code() == code).findFirst();
+    }
+
+    private static void benchmark(@NotNull final String name, @NotNull final Supplier<Object> task) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) task.get();
+
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        Object result = null;
+        for (int i = 0; i < ROUNDS; i++) {
+            final long begin = System.nanoTime();
+            result = task.get();
+            final long time = System.nanoTime() - begin;
+            best = Math.min(best, time);
+            total += time;
+        }
+        System.out.printf("%-44s best %10.3f ms, avg %10.3f ms (result %s)%n", name, best / 1e6, total / 1e6 / ROUNDS, result);
+    }
+
+}
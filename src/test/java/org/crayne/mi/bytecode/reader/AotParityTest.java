@@ -0,0 +1,64 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.Mi;
+import org.crayne.mi.MiTesting;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.writer.ByteCodeWriter;
+import org.crayne.mi.bytecode.writer.OptimizationLevel;
+import org.crayne.mi.log.MessageHandler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// the classes of a jar built by AotCompiler give the same results as the interpreter. they are loaded into the class loader
+// of mi, like they would be when the jar is on its class path (see AotProgram)
+class AotParityTest {
+
+    @Test
+    void compiledJarMatchesTheStackCode(@TempDir final File directory) throws Exception {
+        final MessageHandler messageHandler = new Mi(System.out, false).messageHandler();
+        final List<ByteCodeInstruction> compiled = MiTesting.compile(EngineParityTest.PROGRAM, OptimizationLevel.PEEPHOLE);
+        final ByteArrayOutputStream bytecode = new ByteArrayOutputStream();
+        try (final ByteCodeWriter writer = new ByteCodeWriter(bytecode)) {
+            writer.write(compiled, ByteCode.BYTECODE_VERSION);
+        }
+        final File jar = new File(directory, "parity.jar");
+        AotCompiler.compile(bytecode.toByteArray(), "parity.main", jar, messageHandler);
+        final String index = loadClasses(jar);
+
+        final ByteCodeProgram program = AotProgram.load(bytecode.toByteArray(), index, messageHandler);
+        final ByteCodeProgram reference = ByteCodeProgram.prepare(compiled, messageHandler);
+        for (final String[] call : EngineParityTest.CALLS) {
+            final int id = program.functionId(call[0], List.of(ByteDatatype.INT)).orElseThrow();
+            assertTrue(index.lines().anyMatch(line -> line.startsWith(id + " ")), call[0] + " was not compiled ahead of time");
+        }
+        assertEquals(EngineParityTest.runAll(MiTesting.communicator(reference, ExecutionEngine.STACK), 2),
+                EngineParityTest.runAll(MiTesting.communicator(program, ExecutionEngine.JIT), 2));
+        assertEquals(MiTesting.run(reference, ExecutionEngine.STACK, "parity.main"), MiTesting.run(program, ExecutionEngine.JIT, "parity.main"));
+    }
+
+    // defines the classes of the jar, returning its function index
+    private static String loadClasses(final File jar) throws IOException, IllegalAccessException {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try (final JarFile file = new JarFile(jar)) {
+            for (final JarEntry entry : file.stream().filter(e -> e.getName().endsWith(".class")).toList()) {
+                lookup.defineClass(file.getInputStream(entry).readAllBytes());
+            }
+            return new String(file.getInputStream(file.getEntry(AotCompiler.FUNCTIONS_RESOURCE)).readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
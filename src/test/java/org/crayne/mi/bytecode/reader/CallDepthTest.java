@@ -0,0 +1,55 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.MiTesting;
+import org.crayne.mi.bytecode.communication.MiCommunicator;
+import org.crayne.mi.bytecode.writer.OptimizationLevel;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// every engine reaches the same call depth, no matter how small the jvm stack of the calling thread is
+class CallDepthTest {
+
+    private static final String PROGRAM = """
+            mod r {
+                fn rec :: int (int n) {
+                    if n < 1 { return 0; }
+                    return rec(n - 1) + 1;
+                }
+                pub fn deep :: int (int n) {
+                    return rec(n);
+                }
+            }
+            """;
+
+    private static final ExecutionEngine[] ENGINES = ExecutionEngine.values();
+
+    private static final int SMALL_STACK = 256 * 1024;
+
+    @Test
+    void deepRecursionOnEveryEngine() throws InterruptedException {
+        final ByteCodeProgram program = MiTesting.prepare(PROGRAM, OptimizationLevel.PEEPHOLE);
+        for (final ExecutionEngine engine : ENGINES) {
+            final MiCommunicator communicator = MiTesting.communicator(program, engine);
+            // warm up, so that the jit has compiled the function by now
+            for (int i = 0; i < Jit.HOT_INVOCATIONS + 1; i++) MiTesting.run(communicator, "r.deep", 3);
+
+            assertEquals("9000\n", onSmallStack(communicator, 9000), engine.name());
+            assertEquals("9990\n", onSmallStack(communicator, 9990), engine.name());
+            assertEquals("failed: Stack overflow: exceeded the maximum call depth of " + ByteCodeInterpreter.DEFAULT_MAX_CALL_DEPTH + "\n",
+                    onSmallStack(communicator, ByteCodeInterpreter.DEFAULT_MAX_CALL_DEPTH), engine.name());
+        }
+    }
+
+    private static String onSmallStack(final MiCommunicator communicator, final int depth) throws InterruptedException {
+        final ByteCodeInterpreter interpreter = communicator.runtime();
+        final AtomicReference<String> result = new AtomicReference<>();
+        final Thread thread = new Thread(null, () -> result.set(MiTesting.run(interpreter.newCommunicator(), "r.deep", depth)), "small stack", SMALL_STACK);
+        thread.start();
+        thread.join();
+        return result.get();
+    }
+
+}
@@ -0,0 +1,145 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.MiTesting;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.communication.MiCommunicator;
+import org.crayne.mi.bytecode.writer.OptimizationLevel;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+// every engine gives the same results and prints the same as the stack code, which stays the reference
+class EngineParityTest {
+
+    static final String PROGRAM = """
+            mod parity {
+                mut int counter = 0;
+                mut long total = 0L;
+                int LIMIT = 4 * 5;
+
+                fn fib :: int (int n) {
+                    if n < 2 { return n; }
+                    return fib(n - 1) + fib(n - 2);
+                }
+                fn even :: bool (int n) {
+                    if n == 0 { return true; }
+                    return odd(n - 1);
+                }
+                fn odd :: bool (int n) {
+                    if n == 0 { return false; }
+                    return even(n - 1);
+                }
+                fn depth :: int (int n) {
+                    if n == 0 { return 0; }
+                    return depth(n - 1) + 1;
+                }
+                fn bump :: int (int by) {
+                    counter += by;
+                    return counter;
+                }
+
+                pub fn loops :: int (int n) {
+                    mut int sum = 0;
+                    mut int j = n;
+                    for mut int i = 0, i < n, i++ {
+                        if i == 3 { continue; }
+                        sum += i % 7;
+                    }
+                    while j > 0 && sum < 100000 {
+                        sum += j;
+                        j -= 2;
+                    }
+                    return sum;
+                }
+
+                pub fn recursion :: string (int n) {
+                    return fib(n) + " " + string even(n) + " " + string odd(n);
+                }
+
+                pub fn deep :: int (int n) {
+                    return depth(n);
+                }
+
+                pub fn globals :: string (int n) {
+                    for mut int i = 0, i < n, i++ {
+                        if bump(i) > LIMIT { total += 3L; }
+                        total++;
+                    }
+                    return counter + " " + total;
+                }
+
+                pub fn casts :: string (int n) {
+                    double d = n;
+                    long l = n * 1000000000L;
+                    float f = 'a';
+                    return "" + (d / 4) + " " + l + " " + f + " " + int 3.9 + " " + long n + " " + char (n + 60) + " " + int "123" + " " + double n / 3;
+                }
+
+                pub fn strings :: string (int n) {
+                    mut string s = "";
+                    for mut int i = 0, i < n, i++ {
+                        s = s + i + (i % 2 == 0 ? "e" : "o") + ";";
+                    }
+                    return s + " " + 1.5 + " " + 'c' + " " + 7L + " " + string true;
+                }
+
+                pub fn natives :: int (int n) {
+                    std.println(termion.color_fg(1, 2, 3) + "colored" + termion.color_reset());
+                    for mut int i = 0, i < n, i++ {
+                        std.print(i);
+                        std.print(" ");
+                    }
+                    std.println(1.25);
+                    return n;
+                }
+
+                pub fn failure :: int (int n) {
+                    return n / (n - n);
+                }
+
+                pub fn main {
+                    std.println(loops(100) + " " + recursion(10) + " " + globals(3));
+                    natives(2);
+                }
+            }
+            """;
+
+    static final String[][] CALLS = {
+            {"parity.loops", "0"}, {"parity.loops", "10"}, {"parity.loops", "2500"},
+            {"parity.recursion", "0"}, {"parity.recursion", "15"}, {"parity.deep", "9000"},
+            {"parity.globals", "5"}, {"parity.globals", "30"},
+            {"parity.casts", "7"}, {"parity.casts", "-3"},
+            {"parity.strings", "0"}, {"parity.strings", "6"},
+            {"parity.natives", "4"},
+            {"parity.failure", "2"}
+    };
+
+    private static final ExecutionEngine[] ENGINES = {ExecutionEngine.REGISTER, ExecutionEngine.CLOSURE, ExecutionEngine.JIT};
+
+    // often enough for every function to be compiled by the jit halfway through
+    static final int ROUNDS = Jit.HOT_INVOCATIONS + 1;
+
+    @Test
+    void enginesMatchTheStackCode() {
+        final ByteCodeProgram program = MiTesting.prepare(PROGRAM, OptimizationLevel.PEEPHOLE);
+        final String expected = runAll(MiTesting.communicator(program, ExecutionEngine.STACK), ROUNDS);
+        for (final ExecutionEngine engine : ENGINES) assertEquals(expected, runAll(MiTesting.communicator(program, engine), ROUNDS), engine.name());
+        for (final String[] call : CALLS) {
+            final int id = program.functionId(call[0], List.of(ByteDatatype.INT)).orElseThrow();
+            assertNotNull(program.jit().enter(id), call[0] + " was not compiled by the jit");
+        }
+    }
+
+    // every call in order on the same interpreter, so changed globals carry over into the next calls and rounds
+    static String runAll(final MiCommunicator communicator, final int rounds) {
+        final StringBuilder result = new StringBuilder();
+        for (int round = 0; round < rounds; round++) {
+            for (final String[] call : CALLS) result.append(call[0]).append('(').append(call[1]).append(") = ").append(MiTesting.run(communicator, call[0], Integer.parseInt(call[1])));
+        }
+        return result.toString();
+    }
+
+}
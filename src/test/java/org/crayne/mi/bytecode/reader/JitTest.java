@@ -0,0 +1,53 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.MiTesting;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.communication.MiCommunicator;
+import org.crayne.mi.bytecode.writer.OptimizationLevel;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class JitTest {
+
+    // the unused results of the calls to text pile up in the loop of rejected, which therefore has no register code the jit could compile
+    private static final String PROGRAM = """
+            mod j {
+                fn text :: string (int n) {
+                    return "n" + n;
+                }
+                pub fn rejected :: int (int n) {
+                    for mut int i = 0, i < 2, i++ {
+                        text(i);
+                    }
+                    return n;
+                }
+                pub fn compiled :: int (int n) {
+                    return n * 2;
+                }
+            }
+            """;
+
+    private static final int CALLS = 3 * Jit.HOT_INVOCATIONS;
+
+    @Test
+    void functionsAreNotCountedAfterTheDecision() {
+        final ByteCodeProgram program = MiTesting.prepare(PROGRAM, OptimizationLevel.PEEPHOLE);
+        final MiCommunicator communicator = MiTesting.communicator(program, ExecutionEngine.JIT);
+        for (int i = 0; i < CALLS; i++) {
+            assertEquals(i + "\n", MiTesting.run(communicator, "j.rejected", i));
+            assertEquals(i * 2 + "\n", MiTesting.run(communicator, "j.compiled", i));
+        }
+        final int rejected = program.functionId("j.rejected", List.of(ByteDatatype.INT)).orElseThrow();
+        final int compiled = program.functionId("j.compiled", List.of(ByteDatatype.INT)).orElseThrow();
+        assertNull(program.jit().enter(rejected));
+        assertNotNull(program.jit().enter(compiled));
+        assertEquals(Jit.HOT_INVOCATIONS, program.internFunction(rejected).orElseThrow().invocations());
+        assertEquals(Jit.HOT_INVOCATIONS, program.internFunction(compiled).orElseThrow().invocations());
+    }
+
+}
@@ -0,0 +1,66 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.MiTesting;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.reader.ByteCodeProgram;
+import org.crayne.mi.bytecode.reader.ExecutionEngine;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ByteCodeCompilerTest {
+
+    private static final String PROGRAM = """
+            mod c {
+                pub fn compound :: string (int n) {
+                    mut int sum = 0;
+                    mut long l = 1L;
+                    mut double d = 0.5;
+                    mut float f = 1.5f;
+                    mut string s = "";
+                    for mut int i = 1, i < n, i++ {
+                        sum += i % 7;
+                        sum -= 1;
+                        sum *= 3;
+                        sum /= 2;
+                        sum %= 1000;
+                        l += i;
+                        l *= 3;
+                        d += i;
+                        d /= 2;
+                        f -= i;
+                        s += i;
+                    }
+                    return sum + " " + l + " " + d + " " + f + " " + s;
+                }
+            }
+            """;
+
+    @Test
+    void compoundAssignmentsUseTypedOperators() {
+        final List<String> body = SsaOptimizerTest.body(PROGRAM, OptimizationLevel.NONE, "c.compound");
+        for (final ByteCode operator : ByteCode.typedOperators) assertEquals(0, SsaOptimizerTest.count(body, operator.name()), operator.name());
+        assertEquals(List.of("INT_LESS_THAN", "INT_MODULO", "INT_PLUS", "INT_MINUS", "INT_MULTIPLY", "INT_DIVIDE", "INT_MODULO", "LONG_PLUS", "LONG_MULTIPLY",
+                "DOUBLE_PLUS", "DOUBLE_DIVIDE", "FLOAT_MINUS", "STRING_CONCAT"), body.subList(0, body.indexOf(body.stream()
+                .filter(instr -> instr.startsWith("inc_variable")).findFirst().orElseThrow())).stream()
+                .map(instr -> instr.split(" ")[0].toUpperCase())
+                .filter(opcode -> ByteCode.typedOperator(ByteCode.valueOf(opcode)))
+                .toList());
+    }
+
+    @Test
+    void compoundAssignmentsGiveTheSameResults() {
+        final ByteCodeProgram program = MiTesting.prepare(PROGRAM, OptimizationLevel.NONE);
+        final String expected = MiTesting.run(program, ExecutionEngine.STACK, "c.compound", 12);
+        // what the generic operators gave
+        assertEquals("298 575709 10.000732421875 -64.5 1234567891011\n", expected);
+        for (final ExecutionEngine engine : ExecutionEngine.values()) {
+            for (final OptimizationLevel optimization : OptimizationLevel.values()) {
+                assertEquals(expected, MiTesting.run(MiTesting.prepare(PROGRAM, optimization), engine, "c.compound", 12), engine + " " + optimization);
+            }
+        }
+    }
+
+}
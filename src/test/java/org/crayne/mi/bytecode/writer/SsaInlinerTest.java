@@ -0,0 +1,138 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.Mi;
+import org.crayne.mi.MiTesting;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.reader.ByteCodeProgram;
+import org.crayne.mi.bytecode.reader.ExecutionEngine;
+import org.crayne.mi.stdlib.MiStandardLib;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// which calls SsaInliner inlines, as reported when compiling, and that the inlined code gives the same results
+class SsaInlinerTest {
+
+    // big is too large to be inlined, and medium is called more often by many than the budget of a caller allows
+    private static final String PROGRAM = """
+            mod v {
+                fn sq :: int (int n) {
+                    return n * n;
+                }
+                fn both :: int (int a, int b) {
+                    return sq(a) + sq(b);
+                }
+                fn big :: int (int n) {
+                    int a = n * 3 + 1;
+                    int b = a * a - n;
+                    int c = b % 7 + a / 2;
+                    int d = c * b - a + n;
+                    return a + b + c + d;
+                }
+                fn medium :: int (int n) {
+                    int a = n * 3 + 1;
+                    int b = a * a - n;
+                    return a + b;
+                }
+                fn fact :: int (int n) {
+                    if n < 2 { return 1; }
+                    return n * fact(n - 1);
+                }
+                fn even :: bool (int n) {
+                    if n == 0 { return true; }
+                    return odd(n - 1);
+                }
+                fn odd :: bool (int n) {
+                    if n == 0 { return false; }
+                    return even(n - 1);
+                }
+
+                pub fn small :: int (int n) {
+                    return both(n, 2) + sq(n + 1) + big(n);
+                }
+                pub fn recursive :: int (int n) {
+                    return fact(n) + (even(n) ? 1 : 0);
+                }
+                pub fn many :: int (int n) {
+                    return medium(n) + medium(n + 1) + medium(n + 2) + medium(n + 3) + medium(n + 4) + medium(n + 5)
+                        + medium(n + 6) + medium(n + 7) + medium(n + 8) + medium(n + 9) + medium(n + 10) + medium(n + 11);
+                }
+            }
+            """;
+
+    private static final Object[][] CALLS = {{"v.small", 3}, {"v.small", -5}, {"v.recursive", 6}, {"v.recursive", 7}, {"v.many", 4}};
+
+    @Test
+    void reportsTheInlinedCalls(@TempDir final File directory) {
+        assertEquals(List.of(
+                "Inlined into v.both: v.sq (2 calls)",
+                "Inlined into v.small: v.both, v.sq (3 calls)",
+                "Inlined into v.many: v.medium (" + SsaInliner.CALLER_BUDGET / size("v.medium") + " calls)"
+        ), report(directory));
+    }
+
+    @Test
+    void inliningKeepsTheResults() {
+        final String expected = runAll(MiTesting.prepare(PROGRAM, OptimizationLevel.NONE), ExecutionEngine.STACK);
+        final ByteCodeProgram optimized = MiTesting.prepare(PROGRAM, OptimizationLevel.SSA);
+        for (final ExecutionEngine engine : ExecutionEngine.values()) assertEquals(expected, runAll(optimized, engine), engine.name());
+    }
+
+    @Test
+    void calleesOverTheirBudgetAreCalled() {
+        assertTrue(size("v.big") > SsaInliner.CALLEE_BUDGET);
+        assertTrue(size("v.sq") <= SsaInliner.CALLEE_BUDGET && size("v.both") <= SsaInliner.CALLEE_BUDGET);
+        assertEquals(1, calls("v.small"));
+    }
+
+    @Test
+    void callersStopInliningAtTheirBudget() {
+        final int inlined = SsaInliner.CALLER_BUDGET / size("v.medium");
+        assertTrue(inlined < 12);
+        assertEquals(12 - inlined, calls("v.many"));
+    }
+
+    @Test
+    void recursiveFunctionsAreNeverInlined() {
+        for (final String function : List.of("v.fact", "v.even", "v.odd")) assertTrue(size(function) <= SsaInliner.CALLEE_BUDGET, function);
+        assertEquals(2, calls("v.recursive"));
+        assertEquals(1, calls("v.fact"));
+        assertEquals(1, calls("v.even"));
+        assertEquals(1, calls("v.odd"));
+    }
+
+    private static String runAll(final ByteCodeProgram program, final ExecutionEngine engine) {
+        final StringBuilder result = new StringBuilder();
+        for (final Object[] call : CALLS) result.append(MiTesting.run(program, engine, (String) call[0], call[1]));
+        return result.toString();
+    }
+
+    // the calls left in the function at OptimizationLevel.SSA
+    private static int calls(final String function) {
+        return SsaOptimizerTest.count(SsaOptimizerTest.body(PROGRAM, OptimizationLevel.SSA, function), "FUNCTION_CALL");
+    }
+
+    // the size SsaInliner sees, which is that of the unoptimized code
+    private static int size(final String function) {
+        return SsaOptimizerTest.body(PROGRAM, OptimizationLevel.NONE, function).size();
+    }
+
+    // the lines compiling the program at OptimizationLevel.SSA reports about inlining, without the color reset every message ends with
+    private static List<String> report(final File directory) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Mi mi = new Mi(new PrintStream(output, true, StandardCharsets.UTF_8), false);
+        mi.compile(MiStandardLib.standardLib(), PROGRAM, new File(directory, "inline.mib"), new File(directory, "inline.mi"), ByteCode.BYTECODE_VERSION, OptimizationLevel.SSA);
+        return output.toString(StandardCharsets.UTF_8).lines().filter(line -> line.contains("Inlined into"))
+                .map(line -> line.substring(line.indexOf("Inlined into")).replace("\u001B[0m", ""))
+                .toList();
+    }
+
+}
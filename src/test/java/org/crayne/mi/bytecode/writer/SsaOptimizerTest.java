@@ -0,0 +1,183 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.MiTesting;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.communication.MiCommunicator;
+import org.crayne.mi.bytecode.reader.ByteCodeProgram;
+import org.crayne.mi.bytecode.reader.ExecutionEngine;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// the ssa optimizations give the same results as the unoptimized code, and they actually happen
+class SsaOptimizerTest {
+
+    // touch is inlined into globals, which therefore stores g in its loop, so the loads of g in there must stay in the loop.
+    // the break in fallback leaves half defined on one path out of its loop only, which the ssa form does not cover
+    private static final String PROGRAM = """
+            mod s {
+                mut int g = 0;
+                mut int h = 0;
+
+                fn touch :: int (int n) {
+                    g += n;
+                    return g;
+                }
+
+                pub fn cse :: int (int a, int b) {
+                    int x = a * b + 3;
+                    int y = a * b + 3;
+                    return x * 2 - y;
+                }
+                pub fn licm :: int (int n, int k) {
+                    mut int sum = 0;
+                    for mut int i = 0, i < n, i++ {
+                        sum += k * k + 7;
+                    }
+                    return sum;
+                }
+                pub fn globals :: int (int n) {
+                    g = 1;
+                    mut int sum = 0;
+                    for mut int i = 0, i < n, i++ {
+                        int t = touch(i);
+                        sum += g * 3 + t;
+                    }
+                    return sum;
+                }
+                pub fn deadStores :: int (int n) {
+                    int twice = n * 2;
+                    int thrice = n * 3;
+                    h = n;
+                    h = twice;
+                    h = thrice;
+                    return h;
+                }
+                pub fn copies :: int (int n) {
+                    int a = n;
+                    int b = a;
+                    int c = b;
+                    return c + b * a;
+                }
+                pub fn fallback :: int (int n) {
+                    mut int i = 0;
+                    while i < n {
+                        int half = i / 2;
+                        if half > 3 { break; }
+                        i++;
+                    }
+                    int after = i * 10;
+                    return after + n;
+                }
+            }
+            """;
+
+    private static final Object[][] CALLS = {
+            {"s.cse", 3, 4}, {"s.cse", -7, 0},
+            {"s.licm", 0, 5}, {"s.licm", 10, 3},
+            {"s.globals", 0}, {"s.globals", 5}, {"s.globals", 40},
+            {"s.deadStores", 5}, {"s.deadStores", -2},
+            {"s.copies", 6},
+            {"s.fallback", 20}, {"s.fallback", 9}
+    };
+
+    @Test
+    void optimizedCodeGivesTheSameResults() {
+        final String expected = runAll(MiTesting.communicator(MiTesting.prepare(PROGRAM, OptimizationLevel.NONE), ExecutionEngine.STACK));
+        final ByteCodeProgram optimized = MiTesting.prepare(PROGRAM, OptimizationLevel.SSA);
+        for (final ExecutionEngine engine : ExecutionEngine.values()) assertEquals(expected, runAll(MiTesting.communicator(optimized, engine)), engine.name());
+    }
+
+    @Test
+    void commonSubexpressionsAreComputedOnce() {
+        assertEquals(3, count(body(OptimizationLevel.NONE, "s.cse"), "INT_MULTIPLY"));
+        assertEquals(2, count(body(OptimizationLevel.SSA, "s.cse"), "INT_MULTIPLY"));
+        assertEquals(1, count(body(OptimizationLevel.SSA, "s.cse"), "INT_PLUS"));
+    }
+
+    @Test
+    void loopInvariantCodeIsComputedBeforeTheLoop() {
+        assertTrue(first(body(OptimizationLevel.NONE, "s.licm"), "INT_MULTIPLY") > first(body(OptimizationLevel.NONE, "s.licm"), "JUMP_IF"));
+        assertTrue(first(body(OptimizationLevel.SSA, "s.licm"), "INT_MULTIPLY") < first(body(OptimizationLevel.SSA, "s.licm"), "JUMP_IF"));
+    }
+
+    @Test
+    void globalsStoredInTheLoopAreReadInIt() {
+        final List<String> code = body(OptimizationLevel.SSA, "s.globals");
+        assertEquals(0, count(code, "FUNCTION_CALL"), "touch was not inlined");
+        assertTrue(first(code, "VALUE_AT_ADDRESS") > first(code, "JUMP_IF"));
+    }
+
+    @Test
+    void deadStoresAreRemoved() {
+        assertEquals(3, globalStores(body(OptimizationLevel.NONE, "s.deadStores")));
+        assertEquals(1, globalStores(body(OptimizationLevel.SSA, "s.deadStores")));
+        assertEquals(1, count(body(OptimizationLevel.SSA, "s.deadStores"), "INT_MULTIPLY"));
+    }
+
+    @Test
+    void copiesArePropagated() {
+        assertEquals(4, count(body(OptimizationLevel.NONE, "s.copies"), "DEFINE_VARIABLE"));
+        assertEquals(1, count(body(OptimizationLevel.SSA, "s.copies"), "DEFINE_VARIABLE"));
+    }
+
+    @Test
+    void unoptimizableFunctionsKeepTheirCode() {
+        assertEquals(body(OptimizationLevel.PEEPHOLE, "s.fallback"), body(OptimizationLevel.SSA, "s.fallback"));
+    }
+
+    private static String runAll(final MiCommunicator communicator) {
+        final StringBuilder result = new StringBuilder();
+        for (final Object[] call : CALLS) result.append(MiTesting.run(communicator, (String) call[0], List.of(call).subList(1, call.length).toArray()));
+        return result.toString();
+    }
+
+    private static List<String> body(final OptimizationLevel optimization, final String name) {
+        return body(PROGRAM, optimization, name);
+    }
+
+    // the instructions of the function with the given name, with the jumps in it relative to its definition begin
+    static List<String> body(final String code, final OptimizationLevel optimization, final String name) {
+        final List<ByteCodeInstruction> program = MiTesting.compile(code, optimization);
+        for (int begin = 0; begin < program.size(); begin++) {
+            final ByteCodeInstruction instr = program.get(begin);
+            if (instr.opcode() != ByteCode.FUNCTION_DEFINITION_BEGIN.code() || !SsaOptimizer.signature(instr).startsWith("!PARENT." + name + "[")) continue;
+            final List<String> body = new ArrayList<>();
+            for (int i = begin + 1; program.get(i).opcode() != ByteCode.FUNCTION_DEFINITION_END.code(); i++) {
+                final ByteCodeInstruction next = program.get(i);
+                final String opcode = ByteCode.decode(next.opcode()).name();
+                body.add(opcode.startsWith("JUMP") ? opcode + " " + (SsaBuilder.target(next) - begin) : next.toString());
+            }
+            return body;
+        }
+        throw new IllegalArgumentException("No function " + name);
+    }
+
+    static int count(final List<String> body, final String opcode) {
+        return (int) body.stream().filter(instr -> opcode(instr).equals(opcode)).count();
+    }
+
+    private static int first(final List<String> body, final String opcode) {
+        for (int i = 0; i < body.size(); i++) if (opcode(body.get(i)).startsWith(opcode)) return i;
+        throw new IllegalArgumentException("No " + opcode);
+    }
+
+    // stores to an absolute address, which locals get from relative_to_absolute_address right before
+    private static int globalStores(final List<String> body) {
+        int stores = 0;
+        for (int i = 1; i < body.size(); i++) {
+            if (opcode(body.get(i)).equals("MUTATE_VARIABLE") && !opcode(body.get(i - 1)).equals("RELATIVE_TO_ABSOLUTE_ADDRESS")) stores++;
+        }
+        return stores;
+    }
+
+    private static String opcode(final String instr) {
+        return instr.split(" ")[0].toUpperCase();
+    }
+
+}